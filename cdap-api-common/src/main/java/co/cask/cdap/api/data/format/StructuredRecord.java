@@ -30,10 +30,10 @@ import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TimeZone;
@@ -41,23 +41,25 @@ import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
- * Instance of a record structured by a {@link Schema}. Fields are accessible by name.
+ * Instance of a record structured by a {@link Schema}. Fields are accessible by name, or by their position in the
+ * schema, which avoids looking up the field name.
  */
 @Beta
 public class StructuredRecord implements Serializable {
   private static final SimpleDateFormat DEFAULT_FORMAT = new SimpleDateFormat("YYYY-MM-DD'T'HH:mm:ss z");
   private final Schema schema;
-  private final Map<String, Object> fields;
+  // field values in the order of the schema fields
+  private final Object[] values;
 
-  private static final long serialVersionUID = -6547770456592865613L;
+  private static final long serialVersionUID = 4280380497431578146L;
 
   {
     DEFAULT_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
   }
 
-  private StructuredRecord(Schema schema, Map<String, Object> fields) {
+  private StructuredRecord(Schema schema, Object[] values) {
     this.schema = schema;
-    this.fields = fields;
+    this.values = values;
   }
 
   /**
@@ -79,7 +81,22 @@ public class StructuredRecord implements Serializable {
   @SuppressWarnings("unchecked")
   @Nullable
   public <T> T get(String fieldName) {
-    return (T) fields.get(fieldName);
+    int index = schema.getFieldIndex(fieldName);
+    return index < 0 ? null : (T) values[index];
+  }
+
+  /**
+   * Get the value of a field in the record by the position of the field in the schema.
+   *
+   * @param fieldIndex position of the field to get.
+   * @param <T> type of object of the field value.
+   * @return value of the field.
+   * @throws IndexOutOfBoundsException if there is no field at the given position.
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  public <T> T get(int fieldIndex) {
+    return (T) values[fieldIndex];
   }
 
   /**
@@ -92,7 +109,7 @@ public class StructuredRecord implements Serializable {
   @Nullable
   public LocalDate getDate(String fieldName) {
     LogicalType logicalType = validateAndGetLogicalType(schema.getField(fieldName), EnumSet.of(LogicalType.DATE));
-    Integer value = (Integer) fields.get(fieldName);
+    Integer value = get(fieldName);
     return (value == null || logicalType == null) ? null : LocalDate.ofEpochDay(value.longValue());
   }
 
@@ -109,7 +126,7 @@ public class StructuredRecord implements Serializable {
   public LocalTime getTime(String fieldName) {
     LogicalType logicalType = validateAndGetLogicalType(schema.getField(fieldName),
                                                         EnumSet.of(LogicalType.TIME_MILLIS, LogicalType.TIME_MICROS));
-    Object value = fields.get(fieldName);
+    Object value = get(fieldName);
     if (value == null || logicalType == null) {
       return null;
     }
@@ -152,7 +169,7 @@ public class StructuredRecord implements Serializable {
     LogicalType logicalType = validateAndGetLogicalType(schema.getField(fieldName),
                                                         EnumSet.of(LogicalType.TIMESTAMP_MILLIS,
                                                                    LogicalType.TIMESTAMP_MICROS));
-    Object value = fields.get(fieldName);
+    Object value = get(fieldName);
     if (value == null || logicalType == null) {
       return null;
     }
@@ -259,11 +276,14 @@ public class StructuredRecord implements Serializable {
    */
   public static class Builder {
     private final Schema schema;
-    private Map<String, Object> fields;
+    private final Object[] values;
+    // whether each field has been set
+    private final boolean[] valueSet;
 
     private Builder(Schema schema) {
       this.schema = schema;
-      this.fields = new HashMap<>();
+      this.values = new Object[schema.getFields().size()];
+      this.valueSet = new boolean[values.length];
     }
 
     /**
@@ -276,8 +296,25 @@ public class StructuredRecord implements Serializable {
      *                                   value is given
      */
     public Builder set(String fieldName, @Nullable Object value) {
-      validateAndGetField(fieldName, value);
-      fields.put(fieldName, value);
+      return set(validateAndGetIndex(fieldName, value), value);
+    }
+
+    /**
+     * Set the field at the given position in the schema to the given value.
+     *
+     * @param fieldIndex position of the field to set
+     * @param value value for the field
+     * @return this builder
+     * @throws IndexOutOfBoundsException if there is no field at the given position
+     * @throws UnexpectedFormatException if the field is not nullable but a null value is given
+     */
+    public Builder set(int fieldIndex, @Nullable Object value) {
+      if (value == null) {
+        Schema.Field field = schema.getFields().get(fieldIndex);
+        validateNullable(field.getName(), field.getSchema());
+      }
+      values[fieldIndex] = value;
+      valueSet[fieldIndex] = true;
       return this;
     }
 
@@ -293,11 +330,11 @@ public class StructuredRecord implements Serializable {
     public Builder setDate(String fieldName, @Nullable LocalDate localDate) {
       validateAndGetLogicalType(validateAndGetField(fieldName, localDate), EnumSet.of(LogicalType.DATE));
       if (localDate == null) {
-        fields.put(fieldName, null);
+        put(fieldName, null);
         return this;
       }
       try {
-        fields.put(fieldName, Math.toIntExact(localDate.toEpochDay()));
+        put(fieldName, Math.toIntExact(localDate.toEpochDay()));
       } catch (ArithmeticException e) {
         // Highest integer is 2,147,483,647 which is Jan 1 2038.
         throw new UnexpectedFormatException(String.format("Field %s was set to a date that is too large." +
@@ -320,7 +357,7 @@ public class StructuredRecord implements Serializable {
                                                           EnumSet.of(LogicalType.TIME_MILLIS, LogicalType.TIME_MICROS));
 
       if (localTime == null) {
-        fields.put(fieldName, null);
+        put(fieldName, null);
         return this;
       }
 
@@ -329,7 +366,7 @@ public class StructuredRecord implements Serializable {
       if (logicalType == LogicalType.TIME_MILLIS) {
         try {
           int millis = Math.toIntExact(TimeUnit.NANOSECONDS.toMillis(nanos));
-          fields.put(fieldName, millis);
+          put(fieldName, millis);
         } catch (ArithmeticException e) {
           throw new UnexpectedFormatException(String.format("Field %s was set to a time that is too large.",
                                                             fieldName));
@@ -338,7 +375,7 @@ public class StructuredRecord implements Serializable {
       }
 
       long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
-      fields.put(fieldName, micros);
+      put(fieldName, micros);
       return this;
     }
 
@@ -358,7 +395,7 @@ public class StructuredRecord implements Serializable {
                                                                      LogicalType.TIMESTAMP_MICROS));
 
       if (zonedDateTime == null) {
-        fields.put(fieldName, null);
+        put(fieldName, null);
         return this;
       }
 
@@ -367,13 +404,13 @@ public class StructuredRecord implements Serializable {
         if (logicalType == LogicalType.TIMESTAMP_MILLIS) {
           long millis = TimeUnit.SECONDS.toMillis(instant.getEpochSecond());
           long tsMillis = Math.addExact(millis, TimeUnit.NANOSECONDS.toMillis(instant.getNano()));
-          fields.put(fieldName, tsMillis);
+          put(fieldName, tsMillis);
           return this;
         }
 
         long micros = TimeUnit.SECONDS.toMicros(instant.getEpochSecond());
         long tsMicros = Math.addExact(micros, TimeUnit.NANOSECONDS.toMicros(instant.getNano()));
-        fields.put(fieldName, tsMicros);
+        put(fieldName, tsMicros);
         return this;
       } catch (ArithmeticException e) {
         throw new UnexpectedFormatException(String.format("Field %s was set to a timestamp that is too large.",
@@ -420,16 +457,16 @@ public class StructuredRecord implements Serializable {
       Schema.Field field = validateAndGetField(fieldName, date);
       boolean isNullable = field.getSchema().isNullable();
       if (isNullable && date == null) {
-        fields.put(fieldName, null);
+        put(fieldName, null);
         return this;
       }
 
       Schema.Type fieldType = isNullable ? field.getSchema().getNonNullable().getType() : field.getSchema().getType();
       if (fieldType == Schema.Type.LONG) {
-        fields.put(fieldName, date.getTime());
+        put(fieldName, date.getTime());
       } else if (fieldType == Schema.Type.STRING) {
         DateFormat format = dateFormat == null ? DEFAULT_FORMAT : dateFormat;
-        fields.put(fieldName, format.format(date));
+        put(fieldName, format.format(date));
       } else {
         throw new UnexpectedFormatException("Date must be either a long or a string, not a " + fieldType);
       }
@@ -448,7 +485,7 @@ public class StructuredRecord implements Serializable {
      */
     public Builder convertAndSet(String fieldName, @Nullable String strVal) throws UnexpectedFormatException {
       Schema.Field field = validateAndGetField(fieldName, strVal);
-      fields.put(fieldName, convertString(field.getSchema(), strVal));
+      put(fieldName, convertString(field.getSchema(), strVal));
       return this;
     }
 
@@ -460,19 +497,15 @@ public class StructuredRecord implements Serializable {
      */
     public StructuredRecord build() throws UnexpectedFormatException {
       // check that all non-nullable fields have a value.
-      for (Schema.Field field : schema.getFields()) {
-        String fieldName = field.getName();
-        if (!fields.containsKey(fieldName)) {
-          // if the field is not nullable and there is no value set for the field, this is invalid.
-          if (!field.getSchema().isNullable()) {
-            throw new UnexpectedFormatException("Field " + fieldName + " must contain a value.");
-          } else {
-            // otherwise, set the value for the field to null
-            fields.put(fieldName, null);
-          }
+      List<Schema.Field> fields = schema.getFields();
+      for (int i = 0; i < valueSet.length; i++) {
+        // if the field is not nullable and there is no value set for the field, this is invalid.
+        // otherwise, the value of the field stays null
+        if (!valueSet[i] && !fields.get(i).getSchema().isNullable()) {
+          throw new UnexpectedFormatException("Field " + fields.get(i).getName() + " must contain a value.");
         }
       }
-      return new StructuredRecord(schema, fields);
+      return new StructuredRecord(schema, values);
     }
 
     private Object convertString(Schema schema, String strVal) throws UnexpectedFormatException {
@@ -514,27 +547,40 @@ public class StructuredRecord implements Serializable {
       }
     }
 
+    private void put(String fieldName, @Nullable Object value) {
+      int index = schema.getFieldIndex(fieldName);
+      values[index] = value;
+      valueSet[index] = true;
+    }
+
     private Schema.Field validateAndGetField(String fieldName, Object val) {
-      Schema.Field field = schema.getField(fieldName);
-      if (field == null) {
+      return schema.getFields().get(validateAndGetIndex(fieldName, val));
+    }
+
+    private int validateAndGetIndex(String fieldName, Object val) {
+      int index = schema.getFieldIndex(fieldName);
+      if (index < 0) {
         throw new UnexpectedFormatException("field " + fieldName + " is not in the schema.");
       }
-      Schema fieldSchema = field.getSchema();
       if (val == null) {
-        if (fieldSchema.getType() == Schema.Type.NULL) {
-          return field;
-        }
-        if (fieldSchema.getType() != Schema.Type.UNION) {
-          throw new UnexpectedFormatException("field " + fieldName + " cannot be set to a null value.");
-        }
-        for (Schema unionSchema : fieldSchema.getUnionSchemas()) {
-          if (unionSchema.getType() == Schema.Type.NULL) {
-            return field;
-          }
-        }
+        validateNullable(fieldName, schema.getFields().get(index).getSchema());
+      }
+      return index;
+    }
+
+    private void validateNullable(String fieldName, Schema fieldSchema) {
+      if (fieldSchema.getType() == Schema.Type.NULL) {
+        return;
+      }
+      if (fieldSchema.getType() != Schema.Type.UNION) {
         throw new UnexpectedFormatException("field " + fieldName + " cannot be set to a null value.");
       }
-      return field;
+      for (Schema unionSchema : fieldSchema.getUnionSchemas()) {
+        if (unionSchema.getType() == Schema.Type.NULL) {
+          return;
+        }
+      }
+      throw new UnexpectedFormatException("field " + fieldName + " cannot be set to a null value.");
     }
   }
 
@@ -549,12 +595,12 @@ public class StructuredRecord implements Serializable {
 
     StructuredRecord that = (StructuredRecord) o;
 
-    return Objects.equals(schema, that.schema) && Objects.equals(fields, that.fields);
+    return Objects.equals(schema, that.schema) && Arrays.equals(values, that.values);
 
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(schema, fields);
+    return Objects.hash(schema, Arrays.hashCode(values));
   }
 }
@@ -472,6 +472,9 @@ public final class Schema implements Serializable {
   // This is a on demand cache for case insensitive field lookup. No need to serialize.
   private transient Map<String, Field> ignoreCaseFieldMap;
 
+  // Positions of the record fields by name. It can be recomputed on demand, hence no need to serialize.
+  private transient volatile Map<String, Integer> fieldIndexes;
+
   private Schema(Type type,
                  @Nullable LogicalType logicalType,                                   // Not null for logical type
                  @Nullable Set<String> enumValues,                                    // Not null for enum type
@@ -491,6 +494,7 @@ public final class Schema implements Serializable {
     this.recordName = recordName;
     this.fieldMap = fieldMap == null ? null : copyFields(fieldMap);
     this.fields = this.fieldMap == null ? null : Collections.unmodifiableList(new ArrayList<>(this.fieldMap.values()));
+    this.fieldIndexes = this.fields == null ? null : createFieldIndexes(this.fields);
     this.unionSchemas = unionSchemas == null ? null : new ArrayList<>(unionSchemas);
 
     // Resolve name only records. Only need this step for RECORD or UNION type schemas
@@ -600,6 +604,27 @@ public final class Schema implements Serializable {
     return getField(name, false);
   }
 
+  /**
+   * Returns the position of the record {@link Field} of the given name in the list returned by {@link #getFields()}.
+   *
+   * @param name Name of the field
+   * @return The position of the field or {@code -1} if there is no such field in this record
+   *         or this is not a {@link Type#RECORD RECORD} schema.
+   */
+  public int getFieldIndex(String name) {
+    if (fields == null) {
+      return -1;
+    }
+    Map<String, Integer> indexes = fieldIndexes;
+    if (indexes == null) {
+      // Not serialized, hence recompute after deserialization
+      indexes = createFieldIndexes(fields);
+      fieldIndexes = indexes;
+    }
+    Integer index = indexes.get(name);
+    return index == null ? -1 : index;
+  }
+
   /**
    * Returns the record {@link Field} of the given name.
    *
@@ -885,6 +910,17 @@ public final class Schema implements Serializable {
     return writer.toString();
   }
 
+  /**
+   * Creates the mapping from field name to the position of the field in the given list of fields.
+   */
+  private static Map<String, Integer> createFieldIndexes(List<Field> fields) {
+    Map<String, Integer> indexes = new HashMap<>();
+    for (int i = 0; i < fields.size(); i++) {
+      indexes.put(fields.get(i).getName(), i);
+    }
+    return indexes;
+  }
+
   /**
    * Copies the given set of fields.
    */
@@ -48,6 +48,7 @@ public abstract class AbstractNotificationSubscriberService extends AbstractMess
 
   private final String name;
   private final Transactional transactional;
+  private final MessagingService messagingService;
   private final MultiThreadMessagingContext messagingContext;
 
   @Inject
@@ -69,6 +70,7 @@ public abstract class AbstractNotificationSubscriberService extends AbstractMess
             Constants.Metrics.Tag.CONSUMER, name
           )));
     this.name = name;
+    this.messagingService = messagingService;
     this.messagingContext = new MultiThreadMessagingContext(messagingService);
     this.transactional = Transactions.createTransactionalWithRetry(
       Transactions.createTransactional(new MultiThreadDatasetCache(
@@ -88,6 +90,11 @@ public abstract class AbstractNotificationSubscriberService extends AbstractMess
     return messagingContext;
   }
 
+  @Override
+  protected MessagingService getMessagingService() {
+    return messagingService;
+  }
+
   @Override
   protected Transactional getTransactional() {
     return transactional;
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -19,6 +19,10 @@ package co.cask.cdap.datapipeline;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.etl.batch.StructuredRecordWritable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableComparator;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -52,4 +56,96 @@ public class StructuredRecordWritableTest {
 
     Assert.assertEquals(writableIn.get(), record);
   }
+
+  @Test
+  public void testRegisteredSchema() throws IOException {
+    Schema schema = Schema.recordOf("registered",
+                                    Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("count", Schema.nullableOf(Schema.of(Schema.Type.LONG))));
+    StructuredRecord record = StructuredRecord.builder(schema).set("name", "abc").set("count", 5L).build();
+    byte[] inlineBytes = toBytes(record);
+
+    Configuration hConf = new Configuration(false);
+    StructuredRecordWritable.registerSchemas(hConf, ImmutableList.of(schema));
+    StructuredRecordWritable.loadSchemas(hConf);
+
+    // only the schema hash is written for a registered schema
+    byte[] registeredBytes = toBytes(record);
+    Assert.assertTrue(registeredBytes.length < inlineBytes.length);
+    Assert.assertEquals(record, fromBytes(registeredBytes));
+  }
+
+  @Test
+  public void testComparator() throws IOException {
+    Schema schema = Schema.recordOf("key", Schema.Field.of("x", Schema.of(Schema.Type.INT)));
+    WritableComparator comparator = WritableComparator.get(StructuredRecordWritable.class);
+    Assert.assertTrue(comparator instanceof StructuredRecordWritable.Comparator);
+
+    byte[] bytes1 = toBytes(StructuredRecord.builder(schema).set("x", 1).build());
+    byte[] bytes2 = toBytes(StructuredRecord.builder(schema).set("x", 1).build());
+    byte[] bytes3 = toBytes(StructuredRecord.builder(schema).set("x", 2).build());
+
+    Assert.assertEquals(0, comparator.compare(bytes1, 0, bytes1.length, bytes2, 0, bytes2.length));
+    int cmp = comparator.compare(bytes1, 0, bytes1.length, bytes3, 0, bytes3.length);
+    Assert.assertNotEquals(0, cmp);
+    Assert.assertEquals(-cmp, comparator.compare(bytes3, 0, bytes3.length, bytes1, 0, bytes1.length));
+
+    // compareTo is consistent with the raw comparison
+    StructuredRecordWritable writable1 = new StructuredRecordWritable(fromBytes(bytes1));
+    StructuredRecordWritable writable3 = new StructuredRecordWritable(fromBytes(bytes3));
+    Assert.assertEquals(Integer.signum(cmp), Integer.signum(writable1.compareTo(writable3)));
+  }
+
+  @Test
+  public void testMapOrder() throws IOException {
+    Schema schema = Schema.recordOf("mapKey", Schema.Field.of("m", Schema.mapOf(Schema.of(Schema.Type.STRING),
+                                                                                Schema.of(Schema.Type.INT))));
+    StructuredRecord record1 = StructuredRecord.builder(schema)
+      .set("m", ImmutableMap.of("a", 1, "b", 2, "c", 3)).build();
+    StructuredRecord record2 = StructuredRecord.builder(schema)
+      .set("m", ImmutableMap.of("c", 3, "a", 1, "b", 2)).build();
+    Assert.assertEquals(record1, record2);
+
+    // equal records with maps that iterate in a different order are serialized the same way
+    byte[] bytes1 = toBytes(record1);
+    byte[] bytes2 = toBytes(record2);
+    Assert.assertArrayEquals(bytes1, bytes2);
+    WritableComparator comparator = WritableComparator.get(StructuredRecordWritable.class);
+    Assert.assertEquals(0, comparator.compare(bytes1, 0, bytes1.length, bytes2, 0, bytes2.length));
+    Assert.assertEquals(0, new StructuredRecordWritable(record1).compareTo(new StructuredRecordWritable(record2)));
+    Assert.assertEquals(record1, fromBytes(bytes2));
+  }
+
+  @Test
+  public void testInlineAndRegisteredSchema() throws IOException {
+    Schema schema = Schema.recordOf("inlineOrRegistered", Schema.Field.of("x", Schema.of(Schema.Type.INT)));
+    byte[] inline1 = toBytes(StructuredRecord.builder(schema).set("x", 1).build());
+    byte[] inline2 = toBytes(StructuredRecord.builder(schema).set("x", 2).build());
+
+    Configuration hConf = new Configuration(false);
+    StructuredRecordWritable.registerSchemas(hConf, ImmutableList.of(schema));
+    StructuredRecordWritable.loadSchemas(hConf);
+    byte[] registered1 = toBytes(StructuredRecord.builder(schema).set("x", 1).build());
+    Assert.assertTrue(registered1.length < inline1.length);
+
+    // the ordering does not depend on whether the schema is written inline
+    WritableComparator comparator = WritableComparator.get(StructuredRecordWritable.class);
+    Assert.assertEquals(0, comparator.compare(inline1, 0, inline1.length, registered1, 0, registered1.length));
+    Assert.assertEquals(0, comparator.compare(registered1, 0, registered1.length, inline1, 0, inline1.length));
+    Assert.assertEquals(Integer.signum(comparator.compare(inline1, 0, inline1.length, inline2, 0, inline2.length)),
+                        Integer.signum(comparator.compare(registered1, 0, registered1.length,
+                                                          inline2, 0, inline2.length)));
+  }
+
+  private byte[] toBytes(StructuredRecord record) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    new StructuredRecordWritable(record).write(new DataOutputStream(os));
+    return os.toByteArray();
+  }
+
+  private StructuredRecord fromBytes(byte[] bytes) throws IOException {
+    StructuredRecordWritable writable = new StructuredRecordWritable();
+    writable.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+    return writable.get();
+  }
 }
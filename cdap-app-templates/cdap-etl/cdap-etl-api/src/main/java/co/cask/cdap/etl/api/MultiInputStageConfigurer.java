@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -20,6 +20,7 @@ import co.cask.cdap.api.annotation.Beta;
 import co.cask.cdap.api.data.schema.Schema;
 
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
@@ -41,4 +42,17 @@ public interface MultiInputStageConfigurer {
    * @param outputSchema output schema for this stage
    */
   void setOutputSchema(@Nullable Schema outputSchema);
+
+  /**
+   * Hint that the records of the given input stages are small enough to be held in memory by every task that runs
+   * this stage. If the records of all inputs but one are broadcast to a joiner, the MapReduce engine joins the
+   * records of that input as it reads them, without shuffling any input to reducers. That input must then be
+   * a required input of the join. Engines that do not support it ignore the hint.
+   *
+   * @param inputStages names of the input stages to broadcast
+   * @throws IllegalArgumentException if a stage is not an input of this stage, or if all inputs are given
+   */
+  default void setBroadcastInputs(Set<String> inputStages) {
+    // no-op
+  }
 }
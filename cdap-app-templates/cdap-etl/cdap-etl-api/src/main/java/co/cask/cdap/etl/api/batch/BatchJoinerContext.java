@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -49,4 +49,15 @@ public interface BatchJoinerContext extends BatchContext {
    * @param joinInputRecordClass the join input record class
    */
   void setJoinInputRecordClass(Class<?> joinInputRecordClass);
+
+  /**
+   * Hint which input stage has the most records per join key. The records of the other inputs for a join key are
+   * held in memory, while the records of this input are joined with them one by one. This is only a hint that
+   * execution engines may ignore. If none is set, the execution engine decides which input to hold in memory.
+   *
+   * @param inputStage the name of the input stage whose records are not held in memory
+   */
+  default void setStreamedInput(String inputStage) {
+    // no-op
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -34,8 +34,9 @@ public class ConnectorSourceEmitter extends PipeEmitter {
                                  Set<PipeStage<RecordInfo>> outputConsumers,
                                  Multimap<String, PipeStage<RecordInfo>> outputPortConsumers,
                                  Set<PipeStage<RecordInfo<ErrorRecord<Object>>>> errorConsumers,
-                                 Set<PipeStage<RecordInfo<Alert>>> alertConsumers) {
-    super(stageName, outputConsumers, outputPortConsumers, errorConsumers, alertConsumers);
+                                 Set<PipeStage<RecordInfo<Alert>>> alertConsumers,
+                                 int recordBatchSize) {
+    super(stageName, outputConsumers, outputPortConsumers, errorConsumers, alertConsumers, recordBatchSize);
   }
 
   // we expect the value to already be a RecordInfo. This is because ConnectorSource emits RecordInfo,
@@ -68,7 +69,7 @@ public class ConnectorSourceEmitter extends PipeEmitter {
     @Override
     public PipeEmitter build() {
       return new ConnectorSourceEmitter(stageName, outputConsumers, outputPortConsumers,
-                                        errorConsumers, alertConsumers);
+                                        errorConsumers, alertConsumers, recordBatchSize);
     }
   }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -45,6 +45,13 @@ public class MultiOutputTransformPipeStage<T> extends PipeStage<RecordInfo<T>> {
     transform.transform(input.getValue(), emitter);
   }
 
+  @Override
+  public void flush() {
+    if (emitter instanceof PipeEmitter) {
+      ((PipeEmitter) emitter).flush();
+    }
+  }
+
   @Override
   public void destroy() {
     if (transform instanceof Destroyable) {
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -32,7 +32,10 @@ import com.google.common.collect.Multimap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -40,6 +43,9 @@ import java.util.Set;
  * An Emitter that emits records to the next stages without buffering anything in memory. This means that within
  * the transform method of one stage, another stage's transform method can be called.
  *
+ * If it is created with a record batch size greater than one, it instead buffers the records for each of the next
+ * stages, and sends them to that stage in a batch once the batch is full or the emitter is flushed.
+ *
  * This class always emits RecordInfo for output.
  */
 public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object> {
@@ -50,6 +56,9 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
   private final Multimap<String, PipeStage<RecordInfo>> outputPortConsumers;
   private final Set<PipeStage<RecordInfo<ErrorRecord<Object>>>> errorConsumers;
   private final Set<PipeStage<RecordInfo<Alert>>> alertConsumers;
+  private final int recordBatchSize;
+  // output stage -> records buffered for that stage
+  private final Map<PipeStage<?>, List<?>> batches;
   private boolean logWarning;
 
   public PipeEmitter(String stageName,
@@ -57,11 +66,25 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
                      Multimap<String, PipeStage<RecordInfo>> outputPortConsumers,
                      Set<PipeStage<RecordInfo<ErrorRecord<Object>>>> errorConsumers,
                      Set<PipeStage<RecordInfo<Alert>>> alertConsumers) {
+    this(stageName, outputConsumers, outputPortConsumers, errorConsumers, alertConsumers, 1);
+  }
+
+  public PipeEmitter(String stageName,
+                     Set<PipeStage<RecordInfo>> outputConsumers,
+                     Multimap<String, PipeStage<RecordInfo>> outputPortConsumers,
+                     Set<PipeStage<RecordInfo<ErrorRecord<Object>>>> errorConsumers,
+                     Set<PipeStage<RecordInfo<Alert>>> alertConsumers,
+                     int recordBatchSize) {
+    if (recordBatchSize < 1) {
+      throw new IllegalArgumentException("Record batch size must be positive: " + recordBatchSize);
+    }
     this.stageName = stageName;
     this.outputConsumers = ImmutableSet.copyOf(outputConsumers);
     this.outputPortConsumers = ImmutableMultimap.copyOf(outputPortConsumers);
     this.errorConsumers = ImmutableSet.copyOf(errorConsumers);
     this.alertConsumers = ImmutableSet.copyOf(alertConsumers);
+    this.recordBatchSize = recordBatchSize;
+    this.batches = new LinkedHashMap<>();
     this.logWarning = true;
   }
 
@@ -72,7 +95,7 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
     }
     RecordInfo record = getPipeRecord(value);
     for (PipeStage<RecordInfo> outputPortConsumer : outputPortConsumers.get(port)) {
-      outputPortConsumer.consume(record);
+      send(outputPortConsumer, record);
     }
   }
 
@@ -80,7 +103,7 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
   public void emit(Object value) {
     RecordInfo record = getPipeRecord(value);
     for (PipeStage<RecordInfo> outputConsumer : outputConsumers) {
-      outputConsumer.consume(record);
+      send(outputConsumer, record);
     }
   }
 
@@ -97,7 +120,7 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
     RecordInfo<ErrorRecord<Object>> errorRecordInfo =
       RecordInfo.builder(errorRecord, stageName, RecordType.ERROR).build();
     for (PipeStage<RecordInfo<ErrorRecord<Object>>> pipeTransform : errorConsumers) {
-      pipeTransform.consume(errorRecordInfo);
+      send(pipeTransform, errorRecordInfo);
     }
   }
 
@@ -106,7 +129,20 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
     Alert alert = new Alert(stageName, ImmutableMap.copyOf(payload));
     RecordInfo<Alert> alertRecord = RecordInfo.builder(alert, stageName, RecordType.ALERT).build();
     for (PipeStage<RecordInfo<Alert>> alertConsumer : alertConsumers) {
-      alertConsumer.consume(alertRecord);
+      send(alertConsumer, alertRecord);
+    }
+  }
+
+  /**
+   * Sends all buffered records to the next stages.
+   *
+   * @throws StageFailureException if there was an exception consuming the records
+   */
+  public void flush() {
+    for (Map.Entry<PipeStage<?>, List<?>> entry : batches.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        sendBatch(entry.getKey(), entry.getValue());
+      }
     }
   }
 
@@ -114,6 +150,32 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
     return RecordInfo.builder(value, stageName, RecordType.OUTPUT).build();
   }
 
+  private <T> void send(PipeStage<T> consumer, T record) {
+    if (recordBatchSize == 1) {
+      consumer.consume(record);
+      return;
+    }
+    @SuppressWarnings("unchecked")
+    List<T> batch = (List<T>) batches.get(consumer);
+    if (batch == null) {
+      batch = new ArrayList<>(recordBatchSize);
+      batches.put(consumer, batch);
+    }
+    batch.add(record);
+    if (batch.size() >= recordBatchSize) {
+      sendBatch(consumer, batch);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void sendBatch(PipeStage consumer, List batch) {
+    try {
+      consumer.consumeBatch(batch);
+    } finally {
+      batch.clear();
+    }
+  }
+
   /**
    * Get a builder to create a PipeEmitter for the specified stage
    *
@@ -133,6 +195,7 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
     protected final Set<PipeStage<RecordInfo<ErrorRecord<Object>>>> errorConsumers;
     protected final Set<PipeStage<RecordInfo>> outputConsumers;
     protected final Set<PipeStage<RecordInfo<Alert>>> alertConsumers;
+    protected int recordBatchSize;
 
     protected Builder(String stageName) {
       this.stageName = stageName;
@@ -140,6 +203,7 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
       this.outputConsumers = new HashSet<>();
       this.errorConsumers = new HashSet<>();
       this.alertConsumers = new HashSet<>();
+      this.recordBatchSize = 1;
     }
 
     public Builder addOutputConsumer(PipeStage<RecordInfo> outputConsumer) {
@@ -162,8 +226,14 @@ public class PipeEmitter implements Emitter<Object>, MultiOutputEmitter<Object>
       return this;
     }
 
+    public Builder setRecordBatchSize(int recordBatchSize) {
+      this.recordBatchSize = recordBatchSize;
+      return this;
+    }
+
     public PipeEmitter build() {
-      return new PipeEmitter(stageName, outputConsumers, outputPortConsumers, errorConsumers, alertConsumers);
+      return new PipeEmitter(stageName, outputConsumers, outputPortConsumers, errorConsumers, alertConsumers,
+                             recordBatchSize);
     }
   }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -19,10 +19,11 @@ package co.cask.cdap.etl.batch;
 import co.cask.cdap.etl.api.Destroyable;
 import com.google.common.base.Throwables;
 
+import java.util.List;
 
 /**
- * A stage in the PipeTransformExecutor. Pipe transforms should send each output record immediately to all output stages
- * without buffering anything in memory.
+ * A stage in the PipeTransformExecutor. Pipe transforms send each output record to all output stages, either
+ * immediately or in batches of records, which are sent on once the batch is full or the stage is flushed.
  *
  * @param <T> type of input record
  */
@@ -42,19 +43,48 @@ public abstract class PipeStage<T> implements Destroyable {
   public void consume(T input) {
     try {
       consumeInput(input);
-    } catch (StageFailureException e) {
-      // Another stage has already failed, just throw the exception as-is
-      throw e;
     } catch (Exception e) {
-      Throwable rootCause = Throwables.getRootCause(e);
-      // Create StageFailureException to save the Stage information
-      throw new StageFailureException(
-        String.format("Failed to execute pipeline stage '%s' with the error: %s. Please review your pipeline " +
-                        "configuration and check the system logs for more details.", stageName, rootCause.getMessage()),
-        rootCause);
+      throw toStageFailure(e);
     }
   }
 
+  /**
+   * Consume a batch of records and send them to the relevant output transforms.
+   *
+   * @param inputs the records to consume
+   * @throws StageFailureException if there was an exception consuming the inputs
+   */
+  public void consumeBatch(List<T> inputs) {
+    try {
+      consumeInputs(inputs);
+    } catch (Exception e) {
+      throw toStageFailure(e);
+    }
+  }
+
+  /**
+   * Sends any records that are buffered by this stage to its output stages. Stages are flushed in topological order,
+   * so that the records that a stage sends on while being flushed are flushed by its output stages afterwards.
+   *
+   * @throws StageFailureException if there was an exception consuming the buffered records
+   */
+  public void flush() {
+    // no-op by default
+  }
+
+  private StageFailureException toStageFailure(Exception e) {
+    if (e instanceof StageFailureException) {
+      // Another stage has already failed, just throw the exception as-is
+      return (StageFailureException) e;
+    }
+    Throwable rootCause = Throwables.getRootCause(e);
+    // Create StageFailureException to save the Stage information
+    return new StageFailureException(
+      String.format("Failed to execute pipeline stage '%s' with the error: %s. Please review your pipeline " +
+                      "configuration and check the system logs for more details.", stageName, rootCause.getMessage()),
+      rootCause);
+  }
+
   /**
    * Consume an input record, throwing an exception if there is a failure
    *
@@ -62,4 +92,17 @@ public abstract class PipeStage<T> implements Destroyable {
    * @throws Exception if there was a failure processing the input
    */
   protected abstract void consumeInput(T input) throws Exception;
+
+  /**
+   * Consume a batch of input records, throwing an exception if there is a failure. By default, the records are
+   * consumed one at a time.
+   *
+   * @param inputs the inputs to consume
+   * @throws Exception if there was a failure processing the inputs
+   */
+  protected void consumeInputs(List<T> inputs) throws Exception {
+    for (T input : inputs) {
+      consumeInput(input);
+    }
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -30,8 +30,13 @@ import java.util.Set;
  */
 public class PipeTransformExecutor<IN> implements Destroyable {
   private final Set<String> startingPoints;
+  // stage name -> stage, in topological order
   private final Map<String, PipeStage> pipeStages;
 
+  /**
+   * Creates an executor for the given stages, which must be iterated over in topological order so that buffered
+   * records can be flushed.
+   */
   public PipeTransformExecutor(Map<String, PipeStage> pipeStages, Set<String> startingPoints) {
     this.pipeStages = pipeStages;
     this.startingPoints = startingPoints;
@@ -44,6 +49,18 @@ public class PipeTransformExecutor<IN> implements Destroyable {
     }
   }
 
+  /**
+   * Sends all records that are buffered by the stages to their output stages. Must be called once all input has been
+   * processed.
+   *
+   * @throws StageFailureException if there was an exception consuming the buffered records
+   */
+  public void flush() {
+    for (PipeStage stage : pipeStages.values()) {
+      stage.flush();
+    }
+  }
+
   @Override
   public void destroy() {
     for (PipeStage stage : pipeStages.values()) {
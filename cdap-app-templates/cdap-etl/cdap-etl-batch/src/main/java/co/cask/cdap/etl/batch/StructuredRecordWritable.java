@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -19,24 +19,96 @@ package co.cask.cdap.etl.batch;
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
-import co.cask.cdap.format.StructuredRecordStringConverter;
+import co.cask.cdap.api.data.schema.SchemaHash;
+import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.format.io.StructuredRecordCodec;
+import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Map;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Wrapper around a {@link StructuredRecord} so that it can be used as the output key and/or value of a mapper.
- * This is not very performant and must be improved soon (CDAP-5347).
+ *
+ * The record is serialized in binary form, prefixed by the hash of its schema, followed by the schema itself unless
+ * the schema was registered in the job configuration with {@link #registerSchemas(Configuration, Collection)}.
+ * Map entries are serialized ordered by their keys, so that equal records are always serialized to the same bytes.
+ * Records are ordered by the schema hash and then by the serialized record, which the {@link Comparator} registered
+ * for this class compares byte-wise without deserializing the records. Whether the schema is written inline
+ * does not affect the ordering.
  */
 public class StructuredRecordWritable implements WritableComparable<StructuredRecordWritable> {
+
+  private static final String SCHEMAS_KEY = "cdap.etl.structured.record.writable.schemas";
+  private static final Type SCHEMAS_TYPE = new TypeToken<List<String>>() { }.getType();
+  private static final Gson GSON = new Gson();
+  private static final byte SCHEMA_REGISTERED = 0;
+  private static final byte SCHEMA_INLINE = 1;
+  // size of the MD5 schema hash
+  private static final int SCHEMA_HASH_SIZE = 16;
+
+  // schemas registered in the job configuration, which are written as their hash only
+  private static final ConcurrentMap<SchemaHash, Schema> registeredSchemas = new ConcurrentHashMap<>();
   // schema cache so that we do not parse schema string for each incoming record
-  private static final Map<byte[], Schema> schemaCache = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+  private static final ConcurrentMap<SchemaHash, Schema> schemaCache = new ConcurrentHashMap<>();
+
+  static {
+    WritableComparator.define(StructuredRecordWritable.class, new Comparator());
+  }
+
   private StructuredRecord record;
+  // serialized record, computed on first use since a record may never be written or compared
+  private byte[] recordBytes;
+
+  /**
+   * Registers schemas in the given job configuration, so that records of those schemas are written with the schema
+   * hash instead of the full schema. Must be called before the job is submitted.
+   */
+  public static void registerSchemas(Configuration hConf, Collection<Schema> schemas) {
+    List<String> schemaStrings = new ArrayList<>();
+    String existing = hConf.get(SCHEMAS_KEY);
+    if (existing != null) {
+      schemaStrings.addAll(GSON.<List<String>>fromJson(existing, SCHEMAS_TYPE));
+    }
+    for (Schema schema : schemas) {
+      if (schema != null && !schemaStrings.contains(schema.toString())) {
+        schemaStrings.add(schema.toString());
+      }
+    }
+    hConf.set(SCHEMAS_KEY, GSON.toJson(schemaStrings));
+  }
+
+  /**
+   * Loads the schemas registered in the given job configuration. Must be called in the tasks of the job
+   * before records are written or read.
+   */
+  public static void loadSchemas(Configuration hConf) throws IOException {
+    String schemas = hConf.get(SCHEMAS_KEY);
+    if (schemas == null) {
+      return;
+    }
+    for (String schemaStr : GSON.<List<String>>fromJson(schemas, SCHEMAS_TYPE)) {
+      Schema schema = Schema.parseJson(schemaStr);
+      registeredSchemas.putIfAbsent(schema.getSchemaHash(), schema);
+    }
+  }
 
   // required by Hadoop
   @SuppressWarnings("unused")
@@ -49,6 +121,7 @@ public class StructuredRecordWritable implements WritableComparable<StructuredRe
 
   public void set(StructuredRecord record) {
     this.record = record;
+    this.recordBytes = null;
   }
 
   public StructuredRecord get() {
@@ -58,40 +131,70 @@ public class StructuredRecordWritable implements WritableComparable<StructuredRe
   @SuppressWarnings("ConstantConditions")
   @Override
   public void write(DataOutput out) throws IOException {
-    byte[] schemaBytes = Bytes.toBytes(record.getSchema().toString());
-    out.writeInt(schemaBytes.length);
-    out.write(schemaBytes);
+    Schema schema = record.getSchema();
+    SchemaHash schemaHash = schema.getSchemaHash();
+    if (registeredSchemas.containsKey(schemaHash)) {
+      out.writeByte(SCHEMA_REGISTERED);
+      out.write(schemaHash.toByteArray());
+    } else {
+      out.writeByte(SCHEMA_INLINE);
+      out.write(schemaHash.toByteArray());
+      byte[] schemaBytes = Bytes.toBytes(schema.toString());
+      WritableUtils.writeVInt(out, schemaBytes.length);
+      out.write(schemaBytes);
+    }
 
-    byte[] recordBytes = Bytes.toBytes(StructuredRecordStringConverter.toJsonString(record));
-    out.writeInt(recordBytes.length);
-    out.write(recordBytes);
+    byte[] bytes = getRecordBytes();
+    WritableUtils.writeVInt(out, bytes.length);
+    out.write(bytes);
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
-    int schemaLen = in.readInt();
-    byte[] schemaBytes = new byte[schemaLen];
-    in.readFully(schemaBytes, 0, schemaLen);
+    byte schemaType = in.readByte();
+    byte[] hashBytes = new byte[SCHEMA_HASH_SIZE];
+    in.readFully(hashBytes);
+    SchemaHash schemaHash = new SchemaHash(ByteBuffer.wrap(hashBytes));
 
     Schema schema;
-    if (schemaCache.containsKey(schemaBytes)) {
-      schema = schemaCache.get(schemaBytes);
+    if (schemaType == SCHEMA_REGISTERED) {
+      schema = registeredSchemas.get(schemaHash);
+      if (schema == null) {
+        throw new IOException("Schema with hash " + schemaHash + " is not registered. "
+                                + "Schemas must be loaded from the job configuration before reading records.");
+      }
+    } else if (schemaType == SCHEMA_INLINE) {
+      int schemaLen = WritableUtils.readVInt(in);
+      schema = schemaCache.get(schemaHash);
+      if (schema == null) {
+        byte[] schemaBytes = new byte[schemaLen];
+        in.readFully(schemaBytes, 0, schemaLen);
+        schema = Schema.parseJson(Bytes.toString(schemaBytes));
+        schemaCache.putIfAbsent(schemaHash, schema);
+      } else {
+        WritableUtils.skipFully(in, schemaLen);
+      }
     } else {
-      String schemaStr = Bytes.toString(schemaBytes);
-      schema = Schema.parseJson(schemaStr);
-      schemaCache.put(schemaBytes, schema);
+      throw new IOException("Unknown schema type " + schemaType);
     }
 
-    int recordLen = in.readInt();
-    byte[] recordBytes = new byte[recordLen];
-    in.readFully(recordBytes, 0, recordLen);
-    String recordStr = Bytes.toString(recordBytes);
-    this.record = StructuredRecordStringConverter.fromJsonString(recordStr, schema);
+    int recordLen = WritableUtils.readVInt(in);
+    byte[] bytes = new byte[recordLen];
+    in.readFully(bytes, 0, recordLen);
+    this.record = StructuredRecordCodec.of(schema).decode(new BinaryDecoder(new ByteArrayInputStream(bytes)));
+    // the bytes were written by a canonical codec, hence they can be reused to write or compare the record
+    this.recordBytes = bytes;
   }
 
   @Override
   public int compareTo(StructuredRecordWritable o) {
-    return Integer.compare(hashCode(), o.hashCode());
+    // Compare the same way as the Comparator used in the shuffle
+    SchemaHash schemaHash = record.getSchema().getSchemaHash();
+    SchemaHash otherSchemaHash = o.record.getSchema().getSchemaHash();
+    if (!schemaHash.equals(otherSchemaHash)) {
+      return Bytes.compareTo(schemaHash.toByteArray(), otherSchemaHash.toByteArray());
+    }
+    return Bytes.compareTo(getRecordBytes(), o.getRecordBytes());
   }
 
   @Override
@@ -112,4 +215,59 @@ public class StructuredRecordWritable implements WritableComparable<StructuredRe
   public int hashCode() {
     return record != null ? record.hashCode() : 0;
   }
+
+  private byte[] getRecordBytes() {
+    if (recordBytes == null) {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      try {
+        StructuredRecordCodec.canonical(record.getSchema()).encode(record, new BinaryEncoder(os));
+      } catch (IOException e) {
+        // Cannot be an I/O failure when writing to a byte array
+        throw new IllegalArgumentException("Failed to serialize record", e);
+      }
+      recordBytes = os.toByteArray();
+    }
+    return recordBytes;
+  }
+
+  /**
+   * A {@link WritableComparator} that compares serialized {@link StructuredRecordWritable}s byte-wise,
+   * without deserializing them. The schema hashes are compared first and then the serialized records, skipping
+   * any schema that is written inline.
+   */
+  public static final class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(StructuredRecordWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      int cmp = compareBytes(b1, s1 + 1, SCHEMA_HASH_SIZE, b2, s2 + 1, SCHEMA_HASH_SIZE);
+      if (cmp != 0) {
+        return cmp;
+      }
+      try {
+        int r1 = getRecordStart(b1, s1);
+        int r2 = getRecordStart(b2, s2);
+        int recordLength1 = readVInt(b1, r1);
+        int recordLength2 = readVInt(b2, r2);
+        return compareBytes(b1, r1 + WritableUtils.decodeVIntSize(b1[r1]), recordLength1,
+                            b2, r2 + WritableUtils.decodeVIntSize(b2[r2]), recordLength2);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Failed to read the length of a serialized record", e);
+      }
+    }
+
+    /**
+     * Returns the offset of the length of the serialized record that starts at the given offset.
+     */
+    private static int getRecordStart(byte[] bytes, int start) throws IOException {
+      int offset = start + 1 + SCHEMA_HASH_SIZE;
+      if (bytes[start] == SCHEMA_INLINE) {
+        offset += WritableUtils.decodeVIntSize(bytes[offset]) + readVInt(bytes, offset);
+      }
+      return offset;
+    }
+  }
 }
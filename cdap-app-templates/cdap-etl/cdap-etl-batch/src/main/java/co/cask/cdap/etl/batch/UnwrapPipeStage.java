@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -19,9 +19,12 @@ package co.cask.cdap.etl.batch;
 import co.cask.cdap.etl.api.Destroyable;
 import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.Transformation;
+import co.cask.cdap.etl.common.BatchTransformation;
 import co.cask.cdap.etl.common.Destroyables;
 import co.cask.cdap.etl.common.RecordInfo;
 
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Processing any stages that can be represented as a Transformation. Gets the value from a RecordInfo before
@@ -44,6 +47,22 @@ public class UnwrapPipeStage<T> extends PipeStage<RecordInfo<T>> {
     transform.transform(input.getValue(), emitter);
   }
 
+  @Override
+  protected void consumeInputs(List<RecordInfo<T>> inputs) throws Exception {
+    List<T> values = new ArrayList<>(inputs.size());
+    for (RecordInfo<T> input : inputs) {
+      values.add(input.getValue());
+    }
+    BatchTransformation.transform(transform, values, emitter);
+  }
+
+  @Override
+  public void flush() {
+    if (emitter instanceof PipeEmitter) {
+      ((PipeEmitter) emitter).flush();
+    }
+  }
+
   @Override
   public void destroy() {
     if (transform instanceof Destroyable) {
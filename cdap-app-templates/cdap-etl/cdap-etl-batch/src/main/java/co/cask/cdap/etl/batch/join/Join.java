@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016-2017 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -22,16 +22,24 @@ import co.cask.cdap.etl.api.JoinElement;
 import co.cask.cdap.etl.api.Joiner;
 import com.google.common.collect.Sets;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Performs join operation
+ *
+ * If a streamed stage is given, the join elements of that stage must come after the elements of all other stages.
+ * Only the elements of the other stages are buffered, and each element of the streamed stage is joined with them
+ * as it is read. The buffers are created by a {@link JoinElementBuffer.Factory}, so that buffers that do not fit
+ * in memory can be spilled.
+ *
  * @param <JOIN_KEY> type of join key
  * @param <INPUT_RECORD> type of input record
  * @param <OUT> type of output of mapreduce
@@ -43,69 +51,155 @@ public class Join<JOIN_KEY, INPUT_RECORD, OUT> {
   private Iterator<JoinElement<INPUT_RECORD>> iterator;
   private Emitter<OUT> emitter;
   private final int numOfInputs;
+  private final String streamedStage;
+  private final JoinElementBuffer.Factory<INPUT_RECORD> bufferFactory;
 
   public Join(Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner, JOIN_KEY joinKey,
               Iterator<JoinElement<INPUT_RECORD>> iterator, int numOfInputs, Emitter<OUT> emitter) throws Exception {
+    this(joiner, joinKey, iterator, numOfInputs, null, emitter);
+  }
+
+  public Join(Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner, JOIN_KEY joinKey,
+              Iterator<JoinElement<INPUT_RECORD>> iterator, int numOfInputs, @Nullable String streamedStage,
+              Emitter<OUT> emitter) throws Exception {
+    this(joiner, joinKey, iterator, numOfInputs, streamedStage, emitter,
+         new JoinElementBuffer.Factory<INPUT_RECORD>() {
+           @Override
+           public JoinElementBuffer<INPUT_RECORD> create(String stageName) {
+             return new JoinElementBuffer.InMemory<>();
+           }
+         });
+  }
+
+  public Join(Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner, JOIN_KEY joinKey,
+              Iterator<JoinElement<INPUT_RECORD>> iterator, int numOfInputs, @Nullable String streamedStage,
+              Emitter<OUT> emitter, JoinElementBuffer.Factory<INPUT_RECORD> bufferFactory) throws Exception {
     this.joiner = joiner;
     this.joinKey = joinKey;
     this.iterator = iterator;
     this.numOfInputs = numOfInputs;
+    this.streamedStage = streamedStage;
     this.emitter = emitter;
+    this.bufferFactory = bufferFactory;
   }
 
   public void joinRecords() throws Exception {
-    Map<String, List<JoinElement<INPUT_RECORD>>> perStageJoinElements = getPerStageJoinElements();
+    Map<String, JoinElementBuffer<INPUT_RECORD>> perStageJoinElements = new LinkedHashMap<>();
+    try {
+      joinRecords(perStageJoinElements);
+    } finally {
+      IOException failure = null;
+      for (JoinElementBuffer<INPUT_RECORD> buffer : perStageJoinElements.values()) {
+        try {
+          buffer.close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private void joinRecords(Map<String, JoinElementBuffer<INPUT_RECORD>> perStageJoinElements) throws Exception {
+    JoinElement<INPUT_RECORD> streamedElement = bufferJoinElements(perStageJoinElements);
     JoinConfig joinConfig = joiner.getJoinConfig();
     Set<String> requiredInputs = Sets.newHashSet(joinConfig.getRequiredInputs());
 
+    if (streamedElement == null) {
+      if (perStageJoinElements.keySet().containsAll(requiredInputs)) {
+        join(new ArrayList<Iterable<JoinElement<INPUT_RECORD>>>(perStageJoinElements.values()));
+      }
+      return;
+    }
+
+    requiredInputs.remove(streamedStage);
     if (!perStageJoinElements.keySet().containsAll(requiredInputs)) {
       return;
     }
 
-    join(perStageJoinElements, requiredInputs);
+    // join every element of the streamed stage with the buffered elements of the other stages
+    List<Iterable<JoinElement<INPUT_RECORD>>> list = new ArrayList<>();
+    list.add(null);
+    list.addAll(perStageJoinElements.values());
+    while (true) {
+      // the streamed element is the first one of the join row, so that the buffered elements of the last stages,
+      // which are iterated over the most, are read sequentially
+      list.set(0, Collections.singletonList(streamedElement));
+      join(list);
+      if (!iterator.hasNext()) {
+        return;
+      }
+      streamedElement = iterator.next();
+      if (!streamedElement.getStageName().equals(streamedStage)) {
+        throw new IllegalStateException(String.format(
+          "Join element of stage '%s' for join key '%s' is read after the elements of streamed stage '%s'.",
+          streamedElement.getStageName(), joinKey, streamedStage));
+      }
+    }
   }
 
-  private Map<String, List<JoinElement<INPUT_RECORD>>> getPerStageJoinElements() {
-    Map<String, List<JoinElement<INPUT_RECORD>>> perStageJoinElements = new HashMap<>();
+  /**
+   * Buffers the join elements per stage until the first element of the streamed stage.
+   *
+   * @return the first element of the streamed stage, or {@code null} if there is none
+   */
+  @Nullable
+  private JoinElement<INPUT_RECORD> bufferJoinElements(
+    Map<String, JoinElementBuffer<INPUT_RECORD>> perStageJoinElements) throws IOException {
     while (iterator.hasNext()) {
       JoinElement<INPUT_RECORD> joinElement = iterator.next();
       String stageName = joinElement.getStageName();
-      if (perStageJoinElements.get(stageName) == null) {
-        perStageJoinElements.put(stageName, new ArrayList<JoinElement<INPUT_RECORD>>());
+      if (stageName.equals(streamedStage)) {
+        return joinElement;
       }
-      perStageJoinElements.get(stageName).add(joinElement);
+      JoinElementBuffer<INPUT_RECORD> buffer = perStageJoinElements.get(stageName);
+      if (buffer == null) {
+        buffer = bufferFactory.create(stageName);
+        perStageJoinElements.put(stageName, buffer);
+      }
+      buffer.add(joinElement);
     }
-    return perStageJoinElements;
-  }
-
-  private void join(Map<String, List<JoinElement<INPUT_RECORD>>> perStageJoinElements, Set<String> requiredInputs)
-    throws Exception {
-    List<List<JoinElement<INPUT_RECORD>>> list = new ArrayList<>(perStageJoinElements.values());
-    ArrayList<JoinElement<INPUT_RECORD>> joinRow = new ArrayList<>();
-    Set<String> joinRowInputs = new HashSet<>();
-    getCartesianProduct(list, 0, joinRow, joinRowInputs, requiredInputs);
+    return null;
   }
 
-  // TODO use iterative algorithm instead of recursion
-  private void getCartesianProduct(List<List<JoinElement<INPUT_RECORD>>> list, int index,
-                                   List<JoinElement<INPUT_RECORD>> joinRow,
-                                   Set<String> joinRowInputs, Set<String> requiredInputs) throws Exception {
-    // Check up to the end of the list and emit only if records from all the required inputs are present in joinElements
-    if (index == list.size() && joinRowInputs.containsAll(requiredInputs)) {
-      emitter.emit(joiner.merge(joinKey, joinRow));
+  private void join(List<Iterable<JoinElement<INPUT_RECORD>>> list) throws Exception {
+    // Every stage has at least one element and all required inputs are present, so every combination of one
+    // element per stage is a join row. The combinations are enumerated with one iterator per stage, advancing the
+    // iterator of the last stage first, instead of recursing per stage. The iterators after an advanced iterator are
+    // replaced by new iterators over the elements of their stages, so that the elements do not need random access.
+    if (list.isEmpty()) {
       return;
     }
-
-    if (index >= list.size()) {
-      return;
+    List<Iterator<JoinElement<INPUT_RECORD>>> iterators = new ArrayList<>(list.size());
+    List<JoinElement<INPUT_RECORD>> joinRow = new ArrayList<>(list.size());
+    for (Iterable<JoinElement<INPUT_RECORD>> stageElements : list) {
+      Iterator<JoinElement<INPUT_RECORD>> stageIterator = stageElements.iterator();
+      iterators.add(stageIterator);
+      joinRow.add(stageIterator.next());
     }
 
-    for (JoinElement<INPUT_RECORD> joinElement : list.get(index)) {
-      joinRow.add(joinElement);
-      joinRowInputs.add(joinElement.getStageName());
-      getCartesianProduct(list, index + 1, joinRow, joinRowInputs, requiredInputs);
-      joinRow.remove(joinRow.size() - 1);
-      joinRowInputs.remove(joinElement.getStageName());
+    while (true) {
+      emitter.emit(joiner.merge(joinKey, joinRow));
+
+      int index = list.size() - 1;
+      while (index >= 0 && !iterators.get(index).hasNext()) {
+        index--;
+      }
+      if (index < 0) {
+        return;
+      }
+      joinRow.set(index, iterators.get(index).next());
+      for (int i = index + 1; i < list.size(); i++) {
+        Iterator<JoinElement<INPUT_RECORD>> stageIterator = list.get(i).iterator();
+        iterators.set(i, stageIterator);
+        joinRow.set(i, stageIterator.next());
+      }
     }
   }
 }
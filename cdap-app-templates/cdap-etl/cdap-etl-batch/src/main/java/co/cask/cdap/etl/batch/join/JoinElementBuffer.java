@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch.join;
+
+import co.cask.cdap.etl.api.JoinElement;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Holds the join elements of one stage for a join key while the elements of the other stages are joined with them.
+ * The elements are iterated over once for every combination of elements of the other stages, so every call to
+ * {@link #iterator()} must return all elements that were added, in the order they were added.
+ *
+ * @param <INPUT_RECORD> type of input record
+ */
+public interface JoinElementBuffer<INPUT_RECORD> extends Iterable<JoinElement<INPUT_RECORD>>, Closeable {
+
+  /**
+   * Adds an element to the end of the buffer.
+   */
+  void add(JoinElement<INPUT_RECORD> element) throws IOException;
+
+  /**
+   * Releases all resources held by the buffer. The buffer cannot be used after it is closed.
+   */
+  @Override
+  void close() throws IOException;
+
+  /**
+   * Creates the buffers for the stages of a join key.
+   *
+   * @param <INPUT_RECORD> type of input record
+   */
+  interface Factory<INPUT_RECORD> {
+
+    /**
+     * Creates an empty buffer for the elements of the given stage.
+     */
+    JoinElementBuffer<INPUT_RECORD> create(String stageName) throws IOException;
+  }
+
+  /**
+   * A {@link JoinElementBuffer} that holds all elements in memory.
+   *
+   * @param <INPUT_RECORD> type of input record
+   */
+  final class InMemory<INPUT_RECORD> implements JoinElementBuffer<INPUT_RECORD> {
+    private final List<JoinElement<INPUT_RECORD>> elements = new ArrayList<>();
+
+    @Override
+    public void add(JoinElement<INPUT_RECORD> element) {
+      elements.add(element);
+    }
+
+    @Override
+    public Iterator<JoinElement<INPUT_RECORD>> iterator() {
+      return elements.iterator();
+    }
+
+    @Override
+    public void close() {
+      elements.clear();
+    }
+  }
+}
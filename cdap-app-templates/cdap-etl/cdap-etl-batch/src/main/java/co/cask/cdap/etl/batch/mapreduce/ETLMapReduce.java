@@ -1,5 +1,5 @@
 /*
- * Copyright © 2015-2016 Cask Data, Inc.
+ * Copyright © 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -43,6 +43,7 @@ import co.cask.cdap.etl.batch.DefaultAggregatorContext;
 import co.cask.cdap.etl.batch.DefaultJoinerContext;
 import co.cask.cdap.etl.batch.PipelinePluginInstantiator;
 import co.cask.cdap.etl.batch.StageFailureException;
+import co.cask.cdap.etl.batch.StructuredRecordWritable;
 import co.cask.cdap.etl.batch.connector.MultiConnectorFactory;
 import co.cask.cdap.etl.batch.conversion.WritableConversion;
 import co.cask.cdap.etl.batch.conversion.WritableConversions;
@@ -61,11 +62,13 @@ import co.cask.cdap.etl.common.submit.Finisher;
 import co.cask.cdap.etl.common.submit.JoinerContextProvider;
 import co.cask.cdap.etl.common.submit.SubmitterPlugin;
 import co.cask.cdap.etl.log.LogStageInjector;
+import co.cask.cdap.etl.planner.Dag;
 import co.cask.cdap.etl.spec.StageSpec;
 import co.cask.cdap.internal.io.SchemaTypeAdapter;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
 import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -81,12 +84,15 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
 
 /**
  * MapReduce Driver for ETL Batch Applications.
@@ -95,6 +101,8 @@ public class ETLMapReduce extends AbstractMapReduce {
   public static final String NAME = ETLMapReduce.class.getSimpleName();
   public static final String MAP_KEY_CLASS = "cdap.etl.map.key.class";
   public static final String MAP_VAL_CLASS = "cdap.etl.map.val.class";
+  static final String JOIN_STREAMED_INPUT_KEY = "cdap.etl.join.streamed.input";
+  static final String JOIN_BROADCAST_DATASETS_KEY = "cdap.etl.join.broadcast.datasets";
   static final String RUNTIME_ARGS_KEY = "cdap.etl.runtime.args";
   static final String INPUT_ALIAS_KEY = "cdap.etl.source.alias.key";
   static final String SINK_OUTPUTS_KEY = "cdap.etl.sink.outputs";
@@ -102,6 +110,7 @@ public class ETLMapReduce extends AbstractMapReduce {
   static final Type INPUT_ALIAS_TYPE = new TypeToken<Map<String, String>>() { }.getType();
   static final Type SINK_OUTPUTS_TYPE = new TypeToken<Map<String, SinkOutput>>() { }.getType();
   static final Type CONNECTOR_DATASETS_TYPE = new TypeToken<HashSet<String>>() { }.getType();
+  static final Type JOIN_BROADCAST_DATASETS_TYPE = new TypeToken<Map<String, Set<String>>>() { }.getType();
   private static final Logger LOG = LoggerFactory.getLogger(ETLMapReduce.class);
   private static final Logger PIPELINE_LOG = new LocationAwareMDCWrapperLogger(LOG, Constants.EVENT_TYPE_TAG,
                                                                               Constants.PIPELINE_LIFECYCLE_TAG_VALUE);
@@ -155,8 +164,7 @@ public class ETLMapReduce extends AbstractMapReduce {
       throw new IllegalArgumentException(String.format(
         "Pipeline phase '%s' must contain at least one sink but does not have any.", phaseSpec.getPhaseName()));
     }
-    Set<StageSpec> reducers = phaseSpec.getPhase().getStagesOfType(BatchAggregator.PLUGIN_TYPE,
-                                                                   BatchJoiner.PLUGIN_TYPE);
+    Set<StageSpec> reducers = getReducers(phaseSpec.getPhase());
     if (reducers.size() > 1) {
       throw new IllegalArgumentException(String.format(
         "Pipeline phase '%s' cannot contain more than one reducer but it has reducers '%s'.",
@@ -204,8 +212,7 @@ public class ETLMapReduce extends AbstractMapReduce {
       new PipelinePluginInstantiator(context, mrMetrics, phaseSpec, new MultiConnectorFactory());
 
     // should never happen if planner is correct
-    Set<StageSpec> reducers = phaseSpec.getPhase().getStagesOfType(BatchAggregator.PLUGIN_TYPE,
-                                                                   BatchJoiner.PLUGIN_TYPE);
+    Set<StageSpec> reducers = getReducers(phaseSpec.getPhase());
     if (reducers.size() > 1) {
       Iterator<StageSpec> reducerIter = reducers.iterator();
       StringBuilder reducersStr = new StringBuilder(reducerIter.next().getName());
@@ -228,6 +235,10 @@ public class ETLMapReduce extends AbstractMapReduce {
     final Map<String, String> inputAliasToStage = new HashMap<>();
     // Collect field operations emitted by various stages in this MapReduce program
     final Map<String, List<FieldOperation>> stageOperations = new HashMap<>();
+    // estimated number of bytes read by each source, used to pick the input that a joiner streams
+    final Map<String, Long> sourceSizes = new HashMap<>();
+    // map side joiner -> connector datasets that hold the inputs broadcast to it
+    Map<String, Set<String>> broadcastDatasets = new HashMap<>();
     // call prepareRun on each stage in order so that any arguments set by a stage will be visible to subsequent stages
     for (final String stageName : phase.getDag().getTopologicalOrder()) {
       final StageSpec stageSpec = phase.getStage(stageName);
@@ -236,6 +247,18 @@ public class ETLMapReduce extends AbstractMapReduce {
         Constants.Connector.PLUGIN_TYPE.equals(pluginType) && phase.getSources().contains(stageName);
       boolean isConnectorSink =
         Constants.Connector.PLUGIN_TYPE.equals(pluginType) && phase.getSinks().contains(stageName);
+      if (isConnectorSource && isBroadcastConnector(stageSpec)) {
+        // not an input of the job, the connector is read by the joiner it is broadcast to when the mapper starts
+        for (String joinerName : phase.getStageOutputs(stageName)) {
+          Set<String> joinerDatasets = broadcastDatasets.get(joinerName);
+          if (joinerDatasets == null) {
+            joinerDatasets = new HashSet<>();
+            broadcastDatasets.put(joinerName, joinerDatasets);
+          }
+          joinerDatasets.add(phaseSpec.getConnectorDatasets().get(stageName));
+        }
+        continue;
+      }
 
       SubmitterPlugin submitterPlugin = null;
       if (BatchSource.PLUGIN_TYPE.equals(pluginType) || isConnectorSource) {
@@ -251,6 +274,7 @@ public class ETLMapReduce extends AbstractMapReduce {
               for (String inputAlias : sourceContext.getInputNames()) {
                 inputAliasToStage.put(inputAlias, stageName);
               }
+              sourceSizes.put(stageName, InputSizes.estimate(context, hConf, sourceContext.getInputs()));
               stageOperations.put(stageName, sourceContext.getFieldOperations());
             }
           });
@@ -311,6 +335,7 @@ public class ETLMapReduce extends AbstractMapReduce {
               hConf.set(MAP_VAL_CLASS, outputValClass.getName());
               job.setMapOutputKeyClass(getOutputKeyClass(stageName, outputKeyClass));
               job.setMapOutputValueClass(getOutputValClass(stageName, outputValClass));
+              StructuredRecordWritable.registerSchemas(hConf, stageSpec.getInputSchemas().values());
               stageOperations.put(stageName, aggregatorContext.getFieldOperations());
             }
           });
@@ -320,11 +345,17 @@ public class ETLMapReduce extends AbstractMapReduce {
         final BatchJoiner<?, ?, ?> batchJoiner = pluginInstantiator.newPluginInstance(stageName, evaluator);
         ContextProvider<DefaultJoinerContext> contextProvider =
           new JoinerContextProvider(pipelineRuntime, stageSpec, context.getAdmin());
+        final boolean isMapSideJoin = isMapSideJoiner(phase, stageName);
         submitterPlugin = new SubmitterPlugin<>(
           stageName, context, batchJoiner, contextProvider,
           new SubmitterPlugin.PrepareAction<DefaultJoinerContext>() {
             @Override
             public void act(DefaultJoinerContext joinerContext) {
+              stageOperations.put(stageName, joinerContext.getFieldOperations());
+              if (isMapSideJoin) {
+                // the records are joined in the mapper, so the joiner does not shuffle anything
+                return;
+              }
               if (joinerContext.getNumPartitions() != null) {
                 job.setNumReduceTasks(joinerContext.getNumPartitions());
               }
@@ -339,11 +370,27 @@ public class ETLMapReduce extends AbstractMapReduce {
               }
               hConf.set(MAP_KEY_CLASS, outputKeyClass.getName());
               hConf.set(MAP_VAL_CLASS, inputRecordClass.getName());
-              job.setMapOutputKeyClass(getOutputKeyClass(stageName, outputKeyClass));
+              // for joiner plugin map output key is tagged with whether the record is from the streamed input,
+              // so that the records of that input are reduced after the records of all other inputs
+              Class<?> joinKeyClass = getOutputKeyClass(stageName, outputKeyClass);
+              TaggedJoinKey.setKeyClass(hConf, joinKeyClass.asSubclass(WritableComparable.class));
+              job.setMapOutputKeyClass(TaggedJoinKey.class);
+              job.setPartitionerClass(TaggedJoinKey.JoinKeyPartitioner.class);
+              job.setSortComparatorClass(TaggedJoinKey.Comparator.class);
+              job.setGroupingComparatorClass(TaggedJoinKey.GroupingComparator.class);
+              // if the joiner did not hint which input to stream, stream the one that reads the most data so that
+              // it is not buffered. If the sizes are unknown any input is streamed, since the records of the
+              // other inputs that do not fit in memory are spilled to disk by the reducer.
+              String streamedInput = joinerContext.getStreamedInput();
+              if (streamedInput == null) {
+                streamedInput = getLargestInput(phase, stageSpec, sourceSizes);
+              }
+              hConf.set(JOIN_STREAMED_INPUT_KEY,
+                        streamedInput == null ? Collections.max(stageSpec.getInputs()) : streamedInput);
               getOutputValClass(stageName, inputRecordClass);
               // for joiner plugin map output is tagged with stageName
               job.setMapOutputValueClass(TaggedWritable.class);
-              stageOperations.put(stageName, joinerContext.getFieldOperations());
+              StructuredRecordWritable.registerSchemas(hConf, stageSpec.getInputSchemas().values());
             }
           });
       }
@@ -355,6 +402,7 @@ public class ETLMapReduce extends AbstractMapReduce {
 
     hConf.set(SINK_OUTPUTS_KEY, GSON.toJson(sinkOutputs));
     hConf.set(INPUT_ALIAS_KEY, GSON.toJson(inputAliasToStage));
+    hConf.set(JOIN_BROADCAST_DATASETS_KEY, GSON.toJson(broadcastDatasets));
     finisher = new CompositeFinisher(finishers);
 
     job.setMapperClass(ETLMapper.class);
@@ -373,6 +421,83 @@ public class ETLMapReduce extends AbstractMapReduce {
     hConf.set(RUNTIME_ARGS_KEY, GSON.toJson(pipelineRuntime.getArguments().asMap()));
   }
 
+  /**
+   * Returns the stages of the phase that are run in the reducers. A joiner that reads a broadcast connector
+   * joins the records in the mappers, so it is not one of them.
+   */
+  static Set<StageSpec> getReducers(PipelinePhase phase) {
+    Set<StageSpec> reducers = new HashSet<>();
+    for (StageSpec stageSpec : phase.getStagesOfType(BatchAggregator.PLUGIN_TYPE, BatchJoiner.PLUGIN_TYPE)) {
+      if (!isMapSideJoiner(phase, stageSpec.getName())) {
+        reducers.add(stageSpec);
+      }
+    }
+    return reducers;
+  }
+
+  /**
+   * Returns whether the given stage is a joiner that has inputs broadcast to it by the planner.
+   */
+  static boolean isMapSideJoiner(PipelinePhase phase, String stageName) {
+    if (!BatchJoiner.PLUGIN_TYPE.equals(phase.getStage(stageName).getPluginType())) {
+      return false;
+    }
+    for (String input : phase.getStageInputs(stageName)) {
+      if (isBroadcastConnector(phase.getStage(input))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isBroadcastConnector(StageSpec stageSpec) {
+    return Constants.Connector.PLUGIN_TYPE.equals(stageSpec.getPluginType()) &&
+      Boolean.parseBoolean(stageSpec.getPlugin().getProperties().get(Constants.Connector.BROADCAST));
+  }
+
+  /**
+   * Returns the input of a joiner that reads the most bytes, as estimated from the sizes of the sources of the phase
+   * that the input reads from, or null if the size of any input is unknown. Ties are broken by the input name.
+   */
+  @Nullable
+  private static String getLargestInput(PipelinePhase phase, StageSpec joinerSpec, Map<String, Long> sourceSizes) {
+    Dag dag = phase.getDag();
+    String largestInput = null;
+    long largestSize = -1L;
+    for (String input : new TreeSet<>(joinerSpec.getInputs())) {
+      Set<String> inputSources = new HashSet<>();
+      if (dag.getNodes().contains(input)) {
+        inputSources.addAll(Sets.intersection(dag.parentsOf(input), phase.getSources()));
+      } else {
+        // the input was run in an earlier phase, and is read from a connector
+        for (String source : phase.getSources()) {
+          StageSpec sourceSpec = phase.getStage(source);
+          if (Constants.Connector.PLUGIN_TYPE.equals(sourceSpec.getPluginType()) &&
+            input.equals(sourceSpec.getPlugin().getProperties().get(Constants.Connector.ORIGINAL_NAME))) {
+            inputSources.add(source);
+          }
+        }
+      }
+      if (inputSources.isEmpty()) {
+        return null;
+      }
+
+      long size = 0L;
+      for (String source : inputSources) {
+        Long sourceSize = sourceSizes.get(source);
+        if (sourceSize == null || sourceSize == InputSizes.UNKNOWN) {
+          return null;
+        }
+        size += sourceSize;
+      }
+      if (size >= largestSize) {
+        largestInput = input;
+        largestSize = size;
+      }
+    }
+    return largestInput;
+  }
+
   private Class<?> getOutputKeyClass(String reducerName, Class<?> outputKeyClass) {
     // in case the classes are not a WritableComparable, but is some common type we support
     // for example, a String or a StructuredRecord
@@ -468,6 +593,17 @@ public class ETLMapReduce extends AbstractMapReduce {
       }
     }
 
+    @Override
+    protected void cleanup(Mapper.Context context) throws IOException, InterruptedException {
+      // buffered records must be flushed here rather than in destroy(), since the outputs are closed before that
+      try {
+        transformRunner.flush();
+      } catch (StageFailureException e) {
+        PIPELINE_LOG.error("{}", e.getMessage(), e.getCause());
+        Throwables.propagate(e.getCause());
+      }
+    }
+
     @Override
     public void destroy() {
       transformRunner.destroy();
@@ -506,6 +642,17 @@ public class ETLMapReduce extends AbstractMapReduce {
       }
     }
 
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      // buffered records must be flushed here rather than in destroy(), since the outputs are closed before that
+      try {
+        transformRunner.flush();
+      } catch (StageFailureException e) {
+        PIPELINE_LOG.error("{}", e.getMessage(), e.getCause());
+        Throwables.propagate(e.getCause());
+      }
+    }
+
     @Override
     public void destroy() {
       transformRunner.destroy();
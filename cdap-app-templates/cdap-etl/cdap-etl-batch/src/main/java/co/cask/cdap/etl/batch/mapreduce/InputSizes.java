@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch.mapreduce;
+
+import co.cask.cdap.api.data.DatasetContext;
+import co.cask.cdap.api.data.batch.Input;
+import co.cask.cdap.api.data.batch.InputFormatProvider;
+import co.cask.cdap.api.dataset.Dataset;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Estimates the number of bytes that the inputs of a source will read, so that a joiner can stream its largest
+ * input. Only inputs that read from a file system can be estimated.
+ */
+final class InputSizes {
+  private static final Logger LOG = LoggerFactory.getLogger(InputSizes.class);
+
+  static final long UNKNOWN = -1L;
+
+  private InputSizes() {
+  }
+
+  /**
+   * Returns the total size of the given inputs in bytes, or {@link #UNKNOWN} if the size of any of them is unknown.
+   */
+  static long estimate(DatasetContext datasetContext, Configuration hConf, Iterable<? extends Input> inputs) {
+    long total = 0L;
+    for (Input input : inputs) {
+      long size = estimate(datasetContext, hConf, input);
+      if (size == UNKNOWN) {
+        return UNKNOWN;
+      }
+      total += size;
+    }
+    return total;
+  }
+
+  private static long estimate(DatasetContext datasetContext, Configuration hConf, Input input) {
+    try {
+      InputFormatProvider provider = null;
+      if (input instanceof Input.InputFormatProviderInput) {
+        provider = ((Input.InputFormatProviderInput) input).getInputFormatProvider();
+      } else if (input instanceof Input.DatasetInput) {
+        Map<String, String> arguments = ((Input.DatasetInput) input).getArguments();
+        Dataset dataset = input.getNamespace() == null
+          ? datasetContext.getDataset(input.getName(), arguments)
+          : datasetContext.getDataset(input.getNamespace(), input.getName(), arguments);
+        if (dataset instanceof InputFormatProvider) {
+          provider = (InputFormatProvider) dataset;
+        }
+      }
+      if (provider == null) {
+        return UNKNOWN;
+      }
+
+      Configuration conf = new Configuration(hConf);
+      for (Map.Entry<String, String> entry : provider.getInputFormatConfiguration().entrySet()) {
+        conf.set(entry.getKey(), entry.getValue());
+      }
+      if (conf.get(FileInputFormat.INPUT_DIR) == null) {
+        return UNKNOWN;
+      }
+      long size = 0L;
+      for (Path path : FileInputFormat.getInputPaths(Job.getInstance(conf))) {
+        FileSystem fs = path.getFileSystem(conf);
+        FileStatus[] statuses = fs.globStatus(path);
+        if (statuses == null) {
+          continue;
+        }
+        for (FileStatus status : statuses) {
+          size += fs.getContentSummary(status.getPath()).getLength();
+        }
+      }
+      return size;
+    } catch (Exception e) {
+      // the size is only used to pick the input that a joiner streams, so the run must not fail because of it
+      LOG.debug("Unable to estimate the size of input '{}'.", input.getAlias(), e);
+      return UNKNOWN;
+    }
+  }
+}
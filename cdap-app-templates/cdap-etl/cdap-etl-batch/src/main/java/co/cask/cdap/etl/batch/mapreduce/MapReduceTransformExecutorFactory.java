@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -16,6 +16,8 @@
 
 package co.cask.cdap.etl.batch.mapreduce;
 
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.dataset.lib.FileSet;
 import co.cask.cdap.api.dataset.lib.KeyValue;
 import co.cask.cdap.api.macro.MacroEvaluator;
 import co.cask.cdap.api.mapreduce.MapReduceTaskContext;
@@ -45,18 +47,22 @@ import co.cask.cdap.etl.batch.PipeStage;
 import co.cask.cdap.etl.batch.PipeTransformExecutor;
 import co.cask.cdap.etl.batch.PipelinePluginInstantiator;
 import co.cask.cdap.etl.batch.UnwrapPipeStage;
+import co.cask.cdap.etl.batch.connector.MultiConnectorReader;
 import co.cask.cdap.etl.batch.conversion.WritableConversion;
 import co.cask.cdap.etl.batch.conversion.WritableConversions;
 import co.cask.cdap.etl.batch.join.Join;
+import co.cask.cdap.etl.batch.join.JoinElementBuffer;
 import co.cask.cdap.etl.common.BasicArguments;
 import co.cask.cdap.etl.common.Constants;
 import co.cask.cdap.etl.common.DefaultMacroEvaluator;
 import co.cask.cdap.etl.common.DefaultStageMetrics;
+import co.cask.cdap.etl.common.MetricsBatch;
 import co.cask.cdap.etl.common.NoErrorEmitter;
 import co.cask.cdap.etl.common.NoopStageStatisticsCollector;
 import co.cask.cdap.etl.common.PipelinePhase;
 import co.cask.cdap.etl.common.PipelineRuntime;
 import co.cask.cdap.etl.common.RecordInfo;
+import co.cask.cdap.etl.common.RecordType;
 import co.cask.cdap.etl.common.StageStatisticsCollector;
 import co.cask.cdap.etl.common.TrackedMultiOutputTransform;
 import co.cask.cdap.etl.common.TrackedTransform;
@@ -64,8 +70,10 @@ import co.cask.cdap.etl.common.TransformExecutor;
 import co.cask.cdap.etl.common.preview.LimitingTransform;
 import co.cask.cdap.etl.spec.StageSpec;
 import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
+import com.google.gson.Gson;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
@@ -73,9 +81,12 @@ import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -87,6 +98,7 @@ import javax.annotation.Nullable;
  * @param <T> the type of input for the created transform executors
  */
 public class MapReduceTransformExecutorFactory<T> {
+  private static final Gson GSON = new Gson();
   private final String sourceStageName;
   private final MacroEvaluator macroEvaluator;
   private final PipelinePluginInstantiator pluginInstantiator;
@@ -94,9 +106,15 @@ public class MapReduceTransformExecutorFactory<T> {
   private final MapReduceTaskContext taskContext;
   private final String mapOutputKeyClassName;
   private final String mapOutputValClassName;
+  private final Configuration hConf;
+  private final String joinStreamedInput;
+  private final int joinBufferSize;
+  private final int recordBatchSize;
+  private final Map<String, Set<String>> joinBroadcastDatasets;
   private final int numberOfRecordsPreview;
   private final BasicArguments arguments;
   private final boolean isPipelineContainsCondition;
+  private final MetricsBatch metricsBatch;
   private boolean isMapPhase;
 
   public MapReduceTransformExecutorFactory(MapReduceTaskContext taskContext,
@@ -106,6 +124,18 @@ public class MapReduceTransformExecutorFactory<T> {
                                            String sourceStageName,
                                            int numberOfRecordsPreview,
                                            boolean isPipelineContainsCondition) {
+    this(taskContext, pluginInstantiator, metrics, arguments, sourceStageName, numberOfRecordsPreview,
+         isPipelineContainsCondition, MetricsBatch.NONE);
+  }
+
+  public MapReduceTransformExecutorFactory(MapReduceTaskContext taskContext,
+                                           PipelinePluginInstantiator pluginInstantiator,
+                                           Metrics metrics,
+                                           BasicArguments arguments,
+                                           String sourceStageName,
+                                           int numberOfRecordsPreview,
+                                           boolean isPipelineContainsCondition,
+                                           MetricsBatch metricsBatch) {
     this.taskContext = taskContext;
     this.numberOfRecordsPreview = numberOfRecordsPreview;
     this.pluginInstantiator = pluginInstantiator;
@@ -117,9 +147,53 @@ public class MapReduceTransformExecutorFactory<T> {
     Configuration hConf = hadoopContext.getConfiguration();
     this.mapOutputKeyClassName = hConf.get(ETLMapReduce.MAP_KEY_CLASS);
     this.mapOutputValClassName = hConf.get(ETLMapReduce.MAP_VAL_CLASS);
+    this.hConf = hConf;
+    this.joinStreamedInput = hConf.get(ETLMapReduce.JOIN_STREAMED_INPUT_KEY);
+    this.joinBufferSize = getJoinBufferSize(arguments);
+    this.recordBatchSize = getRecordBatchSize(arguments);
+    String joinBroadcastDatasets = hConf.get(ETLMapReduce.JOIN_BROADCAST_DATASETS_KEY);
+    this.joinBroadcastDatasets = joinBroadcastDatasets == null ? Collections.<String, Set<String>>emptyMap() :
+      GSON.<Map<String, Set<String>>>fromJson(joinBroadcastDatasets, ETLMapReduce.JOIN_BROADCAST_DATASETS_TYPE);
     this.isMapPhase = hadoopContext instanceof Mapper.Context;
     this.arguments = arguments;
     this.isPipelineContainsCondition = isPipelineContainsCondition;
+    this.metricsBatch = metricsBatch;
+  }
+
+  private static int getJoinBufferSize(BasicArguments arguments) {
+    String size = arguments.get(Constants.JOIN_BUFFER_SIZE);
+    if (size == null) {
+      return Constants.DEFAULT_JOIN_BUFFER_SIZE;
+    }
+    try {
+      int joinBufferSize = Integer.parseInt(size.trim());
+      if (joinBufferSize >= 0) {
+        return joinBufferSize;
+      }
+    } catch (NumberFormatException e) {
+      // fall through to fail with the name of the argument
+    }
+    throw new IllegalArgumentException(String.format(
+      "Invalid value '%s' for runtime argument '%s'. It must be a non-negative integer.",
+      size, Constants.JOIN_BUFFER_SIZE));
+  }
+
+  private static int getRecordBatchSize(BasicArguments arguments) {
+    String size = arguments.get(Constants.RECORD_BATCH_SIZE);
+    if (size == null) {
+      return 1;
+    }
+    try {
+      int recordBatchSize = Integer.parseInt(size.trim());
+      if (recordBatchSize > 0) {
+        return recordBatchSize;
+      }
+    } catch (NumberFormatException e) {
+      // fall through to fail with the name of the argument
+    }
+    throw new IllegalArgumentException(String.format(
+      "Invalid value '%s' for runtime argument '%s'. It must be a positive integer.",
+      size, Constants.RECORD_BATCH_SIZE));
   }
 
   private MapReduceRuntimeContext createRuntimeContext(StageSpec stageInfo) {
@@ -142,7 +216,7 @@ public class MapReduceTransformExecutorFactory<T> {
     StageStatisticsCollector collector = isPipelineContainsCondition
       ? new MapReduceStageStatisticsCollector(stageName, taskAttemptContext) : new NoopStageStatisticsCollector();
     return new TrackedMultiOutputTransform<>(splitterTransform, stageMetrics, taskContext.getDataTracer(stageName),
-                                             collector);
+                                             collector, metricsBatch);
   }
 
   @SuppressWarnings("unchecked")
@@ -163,26 +237,36 @@ public class MapReduceTransformExecutorFactory<T> {
       if (isMapPhase) {
         return getTrackedEmitKeyStep(new MapperAggregatorTransformation(batchAggregator, mapOutputKeyClassName,
                                                                         mapOutputValClassName),
-                                     stageMetrics, taskContext.getDataTracer(stageName), collector);
+                                     stageMetrics, taskContext.getDataTracer(stageName), collector, metricsBatch);
       } else {
         return getTrackedAggregateStep(new ReducerAggregatorTransformation(batchAggregator,
                                                                            mapOutputKeyClassName,
                                                                            mapOutputValClassName),
-                                       stageMetrics, taskContext.getDataTracer(stageName), collector);
+                                       stageMetrics, taskContext.getDataTracer(stageName), collector,
+                                       metricsBatch);
       }
     } else if (BatchJoiner.PLUGIN_TYPE.equals(pluginType)) {
       BatchJoiner<?, ?, ?> batchJoiner = pluginInstantiator.newPluginInstance(stageName, macroEvaluator);
       BatchJoinerRuntimeContext runtimeContext = createRuntimeContext(stageSpec);
       batchJoiner.initialize(runtimeContext);
+      Set<String> broadcastDatasets = joinBroadcastDatasets.get(stageName);
+      if (broadcastDatasets != null) {
+        Transformation mapSideJoiner = createMapSideJoiner(batchJoiner, stageSpec, broadcastDatasets);
+        return new TrackedTransform<>(mapSideJoiner, stageMetrics, Constants.Metrics.RECORDS_IN,
+                                      Constants.Metrics.RECORDS_OUT,
+                                      taskContext.getDataTracer(stageName), collector, metricsBatch);
+      }
       if (isMapPhase) {
         return getTrackedEmitKeyStep(
-          new MapperJoinerTransformation(batchJoiner, mapOutputKeyClassName, mapOutputValClassName), stageMetrics,
-          taskContext.getDataTracer(stageName), collector);
+          new MapperJoinerTransformation(batchJoiner, mapOutputKeyClassName, mapOutputValClassName,
+                                         joinStreamedInput), stageMetrics,
+          taskContext.getDataTracer(stageName), collector, metricsBatch);
       } else {
         return getTrackedMergeStep(
           new ReducerJoinerTransformation(batchJoiner, mapOutputKeyClassName, mapOutputValClassName,
-                                          runtimeContext.getInputSchemas().size()), stageMetrics,
-          taskContext.getDataTracer(stageName), collector);
+                                          runtimeContext.getInputSchemas().size(), joinStreamedInput,
+                                          joinBufferSize, hConf),
+          stageMetrics, taskContext.getDataTracer(stageName), collector, metricsBatch);
       }
     }
 
@@ -194,7 +278,55 @@ public class MapReduceTransformExecutorFactory<T> {
     // not when we write the alerts to the temporary dataset
     String recordsInMetric = AlertPublisher.PLUGIN_TYPE.equals(pluginType) ? null : Constants.Metrics.RECORDS_IN;
     return new TrackedTransform<>(transformation, stageMetrics, recordsInMetric, Constants.Metrics.RECORDS_OUT,
-                                  taskContext.getDataTracer(stageName), collector);
+                                  taskContext.getDataTracer(stageName), collector, metricsBatch);
+  }
+
+  /**
+   * Creates the transformation of a joiner that joins in the mapper, after reading the records of its broadcast
+   * inputs from the given connector datasets into memory.
+   */
+  @SuppressWarnings("unchecked")
+  private <JOIN_KEY, INPUT_RECORD, OUT> Transformation<INPUT_RECORD, OUT> createMapSideJoiner(
+    BatchJoiner<JOIN_KEY, INPUT_RECORD, OUT> joiner, StageSpec stageSpec, Set<String> broadcastDatasets)
+    throws Exception {
+    String stageName = stageSpec.getName();
+    Set<String> streamedInputs = Sets.difference(stageSpec.getInputs(), stageSpec.getBroadcastInputs());
+    if (streamedInputs.size() != 1) {
+      throw new IllegalStateException(String.format(
+        "Joiner stage '%s' must have exactly one input that is not broadcast to join in the mappers, but has %s.",
+        stageName, streamedInputs));
+    }
+    String streamedInput = streamedInputs.iterator().next();
+    // records of a broadcast input that match no record of the streamed input are never seen by a mapper that
+    // reads the streamed input, so they cannot be emitted by an outer join on the streamed input
+    if (!Iterables.contains(joiner.getJoinConfig().getRequiredInputs(), streamedInput)) {
+      throw new IllegalArgumentException(String.format(
+        "Joiner stage '%s' cannot join in the mappers because input '%s' is not a required input. " +
+          "Only the inputs of a stage that are joined with a required input can be broadcast.",
+        stageName, streamedInput));
+    }
+
+    Map<JOIN_KEY, List<JoinElement<INPUT_RECORD>>> broadcastElements = new HashMap<>();
+    for (String dataset : broadcastDatasets) {
+      try (MultiConnectorReader reader = new MultiConnectorReader((FileSet) taskContext.getDataset(dataset))) {
+        while (reader.hasNext()) {
+          RecordInfo<StructuredRecord> recordInfo = reader.next();
+          if (recordInfo.getType() != RecordType.OUTPUT) {
+            continue;
+          }
+          INPUT_RECORD record = (INPUT_RECORD) recordInfo.getValue();
+          JOIN_KEY joinKey = joiner.joinOn(recordInfo.getFromStage(), record);
+          List<JoinElement<INPUT_RECORD>> elements = broadcastElements.get(joinKey);
+          if (elements == null) {
+            elements = new ArrayList<>();
+            broadcastElements.put(joinKey, elements);
+          }
+          elements.add(new JoinElement<>(recordInfo.getFromStage(), record));
+        }
+      }
+    }
+    return new MapSideJoinerTransformation<>(joiner, stageSpec.getInputs().size(), streamedInput,
+                                             broadcastElements);
   }
 
   /**
@@ -219,10 +351,16 @@ public class MapReduceTransformExecutorFactory<T> {
     for (String stageName : traversalOrder) {
       pipeStages.put(stageName, getPipeStage(pipeline, stageName, pipeStages, outputWriter));
     }
+    // the executor flushes the stages in topological order
+    Collections.reverse(traversalOrder);
+    Map<String, PipeStage> orderedPipeStages = new LinkedHashMap<>();
+    for (String stageName : traversalOrder) {
+      orderedPipeStages.put(stageName, pipeStages.get(stageName));
+    }
 
     // sourceStageName will be null in reducers, so need to handle that case
     Set<String> startingPoints = (sourceStageName == null) ? pipeline.getSources() : Sets.newHashSet(sourceStageName);
-    return new PipeTransformExecutor<>(pipeStages, startingPoints);
+    return new PipeTransformExecutor<>(orderedPipeStages, startingPoints);
   }
 
   private PipeStage getPipeStage(PipelinePhase pipeline, String stageName, Map<String, PipeStage> pipeStages,
@@ -265,6 +403,7 @@ public class MapReduceTransformExecutorFactory<T> {
     PipeEmitter.Builder emitterBuilder =
       Constants.Connector.PLUGIN_TYPE.equals(pluginType) && pipeline.getSources().contains(stageName) ?
         ConnectorSourceEmitter.builder(stageName) : PipeEmitter.builder(stageName);
+    emitterBuilder.setRecordBatchSize(recordBatchSize);
 
     Map<String, StageSpec.Port> outputPorts = stageSpec.getOutputPorts();
     for (String outputStageName : pipeline.getDag().getNodeOutputs(stageName)) {
@@ -323,30 +462,36 @@ public class MapReduceTransformExecutorFactory<T> {
   private static <IN, OUT> TrackedTransform<IN, OUT> getTrackedEmitKeyStep(Transformation<IN, OUT> transform,
                                                                            StageMetrics stageMetrics,
                                                                            DataTracer dataTracer,
-                                                                           StageStatisticsCollector collector) {
-    return new TrackedTransform<>(transform, stageMetrics, Constants.Metrics.RECORDS_IN, null, dataTracer, collector);
+                                                                           StageStatisticsCollector collector,
+                                                                           MetricsBatch metricsBatch) {
+    return new TrackedTransform<>(transform, stageMetrics, Constants.Metrics.RECORDS_IN, null, dataTracer, collector,
+                                  metricsBatch);
   }
 
   private static <IN, OUT> TrackedTransform<IN, OUT> getTrackedAggregateStep(Transformation<IN, OUT> transform,
                                                                              StageMetrics stageMetrics,
                                                                              DataTracer dataTracer,
-                                                                             StageStatisticsCollector collector) {
+                                                                             StageStatisticsCollector collector,
+                                                                             MetricsBatch metricsBatch) {
     // 'aggregator.groups' is the number of groups output by the aggregator
     return new TrackedTransform<>(transform, stageMetrics, Constants.Metrics.AGG_GROUPS, Constants.Metrics.RECORDS_OUT,
-                                  dataTracer, collector);
+                                  dataTracer, collector, metricsBatch);
   }
 
   private static <IN, OUT> TrackedTransform<IN, OUT> getTrackedMergeStep(Transformation<IN, OUT> transform,
                                                                          StageMetrics stageMetrics,
                                                                          DataTracer dataTracer,
-                                                                         StageStatisticsCollector collector) {
-    return new TrackedTransform<>(transform, stageMetrics, null, Constants.Metrics.RECORDS_OUT, dataTracer, collector);
+                                                                         StageStatisticsCollector collector,
+                                                                         MetricsBatch metricsBatch) {
+    return new TrackedTransform<>(transform, stageMetrics, null, Constants.Metrics.RECORDS_OUT, dataTracer, collector,
+                                  metricsBatch);
   }
 
   /**
    * A Transformation that uses join's joinOn method. Converts join value to tagged output with stage name for
    * reducer. It uses {@link TaggedWritable} to tag join value with stage name so that we can use stage name
-   * in reduce phase.
+   * in reduce phase, and {@link TaggedJoinKey} to tag join key with whether the value is from the streamed input,
+   * so that the values of the streamed input are reduced after the values of all other inputs.
    *
    * @param <JOIN_KEY>     type of join key
    * @param <INPUT_RECORD> type of input record
@@ -354,15 +499,17 @@ public class MapReduceTransformExecutorFactory<T> {
    * @param <OUT_KEY>      type of the map output
    */
   private static class MapperJoinerTransformation<JOIN_KEY, INPUT_RECORD, OUT, OUT_KEY
-    extends Writable, OUT_VALUE extends Writable>
-    implements Transformation<RecordInfo<INPUT_RECORD>, KeyValue<OUT_KEY, TaggedWritable<OUT_VALUE>>> {
+    extends WritableComparable, OUT_VALUE extends Writable>
+    implements Transformation<RecordInfo<INPUT_RECORD>, KeyValue<TaggedJoinKey<OUT_KEY>, TaggedWritable<OUT_VALUE>>> {
     private final Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner;
     private final WritableConversion<JOIN_KEY, OUT_KEY> keyConversion;
     private final WritableConversion<INPUT_RECORD, OUT_VALUE> inputConversion;
+    private final String streamedInput;
 
     MapperJoinerTransformation(Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner, String joinKeyClassName,
-                               String joinInputClassName) {
+                               String joinInputClassName, String streamedInput) {
       this.joiner = joiner;
+      this.streamedInput = streamedInput;
       WritableConversion<JOIN_KEY, OUT_KEY> keyConversion = WritableConversions.getConversion(joinKeyClassName);
       WritableConversion<INPUT_RECORD, OUT_VALUE> inputConversion =
         WritableConversions.getConversion(joinInputClassName);
@@ -372,17 +519,22 @@ public class MapReduceTransformExecutorFactory<T> {
 
     @Override
     public void transform(RecordInfo<INPUT_RECORD> input,
-                          Emitter<KeyValue<OUT_KEY, TaggedWritable<OUT_VALUE>>> emitter) throws Exception {
+                          Emitter<KeyValue<TaggedJoinKey<OUT_KEY>, TaggedWritable<OUT_VALUE>>> emitter)
+      throws Exception {
       String stageName = input.getFromStage();
       JOIN_KEY key = joiner.joinOn(stageName, input.getValue());
       TaggedWritable<OUT_VALUE> output = new TaggedWritable<>(stageName,
                                                               inputConversion.toWritable(input.getValue()));
-      emitter.emit(new KeyValue<>(keyConversion.toWritable(key), output));
+      TaggedJoinKey<OUT_KEY> outputKey = new TaggedJoinKey<>(keyConversion.toWritable(key),
+                                                             stageName.equals(streamedInput));
+      emitter.emit(new KeyValue<>(outputKey, output));
     }
   }
 
   /**
-   * A Transformation that uses an join's emit method to emit joinResults.
+   * A Transformation that uses an join's emit method to emit joinResults. The values of the streamed input
+   * come after the values of all other inputs, so only the values of the other inputs are buffered. Values beyond
+   * the buffer size of an input are written to local disk and read back for every value they are joined with.
    *
    * @param <JOIN_KEY>     type of join key
    * @param <INPUT_RECORD> type of input record
@@ -391,14 +543,17 @@ public class MapReduceTransformExecutorFactory<T> {
    */
   private static class ReducerJoinerTransformation<JOIN_KEY, INPUT_RECORD, OUT,
     REDUCE_KEY extends WritableComparable, REDUCE_VALUE extends Writable>
-    implements Transformation<KeyValue<REDUCE_KEY, Iterator<TaggedWritable<REDUCE_VALUE>>>, OUT> {
+    implements Transformation<KeyValue<TaggedJoinKey<REDUCE_KEY>, Iterator<TaggedWritable<REDUCE_VALUE>>>, OUT> {
     private final Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner;
     private final WritableConversion<JOIN_KEY, REDUCE_KEY> keyConversion;
     private final WritableConversion<INPUT_RECORD, REDUCE_VALUE> inputConversion;
     private final int numOfInputs;
+    private final String streamedInput;
+    private final JoinElementBuffer.Factory<INPUT_RECORD> bufferFactory;
 
     ReducerJoinerTransformation(Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner, String joinKeyClassName,
-                                String joinInputClassName, int numOfInputs) {
+                                String joinInputClassName, int numOfInputs, String streamedInput,
+                                final int bufferSize, final Configuration hConf) {
       this.joiner = joiner;
       WritableConversion<JOIN_KEY, REDUCE_KEY> keyConversion = WritableConversions.getConversion(joinKeyClassName);
       WritableConversion<INPUT_RECORD, REDUCE_VALUE> inputConversion =
@@ -407,12 +562,23 @@ public class MapReduceTransformExecutorFactory<T> {
       this.inputConversion = inputConversion == null ?
         new CastConversion<INPUT_RECORD, REDUCE_VALUE>() : inputConversion;
       this.numOfInputs = numOfInputs;
+      this.streamedInput = streamedInput;
+      // in a YARN container, the temporary directory is in the working directory of the container on the local
+      // disks of the node, which is removed with the container
+      final File spillDir = new File(System.getProperty("java.io.tmpdir"));
+      this.bufferFactory = new JoinElementBuffer.Factory<INPUT_RECORD>() {
+        @Override
+        public JoinElementBuffer<INPUT_RECORD> create(String stageName) {
+          return new SpillingJoinElementBuffer<>(stageName, bufferSize, spillDir, hConf,
+                                                 ReducerJoinerTransformation.this.inputConversion);
+        }
+      };
     }
 
     @Override
-    public void transform(KeyValue<REDUCE_KEY, Iterator<TaggedWritable<REDUCE_VALUE>>> input,
+    public void transform(KeyValue<TaggedJoinKey<REDUCE_KEY>, Iterator<TaggedWritable<REDUCE_VALUE>>> input,
                           Emitter<OUT> emitter) throws Exception {
-      JOIN_KEY joinKey = keyConversion.fromWritable(input.getKey());
+      JOIN_KEY joinKey = keyConversion.fromWritable(input.getKey().getKey());
       Iterator<JoinElement<INPUT_RECORD>> inputIterator = Iterators.transform(input.getValue(), new
         Function<TaggedWritable<REDUCE_VALUE>, JoinElement<INPUT_RECORD>>() {
           @Nullable
@@ -422,11 +588,47 @@ public class MapReduceTransformExecutorFactory<T> {
           }
         });
 
-      Join join = new Join<>(joiner, joinKey, inputIterator, numOfInputs, emitter);
+      Join join = new Join<>(joiner, joinKey, inputIterator, numOfInputs, streamedInput, emitter, bufferFactory);
       join.joinRecords();
     }
   }
 
+  /**
+   * A Transformation that joins every record of the one input of a joiner that is not broadcast with the records
+   * of the broadcast inputs that have the same join key, which are held in memory. Since the record is the only
+   * record of the streamed input for the join key, the join emits the same results as the reducer would for it.
+   *
+   * @param <JOIN_KEY>     type of join key
+   * @param <INPUT_RECORD> type of input record
+   * @param <OUT>          type of the output of joiner
+   */
+  private static class MapSideJoinerTransformation<JOIN_KEY, INPUT_RECORD, OUT>
+    implements Transformation<INPUT_RECORD, OUT> {
+    private final Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner;
+    private final int numOfInputs;
+    private final String streamedInput;
+    private final Map<JOIN_KEY, List<JoinElement<INPUT_RECORD>>> broadcastElements;
+
+    MapSideJoinerTransformation(Joiner<JOIN_KEY, INPUT_RECORD, OUT> joiner, int numOfInputs, String streamedInput,
+                                Map<JOIN_KEY, List<JoinElement<INPUT_RECORD>>> broadcastElements) {
+      this.joiner = joiner;
+      this.numOfInputs = numOfInputs;
+      this.streamedInput = streamedInput;
+      this.broadcastElements = broadcastElements;
+    }
+
+    @Override
+    public void transform(INPUT_RECORD input, Emitter<OUT> emitter) throws Exception {
+      JOIN_KEY joinKey = joiner.joinOn(streamedInput, input);
+      List<JoinElement<INPUT_RECORD>> elements = broadcastElements.get(joinKey);
+      Iterator<JoinElement<INPUT_RECORD>> joinElements = Iterators.singletonIterator(
+        new JoinElement<>(streamedInput, input));
+      if (elements != null) {
+        joinElements = Iterators.concat(elements.iterator(), joinElements);
+      }
+      new Join<>(joiner, joinKey, joinElements, numOfInputs, streamedInput, emitter).joinRecords();
+    }
+  }
 
   /**
    * A Transformation that uses an aggregator's groupBy method. Supports applying a function to the types
@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch.mapreduce;
+
+import co.cask.cdap.etl.api.JoinElement;
+import co.cask.cdap.etl.batch.conversion.WritableConversion;
+import co.cask.cdap.etl.batch.join.JoinElementBuffer;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.Writable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link JoinElementBuffer} that holds up to a maximum number of elements in memory, and writes all other
+ * elements to a local file, which is read again every time the elements are iterated over. This bounds the memory
+ * used by a join key that has many records in an input that is not streamed.
+ *
+ * @param <INPUT_RECORD> type of input record
+ * @param <VALUE> type of the writable that input records are serialized as
+ */
+final class SpillingJoinElementBuffer<INPUT_RECORD, VALUE extends Writable>
+  implements JoinElementBuffer<INPUT_RECORD> {
+  private final String stageName;
+  private final int maxInMemory;
+  private final File spillDir;
+  private final Configuration conf;
+  private final WritableConversion<INPUT_RECORD, VALUE> conversion;
+  private final List<JoinElement<INPUT_RECORD>> inMemory;
+  private final Set<DataInputStream> openReaders;
+  private File spillFile;
+  private DataOutputStream spillOutput;
+  private int numSpilled;
+
+  SpillingJoinElementBuffer(String stageName, int maxInMemory, File spillDir, Configuration conf,
+                            WritableConversion<INPUT_RECORD, VALUE> conversion) {
+    this.stageName = stageName;
+    this.maxInMemory = maxInMemory;
+    this.spillDir = spillDir;
+    this.conf = conf;
+    this.conversion = conversion;
+    this.inMemory = new ArrayList<>();
+    this.openReaders = new HashSet<>();
+  }
+
+  @Override
+  public void add(JoinElement<INPUT_RECORD> element) throws IOException {
+    if (inMemory.size() < maxInMemory) {
+      inMemory.add(element);
+      return;
+    }
+    if (spillOutput == null) {
+      spillFile = File.createTempFile("join-" + stageName + "-", ".spill", spillDir);
+      spillOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+    }
+    new ObjectWritable(conversion.toWritable(element.getInputRecord())).write(spillOutput);
+    numSpilled++;
+  }
+
+  /**
+   * Returns the number of elements that were written to the local file.
+   */
+  int getNumSpilled() {
+    return numSpilled;
+  }
+
+  @Override
+  public Iterator<JoinElement<INPUT_RECORD>> iterator() {
+    if (numSpilled == 0) {
+      return inMemory.iterator();
+    }
+    try {
+      spillOutput.flush();
+      DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+      openReaders.add(reader);
+      return Iterators.concat(inMemory.iterator(), new SpilledIterator(reader, numSpilled));
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    inMemory.clear();
+    try {
+      for (DataInputStream reader : openReaders) {
+        reader.close();
+      }
+      openReaders.clear();
+      if (spillOutput != null) {
+        spillOutput.close();
+      }
+    } finally {
+      if (spillFile != null && !spillFile.delete() && spillFile.exists()) {
+        throw new IOException("Failed to delete join spill file " + spillFile);
+      }
+      spillFile = null;
+      spillOutput = null;
+      numSpilled = 0;
+    }
+  }
+
+  /**
+   * Reads the elements that were written to the local file, and closes the file once all of them are read.
+   */
+  private final class SpilledIterator extends AbstractIterator<JoinElement<INPUT_RECORD>> {
+    private final DataInputStream reader;
+    private final ObjectWritable writable;
+    private int remaining;
+
+    private SpilledIterator(DataInputStream reader, int numElements) {
+      this.reader = reader;
+      this.remaining = numElements;
+      this.writable = new ObjectWritable();
+      // ObjectWritable does not set conf while reading fields
+      this.writable.setConf(conf);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected JoinElement<INPUT_RECORD> computeNext() {
+      try {
+        if (remaining == 0) {
+          reader.close();
+          openReaders.remove(reader);
+          return endOfData();
+        }
+        remaining--;
+        writable.readFields(reader);
+        return new JoinElement<>(stageName, conversion.fromWritable((VALUE) writable.get()));
+      } catch (IOException e) {
+        throw Throwables.propagate(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Map output key of a join, which tags the join key with whether the record is from the streamed input of the join.
+ * Keys are partitioned and grouped by the join key only, but sorted by the join key and then by the tag, so that
+ * the records of the streamed input come after the records of all other inputs for the same join key.
+ *
+ * The key is serialized as the length of the serialized join key, the serialized join key, and the tag, so that the
+ * {@link Comparator} can compare the join keys with the comparator of the join key class without deserializing them.
+ *
+ * @param <KEY> type of the join key
+ */
+public class TaggedJoinKey<KEY extends WritableComparable> implements
+  WritableComparable<TaggedJoinKey<KEY>>, Configurable {
+  private static final String KEY_CLASS = "cdap.etl.join.key.class";
+
+  private KEY key;
+  private boolean streamed;
+  private Configuration conf;
+  private Class<? extends WritableComparable> keyClass;
+  private DataOutputBuffer keyBuffer;
+
+  /**
+   * Sets the class of the join key in the given job configuration. Must be called before the job is submitted.
+   */
+  public static void setKeyClass(Configuration hConf, Class<? extends WritableComparable> keyClass) {
+    hConf.setClass(KEY_CLASS, keyClass, WritableComparable.class);
+  }
+
+  private static Class<? extends WritableComparable> getKeyClass(Configuration hConf) {
+    Class<? extends WritableComparable> keyClass = hConf.getClass(KEY_CLASS, null, WritableComparable.class);
+    if (keyClass == null) {
+      throw new IllegalStateException("The join key class is not set in the job configuration.");
+    }
+    return keyClass;
+  }
+
+  // required by Hadoop
+  @SuppressWarnings("unused")
+  public TaggedJoinKey() {
+  }
+
+  public TaggedJoinKey(KEY key, boolean streamed) {
+    this.key = key;
+    this.streamed = streamed;
+  }
+
+  public KEY getKey() {
+    return key;
+  }
+
+  public boolean isStreamed() {
+    return streamed;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public int compareTo(TaggedJoinKey<KEY> o) {
+    int cmp = key.compareTo(o.key);
+    return cmp == 0 ? Boolean.compare(streamed, o.streamed) : cmp;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    TaggedJoinKey that = (TaggedJoinKey) o;
+    return that.streamed == streamed && that.key.equals(key);
+  }
+
+  @Override
+  public int hashCode() {
+    return key == null ? 0 : 31 * key.hashCode() + (streamed ? 1 : 0);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    if (keyBuffer == null) {
+      keyBuffer = new DataOutputBuffer();
+    }
+    keyBuffer.reset();
+    key.write(keyBuffer);
+    WritableUtils.writeVInt(out, keyBuffer.getLength());
+    out.write(keyBuffer.getData(), 0, keyBuffer.getLength());
+    out.writeBoolean(streamed);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    // the length is only needed to compare serialized keys
+    WritableUtils.readVInt(in);
+    // a new join key is created for every record, since the reducer may hold on to the key of a group
+    // while the key object is reused for the next records of the group
+    key = (KEY) ReflectionUtils.newInstance(keyClass, conf);
+    key.readFields(in);
+    streamed = in.readBoolean();
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    this.keyClass = getKeyClass(conf);
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  /**
+   * Sort comparator for {@link TaggedJoinKey}, which compares the serialized join keys with the comparator
+   * registered for the join key class, and then the tags.
+   */
+  public static class Comparator extends WritableComparator implements Configurable {
+    private final boolean compareTags;
+    private Configuration conf;
+    private WritableComparator keyComparator;
+
+    public Comparator() {
+      this(true);
+    }
+
+    Comparator(boolean compareTags) {
+      super(TaggedJoinKey.class);
+      this.compareTags = compareTags;
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      try {
+        int lengthSize1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int keyLength1 = readVInt(b1, s1);
+        int lengthSize2 = WritableUtils.decodeVIntSize(b2[s2]);
+        int keyLength2 = readVInt(b2, s2);
+        int cmp = keyComparator.compare(b1, s1 + lengthSize1, keyLength1, b2, s2 + lengthSize2, keyLength2);
+        if (cmp != 0 || !compareTags) {
+          return cmp;
+        }
+        return Integer.compare(b1[s1 + lengthSize1 + keyLength1], b2[s2 + lengthSize2 + keyLength2]);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Failed to read the length of a serialized join key", e);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compare(WritableComparable a, WritableComparable b) {
+      return compareTags ? a.compareTo(b) : ((TaggedJoinKey) a).key.compareTo(((TaggedJoinKey) b).key);
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+      this.keyComparator = WritableComparator.get(getKeyClass(conf));
+    }
+
+    @Override
+    public Configuration getConf() {
+      return conf;
+    }
+  }
+
+  /**
+   * Grouping comparator for {@link TaggedJoinKey}, which only compares the serialized join keys, so that
+   * the records of all inputs with the same join key are reduced together.
+   */
+  public static final class GroupingComparator extends Comparator {
+
+    public GroupingComparator() {
+      super(false);
+    }
+  }
+
+  /**
+   * Partitions {@link TaggedJoinKey TaggedJoinKeys} by the hash of the join key only, so that the records of all
+   * inputs with the same join key go to the same reducer.
+   *
+   * @param <VALUE> type of the map output value
+   */
+  public static final class JoinKeyPartitioner<VALUE> extends Partitioner<TaggedJoinKey<?>, VALUE> {
+
+    @Override
+    public int getPartition(TaggedJoinKey<?> key, VALUE value, int numPartitions) {
+      return (key.getKey().hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -21,15 +21,15 @@ import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.api.dataset.lib.KeyValue;
 import co.cask.cdap.api.mapreduce.MapReduceTaskContext;
 import co.cask.cdap.api.metrics.Metrics;
-import co.cask.cdap.etl.api.batch.BatchAggregator;
-import co.cask.cdap.etl.api.batch.BatchJoiner;
 import co.cask.cdap.etl.batch.BatchPhaseSpec;
 import co.cask.cdap.etl.batch.PipeTransformExecutor;
 import co.cask.cdap.etl.batch.PipelinePluginInstantiator;
+import co.cask.cdap.etl.batch.StructuredRecordWritable;
 import co.cask.cdap.etl.batch.connector.MultiConnectorFactory;
 import co.cask.cdap.etl.common.BasicArguments;
 import co.cask.cdap.etl.common.Constants;
 import co.cask.cdap.etl.common.Destroyables;
+import co.cask.cdap.etl.common.MetricsBatch;
 import co.cask.cdap.etl.common.PipelinePhase;
 import co.cask.cdap.etl.common.SetMultimapCodec;
 import co.cask.cdap.etl.spec.StageSpec;
@@ -62,6 +62,7 @@ public class TransformRunner<KEY, VALUE> {
     .create();
   private final PipeTransformExecutor<KeyValue<KEY, VALUE>> transformExecutor;
   private final OutputWriter<Object, Object> outputWriter;
+  private final MetricsBatch metricsBatch;
 
   public TransformRunner(MapReduceTaskContext<Object, Object> context,
                          Metrics metrics) throws Exception {
@@ -73,13 +74,17 @@ public class TransformRunner<KEY, VALUE> {
     BatchPhaseSpec phaseSpec = GSON.fromJson(properties.get(Constants.PIPELINEID), BatchPhaseSpec.class);
     this.outputWriter = getSinkWriter(context, phaseSpec.getPhase(), hConf);
 
-    // instantiate and initialize all transformations and setup the TransformExecutor
-    PipelinePluginInstantiator pluginInstantiator =
-      new PipelinePluginInstantiator(context, metrics, phaseSpec, new MultiConnectorFactory());
     // stage name -> runtime args for that stage
     Map<String, String> runtimeArgs = GSON.fromJson(
       hConf.get(ETLMapReduce.RUNTIME_ARGS_KEY), ETLMapReduce.RUNTIME_ARGS_TYPE);
 
+    // amortize the cost of emitting metrics for every record if configured
+    this.metricsBatch = MetricsBatch.fromArguments(runtimeArgs);
+
+    // instantiate and initialize all transformations and setup the TransformExecutor
+    PipelinePluginInstantiator pluginInstantiator =
+      new PipelinePluginInstantiator(context, metrics, phaseSpec, new MultiConnectorFactory(), metricsBatch);
+
     // input alias name -> stage name mapping
     Map<String, String> inputAliasToStage = GSON.fromJson(hConf.get(ETLMapReduce.INPUT_ALIAS_KEY),
                                                           ETLMapReduce.INPUT_ALIAS_TYPE);
@@ -88,8 +93,10 @@ public class TransformRunner<KEY, VALUE> {
     String sourceStage = (inputContext != null) ? inputAliasToStage.get(inputContext.getInputName()) : null;
 
     PipelinePhase phase = phaseSpec.getPhase();
-    Set<StageSpec> reducers = phase.getStagesOfType(BatchAggregator.PLUGIN_TYPE, BatchJoiner.PLUGIN_TYPE);
+    Set<StageSpec> reducers = ETLMapReduce.getReducers(phase);
     if (!reducers.isEmpty()) {
+      // schemas of shuffled records that are written by hash
+      StructuredRecordWritable.loadSchemas(hConf);
       String reducerName = reducers.iterator().next().getName();
       // if we're in the mapper, get the part of the pipeline starting from sources and ending at aggregator
       if (jobContext instanceof Mapper.Context) {
@@ -104,7 +111,7 @@ public class TransformRunner<KEY, VALUE> {
       new MapReduceTransformExecutorFactory<>(context, pluginInstantiator, metrics,
                                               new BasicArguments(context.getWorkflowToken(), runtimeArgs),
                                               sourceStage, phaseSpec.getNumOfRecordsPreview(),
-                                              phaseSpec.pipelineContainsCondition());
+                                              phaseSpec.pipelineContainsCondition(), metricsBatch);
     this.transformExecutor = transformExecutorFactory.create(phase, outputWriter);
   }
 
@@ -112,7 +119,7 @@ public class TransformRunner<KEY, VALUE> {
   private OutputWriter<Object, Object> getSinkWriter(MapReduceTaskContext<Object, Object> context,
                                                      PipelinePhase pipelinePhase,
                                                      Configuration hConf) {
-    Set<StageSpec> reducers = pipelinePhase.getStagesOfType(BatchAggregator.PLUGIN_TYPE, BatchJoiner.PLUGIN_TYPE);
+    Set<StageSpec> reducers = ETLMapReduce.getReducers(pipelinePhase);
     JobContext hadoopContext = context.getHadoopContext();
     if (!reducers.isEmpty() && hadoopContext instanceof Mapper.Context) {
       return new SingleOutputWriter<>(context);
@@ -139,10 +146,30 @@ public class TransformRunner<KEY, VALUE> {
 
   public void transform(KEY key, VALUE value) throws Exception {
     KeyValue<KEY, VALUE> input = new KeyValue<>(key, value);
-    transformExecutor.runOneIteration(input);
+    try {
+      transformExecutor.runOneIteration(input);
+    } catch (Exception e) {
+      // emit the metrics of the records processed so far, since the task will not be destroyed if it fails
+      metricsBatch.flush();
+      throw e;
+    }
+  }
+
+  /**
+   * Sends the records that are buffered by the stages on to their output stages. Must be called after the last input
+   * was transformed, while the task outputs are still open.
+   */
+  public void flush() {
+    try {
+      transformExecutor.flush();
+    } catch (Exception e) {
+      metricsBatch.flush();
+      throw e;
+    }
   }
 
   public void destroy() {
     Destroyables.destroyQuietly(transformExecutor);
+    metricsBatch.flush();
   }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch;
+
+import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.ErrorRecord;
+import co.cask.cdap.etl.api.InvalidEntry;
+import co.cask.cdap.etl.api.Transformation;
+import co.cask.cdap.etl.common.RecordInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit test for {@link PipeTransformExecutor} with records that are sent between stages in batches.
+ */
+public class PipeTransformExecutorTest {
+
+  @Test
+  public void testRecordBatches() {
+    CollectingStage<Integer> sink = new CollectingStage<>("sink");
+    CollectingStage<Integer> errorSink = new CollectingStage<>("errors");
+    PipeTransformExecutor<Integer> executor = createExecutor(3, sink, errorSink);
+
+    for (int i = 1; i <= 7; i++) {
+      executor.runOneIteration(i);
+    }
+    // two full batches made it through the pipeline, the rest is buffered until the executor is flushed
+    Assert.assertEquals(ImmutableList.of(2, 4, 6, 8, 10, 12), sink.records);
+    Assert.assertEquals(ImmutableList.of(3, 3), sink.batchSizes);
+    Assert.assertEquals(ImmutableList.of(), errorSink.records);
+
+    executor.flush();
+    Assert.assertEquals(ImmutableList.of(2, 4, 6, 8, 10, 12, 14), sink.records);
+    Assert.assertEquals(ImmutableList.of(3, 3, 1), sink.batchSizes);
+    Assert.assertEquals(ImmutableList.of(6, 12), errorSink.records);
+    Assert.assertEquals(ImmutableList.of(2), errorSink.batchSizes);
+
+    // nothing is left to flush
+    executor.flush();
+    Assert.assertEquals(7, sink.records.size());
+    Assert.assertEquals(2, errorSink.records.size());
+  }
+
+  @Test
+  public void testNoRecordBatches() {
+    CollectingStage<Integer> sink = new CollectingStage<>("sink");
+    CollectingStage<Integer> errorSink = new CollectingStage<>("errors");
+    PipeTransformExecutor<Integer> executor = createExecutor(1, sink, errorSink);
+
+    for (int i = 1; i <= 7; i++) {
+      executor.runOneIteration(i);
+    }
+    // every record is sent on as soon as it is emitted
+    Assert.assertEquals(ImmutableList.of(2, 4, 6, 8, 10, 12, 14), sink.records);
+    Assert.assertEquals(ImmutableList.of(), sink.batchSizes);
+    Assert.assertEquals(ImmutableList.of(6, 12), errorSink.records);
+    executor.flush();
+    Assert.assertEquals(7, sink.records.size());
+  }
+
+  /**
+   * Creates an executor for source -> double -> sink, where double also emits an error record for every output
+   * that is a multiple of 6 to the error sink.
+   */
+  private static PipeTransformExecutor<Integer> createExecutor(int recordBatchSize, CollectingStage<Integer> sink,
+                                                               CollectingStage<Integer> errorSink) {
+    PipeStage doubler = new UnwrapPipeStage<>("double", new DoubleTransform(),
+                                              PipeEmitter.builder("double")
+                                                .addOutputConsumer(new ValueStage(sink))
+                                                .addErrorConsumer(new ErrorValueStage(errorSink))
+                                                .setRecordBatchSize(recordBatchSize)
+                                                .build());
+    @SuppressWarnings("unchecked")
+    PipeStage<RecordInfo> doublerInput = doubler;
+    PipeStage source = new UnwrapPipeStage<>("source", new IdentityTransform(),
+                                             PipeEmitter.builder("source")
+                                               .addOutputConsumer(doublerInput)
+                                               .setRecordBatchSize(recordBatchSize)
+                                               .build());
+    Map<String, PipeStage> pipeStages = new LinkedHashMap<>();
+    pipeStages.put("source", source);
+    pipeStages.put("double", doubler);
+    return new PipeTransformExecutor<>(pipeStages, ImmutableSet.of("source"));
+  }
+
+  /**
+   * Collects the records it consumes, and the sizes of the batches it consumes.
+   *
+   * @param <T> type of record
+   */
+  private static class CollectingStage<T> extends PipeStage<T> {
+    private final List<T> records = new ArrayList<>();
+    private final List<Integer> batchSizes = new ArrayList<>();
+
+    CollectingStage(String stageName) {
+      super(stageName);
+    }
+
+    @Override
+    protected void consumeInput(T input) {
+      records.add(input);
+    }
+
+    @Override
+    protected void consumeInputs(List<T> inputs) throws Exception {
+      batchSizes.add(inputs.size());
+      super.consumeInputs(inputs);
+    }
+
+    @Override
+    public void destroy() {
+      // no-op
+    }
+  }
+
+  /**
+   * Passes the values of the records it consumes on to a {@link CollectingStage}.
+   */
+  private static class ValueStage extends PipeStage<RecordInfo> {
+    private final CollectingStage<Integer> delegate;
+
+    ValueStage(CollectingStage<Integer> delegate) {
+      super("value");
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected void consumeInput(RecordInfo input) {
+      delegate.consume((Integer) input.getValue());
+    }
+
+    @Override
+    protected void consumeInputs(List<RecordInfo> inputs) {
+      List<Integer> values = new ArrayList<>();
+      for (RecordInfo input : inputs) {
+        values.add((Integer) input.getValue());
+      }
+      delegate.consumeBatch(values);
+    }
+
+    @Override
+    public void destroy() {
+      // no-op
+    }
+  }
+
+  /**
+   * Passes the invalid records of the error records it consumes on to a {@link CollectingStage}.
+   */
+  private static class ErrorValueStage extends PipeStage<RecordInfo<ErrorRecord<Object>>> {
+    private final CollectingStage<Integer> delegate;
+
+    ErrorValueStage(CollectingStage<Integer> delegate) {
+      super("errorvalue");
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected void consumeInput(RecordInfo<ErrorRecord<Object>> input) {
+      delegate.consume((Integer) input.getValue().getRecord());
+    }
+
+    @Override
+    protected void consumeInputs(List<RecordInfo<ErrorRecord<Object>>> inputs) {
+      List<Integer> values = new ArrayList<>();
+      for (RecordInfo<ErrorRecord<Object>> input : inputs) {
+        values.add((Integer) input.getValue().getRecord());
+      }
+      delegate.consumeBatch(values);
+    }
+
+    @Override
+    public void destroy() {
+      // no-op
+    }
+  }
+
+  /**
+   * Emits every input as is.
+   */
+  private static class IdentityTransform implements Transformation<Integer, Object> {
+
+    @Override
+    public void transform(Integer input, Emitter<Object> emitter) {
+      emitter.emit(input);
+    }
+  }
+
+  /**
+   * Emits every input multiplied by two, and an error for every output that is a multiple of 6.
+   */
+  private static class DoubleTransform implements Transformation<Integer, Object> {
+
+    @Override
+    public void transform(Integer input, Emitter<Object> emitter) {
+      emitter.emit(input * 2);
+      if (input * 2 % 6 == 0) {
+        emitter.emitError(new InvalidEntry<Object>(1, "multiple of 6", input * 2));
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch.join;
+
+import co.cask.cdap.etl.api.JoinConfig;
+import co.cask.cdap.etl.api.JoinElement;
+import co.cask.cdap.etl.api.Joiner;
+import co.cask.cdap.etl.common.DefaultEmitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Unit test for {@link Join}.
+ */
+public class JoinTest {
+
+  @Test
+  public void testInnerJoin() throws Exception {
+    List<JoinElement<String>> elements = ImmutableList.of(
+      new JoinElement<>("a", "a1"), new JoinElement<>("b", "b1"), new JoinElement<>("a", "a2"),
+      new JoinElement<>("c", "c1"), new JoinElement<>("b", "b2"), new JoinElement<>("b", "b3"));
+
+    Assert.assertEquals(ImmutableSet.of("a1 b1 c1", "a1 b2 c1", "a1 b3 c1", "a2 b1 c1", "a2 b2 c1", "a2 b3 c1"),
+                        join(elements, "a", "b", "c"));
+  }
+
+  @Test
+  public void testOuterJoin() throws Exception {
+    List<JoinElement<String>> elements = ImmutableList.of(
+      new JoinElement<>("a", "a1"), new JoinElement<>("a", "a2"));
+
+    // optional inputs without records are left out of the join rows
+    Assert.assertEquals(ImmutableSet.of("a1", "a2"), join(elements, "a"));
+    // nothing is joined if a required input has no records
+    Assert.assertEquals(ImmutableSet.of(), join(elements, "a", "b"));
+  }
+
+  @Test
+  public void testStreamedInnerJoin() throws Exception {
+    // elements of the streamed stage come after the elements of all other stages
+    List<JoinElement<String>> elements = ImmutableList.of(
+      new JoinElement<>("a", "a1"), new JoinElement<>("b", "b1"), new JoinElement<>("a", "a2"),
+      new JoinElement<>("b", "b2"), new JoinElement<>("c", "c1"), new JoinElement<>("c", "c2"));
+
+    Assert.assertEquals(ImmutableSet.of("a1 b1 c1", "a1 b2 c1", "a2 b1 c1", "a2 b2 c1",
+                                        "a1 b1 c2", "a1 b2 c2", "a2 b1 c2", "a2 b2 c2"),
+                        streamedJoin(elements, "c", "a", "b", "c"));
+  }
+
+  @Test
+  public void testStreamedOuterJoin() throws Exception {
+    List<JoinElement<String>> elements = ImmutableList.of(
+      new JoinElement<>("a", "a1"), new JoinElement<>("a", "a2"));
+
+    // the streamed stage is left out of the join rows if it is optional and has no records
+    Assert.assertEquals(ImmutableSet.of("a1", "a2"), streamedJoin(elements, "b", "a"));
+    // nothing is joined if the streamed stage is required and has no records
+    Assert.assertEquals(ImmutableSet.of(), streamedJoin(elements, "b", "a", "b"));
+
+    elements = ImmutableList.of(new JoinElement<>("b", "b1"), new JoinElement<>("b", "b2"));
+    // the streamed stage is joined on its own if the other stages are optional and have no records
+    Assert.assertEquals(ImmutableSet.of("b1", "b2"), streamedJoin(elements, "b", "b"));
+    // nothing is joined if another stage is required and has no records
+    Assert.assertEquals(ImmutableSet.of(), streamedJoin(elements, "b", "a", "b"));
+  }
+
+  @Test
+  public void testStreamedStageOutOfOrder() throws Exception {
+    List<JoinElement<String>> elements = ImmutableList.of(
+      new JoinElement<>("a", "a1"), new JoinElement<>("b", "b1"), new JoinElement<>("a", "a2"));
+    try {
+      streamedJoin(elements, "b");
+      Assert.fail("Expected the join to fail on an element read after the elements of the streamed stage");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  private Set<String> join(List<JoinElement<String>> elements, String... requiredInputs) throws Exception {
+    return runJoin(elements, null, requiredInputs);
+  }
+
+  private Set<String> streamedJoin(List<JoinElement<String>> elements, String streamedStage,
+                                   String... requiredInputs) throws Exception {
+    Set<String> joined = runJoin(elements, streamedStage, requiredInputs);
+    // streaming a stage does not change the join result
+    Assert.assertEquals(join(elements, requiredInputs), joined);
+    return joined;
+  }
+
+  private Set<String> runJoin(List<JoinElement<String>> elements, @Nullable String streamedStage,
+                              String... requiredInputs) throws Exception {
+    DefaultEmitter<String> emitter = new DefaultEmitter<>();
+    new Join<>(new ConcatJoiner(requiredInputs), "key", elements.iterator(), 3, streamedStage, emitter)
+      .joinRecords();
+    List<String> joined = new ArrayList<>(emitter.getEntries());
+    Set<String> uniqueJoined = new HashSet<>(joined);
+    Assert.assertEquals(joined.size(), uniqueJoined.size());
+    return uniqueJoined;
+  }
+
+  /**
+   * Joiner that concatenates the records of a join row, sorted by stage name.
+   */
+  private static final class ConcatJoiner implements Joiner<String, String, String> {
+    private final List<String> requiredInputs;
+
+    ConcatJoiner(String... requiredInputs) {
+      this.requiredInputs = ImmutableList.copyOf(requiredInputs);
+    }
+
+    @Override
+    public String joinOn(String stageName, String inputRecord) {
+      return "key";
+    }
+
+    @Override
+    public JoinConfig getJoinConfig() {
+      return new JoinConfig(requiredInputs);
+    }
+
+    @Override
+    public String merge(String joinKey, Iterable<JoinElement<String>> joinResult) {
+      List<String> records = new ArrayList<>();
+      for (JoinElement<String> element : joinResult) {
+        records.add(element.getInputRecord());
+      }
+      records.sort(null);
+      return String.join(" ", records);
+    }
+  }
+}
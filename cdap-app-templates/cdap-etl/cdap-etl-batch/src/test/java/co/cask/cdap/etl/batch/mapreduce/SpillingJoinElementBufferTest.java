@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch.mapreduce;
+
+import co.cask.cdap.etl.api.JoinConfig;
+import co.cask.cdap.etl.api.JoinElement;
+import co.cask.cdap.etl.api.Joiner;
+import co.cask.cdap.etl.batch.conversion.WritableConversion;
+import co.cask.cdap.etl.batch.join.Join;
+import co.cask.cdap.etl.batch.join.JoinElementBuffer;
+import co.cask.cdap.etl.common.DefaultEmitter;
+import com.google.common.collect.ImmutableList;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Unit test for {@link SpillingJoinElementBuffer}.
+ */
+public class SpillingJoinElementBufferTest {
+
+  @Rule
+  public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testSpill() throws IOException {
+    File spillDir = tmpFolder.newFolder();
+    SpillingJoinElementBuffer<String, Text> buffer = createBuffer("a", 2, spillDir);
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      buffer.add(new JoinElement<>("a", "a" + i));
+      expected.add("a" + i);
+    }
+    Assert.assertEquals(3, buffer.getNumSpilled());
+    Assert.assertEquals(1, spillDir.list().length);
+
+    // the elements can be iterated over multiple times, also concurrently
+    Iterator<JoinElement<String>> partial = buffer.iterator();
+    partial.next();
+    Assert.assertEquals(expected, records(buffer));
+    Assert.assertEquals(expected, records(buffer));
+
+    // closing the buffer deletes the spill file, even if an iterator was not exhausted
+    buffer.close();
+    Assert.assertEquals(0, spillDir.list().length);
+  }
+
+  @Test
+  public void testNoSpill() throws IOException {
+    File spillDir = tmpFolder.newFolder();
+    SpillingJoinElementBuffer<String, Text> buffer = createBuffer("a", 3, spillDir);
+    buffer.add(new JoinElement<>("a", "a0"));
+    buffer.add(new JoinElement<>("a", "a1"));
+    Assert.assertEquals(0, buffer.getNumSpilled());
+    Assert.assertEquals(0, spillDir.list().length);
+    Assert.assertEquals(ImmutableList.of("a0", "a1"), records(buffer));
+    buffer.close();
+  }
+
+  @Test
+  public void testSpillingJoin() throws Exception {
+    final File spillDir = tmpFolder.newFolder();
+    List<JoinElement<String>> elements = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      elements.add(new JoinElement<>("a", "a" + i));
+      elements.add(new JoinElement<>("b", "b" + i));
+    }
+    for (int i = 0; i < 3; i++) {
+      elements.add(new JoinElement<>("c", "c" + i));
+    }
+
+    for (int bufferSize : new int[] { 0, 1, 3, 100 }) {
+      final int maxInMemory = bufferSize;
+      DefaultEmitter<String> emitter = new DefaultEmitter<>();
+      new Join<>(new ConcatJoiner(), "key", elements.iterator(), 3, "c", emitter,
+                 new JoinElementBuffer.Factory<String>() {
+                   @Override
+                   public JoinElementBuffer<String> create(String stageName) {
+                     return createBuffer(stageName, maxInMemory, spillDir);
+                   }
+                 }).joinRecords();
+
+      List<String> joined = new ArrayList<>(emitter.getEntries());
+      Collections.sort(joined);
+      Assert.assertEquals(4 * 4 * 3, joined.size());
+      Assert.assertEquals("a0 b0 c0", joined.get(0));
+      Assert.assertEquals("a3 b3 c2", joined.get(joined.size() - 1));
+      Assert.assertEquals(joined.size(), new HashSet<>(joined).size());
+      // all spill files are deleted once the join key is joined
+      Assert.assertEquals(0, spillDir.list().length);
+    }
+  }
+
+  private static List<String> records(JoinElementBuffer<String> buffer) {
+    List<String> records = new ArrayList<>();
+    for (JoinElement<String> element : buffer) {
+      records.add(element.getInputRecord());
+    }
+    return records;
+  }
+
+  private static SpillingJoinElementBuffer<String, Text> createBuffer(String stageName, int maxInMemory,
+                                                                     File spillDir) {
+    return new SpillingJoinElementBuffer<>(stageName, maxInMemory, spillDir, new Configuration(),
+                                           new WritableConversion<String, Text>() {
+                                             @Override
+                                             public Text toWritable(String val) {
+                                               return new Text(val);
+                                             }
+
+                                             @Override
+                                             public String fromWritable(Text val) {
+                                               return val.toString();
+                                             }
+                                           });
+  }
+
+  /**
+   * Joiner that concatenates the records of a join row, sorted by stage name.
+   */
+  private static final class ConcatJoiner implements Joiner<String, String, String> {
+
+    @Override
+    public String joinOn(String stageName, String inputRecord) {
+      return "key";
+    }
+
+    @Override
+    public JoinConfig getJoinConfig() {
+      return new JoinConfig(ImmutableList.of("a", "b", "c"));
+    }
+
+    @Override
+    public String merge(String joinKey, Iterable<JoinElement<String>> joinResult) {
+      List<String> records = new ArrayList<>();
+      for (JoinElement<String> element : joinResult) {
+        records.add(element.getInputRecord());
+      }
+      Collections.sort(records);
+      return String.join(" ", records);
+    }
+  }
+}
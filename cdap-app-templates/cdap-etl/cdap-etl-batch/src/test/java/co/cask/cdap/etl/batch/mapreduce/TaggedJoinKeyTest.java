@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch.mapreduce;
+
+import com.google.common.base.Strings;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit test for {@link TaggedJoinKey} and its comparators and partitioner, which compare keys the way the
+ * shuffle does, on the serialized bytes.
+ */
+public class TaggedJoinKeyTest {
+
+  @Test
+  public void testSerialization() throws IOException {
+    Configuration conf = createConf(Text.class);
+    for (TaggedJoinKey<Text> key : Arrays.asList(new TaggedJoinKey<>(new Text("a"), true),
+                                                 new TaggedJoinKey<>(new Text(""), false),
+                                                 new TaggedJoinKey<>(new Text(Strings.repeat("x", 1000)), true))) {
+      TaggedJoinKey<Text> copy = deserialize(serialize(key), conf);
+      Assert.assertEquals(key, copy);
+      Assert.assertEquals(key.getKey(), copy.getKey());
+      Assert.assertEquals(key.isStreamed(), copy.isStreamed());
+    }
+  }
+
+  @Test
+  public void testSortComparator() throws IOException {
+    // keys longer than 127 bytes are prefixed with a multi byte length
+    String longKey = Strings.repeat("b", 200);
+    testSortComparator(createConf(Text.class), Arrays.asList(
+      new TaggedJoinKey<>(new Text(""), false),
+      new TaggedJoinKey<>(new Text(""), true),
+      new TaggedJoinKey<>(new Text("a"), false),
+      new TaggedJoinKey<>(new Text("a"), true),
+      new TaggedJoinKey<>(new Text("ab"), false),
+      new TaggedJoinKey<>(new Text(longKey), false),
+      new TaggedJoinKey<>(new Text(longKey), true),
+      new TaggedJoinKey<>(new Text(longKey + "b"), true),
+      new TaggedJoinKey<>(new Text("c"), false)));
+
+    // keys of a class with its own raw comparator are compared with that comparator
+    testSortComparator(createConf(IntWritable.class), Arrays.asList(
+      new TaggedJoinKey<>(new IntWritable(Integer.MIN_VALUE), true),
+      new TaggedJoinKey<>(new IntWritable(-1), false),
+      new TaggedJoinKey<>(new IntWritable(-1), true),
+      new TaggedJoinKey<>(new IntWritable(0), false),
+      new TaggedJoinKey<>(new IntWritable(1), false),
+      new TaggedJoinKey<>(new IntWritable(1), true),
+      new TaggedJoinKey<>(new IntWritable(Integer.MAX_VALUE), false)));
+  }
+
+  @Test
+  public void testGroupingComparator() throws IOException {
+    Configuration conf = createConf(Text.class);
+    TaggedJoinKey.GroupingComparator comparator = ReflectionUtils.newInstance(TaggedJoinKey.GroupingComparator.class,
+                                                                             conf);
+    String longKey = Strings.repeat("a", 300);
+    for (String key : Arrays.asList("", "a", longKey)) {
+      // the tag is ignored when grouping
+      byte[] notStreamed = serialize(new TaggedJoinKey<>(new Text(key), false));
+      byte[] streamed = serialize(new TaggedJoinKey<>(new Text(key), true));
+      Assert.assertEquals(0, compare(comparator, notStreamed, streamed));
+      Assert.assertEquals(0, compare(comparator, streamed, notStreamed));
+    }
+
+    // different join keys are never grouped together, regardless of the tag
+    byte[] a = serialize(new TaggedJoinKey<>(new Text("a"), true));
+    byte[] b = serialize(new TaggedJoinKey<>(new Text("b"), false));
+    byte[] aLong = serialize(new TaggedJoinKey<>(new Text(longKey), false));
+    Assert.assertTrue(compare(comparator, a, b) < 0);
+    Assert.assertTrue(compare(comparator, b, a) > 0);
+    Assert.assertTrue(compare(comparator, a, aLong) < 0);
+    Assert.assertTrue(compare(comparator, aLong, b) < 0);
+  }
+
+  @Test
+  public void testPartitioner() {
+    TaggedJoinKey.JoinKeyPartitioner<Object> partitioner = new TaggedJoinKey.JoinKeyPartitioner<>();
+    for (int numPartitions : new int[] { 1, 2, 7 }) {
+      for (int i = -100; i < 100; i++) {
+        Text key = new Text(Integer.toString(i * 997));
+        int partition = partitioner.getPartition(new TaggedJoinKey<>(key, false), null, numPartitions);
+        Assert.assertTrue(partition >= 0 && partition < numPartitions);
+        // the records of the streamed input go to the same reducer as the records of the other inputs
+        Assert.assertEquals(partition, partitioner.getPartition(new TaggedJoinKey<>(key, true), null, numPartitions));
+      }
+    }
+    // the sign bit of the hash is ignored
+    IntWritable negative = new IntWritable(Integer.MIN_VALUE + 3);
+    Assert.assertEquals(3, partitioner.getPartition(new TaggedJoinKey<>(negative, true), null, 5));
+  }
+
+  /**
+   * Checks that the sort comparator orders the serialized keys in the given order, which must be the same order as
+   * the one of the deserialized keys.
+   */
+  private <KEY extends WritableComparable> void testSortComparator(Configuration conf,
+                                                                   List<TaggedJoinKey<KEY>> expected)
+    throws IOException {
+    TaggedJoinKey.Comparator comparator = ReflectionUtils.newInstance(TaggedJoinKey.Comparator.class, conf);
+    List<byte[]> serialized = new ArrayList<>();
+    for (TaggedJoinKey<KEY> key : expected) {
+      serialized.add(serialize(key));
+    }
+    for (int i = 0; i < serialized.size(); i++) {
+      for (int j = 0; j < serialized.size(); j++) {
+        int cmp = compare(comparator, serialized.get(i), serialized.get(j));
+        Assert.assertEquals(String.format("Comparing %s with %s", expected.get(i), expected.get(j)),
+                            Integer.signum(Integer.compare(i, j)), Integer.signum(cmp));
+        Assert.assertEquals(Integer.signum(cmp), Integer.signum(expected.get(i).compareTo(expected.get(j))));
+      }
+    }
+  }
+
+  /**
+   * Compares two serialized keys the way the shuffle does, at some offset into a larger buffer.
+   */
+  private static int compare(TaggedJoinKey.Comparator comparator, byte[] key1, byte[] key2) {
+    byte[] b1 = new byte[key1.length + 3];
+    byte[] b2 = new byte[key2.length + 5];
+    System.arraycopy(key1, 0, b1, 3, key1.length);
+    System.arraycopy(key2, 0, b2, 5, key2.length);
+    return comparator.compare(b1, 3, key1.length, b2, 5, key2.length);
+  }
+
+  private static Configuration createConf(Class<? extends WritableComparable> keyClass) {
+    Configuration conf = new Configuration();
+    TaggedJoinKey.setKeyClass(conf, keyClass);
+    return conf;
+  }
+
+  private static byte[] serialize(TaggedJoinKey<?> key) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    key.write(out);
+    return Arrays.copyOf(out.getData(), out.getLength());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <KEY extends WritableComparable> TaggedJoinKey<KEY> deserialize(byte[] bytes, Configuration conf)
+    throws IOException {
+    TaggedJoinKey<KEY> key = ReflectionUtils.newInstance(TaggedJoinKey.class, conf);
+    key.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+    return key;
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -22,6 +22,8 @@ import co.cask.cdap.etl.api.batch.BatchJoinerContext;
 import co.cask.cdap.etl.common.PipelineRuntime;
 import co.cask.cdap.etl.spec.StageSpec;
 
+import javax.annotation.Nullable;
+
 /**
  * Batch Joiner context
  */
@@ -29,6 +31,7 @@ public class DefaultJoinerContext extends AbstractBatchContext implements BatchJ
   private Integer numPartitions;
   private Class<?> joinKeyClass;
   private Class<?> joinInputRecordClass;
+  private String streamedInput;
 
   public DefaultJoinerContext(PipelineRuntime pipelineRuntime, StageSpec stageSpec,
                               DatasetContext datasetContext, Admin admin) {
@@ -65,4 +68,18 @@ public class DefaultJoinerContext extends AbstractBatchContext implements BatchJ
   public Class<?> getJoinInputRecordClass() {
     return joinInputRecordClass;
   }
+
+  @Override
+  public void setStreamedInput(String inputStage) {
+    if (!getInputSchemas().containsKey(inputStage)) {
+      throw new IllegalArgumentException(String.format(
+        "Invalid streamed input %s. It must be one of the inputs %s.", inputStage, getInputSchemas().keySet()));
+    }
+    this.streamedInput = inputStage;
+  }
+
+  @Nullable
+  public String getStreamedInput() {
+    return streamedInput;
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016-2017 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -27,6 +27,7 @@ import co.cask.cdap.etl.batch.connector.ConnectorFactory;
 import co.cask.cdap.etl.batch.connector.ConnectorSink;
 import co.cask.cdap.etl.batch.connector.ConnectorSource;
 import co.cask.cdap.etl.common.Constants;
+import co.cask.cdap.etl.common.MetricsBatch;
 import co.cask.cdap.etl.common.plugin.PipelinePluginContext;
 import co.cask.cdap.etl.spec.StageSpec;
 
@@ -48,9 +49,14 @@ public class PipelinePluginInstantiator implements PluginContext {
 
   public PipelinePluginInstantiator(PluginContext pluginContext, Metrics metrics, BatchPhaseSpec phaseSpec,
                                     ConnectorFactory connectorFactory) {
+    this(pluginContext, metrics, phaseSpec, connectorFactory, MetricsBatch.NONE);
+  }
+
+  public PipelinePluginInstantiator(PluginContext pluginContext, Metrics metrics, BatchPhaseSpec phaseSpec,
+                                    ConnectorFactory connectorFactory, MetricsBatch metricsBatch) {
     this.pluginContext = new PipelinePluginContext(pluginContext, metrics,
                                                    phaseSpec.isStageLoggingEnabled(),
-                                                   phaseSpec.isProcessTimingEnabled());
+                                                   phaseSpec.isProcessTimingEnabled(), metricsBatch);
     this.phaseSpec = phaseSpec;
     this.connectorSources = new HashSet<>();
     this.connectorSinks = new HashSet<>();
@@ -0,0 +1,39 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch.connector;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.dataset.lib.FileSet;
+import co.cask.cdap.etl.common.RecordInfo;
+
+import java.io.IOException;
+
+/**
+ * Reads the records written by {@link MultiConnectorSink} directly from the connector, without running a
+ * phase that reads it. This is used to load an input that is broadcast to a joiner.
+ */
+public class MultiConnectorReader extends ConnectorReader<RecordInfo<StructuredRecord>> {
+
+  public MultiConnectorReader(FileSet fileSet) throws IOException {
+    super(fileSet);
+  }
+
+  @Override
+  protected RecordInfo<StructuredRecord> decode(String line) throws IOException {
+    return MultiConnectorSource.fromJson(line, null);
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -26,6 +26,7 @@ import co.cask.cdap.format.StructuredRecordStringConverter;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 
+import java.io.IOException;
 import javax.annotation.Nullable;
 
 /**
@@ -49,8 +50,17 @@ public class MultiConnectorSource extends ConnectorSource<RecordInfo<StructuredR
   @Override
   public void transform(KeyValue<LongWritable, Text> input,
                         Emitter<RecordInfo<StructuredRecord>> emitter) throws Exception {
+    emitter.emit(fromJson(input.getValue().toString(), schema));
+  }
+
+  /**
+   * Decodes a record written by {@link MultiConnectorSink}.
+   *
+   * @param inputStr the record, as it was written
+   * @param schema the schema of the record, or null to use the schema that was written with the record
+   */
+  static RecordInfo<StructuredRecord> fromJson(String inputStr, @Nullable Schema schema) throws IOException {
     StructuredRecord output;
-    String inputStr = input.getValue().toString();
     StructuredRecord recordWithSchema =
       StructuredRecordStringConverter.fromJsonString(inputStr, RECORD_WITH_SCHEMA);
     String stageName = recordWithSchema.get("stageName");
@@ -61,7 +71,7 @@ public class MultiConnectorSource extends ConnectorSource<RecordInfo<StructuredR
       output = StructuredRecordStringConverter.fromJsonString(inputStr, schema);
     }
     RecordType recordType = RecordType.valueOf((String) recordWithSchema.get("type"));
-    emitter.emit(RecordInfo.builder(output, stageName, recordType).build());
+    return RecordInfo.builder(output, stageName, recordType).build();
   }
 
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2015 Cask Data, Inc.
+ * Copyright © 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -38,8 +38,10 @@ import co.cask.cdap.etl.common.plugin.NoStageLoggingCaller;
 import co.cask.cdap.etl.spec.StageSpec;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -55,6 +57,7 @@ public class MapReduceBatchContext extends AbstractBatchContext
   private final boolean isPreviewEnabled;
   private final Set<String> outputNames;
   private final Set<String> inputNames;
+  private final List<Input> inputs;
   private final Set<String> connectorDatasets;
 
   public MapReduceBatchContext(MapReduceContext context, PipelineRuntime pipelineRuntime, StageSpec stageSpec,
@@ -63,6 +66,7 @@ public class MapReduceBatchContext extends AbstractBatchContext
     this.mrContext = context;
     this.outputNames = new HashSet<>();
     this.inputNames = new HashSet<>();
+    this.inputs = new ArrayList<>();
     this.isPreviewEnabled = context.getDataTracer(stageSpec.getName()).isEnabled();
     this.connectorDatasets = Collections.unmodifiableSet(connectorDatasets);
   }
@@ -78,6 +82,7 @@ public class MapReduceBatchContext extends AbstractBatchContext
       }
     });
     inputNames.add(trackableInput.getAlias());
+    inputs.add(input);
   }
 
   @Override
@@ -107,6 +112,13 @@ public class MapReduceBatchContext extends AbstractBatchContext
     return inputNames;
   }
 
+  /**
+   * @return inputs that were added, as they were given by the stage
+   */
+  public List<Input> getInputs() {
+    return Collections.unmodifiableList(inputs);
+  }
+
   /**
    * @return set of outputs that were added
    */
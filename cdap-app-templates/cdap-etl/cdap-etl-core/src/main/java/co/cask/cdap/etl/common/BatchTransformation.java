@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.common;
+
+import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.Transformation;
+
+import java.util.List;
+
+/**
+ * A {@link Transformation} that can transform a batch of records in one call, so that the work done around every
+ * call, like tracking metrics or timing the plugin, is done once for the whole batch.
+ * Use {@link #transform(Transformation, List, Emitter)} to transform a batch with any transformation.
+ *
+ * @param <IN> type of input
+ * @param <OUT> type of output
+ */
+public interface BatchTransformation<IN, OUT> extends Transformation<IN, OUT> {
+
+  /**
+   * Transforms the records of a batch in order, with the same result as calling
+   * {@link #transform(Object, Emitter)} for each of them.
+   *
+   * @param inputs the records to transform
+   * @param emitter the emitter to emit the output of all records to
+   * @throws Exception if the transformation of any record failed
+   */
+  void transformBatch(List<IN> inputs, Emitter<OUT> emitter) throws Exception;
+
+  /**
+   * Transforms a batch of records with the given transformation. If it is not a {@link BatchTransformation},
+   * for example a plugin, it is called for every record.
+   */
+  @SuppressWarnings("unchecked")
+  static <IN, OUT> void transform(Transformation<IN, OUT> transformation, List<IN> inputs,
+                                  Emitter<OUT> emitter) throws Exception {
+    if (transformation instanceof BatchTransformation) {
+      ((BatchTransformation<IN, OUT>) transformation).transformBatch(inputs, emitter);
+      return;
+    }
+    for (IN input : inputs) {
+      transformation.transform(input, emitter);
+    }
+  }
+}
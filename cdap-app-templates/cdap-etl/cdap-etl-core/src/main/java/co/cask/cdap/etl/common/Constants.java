@@ -1,5 +1,5 @@
 /*
- * Copyright © 2015-2016 Cask Data, Inc.
+ * Copyright © 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -40,6 +40,17 @@ public final class Constants {
   );
   public static final String MDC_STAGE_KEY = "pipeline.stage";
   public static final String FIELD_OPERATION_KEY_IN_WORKFLOW_TOKEN = "field.operations";
+  // runtime argument for the number of records to count metrics for before emitting them, 1 emits them every record
+  public static final String METRICS_BATCH_SIZE = "pipeline.metrics.batch.size";
+  // runtime argument for the number of records that a stage buffers for each stage it outputs to before they are
+  // transformed together. 1 transforms every record as soon as it is emitted. Records emitted by a stage must not be
+  // modified by it after they are emitted, which includes input objects that are reused by the task. Plugin timing
+  // metrics measure the time spent on a batch
+  public static final String RECORD_BATCH_SIZE = "pipeline.record.batch.size";
+  // runtime argument for the number of records of a join key that a joiner holds in memory for one of its inputs,
+  // the other records of that input are written to local disk
+  public static final String JOIN_BUFFER_SIZE = "pipeline.join.buffer.size";
+  public static final int DEFAULT_JOIN_BUFFER_SIZE = 10000;
 
   private Constants() {
     throw new AssertionError("Suppress default constructor for noninstantiability");
@@ -55,6 +66,8 @@ public final class Constants {
     public static final String SOURCE_TYPE = "source";
     public static final String SINK_TYPE = "sink";
     public static final String DATA_DIR = "data";
+    // whether the connector holds an input that is broadcast to a joiner instead of being read by the phase
+    public static final String BROADCAST = "broadcast";
   }
 
   /**
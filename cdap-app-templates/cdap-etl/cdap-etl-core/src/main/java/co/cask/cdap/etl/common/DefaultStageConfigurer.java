@@ -24,7 +24,9 @@ import co.cask.cdap.etl.api.MultiOutputStageConfigurer;
 import co.cask.cdap.etl.api.StageConfigurer;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 
@@ -40,10 +42,12 @@ public class DefaultStageConfigurer implements StageConfigurer, MultiInputStageC
   private boolean errorSchemaSet;
   protected Map<String, Schema> inputSchemas;
   protected Map<String, Schema> outputPortSchemas;
+  private final Set<String> broadcastInputs;
 
   public DefaultStageConfigurer() {
     this.inputSchemas = new HashMap<>();
     this.outputPortSchemas = new HashMap<>();
+    this.broadcastInputs = new HashSet<>();
     this.errorSchemaSet = false;
   }
 
@@ -92,6 +96,25 @@ public class DefaultStageConfigurer implements StageConfigurer, MultiInputStageC
     return inputSchemas.isEmpty() ? null : inputSchemas.values().iterator().next();
   }
 
+  @Override
+  public void setBroadcastInputs(Set<String> inputStages) {
+    for (String inputStage : inputStages) {
+      if (!inputSchemas.containsKey(inputStage)) {
+        throw new IllegalArgumentException(String.format(
+          "Cannot broadcast stage '%s' because it is not an input of this stage.", inputStage));
+      }
+    }
+    if (!inputStages.isEmpty() && inputStages.containsAll(inputSchemas.keySet())) {
+      throw new IllegalArgumentException("Cannot broadcast all inputs of a stage. At least one input must be read.");
+    }
+    broadcastInputs.clear();
+    broadcastInputs.addAll(inputStages);
+  }
+
+  public Set<String> getBroadcastInputs() {
+    return broadcastInputs;
+  }
+
   public void addInputSchema(String inputStageName, @Nullable Schema inputSchema) {
     inputSchemas.put(inputStageName, inputSchema);
   }
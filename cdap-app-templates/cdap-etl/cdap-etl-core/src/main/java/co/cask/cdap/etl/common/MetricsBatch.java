@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.common;
+
+import co.cask.cdap.etl.api.StageMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batching of the metrics that are emitted for every record. Components that track records, such as
+ * {@link TrackedTransform}, count their metrics locally and only emit them to {@link StageMetrics} once every batch
+ * of records. They register with the batch, so that their remaining counts are emitted by {@link #flush()} when
+ * the task finishes or fails.
+ *
+ * This class is not thread safe.
+ */
+public class MetricsBatch {
+
+  /**
+   * Emits metrics for every record.
+   */
+  public static final MetricsBatch NONE = new MetricsBatch(1);
+
+  private final int size;
+  private final List<Member> members;
+
+  /**
+   * Creates the batch configured by the {@link Constants#METRICS_BATCH_SIZE} runtime argument.
+   *
+   * @throws IllegalArgumentException if the runtime argument is not a positive integer
+   */
+  public static MetricsBatch fromArguments(Map<String, String> arguments) {
+    String size = arguments.get(Constants.METRICS_BATCH_SIZE);
+    if (size == null) {
+      return NONE;
+    }
+    try {
+      return new MetricsBatch(Integer.parseInt(size.trim()));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(String.format(
+        "Invalid value '%s' for runtime argument '%s'. It must be a positive integer.",
+        size, Constants.METRICS_BATCH_SIZE), e);
+    }
+  }
+
+  public MetricsBatch(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Metrics batch size must be positive: " + size);
+    }
+    this.size = size;
+    this.members = new ArrayList<>();
+  }
+
+  /**
+   * Returns the number of records to count before emitting metrics.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Registers a component that counts metrics locally, so that its remaining counts are emitted on {@link #flush()}.
+   */
+  public void register(Member member) {
+    // with a batch size of one, metrics are emitted for every record and nothing remains to be flushed
+    if (size > 1) {
+      members.add(member);
+    }
+  }
+
+  /**
+   * Emits the metrics that all registered components counted since they last emitted them.
+   */
+  public void flush() {
+    for (Member member : members) {
+      member.flushMetrics();
+    }
+  }
+
+  /**
+   * A component that counts metrics locally.
+   */
+  public interface Member {
+
+    /**
+     * Emits the metrics counted since they were last emitted.
+     */
+    void flushMetrics();
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -25,30 +25,51 @@ import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
- * Wrapper around another emitter that tracks how many records were emitted.
+ * Wrapper around another emitter that tracks how many records were emitted. Counts are emitted to the
+ * {@link StageMetrics} once every batch of records, see {@link MetricsBatch}.
  *
  * @param <T> the type of object to emit
  */
-public class TrackedEmitter<T> implements Emitter<T> {
+public class TrackedEmitter<T> implements Emitter<T>, MetricsBatch.Member {
   private final Emitter<T> delegate;
   private final StageMetrics stageMetrics;
   private final String emitMetricName;
   private final DataTracer dataTracer;
   private final StageStatisticsCollector collector;
+  private final boolean collectOutput;
+  private final int metricsBatchSize;
+  // counts that were not emitted to the stage metrics yet
+  private int emitCount;
+  private int errorCount;
+  private int alertCount;
 
   public TrackedEmitter(Emitter<T> delegate, StageMetrics stageMetrics, String emitMetricName, DataTracer dataTracer,
                         StageStatisticsCollector collector) {
+    this(delegate, stageMetrics, emitMetricName, dataTracer, collector, 1);
+  }
+
+  public TrackedEmitter(Emitter<T> delegate, StageMetrics stageMetrics, String emitMetricName, DataTracer dataTracer,
+                        StageStatisticsCollector collector, int metricsBatchSize) {
     this.delegate = delegate;
     this.stageMetrics = stageMetrics;
     this.emitMetricName = emitMetricName;
     this.dataTracer = dataTracer;
     this.collector = collector;
+    this.collectOutput = emitMetricName.equals(Constants.Metrics.RECORDS_OUT);
+    this.metricsBatchSize = metricsBatchSize;
+  }
+
+  Emitter<T> getDelegate() {
+    return delegate;
   }
 
   @Override
   public void emit(T value) {
-    stageMetrics.count(emitMetricName, 1);
-    if (emitMetricName.equals(Constants.Metrics.RECORDS_OUT)) {
+    if (++emitCount == metricsBatchSize) {
+      stageMetrics.count(emitMetricName, emitCount);
+      emitCount = 0;
+    }
+    if (collectOutput) {
       collector.incrementOutputRecordCount();
     }
     if (dataTracer.isEnabled()) {
@@ -59,7 +80,10 @@ public class TrackedEmitter<T> implements Emitter<T> {
 
   @Override
   public void emitError(InvalidEntry<T> value) {
-    stageMetrics.count(Constants.Metrics.RECORDS_ERROR, 1);
+    if (++errorCount == metricsBatchSize) {
+      stageMetrics.count(Constants.Metrics.RECORDS_ERROR, errorCount);
+      errorCount = 0;
+    }
     collector.incrementErrorRecordCount();
     if (dataTracer.isEnabled()) {
       dataTracer.info(Constants.Metrics.RECORDS_ERROR, value);
@@ -69,10 +93,29 @@ public class TrackedEmitter<T> implements Emitter<T> {
 
   @Override
   public void emitAlert(Map<String, String> payload) {
-    stageMetrics.count(Constants.Metrics.RECORDS_ALERT, 1);
+    if (++alertCount == metricsBatchSize) {
+      stageMetrics.count(Constants.Metrics.RECORDS_ALERT, alertCount);
+      alertCount = 0;
+    }
     if (dataTracer.isEnabled()) {
       dataTracer.info(Constants.Metrics.RECORDS_ALERT, payload);
     }
     delegate.emitAlert(payload);
   }
+
+  @Override
+  public void flushMetrics() {
+    if (emitCount > 0) {
+      stageMetrics.count(emitMetricName, emitCount);
+      emitCount = 0;
+    }
+    if (errorCount > 0) {
+      stageMetrics.count(Constants.Metrics.RECORDS_ERROR, errorCount);
+      errorCount = 0;
+    }
+    if (alertCount > 0) {
+      stageMetrics.count(Constants.Metrics.RECORDS_ALERT, alertCount);
+      alertCount = 0;
+    }
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -21,42 +21,70 @@ import co.cask.cdap.etl.api.InvalidEntry;
 import co.cask.cdap.etl.api.MultiOutputEmitter;
 import co.cask.cdap.etl.api.StageMetrics;
 
+import java.util.HashMap;
 import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
  * Wrapper around another MultiOutputEmitter that tracks how many records were emitted to each port.
+ * Counts are emitted to the {@link StageMetrics} once every batch of records, see {@link MetricsBatch}.
  *
  * @param <E> the type of error object to emit
  */
-public class TrackedMultiOutputEmitter<E> implements MultiOutputEmitter<E> {
+public class TrackedMultiOutputEmitter<E> implements MultiOutputEmitter<E>, MetricsBatch.Member {
   private final MultiOutputEmitter<E> delegate;
   private final StageMetrics stageMetrics;
   private final DataTracer dataTracer;
   private final StageStatisticsCollector collector;
+  private final int metricsBatchSize;
+  // port -> count of the records emitted to the port that was not emitted to the stage metrics yet
+  private final Map<String, PortCount> portCounts;
+  private int errorCount;
+  private int alertCount;
 
   public TrackedMultiOutputEmitter(MultiOutputEmitter<E> delegate, StageMetrics stageMetrics, DataTracer dataTracer,
                                    StageStatisticsCollector collector) {
+    this(delegate, stageMetrics, dataTracer, collector, 1);
+  }
+
+  public TrackedMultiOutputEmitter(MultiOutputEmitter<E> delegate, StageMetrics stageMetrics, DataTracer dataTracer,
+                                   StageStatisticsCollector collector, int metricsBatchSize) {
     this.delegate = delegate;
     this.stageMetrics = stageMetrics;
     this.dataTracer = dataTracer;
     this.collector = collector;
+    this.metricsBatchSize = metricsBatchSize;
+    this.portCounts = new HashMap<>();
+  }
+
+  MultiOutputEmitter<E> getDelegate() {
+    return delegate;
   }
 
   @Override
   public void emit(String port, Object value) {
-    String metricName = Constants.Metrics.RECORDS_OUT + "." + port;
-    stageMetrics.count(metricName, 1);
+    PortCount portCount = portCounts.get(port);
+    if (portCount == null) {
+      portCount = new PortCount(Constants.Metrics.RECORDS_OUT + "." + port);
+      portCounts.put(port, portCount);
+    }
+    if (++portCount.count == metricsBatchSize) {
+      stageMetrics.count(portCount.metricName, portCount.count);
+      portCount.count = 0;
+    }
     collector.incrementOutputRecordCount();
     if (dataTracer.isEnabled()) {
-      dataTracer.info(metricName, value);
+      dataTracer.info(portCount.metricName, value);
     }
     delegate.emit(port, value);
   }
 
   @Override
   public void emitError(InvalidEntry<E> value) {
-    stageMetrics.count(Constants.Metrics.RECORDS_ERROR, 1);
+    if (++errorCount == metricsBatchSize) {
+      stageMetrics.count(Constants.Metrics.RECORDS_ERROR, errorCount);
+      errorCount = 0;
+    }
     collector.incrementErrorRecordCount();
     if (dataTracer.isEnabled()) {
       dataTracer.info(Constants.Metrics.RECORDS_ERROR, value);
@@ -66,10 +94,43 @@ public class TrackedMultiOutputEmitter<E> implements MultiOutputEmitter<E> {
 
   @Override
   public void emitAlert(Map<String, String> payload) {
-    stageMetrics.count(Constants.Metrics.RECORDS_ALERT, 1);
+    if (++alertCount == metricsBatchSize) {
+      stageMetrics.count(Constants.Metrics.RECORDS_ALERT, alertCount);
+      alertCount = 0;
+    }
     if (dataTracer.isEnabled()) {
       dataTracer.info(Constants.Metrics.RECORDS_ALERT, payload);
     }
     delegate.emitAlert(payload);
   }
+
+  @Override
+  public void flushMetrics() {
+    for (PortCount portCount : portCounts.values()) {
+      if (portCount.count > 0) {
+        stageMetrics.count(portCount.metricName, portCount.count);
+        portCount.count = 0;
+      }
+    }
+    if (errorCount > 0) {
+      stageMetrics.count(Constants.Metrics.RECORDS_ERROR, errorCount);
+      errorCount = 0;
+    }
+    if (alertCount > 0) {
+      stageMetrics.count(Constants.Metrics.RECORDS_ALERT, alertCount);
+      alertCount = 0;
+    }
+  }
+
+  /**
+   * The name of the metric for the records emitted to a port, and their count.
+   */
+  private static final class PortCount {
+    private final String metricName;
+    private int count;
+
+    private PortCount(String metricName) {
+      this.metricName = metricName;
+    }
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -26,16 +26,23 @@ import co.cask.cdap.etl.api.Transformation;
 
 /**
  * A {@link Transformation} that delegates transform operations while emitting metrics
- * around how many records were input into the transform and output by it.
+ * around how many records were input into the transform and output by it. Counts are emitted to the
+ * {@link StageMetrics} once every batch of records, see {@link MetricsBatch}.
  *
  * @param <IN> Type of input object
  * @param <ERROR> Type of error object
  */
-public class TrackedMultiOutputTransform<IN, ERROR> implements MultiOutputTransformation<IN, ERROR>, Destroyable {
+public class TrackedMultiOutputTransform<IN, ERROR>
+  implements MultiOutputTransformation<IN, ERROR>, Destroyable, MetricsBatch.Member {
   private final MultiOutputTransformation<IN, ERROR> transform;
   private final StageMetrics metrics;
   private final DataTracer dataTracer;
   private final StageStatisticsCollector collector;
+  private final int metricsBatchSize;
+  // input count that was not emitted to the stage metrics yet
+  private int inCount;
+  // the tracked emitter used for the last emitter, since the same emitter is usually passed in for every record
+  private TrackedMultiOutputEmitter<ERROR> trackedEmitter;
 
   public TrackedMultiOutputTransform(MultiOutputTransformation<IN, ERROR> transform, StageMetrics metrics,
                                      DataTracer dataTracer) {
@@ -44,17 +51,49 @@ public class TrackedMultiOutputTransform<IN, ERROR> implements MultiOutputTransf
 
   public TrackedMultiOutputTransform(MultiOutputTransformation<IN, ERROR> transform, StageMetrics metrics,
                                      DataTracer dataTracer, StageStatisticsCollector collector) {
+    this(transform, metrics, dataTracer, collector, MetricsBatch.NONE);
+  }
+
+  public TrackedMultiOutputTransform(MultiOutputTransformation<IN, ERROR> transform, StageMetrics metrics,
+                                     DataTracer dataTracer, StageStatisticsCollector collector,
+                                     MetricsBatch metricsBatch) {
     this.transform = transform;
     this.metrics = metrics;
     this.dataTracer = dataTracer;
     this.collector = collector;
+    this.metricsBatchSize = metricsBatch.getSize();
+    metricsBatch.register(this);
   }
 
   @Override
   public void transform(IN input, MultiOutputEmitter<ERROR> emitter) throws Exception {
-    metrics.count(Constants.Metrics.RECORDS_IN, 1);
+    if (++inCount == metricsBatchSize) {
+      metrics.count(Constants.Metrics.RECORDS_IN, inCount);
+      inCount = 0;
+    }
     collector.incrementInputRecordCount();
-    transform.transform(input, new TrackedMultiOutputEmitter<>(emitter, metrics, dataTracer, collector));
+    transform.transform(input, getTrackedEmitter(emitter));
+  }
+
+  private MultiOutputEmitter<ERROR> getTrackedEmitter(MultiOutputEmitter<ERROR> emitter) {
+    if (trackedEmitter == null || trackedEmitter.getDelegate() != emitter) {
+      if (trackedEmitter != null) {
+        trackedEmitter.flushMetrics();
+      }
+      trackedEmitter = new TrackedMultiOutputEmitter<>(emitter, metrics, dataTracer, collector, metricsBatchSize);
+    }
+    return trackedEmitter;
+  }
+
+  @Override
+  public void flushMetrics() {
+    if (inCount > 0) {
+      metrics.count(Constants.Metrics.RECORDS_IN, inCount);
+      inCount = 0;
+    }
+    if (trackedEmitter != null) {
+      trackedEmitter.flushMetrics();
+    }
   }
 
   @Override
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2015 Cask Data, Inc.
+ * Copyright © 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -22,22 +22,31 @@ import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.StageMetrics;
 import co.cask.cdap.etl.api.Transformation;
 
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
  * A {@link Transformation} that delegates transform operations while emitting metrics
- * around how many records were input into the transform and output by it.
+ * around how many records were input into the transform and output by it. Counts are emitted to the
+ * {@link StageMetrics} once every batch of records, see {@link MetricsBatch}. A batch of records is transformed
+ * with a single call to the delegate if it is a {@link BatchTransformation}.
  *
  * @param <IN> Type of input object
  * @param <OUT> Type of output object
  */
-public class TrackedTransform<IN, OUT> implements Transformation<IN, OUT>, Destroyable {
+public class TrackedTransform<IN, OUT> implements BatchTransformation<IN, OUT>, Destroyable, MetricsBatch.Member {
   private final Transformation<IN, OUT> transform;
   private final StageMetrics metrics;
   private final String metricInName;
   private final String metricOutName;
   private final DataTracer dataTracer;
   private final StageStatisticsCollector collector;
+  private final boolean collectInput;
+  private final int metricsBatchSize;
+  // input count that was not emitted to the stage metrics yet
+  private int inCount;
+  // the tracked emitter used for the last emitter, since the same emitter is usually passed in for every record
+  private TrackedEmitter<OUT> trackedEmitter;
 
   public TrackedTransform(Transformation<IN, OUT> transform, StageMetrics metrics, DataTracer dataTracer) {
     this(transform, metrics, dataTracer, new NoopStageStatisticsCollector());
@@ -55,24 +64,73 @@ public class TrackedTransform<IN, OUT> implements Transformation<IN, OUT>, Destr
 
   public TrackedTransform(Transformation<IN, OUT> transform, StageMetrics metrics, @Nullable String metricInName,
                           @Nullable String metricOutName, DataTracer dataTracer, StageStatisticsCollector collector) {
+    this(transform, metrics, metricInName, metricOutName, dataTracer, collector, MetricsBatch.NONE);
+  }
+
+  public TrackedTransform(Transformation<IN, OUT> transform, StageMetrics metrics, @Nullable String metricInName,
+                          @Nullable String metricOutName, DataTracer dataTracer, StageStatisticsCollector collector,
+                          MetricsBatch metricsBatch) {
     this.transform = transform;
     this.metrics = metrics;
     this.metricInName = metricInName;
     this.metricOutName = metricOutName;
     this.dataTracer = dataTracer;
     this.collector = collector;
+    this.collectInput = Constants.Metrics.RECORDS_IN.equals(metricInName);
+    this.metricsBatchSize = metricsBatch.getSize();
+    metricsBatch.register(this);
   }
 
   @Override
   public void transform(IN input, Emitter<OUT> emitter) throws Exception {
     if (metricInName != null) {
-      metrics.count(metricInName, 1);
-      if (metricInName.equals(Constants.Metrics.RECORDS_IN)) {
+      if (++inCount == metricsBatchSize) {
+        metrics.count(metricInName, inCount);
+        inCount = 0;
+      }
+      if (collectInput) {
         collector.incrementInputRecordCount();
       }
     }
-    transform.transform(input, metricOutName == null ? emitter :
-      new TrackedEmitter<>(emitter, metrics, metricOutName, dataTracer, collector));
+    transform.transform(input, metricOutName == null ? emitter : getTrackedEmitter(emitter));
+  }
+
+  @Override
+  public void transformBatch(List<IN> inputs, Emitter<OUT> emitter) throws Exception {
+    if (metricInName != null) {
+      inCount += inputs.size();
+      if (inCount >= metricsBatchSize) {
+        metrics.count(metricInName, inCount);
+        inCount = 0;
+      }
+      if (collectInput) {
+        for (int i = 0; i < inputs.size(); i++) {
+          collector.incrementInputRecordCount();
+        }
+      }
+    }
+    BatchTransformation.transform(transform, inputs, metricOutName == null ? emitter : getTrackedEmitter(emitter));
+  }
+
+  private Emitter<OUT> getTrackedEmitter(Emitter<OUT> emitter) {
+    if (trackedEmitter == null || trackedEmitter.getDelegate() != emitter) {
+      if (trackedEmitter != null) {
+        trackedEmitter.flushMetrics();
+      }
+      trackedEmitter = new TrackedEmitter<>(emitter, metrics, metricOutName, dataTracer, collector, metricsBatchSize);
+    }
+    return trackedEmitter;
+  }
+
+  @Override
+  public void flushMetrics() {
+    if (inCount > 0) {
+      metrics.count(metricInName, inCount);
+      inCount = 0;
+    }
+    if (trackedEmitter != null) {
+      trackedEmitter.flushMetrics();
+    }
   }
 
   @Override
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -18,68 +18,86 @@ package co.cask.cdap.etl.common.plugin;
 
 import co.cask.cdap.etl.api.StageMetrics;
 import co.cask.cdap.etl.common.Constants;
-import com.google.common.base.Stopwatch;
+import co.cask.cdap.etl.common.MetricsBatch;
+import com.google.common.base.Preconditions;
 
 import java.util.concurrent.TimeUnit;
 
 /**
- * An operation timer that emits metrics.
+ * An operation timer that emits metrics. Timings are aggregated locally and emitted to the {@link StageMetrics}
+ * once every batch of operations, see {@link MetricsBatch}.
  */
-public class MetricsOperationTimer implements OperationTimer {
+public class MetricsOperationTimer implements OperationTimer, MetricsBatch.Member {
   private final StageMetrics stageMetrics;
-  private final Stopwatch stopwatch;
+  private final int metricsBatchSize;
+  private boolean running;
+  private long startNanos;
+  private long elapsedNanos;
   private long minTime;
   private long maxTime;
   private long numValues;
   private double mean;
   private double m2;
+  // number of operations and total time that were not emitted to the stage metrics yet
+  private int pendingValues;
+  private long pendingMicros;
 
   public MetricsOperationTimer(StageMetrics stageMetrics) {
+    this(stageMetrics, MetricsBatch.NONE);
+  }
+
+  public MetricsOperationTimer(StageMetrics stageMetrics, MetricsBatch metricsBatch) {
     this.stageMetrics = stageMetrics;
-    this.stopwatch = new Stopwatch();
+    this.metricsBatchSize = metricsBatch.getSize();
+    metricsBatch.register(this);
   }
 
   /**
-   * Starts the stopwatch.
+   * Starts the timer.
    *
-   * @throws IllegalStateException if the stopwatch is already running.
+   * @throws IllegalStateException if the timer is already running.
    */
   @Override
   public void start() {
-    stopwatch.start();
+    Preconditions.checkState(!running, "This timer is already running.");
+    running = true;
+    startNanos = System.nanoTime();
   }
 
   /**
-   * Stops the stopwatch. Future reads will return the fixed duration that had
-   * elapsed up to this point.
+   * Stops the timer. Future resets will use the fixed duration that had elapsed up to this point.
    *
-   * @throws IllegalStateException if the stopwatch is already stopped.
+   * @throws IllegalStateException if the timer is already stopped.
    */
   @Override
   public void stop() {
-    stopwatch.stop();
+    long now = System.nanoTime();
+    Preconditions.checkState(running, "This timer is already stopped.");
+    running = false;
+    elapsedNanos += now - startNanos;
   }
 
   /**
-   * Resets the stopwatch and updates the timing metrics.
+   * Resets the timer and updates the timing metrics.
    */
   @Override
   public void reset() {
-    emitTimeMetrics(stopwatch.elapsedTime(TimeUnit.MICROSECONDS));
-    stopwatch.reset();
+    long nanos = running ? elapsedNanos + System.nanoTime() - startNanos : elapsedNanos;
+    running = false;
+    elapsedNanos = 0;
+    updateTimeMetrics(TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  @Override
+  public void flushMetrics() {
+    if (pendingValues > 0) {
+      emitTimeMetrics();
+    }
   }
 
-  private void emitTimeMetrics(long micros) {
+  private void updateTimeMetrics(long micros) {
     maxTime = maxTime < micros ? micros : maxTime;
     minTime = minTime > micros ? micros : minTime;
-    // this shouldn't normally happen, it means ~35 minutes were spent in a method call
-    while (micros > Integer.MAX_VALUE) {
-      stageMetrics.count(Constants.Metrics.TOTAL_TIME, Integer.MAX_VALUE);
-      micros -= Integer.MAX_VALUE;
-    }
-    stageMetrics.count(Constants.Metrics.TOTAL_TIME, (int) micros);
-    stageMetrics.gauge(Constants.Metrics.MAX_TIME, maxTime);
-    stageMetrics.gauge(Constants.Metrics.MIN_TIME, minTime);
 
     // see https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Online_algorithm
     numValues++;
@@ -87,9 +105,26 @@ public class MetricsOperationTimer implements OperationTimer {
     mean += delta / numValues;
     double delta2 = micros - mean;
     m2 += delta * delta2;
-    double stddev = Math.sqrt(m2 / numValues);
 
+    pendingMicros += micros;
+    if (++pendingValues == metricsBatchSize) {
+      emitTimeMetrics();
+    }
+  }
+
+  private void emitTimeMetrics() {
+    long micros = pendingMicros;
+    // this shouldn't normally happen, it means ~35 minutes were spent in method calls
+    while (micros > Integer.MAX_VALUE) {
+      stageMetrics.count(Constants.Metrics.TOTAL_TIME, Integer.MAX_VALUE);
+      micros -= Integer.MAX_VALUE;
+    }
+    stageMetrics.count(Constants.Metrics.TOTAL_TIME, (int) micros);
+    stageMetrics.gauge(Constants.Metrics.MAX_TIME, maxTime);
+    stageMetrics.gauge(Constants.Metrics.MIN_TIME, minTime);
     stageMetrics.gauge(Constants.Metrics.AVG_TIME, (long) mean);
-    stageMetrics.gauge(Constants.Metrics.STD_DEV_TIME, (long) stddev);
+    stageMetrics.gauge(Constants.Metrics.STD_DEV_TIME, (long) Math.sqrt(m2 / numValues));
+    pendingMicros = 0;
+    pendingValues = 0;
   }
 }
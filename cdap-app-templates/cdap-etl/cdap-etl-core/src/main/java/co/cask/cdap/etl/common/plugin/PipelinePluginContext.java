@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -32,6 +32,7 @@ import co.cask.cdap.etl.api.batch.BatchSink;
 import co.cask.cdap.etl.api.batch.BatchSource;
 import co.cask.cdap.etl.api.batch.PostAction;
 import co.cask.cdap.etl.common.DefaultStageMetrics;
+import co.cask.cdap.etl.common.MetricsBatch;
 
 /**
  * Creates pipeline plugins. Any call made on the plugins will be wrapped so that the context classloader is set
@@ -44,13 +45,20 @@ public class PipelinePluginContext implements PluginContext {
   private final Metrics metrics;
   private final boolean stageLoggingEnabled;
   private final boolean processTimingEnabled;
+  private final MetricsBatch metricsBatch;
 
   public PipelinePluginContext(PluginContext delegate, Metrics metrics,
                                boolean stageLoggingEnabled, boolean processTimingEnabled) {
+    this(delegate, metrics, stageLoggingEnabled, processTimingEnabled, MetricsBatch.NONE);
+  }
+
+  public PipelinePluginContext(PluginContext delegate, Metrics metrics, boolean stageLoggingEnabled,
+                               boolean processTimingEnabled, MetricsBatch metricsBatch) {
     this.delegate = delegate;
     this.metrics = metrics;
     this.stageLoggingEnabled = stageLoggingEnabled;
     this.processTimingEnabled = processTimingEnabled;
+    this.metricsBatch = metricsBatch;
   }
 
   @Override
@@ -83,7 +91,7 @@ public class PipelinePluginContext implements PluginContext {
     Caller caller = getCaller(pluginId);
     StageMetrics stageMetrics = new DefaultStageMetrics(metrics, pluginId);
     OperationTimer operationTimer =
-      processTimingEnabled ? new MetricsOperationTimer(stageMetrics) : NoOpOperationTimer.INSTANCE;
+      processTimingEnabled ? new MetricsOperationTimer(stageMetrics, metricsBatch) : NoOpOperationTimer.INSTANCE;
     if (plugin instanceof Action) {
       return new WrappedAction((Action) plugin, caller);
     } else if (plugin instanceof BatchSource) {
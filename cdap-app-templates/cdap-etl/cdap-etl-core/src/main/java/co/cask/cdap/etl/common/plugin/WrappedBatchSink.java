@@ -1,5 +1,5 @@
 /*
- * Copyright © 2015 Cask Data, Inc.
+ * Copyright © 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -23,7 +23,9 @@ import co.cask.cdap.etl.api.batch.BatchRuntimeContext;
 import co.cask.cdap.etl.api.batch.BatchSink;
 import co.cask.cdap.etl.api.batch.BatchSinkContext;
 import co.cask.cdap.etl.api.batch.BatchSource;
+import co.cask.cdap.etl.common.BatchTransformation;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
@@ -34,7 +36,8 @@ import java.util.concurrent.Callable;
  * @param <KEY_OUT> type of output key
  * @param <VAL_OUT> type of output value
  */
-public class WrappedBatchSink<IN, KEY_OUT, VAL_OUT> extends BatchSink<IN, KEY_OUT, VAL_OUT> {
+public class WrappedBatchSink<IN, KEY_OUT, VAL_OUT> extends BatchSink<IN, KEY_OUT, VAL_OUT>
+  implements BatchTransformation<IN, KeyValue<KEY_OUT, VAL_OUT>> {
   private final BatchSink<IN, KEY_OUT, VAL_OUT> batchSink;
   private final Caller caller;
   private final OperationTimer operationTimer;
@@ -85,6 +88,26 @@ public class WrappedBatchSink<IN, KEY_OUT, VAL_OUT> extends BatchSink<IN, KEY_OU
     }
   }
 
+  @Override
+  public void transformBatch(final List<IN> inputs,
+                             final Emitter<KeyValue<KEY_OUT, VAL_OUT>> emitter) throws Exception {
+    operationTimer.start();
+    try {
+      caller.call(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Emitter<KeyValue<KEY_OUT, VAL_OUT>> untimedEmitter = new UntimedEmitter<>(emitter, operationTimer);
+          for (IN input : inputs) {
+            batchSink.transform(input, untimedEmitter);
+          }
+          return null;
+        }
+      });
+    } finally {
+      operationTimer.reset();
+    }
+  }
+
   @Override
   public void destroy() {
     caller.callUnchecked(new Callable<Void>() {
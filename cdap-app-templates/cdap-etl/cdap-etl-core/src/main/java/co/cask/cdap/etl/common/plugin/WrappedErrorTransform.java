@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -22,7 +22,9 @@ import co.cask.cdap.etl.api.ErrorTransform;
 import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.Transform;
 import co.cask.cdap.etl.api.TransformContext;
+import co.cask.cdap.etl.common.BatchTransformation;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
@@ -32,7 +34,8 @@ import java.util.concurrent.Callable;
  * @param <IN> the type of error record
  * @param <OUT> the type of output record
  */
-public class WrappedErrorTransform<IN, OUT> extends ErrorTransform<IN, OUT> {
+public class WrappedErrorTransform<IN, OUT> extends ErrorTransform<IN, OUT>
+  implements BatchTransformation<ErrorRecord<IN>, OUT> {
   private final ErrorTransform<IN, OUT> transform;
   private final Caller caller;
   private final OperationTimer operationTimer;
@@ -93,4 +96,23 @@ public class WrappedErrorTransform<IN, OUT> extends ErrorTransform<IN, OUT> {
     }
   }
 
+  @Override
+  public void transformBatch(final List<ErrorRecord<IN>> inputs, final Emitter<OUT> emitter) throws Exception {
+    operationTimer.start();
+    try {
+      caller.call(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Emitter<OUT> untimedEmitter = new UntimedEmitter<>(emitter, operationTimer);
+          for (ErrorRecord<IN> input : inputs) {
+            transform.transform(input, untimedEmitter);
+          }
+          return null;
+        }
+      });
+    } finally {
+      operationTimer.reset();
+    }
+  }
+
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2015 Cask Data, Inc.
+ * Copyright © 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -21,7 +21,9 @@ import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.StageSubmitterContext;
 import co.cask.cdap.etl.api.Transform;
 import co.cask.cdap.etl.api.TransformContext;
+import co.cask.cdap.etl.common.BatchTransformation;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
@@ -31,7 +33,7 @@ import java.util.concurrent.Callable;
  * @param <IN> type of input
  * @param <OUT> type of output
  */
-public class WrappedTransform<IN, OUT> extends Transform<IN, OUT> {
+public class WrappedTransform<IN, OUT> extends Transform<IN, OUT> implements BatchTransformation<IN, OUT> {
   private final Transform<IN, OUT> transform;
   private final Caller caller;
   private final OperationTimer operationTimer;
@@ -112,4 +114,23 @@ public class WrappedTransform<IN, OUT> extends Transform<IN, OUT> {
       operationTimer.reset();
     }
   }
+
+  @Override
+  public void transformBatch(final List<IN> inputs, final Emitter<OUT> emitter) throws Exception {
+    operationTimer.start();
+    try {
+      caller.call(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Emitter<OUT> untimedEmitter = new UntimedEmitter<>(emitter, operationTimer);
+          for (IN input : inputs) {
+            transform.transform(input, untimedEmitter);
+          }
+          return null;
+        }
+      });
+    } finally {
+      operationTimer.reset();
+    }
+  }
 }
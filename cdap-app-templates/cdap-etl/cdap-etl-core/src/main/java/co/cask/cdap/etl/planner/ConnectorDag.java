@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -42,28 +42,36 @@ public class ConnectorDag extends Dag {
   private final Set<String> reduceNodes;
   private final Set<String> isolationNodes;
   private final Set<String> multiPortNodes;
+  // joiner node -> inputs of the joiner that are broadcast to it
+  private final Map<String, Set<String>> broadcastInputs;
   // node name -> original node it was placed in front of
   private final Map<String, String> connectors;
+  private final Set<String> broadcastConnectors;
 
   private ConnectorDag(Collection<Connection> connections,
                        Set<String> reduceNodes,
                        Set<String> isolationNodes,
                        Set<String> multiPortNodes,
+                       Map<String, Set<String>> broadcastInputs,
                        Map<String, String> connectors) {
     super(connections);
     this.reduceNodes = ImmutableSet.copyOf(reduceNodes);
     this.isolationNodes = ImmutableSet.copyOf(isolationNodes);
     this.multiPortNodes = ImmutableSet.copyOf(multiPortNodes);
+    this.broadcastInputs = new HashMap<>(broadcastInputs);
     this.connectors = new HashMap<>(connectors);
+    this.broadcastConnectors = new HashSet<>();
   }
 
   public ConnectorDag(Dag dag, Set<String> reduceNodes, Set<String> isolationNodes, Set<String> multiPortNodes,
-                      Map<String, String> connectors) {
+                      Map<String, Set<String>> broadcastInputs, Map<String, String> connectors) {
     super(dag);
     this.reduceNodes = ImmutableSet.copyOf(reduceNodes);
     this.isolationNodes = ImmutableSet.copyOf(isolationNodes);
     this.multiPortNodes = ImmutableSet.copyOf(multiPortNodes);
+    this.broadcastInputs = new HashMap<>(broadcastInputs);
     this.connectors = new HashMap<>(connectors);
+    this.broadcastConnectors = new HashSet<>();
   }
 
   /**
@@ -77,6 +85,8 @@ public class ConnectorDag extends Dag {
    * We also can't have 2 reducers in a single mapreduce job.
    * A connector is also inserted in front of any node if the inputs into the node come from multiple sources.
    * A connector is also inserted in front of a reduce node that has another reduce node as its input.
+   * A broadcast connector is inserted between a joiner and each of its broadcast inputs, so that the joiner can
+   * load those inputs in the phase that reads its other input.
    *
    * After splitting, the result will be a collection of subdags, with each subdag representing a single
    * mapreduce job (or possibly map-only job). Or in spark, each subdag would be a series of operations from
@@ -90,6 +100,33 @@ public class ConnectorDag extends Dag {
 
     Set<String> addedAlready = new HashSet<>();
 
+    /*
+        Insert a connector between a joiner and each input that is broadcast to it. For example, if input2 is
+        broadcast to the joiner:
+
+          input1 ---------|
+                          |--> joiner --> sink
+          input2 ---------|
+
+        becomes:
+
+          input1 -----------------------------------------|
+                                                          |--> joiner --> sink
+          input2 --> input2.joiner.broadcast.connector ---|
+
+        The joiner is not a reduce node, so it is run in the same phase as input1, and reads all of input2 from the
+        connector before it joins any record of input1.
+     */
+    for (Map.Entry<String, Set<String>> entry : broadcastInputs.entrySet()) {
+      String joiner = entry.getKey();
+      for (String input : entry.getValue()) {
+        String connectorName = getConnectorName(input + "." + joiner + ".broadcast");
+        insertBetween(connectorName, input, joiner);
+        connectors.put(connectorName, joiner);
+        broadcastConnectors.add(connectorName);
+      }
+    }
+
     /*
         Isolate the specified node by inserting a connector in front of and behind the node.
         If all inputs into the the node are sources, a connector will not be inserted in front.
@@ -201,6 +238,10 @@ public class ConnectorDag extends Dag {
     // stop at reduce and isolation nodes. This is so that each branch will not contain multiple connectors
     Set<String> stopNodes = Sets.union(connectors.keySet(), Sets.union(isolationNodes, reduceNodes));
     for (String connector : connectors.keySet()) {
+      // the data of a broadcast connector is loaded by its joiner, so it can't be shared with any other stage
+      if (broadcastConnectors.contains(connector)) {
+        continue;
+      }
       List<String> branch = getBranch(connector, stopNodes);
       String branchHead = branch.iterator().next();
       Set<String> branchInputs = new HashSet<>(getNodeInputs(branchHead));
@@ -388,6 +429,13 @@ public class ConnectorDag extends Dag {
     return connectors;
   }
 
+  /**
+   * @return the connector nodes that were placed between a joiner and one of its broadcast inputs
+   */
+  public Set<String> getBroadcastConnectors() {
+    return broadcastConnectors;
+  }
+
   /**
    * Split this dag into multiple dags. Each subdag will contain at most a single reduce node.
    *
@@ -452,7 +500,10 @@ public class ConnectorDag extends Dag {
       // This is to prevent a subdag with a connector as a sink
       // and another subdag with that same connector as a source from getting merged
       Set<String> subdagNodes = new HashSet<>(subdag.getNodes());
-      Set<String> nonSourceNodes = Sets.difference(subdagNodes, subdag.getSources());
+      // the sources of every merged subdag are excluded, since a connector can be the source of a subdag that is
+      // merged with another subdag, for example a broadcast connector into a joiner that also reads a source
+      Set<String> subdagSources = new HashSet<>(subdag.getSources());
+      Set<String> nonSourceNodes = Sets.difference(subdagNodes, subdagSources);
       // go through all the other remaining sources and see if there is a path from them to our current dag
       Set<String> otherSources = Sets.difference(remainingSources, processedSources);
       // keep looping until no new nodes were added to the subdag.
@@ -470,6 +521,7 @@ public class ConnectorDag extends Dag {
             if (subdagNodes.addAll(otherSubdag.getNodes())) {
               nodesAdded = true;
             }
+            subdagSources.addAll(otherSubdag.getSources());
           }
         }
       } while (nodesAdded);
@@ -530,11 +582,34 @@ public class ConnectorDag extends Dag {
     incomingConnections.replaceValues(inFrontOf, ImmutableSet.of(name));
   }
 
+  /**
+   * Inserts a node on the connection between two nodes.
+   *
+   * @param name the name of the new node
+   * @param from the start of the connection
+   * @param to the end of the connection
+   */
+  private void insertBetween(String name, String from, String to) {
+    if (!outgoingConnections.containsEntry(from, to)) {
+      throw new IllegalArgumentException(
+        String.format("Cannot insert node %s between %s and %s because they are not connected.", name, from, to));
+    }
+    if (!nodes.add(name)) {
+      throw new IllegalArgumentException(
+        String.format("Cannot insert node %s because it already exists.", name));
+    }
+
+    removeConnection(from, to);
+    addConnection(from, name);
+    addConnection(name, to);
+  }
+
   @Override
   public String toString() {
     return "ConnectorDag{" +
       "reduceNodes=" + reduceNodes +
       ", connectors=" + connectors +
+      ", broadcastConnectors=" + broadcastConnectors +
       "} " + super.toString();
   }
 
@@ -553,12 +628,13 @@ public class ConnectorDag extends Dag {
     ConnectorDag that = (ConnectorDag) o;
 
     return Objects.equals(reduceNodes, that.reduceNodes) &&
-      Objects.equals(connectors, that.connectors);
+      Objects.equals(connectors, that.connectors) &&
+      Objects.equals(broadcastConnectors, that.broadcastConnectors);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(super.hashCode(), reduceNodes, connectors);
+    return Objects.hash(super.hashCode(), reduceNodes, connectors, broadcastConnectors);
   }
 
   /**
@@ -586,6 +662,7 @@ public class ConnectorDag extends Dag {
     private final Set<String> reduceNodes;
     private final Set<String> isolationNodes;
     private final Set<String> multiPortNodes;
+    private final Map<String, Set<String>> broadcastInputs;
     private final Map<String, String> connectors;
     private Dag dag;
 
@@ -594,6 +671,7 @@ public class ConnectorDag extends Dag {
       this.reduceNodes = new HashSet<>();
       this.isolationNodes = new HashSet<>();
       this.multiPortNodes = new HashSet<>();
+      this.broadcastInputs = new HashMap<>();
       this.connectors = new HashMap<>();
     }
 
@@ -627,6 +705,19 @@ public class ConnectorDag extends Dag {
       return this;
     }
 
+    /**
+     * Adds inputs of a joiner that are broadcast to it. The joiner must not be a reduce node.
+     */
+    public Builder addBroadcastInputs(String joiner, Collection<String> inputs) {
+      Set<String> joinerInputs = broadcastInputs.get(joiner);
+      if (joinerInputs == null) {
+        joinerInputs = new HashSet<>();
+        broadcastInputs.put(joiner, joinerInputs);
+      }
+      joinerInputs.addAll(inputs);
+      return this;
+    }
+
     public Builder addConnectors(String... nodes) {
       if (nodes.length % 2 != 0) {
         throw new IllegalArgumentException("must specify an even number of nodes, alternating between the " +
@@ -661,9 +752,10 @@ public class ConnectorDag extends Dag {
 
     public ConnectorDag build() {
       if (dag == null) {
-        return new ConnectorDag(connections, reduceNodes, isolationNodes, multiPortNodes, connectors);
+        return new ConnectorDag(connections, reduceNodes, isolationNodes, multiPortNodes, broadcastInputs,
+                                connectors);
       }
-      return new ConnectorDag(dag, reduceNodes, isolationNodes, multiPortNodes, connectors);
+      return new ConnectorDag(dag, reduceNodes, isolationNodes, multiPortNodes, broadcastInputs, connectors);
     }
   }
 }
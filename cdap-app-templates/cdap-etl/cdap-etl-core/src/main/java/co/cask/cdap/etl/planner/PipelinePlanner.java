@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -32,6 +32,7 @@ import com.google.common.collect.Sets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -69,6 +70,9 @@ public class PipelinePlanner {
    * We start by inserting connector nodes into the logical dag,
    * which are used to mark boundaries between mapreduce jobs.
    * Each connector represents a node where we will need to write to a local dataset.
+   * A reduce node that joins its inputs is not a boundary if all its inputs but one are broadcast to it.
+   * Instead, a broadcast connector is inserted after each of those inputs, which the joiner loads
+   * in the phase that reads its other input.
    *
    * Next, the logical pipeline is broken up into phases,
    * using the connectors as sinks in one phase, and a source in another.
@@ -84,6 +88,8 @@ public class PipelinePlanner {
     Set<String> actionNodes = new HashSet<>();
     Set<String> multiPortNodes = new HashSet<>();
     Set<String> allNodes = new HashSet<>();
+    // reduce node -> inputs that are broadcast to it
+    Map<String, Set<String>> broadcastJoins = new HashMap<>();
 
     // Map to hold the connection information from condition nodes to the first stage
     // they connect to. Condition information also includes whether the stage is connected
@@ -99,6 +105,9 @@ public class PipelinePlanner {
       allNodes.add(stage.getName());
       if (reduceTypes.contains(pluginType)) {
         reduceNodes.add(stage.getName());
+        if (!stage.getBroadcastInputs().isEmpty()) {
+          broadcastJoins.put(stage.getName(), stage.getBroadcastInputs());
+        }
       }
       if (isolationTypes.contains(pluginType)) {
         isolationNodes.add(stage.getName());
@@ -172,9 +181,10 @@ public class PipelinePlanner {
     }
 
     Map<String, String> connectorNodes = new HashMap<>();
+    Set<String> broadcastConnectors = new HashSet<>();
     // now split the logical pipeline into pipeline phases, using the connectors as split points
     Set<Dag> splittedDag = split(spec.getConnections(), conditionBranches.keySet(), reduceNodes, isolationNodes,
-                                 actionNodes, multiPortNodes, connectorNodes);
+                                 actionNodes, multiPortNodes, broadcastJoins, connectorNodes, broadcastConnectors);
     Map<String, String> controlConnectors = getConnectorsAssociatedWithConditions(conditionBranches.keySet(),
                                                                                   conditionChildToParent,
                                                                                   conditionInputs, conditionOutputs,
@@ -210,7 +220,8 @@ public class PipelinePlanner {
           Set<String> nodes = Sets.difference(updatedDag.getNodes(), controlNodes);
           updatedDag = updatedDag.createSubDag(nodes);
         }
-        phases.put(dag1Name, dagToPipeline(updatedDag, connectorNodes, specs, controlConnectors));
+        phases.put(dag1Name, dagToPipeline(updatedDag, connectorNodes, broadcastConnectors, specs,
+                                           controlConnectors));
       }
 
       for (String controlSource : Sets.intersection(controlNodes, dag1.getSources())) {
@@ -341,11 +352,12 @@ public class PipelinePlanner {
    *
    * @param dag the dag to convert
    * @param connectors connector nodes across all dags
+   * @param broadcastConnectors connector nodes that hold an input that is broadcast to a joiner
    * @param specs specifications for every stage
    * @return the converted dag
    */
-  private PipelinePhase dagToPipeline(Dag dag, Map<String, String> connectors, Map<String, StageSpec> specs,
-                                      Map<String, String> conditionConnectors) {
+  private PipelinePhase dagToPipeline(Dag dag, Map<String, String> connectors, Set<String> broadcastConnectors,
+                                      Map<String, StageSpec> specs, Map<String, String> conditionConnectors) {
     PipelinePhase.Builder phaseBuilder = PipelinePhase.builder(supportedPluginTypes);
 
     for (String stageName : dag.getTopologicalOrder()) {
@@ -359,11 +371,14 @@ public class PipelinePlanner {
       if (originalName != null || conditionConnectors.values().contains(stageName)) {
         String connectorType = dag.getSources().contains(stageName) ?
           Constants.Connector.SOURCE_TYPE : Constants.Connector.SINK_TYPE;
+        ImmutableMap.Builder<String, String> connectorProperties = ImmutableMap.<String, String>builder()
+          .put(Constants.Connector.ORIGINAL_NAME, originalName != null ? originalName : stageName)
+          .put(Constants.Connector.TYPE, connectorType);
+        if (broadcastConnectors.contains(stageName)) {
+          connectorProperties.put(Constants.Connector.BROADCAST, "true");
+        }
         PluginSpec connectorSpec =
-          new PluginSpec(Constants.Connector.PLUGIN_TYPE, "connector",
-                         ImmutableMap.of(Constants.Connector.ORIGINAL_NAME, originalName != null
-                                           ? originalName : stageName,
-                                         Constants.Connector.TYPE, connectorType), null);
+          new PluginSpec(Constants.Connector.PLUGIN_TYPE, "connector", connectorProperties.build(), null);
         phaseBuilder.addStage(StageSpec.builder(stageName, connectorSpec).build());
         continue;
       }
@@ -392,13 +407,15 @@ public class PipelinePlanner {
   @VisibleForTesting
   static Set<Dag> split(Set<Connection> connections, Set<String> conditions, Set<String> reduceNodes,
                         Set<String> isolationNodes, Set<String> actionNodes, Set<String> multiPortNodes,
-                        Map<String, String> connectorNodes) {
+                        Map<String, Set<String>> broadcastJoins, Map<String, String> connectorNodes,
+                        Set<String> broadcastConnectors) {
     Dag dag = new Dag(connections);
     Set<Dag> subdags = dag.splitByControlNodes(conditions, actionNodes);
+    Set<String> controlNodes = Sets.union(conditions, actionNodes);
 
     Set<Dag> result = new HashSet<>();
     for (Dag subdag : subdags) {
-      if (Sets.union(conditions, actionNodes).containsAll(subdag.getNodes())) {
+      if (controlNodes.containsAll(subdag.getNodes())) {
         // Current Dag only contains control nodes and no reducers/isolation nodes. So no need to insert any
         // connectors here, which is only done for reducer/isolation nodes.
         result.add(subdag);
@@ -407,17 +424,64 @@ public class PipelinePlanner {
       Set<String> subdagReduceNodes = Sets.intersection(reduceNodes, subdag.getNodes());
       Set<String> subdagIsolationNodes = Sets.intersection(isolationNodes, subdag.getNodes());
 
-      ConnectorDag cdag = ConnectorDag.builder()
-        .addDag(subdag)
-        .addReduceNodes(subdagReduceNodes)
-        .addIsolationNodes(subdagIsolationNodes)
-        .addMultiPortNodes(multiPortNodes)
-        .build();
+      // a join can only be done on the map side if the joiner reads each of its broadcast inputs directly
+      Map<String, Set<String>> mapSideJoins = new HashMap<>();
+      for (String joiner : Sets.intersection(broadcastJoins.keySet(), subdagReduceNodes)) {
+        Set<String> broadcastInputs = broadcastJoins.get(joiner);
+        Set<String> joinerInputs = subdag.getNodeInputs(joiner);
+        if (joinerInputs.size() == broadcastInputs.size() + 1 && joinerInputs.containsAll(broadcastInputs)
+          && Sets.intersection(broadcastInputs, controlNodes).isEmpty()) {
+          mapSideJoins.put(joiner, broadcastInputs);
+        }
+      }
 
-      cdag.insertConnectors();
-      connectorNodes.putAll(cdag.getConnectors());
-      result.addAll(cdag.split());
+      while (true) {
+        ConnectorDag.Builder builder = ConnectorDag.builder()
+          .addDag(subdag)
+          .addReduceNodes(Sets.difference(subdagReduceNodes, mapSideJoins.keySet()))
+          .addIsolationNodes(subdagIsolationNodes)
+          .addMultiPortNodes(multiPortNodes);
+        for (Map.Entry<String, Set<String>> mapSideJoin : mapSideJoins.entrySet()) {
+          builder.addBroadcastInputs(mapSideJoin.getKey(), mapSideJoin.getValue());
+        }
+        ConnectorDag cdag = builder.build();
+
+        cdag.insertConnectors();
+        List<Dag> cdagSplit = cdag.split();
+        // if a map side joiner ended up in a phase that does not read the broadcast connectors as sources,
+        // for example because it is run after a reducer, plan it again as a reduce node
+        Set<String> invalidJoins = getInvalidMapSideJoins(cdag, cdagSplit, mapSideJoins.keySet());
+        if (invalidJoins.isEmpty()) {
+          connectorNodes.putAll(cdag.getConnectors());
+          broadcastConnectors.addAll(cdag.getBroadcastConnectors());
+          result.addAll(cdagSplit);
+          break;
+        }
+        mapSideJoins.keySet().removeAll(invalidJoins);
+      }
     }
     return result;
   }
+
+  /**
+   * Returns the joiners that are not in the same phase as all of their broadcast connectors,
+   * with the connectors as sources of the phase.
+   */
+  private static Set<String> getInvalidMapSideJoins(ConnectorDag cdag, List<Dag> subdags, Set<String> joiners) {
+    Set<String> invalid = new HashSet<>();
+    for (String joiner : joiners) {
+      Set<String> joinerConnectors = new HashSet<>();
+      for (String connector : cdag.getBroadcastConnectors()) {
+        if (joiner.equals(cdag.getConnectors().get(connector))) {
+          joinerConnectors.add(connector);
+        }
+      }
+      for (Dag subdag : subdags) {
+        if (subdag.getNodes().contains(joiner) && !subdag.getSources().containsAll(joinerConnectors)) {
+          invalid.add(joiner);
+        }
+      }
+    }
+    return invalid;
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -290,6 +290,7 @@ public abstract class PipelineSpecGenerator<C extends ETLConfig,
       .addInputSchemas(inputSchemas)
       .addOutputPortSchemas(outputSchemas)
       .setErrorSchema(stageConfigurer.getErrorSchema())
+      .addBroadcastInputs(stageConfigurer.getBroadcastInputs())
       .setProcessTimingEnabled(validatedPipeline.isProcessTimingEnabled())
       .setStageLoggingEnabled(validatedPipeline.isStageLoggingEnabled())
       .build();
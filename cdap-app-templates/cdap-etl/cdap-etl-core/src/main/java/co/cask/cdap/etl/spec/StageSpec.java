@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -24,6 +24,7 @@ import com.google.common.collect.ImmutableSet;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -45,13 +46,15 @@ public class StageSpec implements Serializable {
   private final Schema errorSchema;
   private final boolean stageLoggingEnabled;
   private final boolean processTimingEnabled;
+  // null in specs that were created before inputs could be broadcast
+  private final Set<String> broadcastInputs;
   // here for backwards compatible with UI
   private final Set<String> inputs;
   private final Set<String> outputs;
 
   private StageSpec(String name, PluginSpec plugin, Map<String, Schema> inputSchemas,
                     Map<String, Port> outputPorts, Schema errorSchema,
-                    boolean stageLoggingEnabled, boolean processTimingEnabled) {
+                    boolean stageLoggingEnabled, boolean processTimingEnabled, Set<String> broadcastInputs) {
     this.name = name;
     this.plugin = plugin;
     this.inputSchemas = Collections.unmodifiableMap(inputSchemas);
@@ -63,6 +66,7 @@ public class StageSpec implements Serializable {
     this.outputs = ImmutableSet.copyOf(outputPorts.keySet());
     this.stageLoggingEnabled = stageLoggingEnabled;
     this.processTimingEnabled = processTimingEnabled;
+    this.broadcastInputs = ImmutableSet.copyOf(broadcastInputs);
   }
 
   public String getName() {
@@ -109,6 +113,13 @@ public class StageSpec implements Serializable {
     return processTimingEnabled;
   }
 
+  /**
+   * @return the input stages whose records are broadcast to this stage
+   */
+  public Set<String> getBroadcastInputs() {
+    return broadcastInputs == null ? Collections.<String>emptySet() : broadcastInputs;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -129,13 +140,14 @@ public class StageSpec implements Serializable {
       Objects.equals(inputs, that.inputs) &&
       Objects.equals(outputs, that.outputs) &&
       stageLoggingEnabled == that.stageLoggingEnabled &&
-      processTimingEnabled == that.processTimingEnabled;
+      processTimingEnabled == that.processTimingEnabled &&
+      Objects.equals(getBroadcastInputs(), that.getBroadcastInputs());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(name, plugin, inputSchemas, outputPorts,
-                        outputSchema, errorSchema, inputs, outputs, stageLoggingEnabled, processTimingEnabled);
+    return Objects.hash(name, plugin, inputSchemas, outputPorts, outputSchema, errorSchema, inputs, outputs,
+                        stageLoggingEnabled, processTimingEnabled, getBroadcastInputs());
   }
 
   @Override
@@ -149,6 +161,7 @@ public class StageSpec implements Serializable {
       ", errorSchema=" + errorSchema +
       ", stageLoggingEnabled=" + stageLoggingEnabled +
       ", processTimingEnabled=" + processTimingEnabled +
+      ", broadcastInputs=" + broadcastInputs +
       ", inputs=" + inputs +
       ", outputs=" + outputs +
       '}';
@@ -166,6 +179,7 @@ public class StageSpec implements Serializable {
     private final PluginSpec plugin;
     private Map<String, Schema> inputSchemas;
     private Map<String, Port> outputPortSchemas;
+    private final Set<String> broadcastInputs;
     private Schema errorSchema;
     private boolean stageLoggingEnabled;
     private boolean processTimingEnabled;
@@ -177,6 +191,7 @@ public class StageSpec implements Serializable {
       this.outputPortSchemas = new HashMap<>();
       this.stageLoggingEnabled = true;
       this.processTimingEnabled = true;
+      this.broadcastInputs = new HashSet<>();
     }
 
     public Builder addInputSchema(String stageName, Schema schema) {
@@ -221,9 +236,14 @@ public class StageSpec implements Serializable {
       return this;
     }
 
+    public Builder addBroadcastInputs(Set<String> broadcastInputs) {
+      this.broadcastInputs.addAll(broadcastInputs);
+      return this;
+    }
+
     public StageSpec build() {
       return new StageSpec(name, plugin, inputSchemas, outputPortSchemas, errorSchema,
-                           stageLoggingEnabled, processTimingEnabled);
+                           stageLoggingEnabled, processTimingEnabled, broadcastInputs);
     }
 
   }
@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.common;
+
+import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.InvalidEntry;
+import co.cask.cdap.etl.api.MultiOutputEmitter;
+import co.cask.cdap.etl.api.MultiOutputTransformation;
+import co.cask.cdap.etl.api.Transformation;
+import co.cask.cdap.etl.common.plugin.MetricsOperationTimer;
+import co.cask.cdap.internal.app.preview.NoopDataTracerFactory;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit test for {@link MetricsBatch}.
+ */
+public class MetricsBatchTest {
+
+  @Test
+  public void testBatchedCounts() throws Exception {
+    MockMetrics mockMetrics = new MockMetrics();
+    MetricsBatch metricsBatch = new MetricsBatch(3);
+    TrackedTransform<Integer, Integer> transform = createTransform(mockMetrics, metricsBatch);
+    DefaultEmitter<Integer> emitter = new DefaultEmitter<>();
+
+    transform.transform(1, emitter);
+    transform.transform(2, emitter);
+    Assert.assertEquals(0, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(0, mockMetrics.getCount("stage.records.out"));
+    Assert.assertEquals(0, mockMetrics.getCount("stage.records.error"));
+
+    // the third record completes a batch of input records and a batch of output records
+    transform.transform(3, emitter);
+    Assert.assertEquals(3, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(3, mockMetrics.getCount("stage.records.out"));
+    Assert.assertEquals(0, mockMetrics.getCount("stage.records.error"));
+
+    // flush emits the partial batches
+    transform.transform(-4, emitter);
+    Assert.assertEquals(3, mockMetrics.getCount("stage.records.in"));
+    metricsBatch.flush();
+    Assert.assertEquals(4, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(3, mockMetrics.getCount("stage.records.out"));
+    Assert.assertEquals(1, mockMetrics.getCount("stage.records.error"));
+
+    // nothing is left to flush
+    metricsBatch.flush();
+    Assert.assertEquals(4, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(1, mockMetrics.getCount("stage.records.error"));
+  }
+
+  @Test
+  public void testSameTotals() throws Exception {
+    MockMetrics unbatchedMetrics = new MockMetrics();
+    MockMetrics batchedMetrics = new MockMetrics();
+    MetricsBatch metricsBatch = new MetricsBatch(7);
+    TrackedTransform<Integer, Integer> unbatched = createTransform(unbatchedMetrics, MetricsBatch.NONE);
+    TrackedTransform<Integer, Integer> batched = createTransform(batchedMetrics, metricsBatch);
+
+    for (int i = 0; i < 100; i++) {
+      // the emitter changes every 10 records, which must not lose the counts of the previous emitter
+      DefaultEmitter<Integer> emitter = new DefaultEmitter<>();
+      for (int j = 0; j < 10; j++) {
+        int value = i % 3 == 0 ? -j : j;
+        unbatched.transform(value, emitter);
+        batched.transform(value, emitter);
+      }
+    }
+    metricsBatch.flush();
+
+    for (String metric : new String[] { "stage.records.in", "stage.records.out", "stage.records.error" }) {
+      Assert.assertEquals(unbatchedMetrics.getCount(metric), batchedMetrics.getCount(metric));
+    }
+    Assert.assertEquals(1000, batchedMetrics.getCount("stage.records.in"));
+  }
+
+  @Test
+  public void testTransformBatch() throws Exception {
+    MockMetrics unbatchedMetrics = new MockMetrics();
+    MockMetrics batchedMetrics = new MockMetrics();
+    MetricsBatch metricsBatch = new MetricsBatch(4);
+    TrackedTransform<Integer, Integer> unbatched = createTransform(unbatchedMetrics, MetricsBatch.NONE);
+    TrackedTransform<Integer, Integer> batched = createTransform(batchedMetrics, metricsBatch);
+    DefaultEmitter<Integer> unbatchedEmitter = new DefaultEmitter<>();
+    DefaultEmitter<Integer> batchedEmitter = new DefaultEmitter<>();
+
+    List<Integer> inputs = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      int value = i % 3 == 0 ? -i : i;
+      unbatched.transform(value, unbatchedEmitter);
+      inputs.add(value);
+    }
+    batched.transformBatch(inputs.subList(0, 3), batchedEmitter);
+    // the batch of input records is not full yet
+    Assert.assertEquals(0, batchedMetrics.getCount("stage.records.in"));
+    batched.transformBatch(inputs.subList(3, 10), batchedEmitter);
+    Assert.assertEquals(10, batchedMetrics.getCount("stage.records.in"));
+    metricsBatch.flush();
+
+    Assert.assertEquals(unbatchedEmitter.getEntries(), batchedEmitter.getEntries());
+    Assert.assertEquals(unbatchedEmitter.getErrors().size(), batchedEmitter.getErrors().size());
+    for (String metric : new String[] { "stage.records.in", "stage.records.out", "stage.records.error" }) {
+      Assert.assertEquals(unbatchedMetrics.getCount(metric), batchedMetrics.getCount(metric));
+    }
+  }
+
+  @Test
+  public void testMultiOutputTotals() throws Exception {
+    MockMetrics unbatchedMetrics = new MockMetrics();
+    MockMetrics batchedMetrics = new MockMetrics();
+    MetricsBatch metricsBatch = new MetricsBatch(5);
+    TrackedMultiOutputTransform<Integer, Integer> unbatched = createSplitter(unbatchedMetrics, MetricsBatch.NONE);
+    TrackedMultiOutputTransform<Integer, Integer> batched = createSplitter(batchedMetrics, metricsBatch);
+
+    for (int i = 0; i < 10; i++) {
+      // the emitter changes every 7 records, which must not lose the counts of the previous emitter
+      MultiOutputEmitter<Integer> emitter = new NoopMultiOutputEmitter();
+      for (int j = 0; j < 7; j++) {
+        int value = i * 7 + j;
+        unbatched.transform(value, emitter);
+        batched.transform(value, emitter);
+      }
+    }
+    metricsBatch.flush();
+
+    for (String metric : new String[] { "stage.records.in", "stage.records.out.even", "stage.records.out.odd",
+                                        "stage.records.error", "stage.records.alert" }) {
+      Assert.assertEquals(unbatchedMetrics.getCount(metric), batchedMetrics.getCount(metric));
+    }
+    Assert.assertEquals(70, batchedMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(35, batchedMetrics.getCount("stage.records.out.odd"));
+    Assert.assertEquals(10, batchedMetrics.getCount("stage.records.error"));
+    Assert.assertEquals(14, batchedMetrics.getCount("stage.records.alert"));
+  }
+
+  @Test
+  public void testBatchedTimer() {
+    MockMetrics mockMetrics = new MockMetrics();
+    MetricsBatch metricsBatch = new MetricsBatch(2);
+    MetricsOperationTimer timer =
+      new MetricsOperationTimer(new DefaultStageMetrics(mockMetrics, "stage"), metricsBatch);
+
+    timer.start();
+    timer.stop();
+    timer.reset();
+    Assert.assertFalse(mockMetrics.hasCount("stage." + Constants.Metrics.TOTAL_TIME));
+
+    timer.start();
+    timer.reset();
+    Assert.assertTrue(mockMetrics.hasCount("stage." + Constants.Metrics.TOTAL_TIME));
+
+    mockMetrics.clearMetrics();
+    timer.start();
+    timer.stop();
+    timer.reset();
+    metricsBatch.flush();
+    Assert.assertTrue(mockMetrics.hasCount("stage." + Constants.Metrics.TOTAL_TIME));
+  }
+
+  @Test
+  public void testFromArguments() {
+    Assert.assertSame(MetricsBatch.NONE, MetricsBatch.fromArguments(Collections.<String, String>emptyMap()));
+    Assert.assertEquals(100, MetricsBatch.fromArguments(arguments("100")).getSize());
+
+    for (String invalid : new String[] { "abc", "0", "-1", "" }) {
+      try {
+        MetricsBatch.fromArguments(arguments(invalid));
+        Assert.fail("Expected the metrics batch size '" + invalid + "' to be rejected.");
+      } catch (IllegalArgumentException e) {
+        Assert.assertTrue(e.getMessage().contains(Constants.METRICS_BATCH_SIZE));
+      }
+    }
+  }
+
+  private static Map<String, String> arguments(String batchSize) {
+    return ImmutableMap.of(Constants.METRICS_BATCH_SIZE, batchSize);
+  }
+
+  private static TrackedTransform<Integer, Integer> createTransform(MockMetrics mockMetrics,
+                                                                    MetricsBatch metricsBatch) {
+    return new TrackedTransform<>(new ValidatingTransform(), new DefaultStageMetrics(mockMetrics, "stage"),
+                                  Constants.Metrics.RECORDS_IN, Constants.Metrics.RECORDS_OUT,
+                                  new NoopDataTracerFactory().getDataTracer(null, "stage"),
+                                  new NoopStageStatisticsCollector(), metricsBatch);
+  }
+
+  private static TrackedMultiOutputTransform<Integer, Integer> createSplitter(MockMetrics mockMetrics,
+                                                                             MetricsBatch metricsBatch) {
+    return new TrackedMultiOutputTransform<>(new ParitySplitter(), new DefaultStageMetrics(mockMetrics, "stage"),
+                                             new NoopDataTracerFactory().getDataTracer(null, "stage"),
+                                             new NoopStageStatisticsCollector(), metricsBatch);
+  }
+
+  /**
+   * Emits numbers to the 'even' or 'odd' port, an error for every multiple of 7 and an alert for every multiple of 5.
+   */
+  private static class ParitySplitter implements MultiOutputTransformation<Integer, Integer> {
+
+    @Override
+    public void transform(Integer input, MultiOutputEmitter<Integer> emitter) {
+      emitter.emit(input % 2 == 0 ? "even" : "odd", input);
+      if (input % 7 == 0) {
+        emitter.emitError(new InvalidEntry<>(1, "multiple of 7", input));
+      }
+      if (input % 5 == 0) {
+        emitter.emitAlert(ImmutableMap.of("value", String.valueOf(input)));
+      }
+    }
+  }
+
+  /**
+   * Drops everything that is emitted to it.
+   */
+  private static class NoopMultiOutputEmitter implements MultiOutputEmitter<Integer> {
+
+    @Override
+    public void emit(String port, Object value) {
+      // no-op
+    }
+
+    @Override
+    public void emitError(InvalidEntry<Integer> invalidEntry) {
+      // no-op
+    }
+
+    @Override
+    public void emitAlert(Map<String, String> payload) {
+      // no-op
+    }
+  }
+
+  /**
+   * Emits non-negative numbers and emits an error for negative numbers.
+   */
+  private static class ValidatingTransform implements Transformation<Integer, Integer> {
+
+    @Override
+    public void transform(Integer input, Emitter<Integer> emitter) {
+      if (input < 0) {
+        emitter.emitError(new InvalidEntry<>(1, "negative", input));
+      } else {
+        emitter.emit(input);
+      }
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2015 Cask Data, Inc.
+ * Copyright © 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -47,6 +47,10 @@ public class MockMetrics implements Metrics {
     return count == null ? 0 : count;
   }
 
+  public boolean hasCount(String metric) {
+    return counts.containsKey(metric);
+  }
+
   public long getGauge(String metric) {
     Long val = gauges.get(metric);
     return val == null ? 0 : val;
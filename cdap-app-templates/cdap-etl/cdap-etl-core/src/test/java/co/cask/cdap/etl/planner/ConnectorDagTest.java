@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -17,6 +17,7 @@
 package co.cask.cdap.etl.planner;
 
 import co.cask.cdap.etl.proto.Connection;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.junit.Assert;
 import org.junit.Test;
@@ -33,6 +34,7 @@ import java.util.Set;
 public class ConnectorDagTest {
 
   private static final Map<String, String> EMPTY_CONNECTORS = new HashMap<>();
+  private static final Map<String, Set<String>> EMPTY_BROADCAST_JOINS = new HashMap<>();
   private static final Set<String> EMPTY_ACTIONS = new HashSet<>();
 
   @Test
@@ -535,6 +537,146 @@ public class ConnectorDagTest {
     Assert.assertEquals(expected, actual);
   }
 
+  @Test
+  public void testBroadcastConnector() {
+    /*
+        n1 --> n2 --|
+                    |--> j --> n4
+        n3 ---------|
+
+        n3 is broadcast to j, so j is run in the same phase as n1 and n2, and reads n3 from a connector.
+     */
+    ConnectorDag cdag = ConnectorDag.builder()
+      .addConnection("n1", "n2")
+      .addConnection("n2", "j")
+      .addConnection("n3", "j")
+      .addConnection("j", "n4")
+      .addBroadcastInputs("j", Collections.singleton("n3"))
+      .build();
+    cdag.insertConnectors();
+    Assert.assertEquals(ImmutableSet.of("n3.j.broadcast.connector"), cdag.getBroadcastConnectors());
+    Assert.assertEquals("j", cdag.getConnectors().get("n3.j.broadcast.connector"));
+
+    Set<Dag> actual = new HashSet<>(cdag.split());
+    Dag dag1 = new Dag(
+      ImmutableSet.of(
+        new Connection("n1", "n2"),
+        new Connection("n2", "j"),
+        new Connection("n3.j.broadcast.connector", "j"),
+        new Connection("j", "n4")));
+    Dag dag2 = new Dag(
+      ImmutableSet.of(
+        new Connection("n3", "n3.j.broadcast.connector")));
+    Assert.assertEquals(ImmutableSet.of(dag1, dag2), actual);
+  }
+
+  @Test
+  public void testBroadcastConnectorNotMerged() {
+    /*
+             |--> j --> n4
+        n1 --|     ^
+             |     |
+        n3 --|-----|
+             |
+             |--> r1 --> n5
+
+        The connector that n3 is broadcast to j through is not merged with the connector in front of r1,
+        since it only holds the records that j loads into memory.
+     */
+    ConnectorDag cdag = ConnectorDag.builder()
+      .addConnection("n1", "j")
+      .addConnection("n3", "j")
+      .addConnection("n3", "r1")
+      .addConnection("j", "n4")
+      .addConnection("r1", "n5")
+      .addReduceNodes("r1")
+      .addBroadcastInputs("j", Collections.singleton("n3"))
+      .build();
+    cdag.insertConnectors();
+    Set<Dag> actual = new HashSet<>(cdag.split());
+    Dag dag1 = new Dag(
+      ImmutableSet.of(
+        new Connection("n1", "j"),
+        new Connection("n3.j.broadcast.connector", "j"),
+        new Connection("j", "n4")));
+    Dag dag2 = new Dag(
+      ImmutableSet.of(
+        new Connection("n3", "n3.j.broadcast.connector"),
+        new Connection("n3", "r1.connector")));
+    Dag dag3 = new Dag(
+      ImmutableSet.of(
+        new Connection("r1.connector", "r1"),
+        new Connection("r1", "n5")));
+    Assert.assertEquals(ImmutableSet.of(dag1, dag2, dag3), actual);
+  }
+
+  @Test
+  public void testMapSideJoinPlanning() {
+    /*
+        n1 --|
+             |--> j(r) --> n4
+        n3 --|
+
+        n3 is broadcast to j, so j is not planned as a reduce node.
+     */
+    Set<Connection> connections = ImmutableSet.of(
+      new Connection("n1", "j"),
+      new Connection("n3", "j"),
+      new Connection("j", "n4"));
+    Map<String, Set<String>> broadcastJoins = ImmutableMap.<String, Set<String>>of("j", ImmutableSet.of("n3"));
+    Map<String, String> connectorNodes = new HashMap<>();
+    Set<String> broadcastConnectors = new HashSet<>();
+    Set<Dag> actual = PipelinePlanner.split(connections, Collections.<String>emptySet(), ImmutableSet.of("j"),
+                                            Collections.<String>emptySet(), EMPTY_ACTIONS,
+                                            Collections.<String>emptySet(), broadcastJoins, connectorNodes,
+                                            broadcastConnectors);
+    Dag dag1 = new Dag(
+      ImmutableSet.of(
+        new Connection("n1", "j"),
+        new Connection("n3.j.broadcast.connector", "j"),
+        new Connection("j", "n4")));
+    Dag dag2 = new Dag(
+      ImmutableSet.of(
+        new Connection("n3", "n3.j.broadcast.connector")));
+    Assert.assertEquals(ImmutableSet.of(dag1, dag2), actual);
+    Assert.assertEquals(ImmutableMap.of("n3.j.broadcast.connector", "j"), connectorNodes);
+    Assert.assertEquals(ImmutableSet.of("n3.j.broadcast.connector"), broadcastConnectors);
+  }
+
+  @Test
+  public void testMapSideJoinFallback() {
+    /*
+        n1 --> r1(r) --|
+                       |--> j(r) --> n4
+        n3 ------------|
+
+        n3 is broadcast to j, but j reads the output of r1, which is only available in the reducers of the
+        phase that reads n1. j must then be planned as a reduce node, as if n3 was not broadcast.
+     */
+    Set<Connection> connections = ImmutableSet.of(
+      new Connection("n1", "r1"),
+      new Connection("r1", "j"),
+      new Connection("n3", "j"),
+      new Connection("j", "n4"));
+    Set<String> reduceNodes = ImmutableSet.of("r1", "j");
+    Map<String, Set<String>> broadcastJoins = ImmutableMap.<String, Set<String>>of("j", ImmutableSet.of("n3"));
+    Map<String, String> connectorNodes = new HashMap<>();
+    Set<String> broadcastConnectors = new HashSet<>();
+    Set<Dag> actual = PipelinePlanner.split(connections, Collections.<String>emptySet(), reduceNodes,
+                                            Collections.<String>emptySet(), EMPTY_ACTIONS,
+                                            Collections.<String>emptySet(), broadcastJoins, connectorNodes,
+                                            broadcastConnectors);
+
+    Map<String, String> expectedConnectorNodes = new HashMap<>();
+    Set<Dag> expected = PipelinePlanner.split(connections, Collections.<String>emptySet(), reduceNodes,
+                                              Collections.<String>emptySet(), EMPTY_ACTIONS,
+                                              Collections.<String>emptySet(), EMPTY_BROADCAST_JOINS,
+                                              expectedConnectorNodes, new HashSet<String>());
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals(expectedConnectorNodes, connectorNodes);
+    Assert.assertTrue(broadcastConnectors.isEmpty());
+  }
+
   @Test
   public void testSplitterConnectorNotMerged() {
     /*
@@ -942,7 +1084,8 @@ public class ConnectorDagTest {
     Set<String> isolationNodes = new HashSet<>();
     Set<String> multiPortNodes = new HashSet<>();
     Set<Dag> actual = PipelinePlanner.split(connections, conditions, reduceNodes, isolationNodes, EMPTY_ACTIONS,
-                                            multiPortNodes, EMPTY_CONNECTORS);
+                                            multiPortNodes, EMPTY_BROADCAST_JOINS, EMPTY_CONNECTORS,
+                                            new HashSet<String>());
 
     Dag dag1 = new Dag(ImmutableSet.of(
       new Connection("file", "csv"),
@@ -980,7 +1123,8 @@ public class ConnectorDagTest {
     Set<String> isolationNodes = new HashSet<>();
     Set<String> multiPortNodes = new HashSet<>();
     Set<Dag> actual = PipelinePlanner.split(connections, conditions, reduceNodes, isolationNodes, EMPTY_ACTIONS,
-                                            multiPortNodes, EMPTY_CONNECTORS);
+                                            multiPortNodes, EMPTY_BROADCAST_JOINS, EMPTY_CONNECTORS,
+                                            new HashSet<String>());
 
     Dag dag1 = new Dag(ImmutableSet.of(
       new Connection("n1", "n2"),
@@ -1022,7 +1166,8 @@ public class ConnectorDagTest {
     Set<String> isolationNodes = new HashSet<>();
     Set<String> multiPortNodes = new HashSet<>();
     Set<Dag> actual = PipelinePlanner.split(connections, conditions, reduceNodes, isolationNodes, EMPTY_ACTIONS,
-                                            multiPortNodes, EMPTY_CONNECTORS);
+                                            multiPortNodes, EMPTY_BROADCAST_JOINS, EMPTY_CONNECTORS,
+                                            new HashSet<String>());
 
     Dag dag1 = new Dag(ImmutableSet.of(
       new Connection("n1", "n2"),
@@ -1070,7 +1215,8 @@ public class ConnectorDagTest {
     Set<String> isolationNodes = new HashSet<>();
     Set<String> multiPortNodes = new HashSet<>();
     Set<Dag> actual = PipelinePlanner.split(connections, conditions, reduceNodes, isolationNodes, EMPTY_ACTIONS,
-                                            multiPortNodes, EMPTY_CONNECTORS);
+                                            multiPortNodes, EMPTY_BROADCAST_JOINS, EMPTY_CONNECTORS,
+                                            new HashSet<String>());
 
     Dag dag1 = new Dag(
       ImmutableSet.of(
@@ -1119,7 +1265,8 @@ public class ConnectorDagTest {
     Set<String> isolationNodes = new HashSet<>();
     Set<String> multiPortNodes = new HashSet<>();
     Set<Dag> actual = PipelinePlanner.split(connections, conditions, reduceNodes, isolationNodes, EMPTY_ACTIONS,
-                                            multiPortNodes, EMPTY_CONNECTORS);
+                                            multiPortNodes, EMPTY_BROADCAST_JOINS, EMPTY_CONNECTORS,
+                                            new HashSet<String>());
 
     Dag dag1 = new Dag(
       ImmutableSet.of(
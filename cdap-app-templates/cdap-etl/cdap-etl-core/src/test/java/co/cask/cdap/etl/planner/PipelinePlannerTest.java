@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -287,6 +287,71 @@ public class PipelinePlannerTest {
     Assert.assertEquals(expected, actual);
   }
 
+  @Test
+  public void testBroadcastJoin() {
+    /*
+        n1 --|
+             |--- n3(r) --- n4
+        n2 --|
+
+        n2 is broadcast to n3, so n3 joins in the phase that reads n1:
+
+        phase1:
+        n2 --- n2.n3.broadcast.connector
+
+        phase2:
+        n1 ---------------------------|
+                                      |--- n3(r) --- n4
+        n2.n3.broadcast.connector ----|
+     */
+    Schema schema = Schema.recordOf("stuff", Schema.Field.of("x", Schema.of(Schema.Type.INT)));
+    StageSpec n3 = StageSpec.builder("n3", REDUCE)
+      .addInputSchema("n1", schema)
+      .addInputSchema("n2", schema)
+      .addBroadcastInputs(ImmutableSet.of("n2"))
+      .addOutputSchema(schema, "n4")
+      .build();
+    Set<StageSpec> stageSpecs = ImmutableSet.of(
+      StageSpec.builder("n1", NODE).addOutputSchema(schema, "n3").build(),
+      StageSpec.builder("n2", NODE).addOutputSchema(schema, "n3").build(),
+      n3,
+      StageSpec.builder("n4", NODE).addInputSchema("n3", schema).build());
+    Set<Connection> connections = ImmutableSet.of(
+      new Connection("n1", "n3"),
+      new Connection("n2", "n3"),
+      new Connection("n3", "n4"));
+    Set<String> pluginTypes = ImmutableSet.of(NODE.getType(), REDUCE.getType(), Constants.Connector.PLUGIN_TYPE);
+    Set<String> reduceTypes = ImmutableSet.of(REDUCE.getType());
+    Set<String> emptySet = ImmutableSet.of();
+    PipelinePlanner planner = new PipelinePlanner(pluginTypes, reduceTypes, emptySet, emptySet, emptySet);
+    PipelineSpec pipelineSpec = PipelineSpec.builder().addStages(stageSpecs).addConnections(connections).build();
+
+    String connector = "n2.n3.broadcast.connector";
+    Map<String, PipelinePhase> phases = new HashMap<>();
+    PipelinePhase phase1 = PipelinePhase.builder(pluginTypes)
+      .addStage(StageSpec.builder("n2", NODE).addOutputSchema(schema, "n3").build())
+      .addStage(StageSpec.builder(connector, broadcastConnectorSpec("n3", Constants.Connector.SINK_TYPE)).build())
+      .addConnection("n2", connector)
+      .build();
+    String phase1Name = PipelinePlanner.getPhaseName(phase1.getDag());
+    phases.put(phase1Name, phase1);
+
+    PipelinePhase phase2 = PipelinePhase.builder(pluginTypes)
+      .addStage(StageSpec.builder("n1", NODE).addOutputSchema(schema, "n3").build())
+      .addStage(StageSpec.builder(connector, broadcastConnectorSpec("n3", Constants.Connector.SOURCE_TYPE)).build())
+      .addStage(n3)
+      .addStage(StageSpec.builder("n4", NODE).addInputSchema("n3", schema).build())
+      .addConnection("n1", "n3")
+      .addConnection(connector, "n3")
+      .addConnection("n3", "n4")
+      .build();
+    String phase2Name = PipelinePlanner.getPhaseName(phase2.getDag());
+    phases.put(phase2Name, phase2);
+
+    PipelinePlan expected = new PipelinePlan(phases, ImmutableSet.of(new Connection(phase1Name, phase2Name)));
+    Assert.assertEquals(expected, planner.plan(pipelineSpec));
+  }
+
   @Test
   public void testSimpleCondition() {
     /*
@@ -1096,6 +1161,13 @@ public class PipelinePlannerTest {
     Assert.assertEquals(expected, actual);
   }
 
+  private static PluginSpec broadcastConnectorSpec(String originalName, String type) {
+    return new PluginSpec(Constants.Connector.PLUGIN_TYPE, "connector",
+                          ImmutableMap.of(Constants.Connector.TYPE, type,
+                                          Constants.Connector.ORIGINAL_NAME, originalName,
+                                          Constants.Connector.BROADCAST, "true"), null);
+  }
+
   private static PluginSpec connectorSpec(String originalName, String type) {
     return new PluginSpec(Constants.Connector.PLUGIN_TYPE, "connector",
                           ImmutableMap.of(Constants.Connector.TYPE, type,
@@ -17,6 +17,7 @@
 package co.cask.cdap.common.conf;
 
 import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.metrics.MetricHistograms;
 import co.cask.cdap.proto.id.NamespaceId;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.BindingAnnotation;
@@ -638,8 +639,12 @@ public final class Constants {
     public static final String SERVICE_DESCRIPTION = "Service to handle metrics requests.";
     public static final String PROCESSOR_MAX_DELAY_MS = "metrics.processor.max.delay.ms";
     public static final String QUEUE_SIZE = "metrics.processor.queue.size";
+    public static final String PROCESSOR_ROLLUP_INTERVAL_MS = "metrics.processor.rollup.interval.ms";
+    public static final String PROCESSOR_PERSIST_SHARDS = "metrics.processor.persist.shards";
+    public static final String QUERY_PARALLELISM = "metrics.query.parallelism";
 
     public static final String ENTITY_TABLE_NAME = "metrics.data.entity.tableName";
+    public static final String ENTITY_CACHE_MAX_BYTES = "metrics.data.entity.cache.max.bytes";
     public static final String METRICS_TABLE_PREFIX = "metrics.data.table.prefix";
     public static final String TIME_SERIES_TABLE_ROLL_TIME = "metrics.data.table.ts.rollTime";
 
@@ -749,6 +754,9 @@ public final class Constants {
       // For program
       public static final String PROGRAM = "prg";
       public static final String PROGRAM_TYPE = "prt";
+
+      // For histogram metrics
+      public static final String HISTOGRAM_BUCKET = MetricHistograms.BUCKET_TAG;
     }
 
     /**
@@ -897,6 +905,8 @@ public final class Constants {
     public static final String TMS_APPENDER_QUEUE_SIZE = "log.tms.queue.size";
     public static final String NUM_PARTITIONS = "log.publish.num.partitions";
     public static final String LOG_PUBLISH_PARTITION_KEY = "log.publish.partition.key";
+    public static final String READER_FILE_PARALLELISM = "log.reader.file.parallelism";
+    public static final String READER_FILE_OPEN_THREADS = "log.reader.file.open.threads";
 
     public static final String PIPELINE_CONFIG_DIR = "log.process.pipeline.config.dir";
     public static final String PIPELINE_LIBRARY_DIR = "log.process.pipeline.lib.dir";
@@ -1376,6 +1386,8 @@ public final class Constants {
     public static final String PAYLOAD_TABLE_HBASE_SPLITS = "messaging.payload.table.hbase.splits";
     public static final String SYSTEM_TOPICS = "messaging.system.topics";
     public static final String TABLE_CACHE_EXPIRATION_SECONDS = "messaging.table.expiration.seconds";
+    public static final String GROUP_COMMIT_ENABLED = "messaging.group.commit.enabled";
+    public static final String GROUP_COMMIT_LATENCY_MS = "messaging.group.commit.latency.ms";
     public static final String TABLE_HBASE_SPLIT_POLICY = "messaging.table.hbase.split.policy";
     public static final String TOPIC_DEFAULT_TTL_SECONDS = "messaging.topic.default.ttl.seconds";
     public static final String COPROCESSOR_METADATA_CACHE_UPDATE_FREQUENCY_SECONDS =
@@ -1385,6 +1397,7 @@ public final class Constants {
     public static final String HTTP_SERVER_EXECUTOR_THREADS = "messaging.http.server.executor.threads";
     public static final String HTTP_SERVER_MAX_REQUEST_SIZE_MB = "messaging.http.server.max.request.size.mb";
     public static final String HTTP_SERVER_CONSUME_CHUNK_SIZE = "messaging.http.server.consume.chunk.size";
+    public static final String HTTP_SERVER_CONSUME_MAX_WAIT_MS = "messaging.http.server.consume.max.wait.ms";
 
     // Distributed mode related configurations
     public static final String HA_FENCING_DELAY_SECONDS = "messaging.ha.fencing.delay.seconds";
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -51,6 +51,11 @@ public class NoOpMetricsCollectionService extends AbstractIdleService implements
         // no-op
       }
 
+      @Override
+      public void histogram(String metricName, long value) {
+        // no-op
+      }
+
       @Override
       public MetricsContext childContext(Map<String, String> tags) {
         return this;
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Cask Data, Inc.
+ * Copyright 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -29,10 +29,12 @@ import co.cask.cdap.api.dataset.metrics.MeteredDataset;
 import co.cask.cdap.api.metrics.MetricsCollector;
 import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.data2.dataset2.lib.timeseries.Fact;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactAggregation;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScan;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanResult;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanner;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
@@ -41,17 +43,26 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
 /**
@@ -68,12 +79,33 @@ public class DefaultCube implements Cube, MeteredDataset {
   private final Map<String, ? extends Aggregation> aggregations;
   private final Map<String, AggregationAlias> aggregationAliasMap;
 
+  @Nullable
+  private final ExecutorService queryExecutor;
+  private final int queryParallelism;
+
   @Nullable
   private MetricsCollector metrics;
 
   public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
                      Map<String, ? extends Aggregation> aggregations,
                      Map<String, AggregationAlias> aggregationAliasMap) {
+    this(resolutions, factTableSupplier, aggregations, aggregationAliasMap, null, 1);
+  }
+
+  /**
+   * Creates a cube that executes queries in parallel.
+   *
+   * @param queryExecutor the {@link ExecutorService} for scanning parts of a query in parallel,
+   *                      or {@code null} to always scan sequentially. The underlying tables must support
+   *                      concurrent scans if an executor is provided.
+   * @param queryParallelism maximum number of parts to split a query into
+   */
+  public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
+                     Map<String, ? extends Aggregation> aggregations,
+                     Map<String, AggregationAlias> aggregationAliasMap,
+                     @Nullable ExecutorService queryExecutor, int queryParallelism) {
+    this.queryExecutor = queryExecutor;
+    this.queryParallelism = queryExecutor == null ? 1 : queryParallelism;
     this.aggregations = aggregations;
     this.resolutionToFactTable = Maps.newHashMap();
     for (int resolution : resolutions) {
@@ -164,7 +196,8 @@ public class DefaultCube implements Cube, MeteredDataset {
 
     incrementMetric("cube.query.request.count", 1);
 
-    if (!resolutionToFactTable.containsKey(query.getResolution())) {
+    FactTable table = findFactTable(query.getResolution());
+    if (table == null) {
       incrementMetric("cube.query.request.failure.count", 1);
       throw new IllegalArgumentException("There's no data aggregated for specified resolution to satisfy the query: " +
                                            query.toString());
@@ -204,13 +237,24 @@ public class DefaultCube implements Cube, MeteredDataset {
       dimensionValues.add(new DimensionValue(dimensionName, query.getDimensionValues().get(dimensionName)));
     }
 
-    FactScan scan = new FactScan(query.getStartTs(), query.getEndTs(),
-                                 query.getMeasurements().keySet(), dimensionValues);
+    // One scan for the measures of each aggregation function, so that the facts are aggregated by the fact table
+    // near the data, and only the aggregated facts are returned
+    Map<AggregationFunction, List<String>> measuresByFunction = new EnumMap<>(AggregationFunction.class);
+    for (Map.Entry<String, AggregationFunction> measurement : query.getMeasurements().entrySet()) {
+      measuresByFunction.computeIfAbsent(measurement.getValue(), function -> new ArrayList<>())
+        .add(measurement.getKey());
+    }
 
-    // 3) execute scan query
-    FactTable table = resolutionToFactTable.get(query.getResolution());
-    FactScanner scanner = table.scan(scan);
-    Table<Map<String, String>, String, Map<Long, Long>> resultMap = getTimeSeries(query, scanner);
+    // 3) execute scan queries, split by time ranges if they can be executed in parallel
+    List<FactScan> scans = new ArrayList<>();
+    for (Map.Entry<AggregationFunction, List<String>> entry : measuresByFunction.entrySet()) {
+      FactAggregation aggregation = new FactAggregation(query.getGroupByDimensions(), entry.getKey(),
+                                                        query.getResolution());
+      FactScan scan = new FactScan(query.getStartTs(), query.getEndTs(), entry.getValue(), dimensionValues,
+                                   aggregation);
+      scans.addAll(table.splitScan(scan, queryParallelism));
+    }
+    Table<Map<String, String>, String, Map<Long, Long>> resultMap = getTimeSeries(query, table, scans);
 
     incrementMetric("cube.query.request.success.count", 1);
     incrementMetric("cube.query.result.size", resultMap.size());
@@ -329,12 +373,123 @@ public class DefaultCube implements Cube, MeteredDataset {
     return currentBest;
   }
 
-  private Table<Map<String, String>, String, Map<Long, Long>> getTimeSeries(CubeQuery query, FactScanner scanner) {
+  /**
+   * Returns the {@link FactTable} to query for the given resolution. That is the table of the resolution if there is
+   * one, otherwise the table of the greatest resolution that can be aggregated to the given resolution.
+   */
+  @Nullable
+  private FactTable findFactTable(int resolution) {
+    FactTable table = resolutionToFactTable.get(resolution);
+    if (table != null) {
+      return table;
+    }
+    int tableResolution = 0;
+    for (Map.Entry<Integer, FactTable> entry : resolutionToFactTable.entrySet()) {
+      if (entry.getKey() > tableResolution && entry.getValue().isSupportedResolution(resolution)) {
+        tableResolution = entry.getKey();
+        table = entry.getValue();
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Executes the given scans and merges the results. The scans are executed in parallel if there is more than one
+   * and an executor is provided. Since the scans are over disjoint time ranges or measures, each timestamp of a time
+   * series comes from exactly one scan.
+   *
+   * When executed in parallel, each scan is limited on its own, so that a scan of a later time range cannot use up
+   * the limit of an earlier one. The time ranges are then merged in time order until the limit is reached, so that
+   * the result is cut at the same timestamp for all time series instead of having holes where a scan was cut short.
+   */
+  private Table<Map<String, String>, String, Map<Long, Long>> getTimeSeries(CubeQuery query, FactTable table,
+                                                                           List<FactScan> scans) {
+    if (scans.size() == 1 || queryExecutor == null) {
+      AtomicInteger scannedCount = new AtomicInteger();
+      Table<Map<String, String>, String, Map<Long, Long>> result = HashBasedTable.create();
+      for (FactScan scan : scans) {
+        merge(result, getTimeSeries(query, table, scan, scannedCount));
+      }
+      return result;
+    }
+
+    incrementMetric("cube.query.parallel.count", 1);
+    incrementMetric("cube.query.parallel.splits.count", scans.size());
+
+    List<AtomicInteger> scannedCounts = new ArrayList<>();
+    List<Future<Table<Map<String, String>, String, Map<Long, Long>>>> futures = new ArrayList<>();
+    // Scans of different measures over the same time range have the same start time
+    NavigableMap<Long, List<Integer>> scansByStartTs = new TreeMap<>();
+    try {
+      for (FactScan scan : scans) {
+        AtomicInteger scannedCount = new AtomicInteger();
+        scansByStartTs.computeIfAbsent(scan.getStartTs(), startTs -> new ArrayList<>()).add(futures.size());
+        scannedCounts.add(scannedCount);
+        futures.add(queryExecutor.submit(() -> getTimeSeries(query, table, scan, scannedCount)));
+      }
+
+      Table<Map<String, String>, String, Map<Long, Long>> result = HashBasedTable.create();
+      int scannedCount = 0;
+      boolean firstRange = true;
+      for (List<Integer> rangeScans : scansByStartTs.values()) {
+        List<Table<Map<String, String>, String, Map<Long, Long>>> rangeResults = new ArrayList<>();
+        int rangeScannedCount = 0;
+        for (int scan : rangeScans) {
+          rangeResults.add(Uninterruptibles.getUninterruptibly(futures.get(scan)));
+          rangeScannedCount += scannedCounts.get(scan).get();
+        }
+        // Only the first time range may be cut short, the same as a query that is not split
+        if (!firstRange && scannedCount + rangeScannedCount > MAX_RECORDS_TO_SCAN) {
+          incrementMetric("cube.query.parallel.truncated.count", 1);
+          break;
+        }
+        for (Table<Map<String, String>, String, Map<Long, Long>> rangeResult : rangeResults) {
+          merge(result, rangeResult);
+        }
+        scannedCount += rangeScannedCount;
+        firstRange = false;
+      }
+      return result;
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Adds the time values of the given partial result to the result.
+   */
+  private void merge(Table<Map<String, String>, String, Map<Long, Long>> result,
+                     Table<Map<String, String>, String, Map<Long, Long>> partialResult) {
+    for (Table.Cell<Map<String, String>, String, Map<Long, Long>> cell : partialResult.cellSet()) {
+      Map<Long, Long> timeValues = result.get(cell.getRowKey(), cell.getColumnKey());
+      if (timeValues == null) {
+        result.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+      } else {
+        timeValues.putAll(cell.getValue());
+      }
+    }
+  }
+
+  private Table<Map<String, String>, String, Map<Long, Long>> getTimeSeries(CubeQuery query, FactTable table,
+                                                                           FactScan scan, AtomicInteger scannedCount) {
+    FactScanner scanner = table.scan(scan);
+    try {
+      return getTimeSeries(query, scanner, scannedCount);
+    } finally {
+      scanner.close();
+    }
+  }
+
+  private Table<Map<String, String>, String, Map<Long, Long>> getTimeSeries(CubeQuery query, FactScanner scanner,
+                                                                           AtomicInteger scannedCount) {
     // {dimension values, measure} -> {time -> value}s
     Table<Map<String, String>, String, Map<Long, Long>> result = HashBasedTable.create();
 
-    int count = 0;
-    while (scanner.hasNext()) {
+    while (scannedCount.get() < MAX_RECORDS_TO_SCAN && scanner.hasNext()) {
       FactScanResult next = scanner.next();
       incrementMetric("cube.query.scan.records.count", 1);
 
@@ -393,9 +548,7 @@ public class DefaultCube implements Cube, MeteredDataset {
           throw new RuntimeException("Unknown MeasureType: " + function);
         }
       }
-      if (++count >= MAX_RECORDS_TO_SCAN) {
-        break;
-      }
+      scannedCount.incrementAndGet();
     }
     return result;
   }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Cask Data, Inc.
+ * Copyright 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -16,18 +16,23 @@
 
 package co.cask.cdap.data2.dataset2.lib.cube;
 
+import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.dataset.table.Increment;
 import co.cask.cdap.api.dataset.table.Put;
+import co.cask.cdap.api.dataset.table.Result;
+import co.cask.cdap.api.dataset.table.Row;
 import co.cask.cdap.api.dataset.table.Scan;
 import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.api.dataset.table.Table;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsScanAggregation;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 
 import java.io.IOException;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import javax.annotation.Nullable;
 
 /**
@@ -109,8 +114,55 @@ class MetricsTableOnTable implements MetricsTable {
     return table.scan(new Scan(start, stop, filter));
   }
 
+  @Override
+  public Scanner scan(@Nullable byte[] start, @Nullable byte[] stop, @Nullable byte[][] columns,
+                      @Nullable FuzzyRowFilter filter, @Nullable MetricsScanAggregation aggregation) {
+    Scanner scanner = scan(start, stop, filter);
+    if (columns != null) {
+      scanner = new ColumnsScanner(scanner, columns);
+    }
+    return aggregation == null ? scanner : aggregation.aggregate(scanner);
+  }
+
   @Override
   public void close() throws IOException {
     table.close();
   }
+
+  /**
+   * A {@link Scanner} that only returns the given columns of each row, since {@link Scan} cannot select columns.
+   */
+  private static final class ColumnsScanner implements Scanner {
+    private final Scanner scanner;
+    private final byte[][] columns;
+
+    private ColumnsScanner(Scanner scanner, byte[][] columns) {
+      this.scanner = scanner;
+      this.columns = columns;
+    }
+
+    @Nullable
+    @Override
+    public Row next() {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        Map<byte[], byte[]> values = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        for (byte[] column : columns) {
+          byte[] value = row.get(column);
+          if (value != null) {
+            values.put(column, value);
+          }
+        }
+        if (!values.isEmpty()) {
+          return new Result(row.getRow(), values);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void close() {
+      scanner.close();
+    }
+  }
 }
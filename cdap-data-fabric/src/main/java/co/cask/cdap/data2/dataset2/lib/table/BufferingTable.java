@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2017 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -36,7 +36,9 @@ import co.cask.cdap.api.metrics.MetricsCollector;
 import co.cask.cdap.common.conf.Constants;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.tephra.Transaction;
@@ -44,6 +46,7 @@ import org.apache.tephra.TransactionAware;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -86,6 +89,27 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
 
   protected static final byte[] DELETE_MARKER = new byte[0];
 
+  /**
+   * Table property for the number of buffered cells after which uncommitted changes are moved from the in-memory
+   * buffer into sorted off-heap runs. Buffered changes are then persisted in sorted batches of about that size.
+   * Zero or negative value, which is the default, keeps all changes in the in-memory buffer.
+   */
+  public static final String PROPERTY_OFF_HEAP_BUFFER_THRESHOLD = "dataset.table.buffer.offheap.threshold";
+
+  /**
+   * Table property for the max number of bytes of off-heap memory used to buffer uncommitted changes. Once the limit
+   * is reached, the buffered changes are spilled into sorted run files on local disk. Setting it enables off-heap
+   * buffering with a default threshold, unless {@link #PROPERTY_OFF_HEAP_BUFFER_THRESHOLD} is set explicitly.
+   */
+  public static final String PROPERTY_BUFFER_MEMORY_LIMIT = "dataset.table.buffer.memory.limit";
+
+  /**
+   * Table property for the local directory to spill buffered changes into. Defaults to the system temporary directory.
+   */
+  public static final String PROPERTY_BUFFER_SPILL_DIR = "dataset.table.buffer.spill.dir";
+
+  private static final int DEFAULT_OFF_HEAP_BUFFER_THRESHOLD = 10000;
+
   // name of the table
   private final String name;
   // conflict detection level
@@ -94,6 +118,12 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   private final byte[] nameAsTxChangePrefix;
   // Whether read-less increments should be used when increment() is called
   private final boolean enableReadlessIncrements;
+  // Number of cells in the in-memory buffer that triggers moving it off-heap. Non-positive means never.
+  private final int offHeapThreshold;
+  // Max number of off-heap bytes to use for buffered changes before spilling them to disk
+  private final long bufferMemoryLimit;
+  // Directory to spill buffered changes to, null for the system temporary directory
+  private final File spillDir;
 
   // In-memory buffer that keeps not yet persisted data. It is row->(column->value) map. Value can be null which means
   // that the corresponded column was removed.
@@ -102,6 +132,16 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   // Keeps track of what was persisted so far
   private NavigableMap<byte[], NavigableMap<byte[], Update>> toUndo;
 
+  // Buffered changes that were moved off-heap. They are older than changes in the in-memory buffer.
+  // Always null if off-heap buffering is not enabled.
+  private OffHeapWriteBuffer offHeapBuff;
+
+  // Keeps track of what was persisted so far from the off-heap buffer
+  private OffHeapWriteBuffer offHeapToUndo;
+
+  // Number of cells written into the in-memory buffer since it was last moved off-heap
+  private int buffCells;
+
   // Report data ops metrics to
   private MetricsCollector metricsCollector;
 
@@ -151,6 +191,19 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     // Default uses the above scheme. Subclasses can change it by overriding the #getNameAsTxChangePrefix method
     this.nameAsTxChangePrefix = Bytes.add(new byte[]{(byte) name.length()}, Bytes.toBytes(name));
     this.buff = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+    String memoryLimit = properties.get(PROPERTY_BUFFER_MEMORY_LIMIT);
+    this.bufferMemoryLimit = memoryLimit == null ? Long.MAX_VALUE : Long.parseLong(memoryLimit);
+    String offHeapThreshold = properties.get(PROPERTY_OFF_HEAP_BUFFER_THRESHOLD);
+    if (offHeapThreshold != null) {
+      this.offHeapThreshold = Integer.parseInt(offHeapThreshold);
+    } else {
+      this.offHeapThreshold = memoryLimit == null ? 0 : DEFAULT_OFF_HEAP_BUFFER_THRESHOLD;
+    }
+    String spillDir = properties.get(PROPERTY_BUFFER_SPILL_DIR);
+    this.spillDir = spillDir == null ? null : new File(spillDir);
+    if (this.offHeapThreshold > 0) {
+      this.offHeapBuff = createOffHeapBuffer();
+    }
   }
 
   /**
@@ -262,6 +315,11 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     // releasing resources
     buff = null;
     toUndo = null;
+    if (offHeapBuff != null) {
+      offHeapBuff.clear();
+      offHeapBuff = null;
+    }
+    releaseOffHeapToUndo();
   }
 
   @Override
@@ -272,8 +330,9 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       throw new IllegalStateException(msg);
     }
     // starting with fresh buffer when tx starts
-    buff.clear();
+    clearBuffer();
     toUndo = null;
+    releaseOffHeapToUndo();
     this.tx = tx;
   }
 
@@ -308,6 +367,14 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
 
   private Collection<byte[]> getRowChanges() {
     // we resolve conflicts on row level of individual table
+    if (isOffHeapBufferUsed()) {
+      List<byte[]> changes = new ArrayList<>();
+      Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows = offHeapBuff.scan(null, null, buff);
+      while (rows.hasNext()) {
+        changes.add(Bytes.add(getNameAsTxChangePrefix(), rows.next().getKey()));
+      }
+      return changes;
+    }
     List<byte[]> changes = new ArrayList<>(buff.size());
     for (byte[] changedRow : buff.keySet()) {
       changes.add(Bytes.add(getNameAsTxChangePrefix(), changedRow));
@@ -318,7 +385,10 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   private Collection<byte[]> getColumnChanges() {
     // we resolve conflicts on row level of individual table
     List<byte[]> changes = new ArrayList<>(buff.size());
-    for (Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange : buff.entrySet()) {
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rowChanges =
+      isOffHeapBufferUsed() ? offHeapBuff.scan(null, null, buff) : buff.entrySet().iterator();
+    while (rowChanges.hasNext()) {
+      Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange = rowChanges.next();
       if (rowChange.getValue() == null) {
         // NOTE: as of now we cannot detect conflict between delete whole row and row's column value change.
         //       this is not a big problem as of now, as row deletion is now act as deletion of every column, but this
@@ -338,7 +408,15 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
 
   @Override
   public boolean commitTx() throws Exception {
-    if (!buff.isEmpty()) {
+    if (isOffHeapBufferUsed()) {
+      // Same as below, we first assume that all data will be persisted.
+      offHeapBuff.add(buff);
+      buff = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+      buffCells = 0;
+      offHeapToUndo = offHeapBuff;
+      offHeapBuff = createOffHeapBuffer();
+      persistInBatches(offHeapToUndo);
+    } else if (!buff.isEmpty()) {
       // We first assume that all data will be persisted. So that if exception happen during persist we try to
       // rollback everything we had in in-memory buffer.
       toUndo = buff;
@@ -356,22 +434,131 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   @Override
   public void postTxCommit() {
     // don't need buffer anymore: tx has been committed
-    buff.clear();
+    clearBuffer();
     toUndo = null;
+    releaseOffHeapToUndo();
     tx = null;
   }
 
   @Override
   public boolean rollbackTx() throws Exception {
-    buff.clear();
+    clearBuffer();
     if (toUndo != null) {
       undo(toUndo);
       toUndo = null;
     }
+    if (offHeapToUndo != null) {
+      undoInBatches(offHeapToUndo);
+      releaseOffHeapToUndo();
+    }
     tx = null;
     return true;
   }
 
+  private void clearBuffer() {
+    buff.clear();
+    buffCells = 0;
+    if (offHeapBuff != null) {
+      offHeapBuff.clear();
+    }
+  }
+
+  private OffHeapWriteBuffer createOffHeapBuffer() {
+    return new OffHeapWriteBuffer(OffHeapWriteBuffer.DEFAULT_CHUNK_SIZE, bufferMemoryLimit, spillDir);
+  }
+
+  private void releaseOffHeapToUndo() {
+    if (offHeapToUndo != null) {
+      // deletes spilled files, if any
+      offHeapToUndo.clear();
+      offHeapToUndo = null;
+    }
+  }
+
+  /**
+   * @return true if some of the buffered changes were moved off-heap
+   */
+  private boolean isOffHeapBufferUsed() {
+    return offHeapBuff != null && !offHeapBuff.isEmpty();
+  }
+
+  /**
+   * Moves the in-memory buffer into the off-heap buffer once it holds more cells than the configured threshold.
+   */
+  private void moveOffHeapIfNeeded(int cellsWritten) {
+    if (offHeapBuff == null) {
+      return;
+    }
+    buffCells += cellsWritten;
+    if (buffCells >= offHeapThreshold) {
+      try {
+        offHeapBuff.add(buff);
+        buff = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+      } catch (IOException e) {
+        // the off-heap buffer is left unchanged, so the changes are kept in the in-memory buffer. The write that
+        // triggered the move has already been applied to it, so it must not fail. Moving is retried once another
+        // threshold of cells was written.
+        LOG.warn("Failed to move buffered changes of table {} off-heap, keeping them in memory.",
+                 getTransactionAwareName(), e);
+      }
+      buffCells = 0;
+    }
+  }
+
+  /**
+   * Persists the given off-heap buffer with multiple calls to {@link #persist(NavigableMap)}, each with sorted rows
+   * of about {@link #PROPERTY_OFF_HEAP_BUFFER_THRESHOLD} cells.
+   */
+  private void persistInBatches(OffHeapWriteBuffer buffer) throws Exception {
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows = buffer.scan(null, null, null);
+    while (rows.hasNext()) {
+      persist(nextBatch(rows));
+    }
+  }
+
+  /**
+   * Undoes the given off-heap buffer with multiple calls to {@link #undo(NavigableMap)}.
+   */
+  private void undoInBatches(OffHeapWriteBuffer buffer) throws Exception {
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows = buffer.scan(null, null, null);
+    while (rows.hasNext()) {
+      undo(nextBatch(rows));
+    }
+  }
+
+  private NavigableMap<byte[], NavigableMap<byte[], Update>> nextBatch(
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows) {
+    NavigableMap<byte[], NavigableMap<byte[], Update>> batch = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    int cells = 0;
+    while (rows.hasNext() && cells < offHeapThreshold) {
+      Map.Entry<byte[], NavigableMap<byte[], Update>> row = rows.next();
+      batch.put(row.getKey(), row.getValue());
+      cells += row.getValue().size();
+    }
+    return batch;
+  }
+
+  /**
+   * @return buffered changes of the given row, or {@code null} if there are none
+   */
+  @Nullable
+  private NavigableMap<byte[], Update> getBufferedRow(byte[] row) {
+    NavigableMap<byte[], Update> buffCols = buff.get(row);
+    if (!isOffHeapBufferUsed()) {
+      return buffCols;
+    }
+    NavigableMap<byte[], Update> result = offHeapBuff.getRow(row);
+    if (result == null) {
+      return buffCols;
+    }
+    if (buffCols != null) {
+      for (Map.Entry<byte[], Update> column : buffCols.entrySet()) {
+        result.put(column.getKey(), Updates.mergeUpdates(result.get(column.getKey()), column.getValue()));
+      }
+    }
+    return result;
+  }
+
   protected void ensureTransactionIsStarted() {
     if (tx == null) {
       throw new DataSetException("Attempt to perform a data operation without a transaction");
@@ -415,7 +602,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     ensureTransactionIsStarted();
     reportRead(1);
     // checking if the row was deleted inside this tx
-    NavigableMap<byte[], Update> buffCols = buff.get(row);
+    NavigableMap<byte[], Update> buffCols = getBufferedRow(row);
 
     // NOTE: since we cannot tell the exact column set, we always have to go to persisted store.
     //       potential improvement: do not fetch columns available in in-mem buffer (we know them at this point)
@@ -467,7 +654,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
         rowColumns.putAll(persistedRow);
 
         byte[] row = get.getRow();
-        NavigableMap<byte[], Update> buffCols = buff.get(row);
+        NavigableMap<byte[], Update> buffCols = getBufferedRow(row);
 
         // merge what was in the buffer and what was persisted
         if (buffCols != null) {
@@ -518,6 +705,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       // NOTE: we copy passed row's byte arrays to protect buffer against possible changes of this array on client
       buff.put(copy(row), colVals);
     }
+    moveOffHeapIfNeeded(columns.length);
   }
 
   /**
@@ -628,6 +816,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       for (int i = 0; i < columns.length; i++) {
         colVals.put(columns[i], Updates.mergeUpdates(colVals.get(columns[i]), new IncrementValue(amounts[i])));
       }
+      moveOffHeapIfNeeded(columns.length);
       reportWrite(1, getSize(row) + getSize(columns) + getSize(amounts));
     } else {
       internalIncrementAndGet(row, columns, amounts);
@@ -695,9 +884,9 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   @Override
   public Scanner scan(Scan scan) {
     ensureTransactionIsStarted();
-    NavigableMap<byte[], NavigableMap<byte[], Update>> bufferMap = scanBuffer(scan);
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferRows = scanBuffer(scan);
     try {
-      return new BufferingScanner(bufferMap, scanPersisted(scan));
+      return new BufferingScanner(bufferRows, scanPersisted(scan));
     } catch (Exception e) {
       LOG.debug("scan failed for table: " + getTransactionAwareName() +
           ", scan: " + scan.toString(), e);
@@ -705,10 +894,13 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     }
   }
 
-  private NavigableMap<byte[], NavigableMap<byte[], Update>> scanBuffer(Scan scan) {
-    NavigableMap<byte[], NavigableMap<byte[], Update>> bufferMap;
+  private Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> scanBuffer(Scan scan) {
     byte[] startRow = scan.getStartRow();
     byte[] stopRow = scan.getStopRow();
+    if (isOffHeapBufferUsed()) {
+      return applyFilter(offHeapBuff.scan(startRow, stopRow, buff), scan.getFilter());
+    }
+    NavigableMap<byte[], NavigableMap<byte[], Update>> bufferMap;
     if (startRow == null && stopRow == null) {
       bufferMap = buff;
     } else if (startRow == null) {
@@ -719,7 +911,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       bufferMap = buff.subMap(startRow, true, stopRow, false);
     }
     bufferMap = applyFilter(bufferMap, scan.getFilter());
-    return bufferMap;
+    return bufferMap.entrySet().iterator();
   }
 
   private NavigableMap<byte[], NavigableMap<byte[], Update>> applyFilter(
@@ -743,10 +935,30 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     }
   }
 
+  private Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> applyFilter(
+                                                  Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferRows,
+                                                  @Nullable final Filter filter) {
+    if (filter == null) {
+      return bufferRows;
+    }
+
+    // todo: currently we support only FuzzyRowFilter as an experimental feature
+    if (filter instanceof FuzzyRowFilter) {
+      return Iterators.filter(bufferRows, new Predicate<Map.Entry<byte[], NavigableMap<byte[], Update>>>() {
+        @Override
+        public boolean apply(Map.Entry<byte[], NavigableMap<byte[], Update>> input) {
+          return FuzzyRowFilter.ReturnCode.INCLUDE == ((FuzzyRowFilter) filter).filterRow(input.getKey());
+        }
+      });
+    } else {
+      throw new DataSetException("Unknown filter type: " + filter);
+    }
+  }
+
   private Map<byte[], byte[]> getRowMap(byte[] row) throws Exception {
     NavigableMap<byte[], byte[]> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     // checking if the row was deleted inside this tx
-    NavigableMap<byte[], Update> buffCols = buff.get(row);
+    NavigableMap<byte[], Update> buffCols = getBufferedRow(row);
     boolean rowDeleted = buffCols == null && buff.containsKey(row);
     if (rowDeleted) {
       return Collections.emptyMap();
@@ -767,7 +979,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   private Map<byte[], byte[]> getRowMap(byte[] row, byte[][] columns) throws Exception {
     NavigableMap<byte[], byte[]> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     // checking if the row was deleted inside this tx
-    NavigableMap<byte[], Update> buffCols = buff.get(row);
+    NavigableMap<byte[], Update> buffCols = getBufferedRow(row);
 
     // if nothing locally, return all from server
     if (buffCols == null) {
@@ -962,11 +1174,11 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   // they get annotated
 
   @ReadOnly
-  private Iterator<byte[]> getBufferKeyIterator(NavigableMap<byte[], NavigableMap<byte[], Update>> buffer) {
-    final Iterator<byte[]> iterator = buffer.keySet().iterator();
-    return new AbstractIterator<byte[]>() {
+  private Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> getBufferIterator(
+    final Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> iterator) {
+    return new AbstractIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>>() {
       @Override
-      protected byte[] computeNext() {
+      protected Map.Entry<byte[], NavigableMap<byte[], Update>> computeNext() {
         return BufferingTable.this.hasNext(iterator) ? BufferingTable.this.next(iterator) : endOfData();
       }
     };
@@ -982,28 +1194,20 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     return iterator.next();
   }
 
-  @ReadOnly
-  private NavigableMap<byte[], Update> getFromBuffer(NavigableMap<byte[], NavigableMap<byte[], Update>> buffer,
-                                                     byte[] key) {
-    return buffer.get(key);
-  }
-
   /**
    * Scanner implementation that overlays buffered data on top of already persisted data.
    */
   private class BufferingScanner implements Scanner {
-    private final NavigableMap<byte[], NavigableMap<byte[], Update>> buffer;
     private final Scanner persistedScanner;
-    private final Iterator<byte[]> keyIter;
+    private final Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferIter;
+    private Map.Entry<byte[], NavigableMap<byte[], Update>> currentEntry;
     private byte[] currentKey;
     private Row currentRow;
 
-    private BufferingScanner(NavigableMap<byte[], NavigableMap<byte[], Update>> buffer, Scanner persistedScanner) {
-      this.buffer = buffer;
-      this.keyIter = getBufferKeyIterator(buffer);
-      if (this.keyIter.hasNext()) {
-        currentKey = keyIter.next();
-      }
+    private BufferingScanner(Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferRows,
+                             Scanner persistedScanner) {
+      this.bufferIter = getBufferIterator(bufferRows);
+      advanceBuffer();
       this.persistedScanner = persistedScanner;
       this.currentRow = this.persistedScanner.next();
     }
@@ -1035,22 +1239,27 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       } else if (order < 0) {
         // buffer row comes first or persisted scanner is empty
         Map<byte[], byte[]> persistedRow = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-        mergeToPersisted(persistedRow, getFromBuffer(buffer, currentKey), null);
+        mergeToPersisted(persistedRow, currentEntry.getValue(), null);
         result = new Result(copy(currentKey), persistedRow);
 
-        currentKey = keyIter.hasNext() ? keyIter.next() : null;
+        advanceBuffer();
       } else {
         // if currentKey and currentRow are equal, merge and advance both
         Map<byte[], byte[]> persisted = currentRow.getColumns();
-        mergeToPersisted(persisted, getFromBuffer(buffer, currentKey), null);
+        mergeToPersisted(persisted, currentEntry.getValue(), null);
         result = new Result(currentRow.getRow(), persisted);
 
         currentRow = persistedScanner.next();
-        currentKey = keyIter.hasNext() ? keyIter.next() : null;
+        advanceBuffer();
       }
       return result;
     }
 
+    private void advanceBuffer() {
+      currentEntry = bufferIter.hasNext() ? bufferIter.next() : null;
+      currentKey = currentEntry == null ? null : currentEntry.getKey();
+    }
+
     @Override
     public void close() {
       this.persistedScanner.close();
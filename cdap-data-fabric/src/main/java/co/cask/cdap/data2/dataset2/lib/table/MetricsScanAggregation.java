@@ -0,0 +1,203 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.table.Result;
+import co.cask.cdap.api.dataset.table.Row;
+import co.cask.cdap.api.dataset.table.Scanner;
+import com.google.common.base.Preconditions;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Describes how the rows of a {@link MetricsTable} scan are combined by the table, so that only the combined rows
+ * are returned by the scan.
+ * <p>
+ * Rows are grouped by their row key with every byte that is set to 1 in the group mask replaced by 0. The mask uses
+ * the same format as the fuzzy info of a {@link FuzzyRowFilter}. Columns are two byte numbers, and every
+ * {@code columnsPerBucket} consecutive columns form a bucket that is returned as the first column of the bucket.
+ * The values of all cells that fall into the same bucket of the same group are combined with the aggregation function,
+ * where {@link AggregationFunction#LATEST} takes the value of the greatest column, and of the last row scanned
+ * for equal columns.
+ * <p>
+ * The combined rows are returned in row key order. Since all groups have to be known before the first row is returned,
+ * the memory used by the scan grows with the number of combined cells, not with the number of scanned cells.
+ */
+public final class MetricsScanAggregation {
+
+  private final AggregationFunction function;
+  private final byte[] groupMask;
+  private final int columnsPerBucket;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param function the function to combine values with
+   * @param groupMask the mask of row key bytes that are not part of the group
+   * @param columnsPerBucket the number of consecutive columns to combine into one column
+   */
+  public MetricsScanAggregation(AggregationFunction function, byte[] groupMask, int columnsPerBucket) {
+    Preconditions.checkArgument(columnsPerBucket > 0, "Columns per bucket must be > 0: %s", columnsPerBucket);
+    this.function = function;
+    this.groupMask = groupMask;
+    this.columnsPerBucket = columnsPerBucket;
+  }
+
+  public AggregationFunction getFunction() {
+    return function;
+  }
+
+  public byte[] getGroupMask() {
+    return groupMask;
+  }
+
+  public int getColumnsPerBucket() {
+    return columnsPerBucket;
+  }
+
+  /**
+   * Returns a {@link Scanner} that returns the combined rows of the given scanner. The given scanner is fully
+   * consumed and closed when the first row is requested.
+   */
+  public Scanner aggregate(Scanner scanner) {
+    return new AggregatingScanner(scanner);
+  }
+
+  /**
+   * Returns the key of the group that the given row key belongs to.
+   */
+  private byte[] getGroupKey(byte[] rowKey) {
+    byte[] groupKey = rowKey.clone();
+    for (int i = 0; i < groupKey.length && i < groupMask.length; i++) {
+      if (groupMask[i] == 1) {
+        groupKey[i] = 0;
+      }
+    }
+    return groupKey;
+  }
+
+  /**
+   * Adds a cell to the buckets of a group.
+   */
+  private void add(NavigableMap<Integer, Cell> buckets, int column, long value) {
+    int bucket = column - column % columnsPerBucket;
+    Cell cell = buckets.get(bucket);
+    if (cell == null) {
+      buckets.put(bucket, new Cell(column, value));
+      return;
+    }
+    switch (function) {
+      case SUM:
+        cell.value += value;
+        break;
+      case MAX:
+        cell.value = Math.max(cell.value, value);
+        break;
+      case MIN:
+        cell.value = Math.min(cell.value, value);
+        break;
+      case LATEST:
+        if (column >= cell.column) {
+          cell.column = column;
+          cell.value = value;
+        }
+        break;
+      default:
+        // should never happen: developer error
+        throw new IllegalStateException("Unknown aggregation function: " + function);
+    }
+  }
+
+  /**
+   * The combined value of a bucket, together with the greatest column added to it.
+   */
+  private static final class Cell {
+    private int column;
+    private long value;
+
+    private Cell(int column, long value) {
+      this.column = column;
+      this.value = value;
+    }
+  }
+
+  /**
+   * A {@link Scanner} that combines all rows of another {@link Scanner}.
+   */
+  private final class AggregatingScanner implements Scanner {
+
+    private final Scanner scanner;
+    private Iterator<Map.Entry<byte[], NavigableMap<Integer, Cell>>> groups;
+
+    private AggregatingScanner(Scanner scanner) {
+      this.scanner = scanner;
+    }
+
+    @Nullable
+    @Override
+    public Row next() {
+      if (groups == null) {
+        groups = aggregateAll().entrySet().iterator();
+      }
+      if (!groups.hasNext()) {
+        return null;
+      }
+      Map.Entry<byte[], NavigableMap<Integer, Cell>> group = groups.next();
+      groups.remove();
+      Map<byte[], byte[]> columns = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+      for (Map.Entry<Integer, Cell> bucket : group.getValue().entrySet()) {
+        columns.put(Bytes.toBytes(bucket.getKey().shortValue()), Bytes.toBytes(bucket.getValue().value));
+      }
+      return new Result(group.getKey(), columns);
+    }
+
+    @Override
+    public void close() {
+      scanner.close();
+      groups = Collections.emptyIterator();
+    }
+
+    private NavigableMap<byte[], NavigableMap<Integer, Cell>> aggregateAll() {
+      NavigableMap<byte[], NavigableMap<Integer, Cell>> result = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+      try {
+        Row row;
+        while ((row = scanner.next()) != null) {
+          byte[] groupKey = getGroupKey(row.getRow());
+          NavigableMap<Integer, Cell> buckets = result.get(groupKey);
+          if (buckets == null) {
+            buckets = new TreeMap<>();
+            result.put(groupKey, buckets);
+          }
+          for (Map.Entry<byte[], byte[]> column : row.getColumns().entrySet()) {
+            // Columns are compared as unsigned, the same way as the bytes are ordered in the table
+            add(buckets, Bytes.toShort(column.getKey()) & 0xffff, Bytes.toLong(column.getValue()));
+          }
+        }
+      } finally {
+        scanner.close();
+      }
+      return result;
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -91,5 +91,18 @@ public interface MetricsTable extends Dataset {
    */
   Scanner scan(@Nullable byte[] start, @Nullable byte[] stop, @Nullable FuzzyRowFilter filter);
 
+  /**
+   * Get a scanner for a table that only returns the given columns of each row, optionally combining the rows.
+   * Selecting the columns and combining the rows is done as close to the data as the implementation allows,
+   * so that only the data that is needed is transferred.
+   * @param start the row key of the first row to scan. If null, the scan begins at the first row of the table.
+   * @param stop the row key of the last row to scan. If null, the scan goes to the last row of the table.
+   * @param columns if non-null, only these columns are returned, and rows that have none of them are skipped.
+   * @param filter if non-null, a fuzzy row filter used to efficiently skip over entire rows.
+   * @param aggregation if non-null, describes how the selected rows are combined before they are returned.
+   */
+  Scanner scan(@Nullable byte[] start, @Nullable byte[] stop, @Nullable byte[][] columns,
+               @Nullable FuzzyRowFilter filter, @Nullable MetricsScanAggregation aggregation);
+
 }
 
@@ -0,0 +1,591 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table;
+
+import co.cask.cdap.api.common.Bytes;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.io.Closeables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import javax.annotation.Nullable;
+
+/**
+ * Write buffer used by {@link BufferingTable} to hold large amounts of uncommitted changes outside of the java heap.
+ * <p>
+ * Changes are added as sorted batches of rows (row->(column->update)) that are serialized into immutable sorted
+ * runs backed by direct {@link ByteBuffer} arenas. Each run keeps a single primitive index of row offsets, so that
+ * the number of heap objects does not grow with the number of buffered cells. Runs are ordered from oldest to newest,
+ * and updates of newer runs are merged on top of older ones using {@link Updates#mergeUpdates(Update, Update)}.
+ * <p>
+ * If a memory limit is given, once the arenas grow beyond it, all in-memory runs are merged and spilled into a sorted
+ * run file in the spill directory. Run files are read back with positional reads when the buffer is accessed, and are
+ * deleted when the buffer is cleared.
+ * <p>
+ * NOTE: this class is not thread safe. Same as the in-memory buffer of {@link BufferingTable}, it is expected to be
+ *       used by a single transaction at a time.
+ */
+final class OffHeapWriteBuffer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OffHeapWriteBuffer.class);
+
+  static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  // when there are more in-memory or file runs than this, they are merged into a single run to keep lookups cheap
+  private static final int MAX_RUNS = 8;
+
+  private static final byte TYPE_DELETE = 0;
+  private static final byte TYPE_PUT = 1;
+  private static final byte TYPE_INCREMENT = 2;
+
+  private final int chunkSize;
+  private final long memoryLimit;
+  private final File spillDir;
+  // sorted runs, oldest first. All file runs are older than all in-memory runs.
+  private final List<Run> runs;
+
+  OffHeapWriteBuffer() {
+    this(DEFAULT_CHUNK_SIZE, Long.MAX_VALUE, null);
+  }
+
+  /**
+   * Creates a buffer that spills to disk.
+   *
+   * @param chunkSize size of the off-heap chunks to allocate
+   * @param memoryLimit max number of off-heap bytes to use before spilling to disk
+   * @param spillDir directory to create run files in, {@code null} to use the system temporary directory
+   */
+  OffHeapWriteBuffer(int chunkSize, long memoryLimit, @Nullable File spillDir) {
+    this.chunkSize = chunkSize;
+    this.memoryLimit = memoryLimit;
+    this.spillDir = spillDir;
+    this.runs = new ArrayList<>();
+  }
+
+  /**
+   * Adds the given sorted rows as the newest run of this buffer. The given map is not retained.
+   *
+   * @throws IOException if failed to spill the buffer to disk, in which case this buffer is left unchanged and the
+   *                     given rows are not added to it
+   */
+  void add(NavigableMap<byte[], NavigableMap<byte[], Update>> rows) throws IOException {
+    if (rows.isEmpty()) {
+      return;
+    }
+    List<Run> fileRuns = new ArrayList<>();
+    List<Run> arenaRuns = new ArrayList<>();
+    for (Run run : runs) {
+      (run instanceof FileRun ? fileRuns : arenaRuns).add(run);
+    }
+    arenaRuns.add(new ArenaRun(rows.entrySet().iterator(), chunkSize));
+
+    // runs that were merged into new file runs are only released once all new runs were written, so that this buffer
+    // still has all of its runs if writing fails
+    List<Run> created = new ArrayList<>();
+    List<Run> replaced = new ArrayList<>();
+    try {
+      if (getMemorySize(arenaRuns) > memoryLimit) {
+        Run spilled = new FileRun(merge(arenaRuns), File.createTempFile("buffer", ".run", spillDir));
+        created.add(spilled);
+        replaced.addAll(arenaRuns);
+        fileRuns.add(spilled);
+        arenaRuns.clear();
+      } else if (arenaRuns.size() > MAX_RUNS) {
+        Run merged = new ArenaRun(merge(arenaRuns), chunkSize);
+        arenaRuns.clear();
+        arenaRuns.add(merged);
+      }
+      if (fileRuns.size() > MAX_RUNS) {
+        Run merged = new FileRun(merge(fileRuns), File.createTempFile("buffer", ".run", spillDir));
+        created.add(merged);
+        replaced.addAll(fileRuns);
+        fileRuns.clear();
+        fileRuns.add(merged);
+      }
+    } catch (IOException | RuntimeException e) {
+      release(created);
+      throw e;
+    }
+    // a run that was created and replaced by another one in this call is released here too
+    release(replaced);
+    runs.clear();
+    runs.addAll(fileRuns);
+    runs.addAll(arenaRuns);
+  }
+
+  boolean isEmpty() {
+    return runs.isEmpty();
+  }
+
+  /**
+   * @return number of cells stored in this buffer. The same cell can be counted multiple times if it was written
+   *         into different runs.
+   */
+  long getCellCount() {
+    long count = 0L;
+    for (Run run : runs) {
+      count += run.cellCount;
+    }
+    return count;
+  }
+
+  /**
+   * @return number of off-heap bytes allocated by this buffer
+   */
+  long getSizeInBytes() {
+    return getMemorySize(runs);
+  }
+
+  /**
+   * Releases all runs of this buffer and deletes the run files. The off-heap memory is returned once the arenas are
+   * garbage collected.
+   */
+  void clear() {
+    release(runs);
+    runs.clear();
+  }
+
+  /**
+   * @return the buffered column->update map for the given row, merged across all runs,
+   *         or {@code null} if the row is not in this buffer
+   */
+  @Nullable
+  NavigableMap<byte[], Update> getRow(byte[] row) {
+    NavigableMap<byte[], Update> result = null;
+    for (Run run : runs) {
+      int idx = run.find(row);
+      if (idx >= 0) {
+        if (result == null) {
+          result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        }
+        run.mergeRowInto(idx, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns an iterator over buffered rows in the given range, in sorted order, with updates merged across all runs.
+   *
+   * @param startRow first row of the range, inclusive; {@code null} means from the first row
+   * @param stopRow last row of the range, exclusive; {@code null} means till the last row
+   * @param newest optional rows that are newer than all the runs of this buffer, to be merged on top of them
+   */
+  Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> scan(
+    @Nullable byte[] startRow, @Nullable byte[] stopRow,
+    @Nullable NavigableMap<byte[], NavigableMap<byte[], Update>> newest) {
+
+    List<PeekingIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>>> sources = new ArrayList<>(runs.size() + 1);
+    for (Run run : runs) {
+      int from = startRow == null ? 0 : run.ceiling(startRow);
+      int to = stopRow == null ? run.rowCount : run.ceiling(stopRow);
+      if (from < to) {
+        sources.add(Iterators.peekingIterator(run.rows(from, to)));
+      }
+    }
+    if (newest != null && !newest.isEmpty()) {
+      NavigableMap<byte[], NavigableMap<byte[], Update>> range = newest;
+      if (startRow != null && stopRow != null) {
+        range = newest.subMap(startRow, true, stopRow, false);
+      } else if (startRow != null) {
+        range = newest.tailMap(startRow, true);
+      } else if (stopRow != null) {
+        range = newest.headMap(stopRow, false);
+      }
+      sources.add(Iterators.peekingIterator(range.entrySet().iterator()));
+    }
+    return new MergingRowIterator(sources);
+  }
+
+  private static Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> merge(List<Run> runs) {
+    List<PeekingIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>>> sources = new ArrayList<>(runs.size());
+    for (Run run : runs) {
+      sources.add(Iterators.peekingIterator(run.rows(0, run.rowCount)));
+    }
+    return new MergingRowIterator(sources);
+  }
+
+  private static long getMemorySize(List<Run> runs) {
+    long size = 0L;
+    for (Run run : runs) {
+      if (run instanceof ArenaRun) {
+        size += run.sizeInBytes;
+      }
+    }
+    return size;
+  }
+
+  private static void release(List<Run> runs) {
+    for (Run run : runs) {
+      run.release();
+    }
+  }
+
+  private static Update decode(byte type, ByteBuffer chunk, int pos, int length) {
+    switch (type) {
+      case TYPE_DELETE:
+        return new PutValue(null);
+      case TYPE_INCREMENT:
+        return new IncrementValue(chunk.getLong(pos));
+      default:
+        return new PutValue(read(chunk, pos, length));
+    }
+  }
+
+  private static byte[] read(ByteBuffer chunk, int pos, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer buffer = chunk.duplicate();
+    buffer.position(pos);
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static int getRecordSize(byte[] row, NavigableMap<byte[], Update> columns) {
+    int size = Bytes.SIZEOF_INT + row.length + Bytes.SIZEOF_INT;
+    for (Map.Entry<byte[], Update> column : columns.entrySet()) {
+      size += Bytes.SIZEOF_INT + column.getKey().length + 1 + Bytes.SIZEOF_INT;
+      Update update = column.getValue();
+      if (update instanceof IncrementValue) {
+        size += Bytes.SIZEOF_LONG;
+      } else if (update.getBytes() != null) {
+        size += update.getBytes().length;
+      }
+    }
+    return size;
+  }
+
+  private static void writeRecord(ByteBuffer buffer, byte[] row, NavigableMap<byte[], Update> columns) {
+    buffer.putInt(row.length).put(row).putInt(columns.size());
+    for (Map.Entry<byte[], Update> column : columns.entrySet()) {
+      buffer.putInt(column.getKey().length).put(column.getKey());
+      Update update = column.getValue();
+      if (update instanceof IncrementValue) {
+        buffer.put(TYPE_INCREMENT).putInt(Bytes.SIZEOF_LONG).putLong(((IncrementValue) update).getValue());
+      } else if (update.getBytes() == null) {
+        buffer.put(TYPE_DELETE).putInt(0);
+      } else {
+        byte[] value = update.getBytes();
+        buffer.put(TYPE_PUT).putInt(value.length).put(value);
+      }
+    }
+  }
+
+  /**
+   * An immutable sorted run of rows. Every row is stored as one record:
+   * <pre>
+   *   [row length][row][cell count]([column length][column][type][value length][value])*
+   * </pre>
+   * where value of an increment is the 8 bytes long amount.
+   */
+  private abstract static class Run {
+    // offset of every row record, in row order
+    long[] rowAddresses = new long[16];
+    int rowCount;
+    long cellCount;
+    long sizeInBytes;
+
+    /**
+     * Returns a buffer that contains the record of the row with the given index, starting at its current position.
+     */
+    abstract ByteBuffer getRecord(int idx);
+
+    /**
+     * Releases resources held by this run.
+     */
+    abstract void release();
+
+    void addRowAddress(long address, int cells) {
+      if (rowCount == rowAddresses.length) {
+        long[] newAddresses = new long[rowAddresses.length * 2];
+        System.arraycopy(rowAddresses, 0, newAddresses, 0, rowCount);
+        rowAddresses = newAddresses;
+      }
+      rowAddresses[rowCount++] = address;
+      cellCount += cells;
+    }
+
+    /**
+     * Compares the key of the row at the given index with the given key, without copying it to the heap.
+     */
+    private int compareRow(int idx, byte[] key) {
+      ByteBuffer record = getRecord(idx);
+      int pos = record.position();
+      int length = record.getInt(pos);
+      pos += Bytes.SIZEOF_INT;
+      int common = Math.min(length, key.length);
+      for (int i = 0; i < common; i++) {
+        int diff = (record.get(pos + i) & 0xff) - (key[i] & 0xff);
+        if (diff != 0) {
+          return diff;
+        }
+      }
+      return length - key.length;
+    }
+
+    /**
+     * @return index of the row, or (-(insertion point) - 1) if the row is not in this run
+     */
+    private int find(byte[] row) {
+      int low = 0;
+      int high = rowCount - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = compareRow(mid, row);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(low + 1);
+    }
+
+    /**
+     * @return index of the first row that is greater or equal to the given one
+     */
+    private int ceiling(byte[] row) {
+      int idx = find(row);
+      return idx >= 0 ? idx : -idx - 1;
+    }
+
+    /**
+     * Merges cells of the row with the given index into the given map and returns the row key.
+     */
+    private byte[] mergeRowInto(int idx, NavigableMap<byte[], Update> target) {
+      ByteBuffer record = getRecord(idx);
+      int pos = record.position();
+      int rowLength = record.getInt(pos);
+      byte[] row = read(record, pos + Bytes.SIZEOF_INT, rowLength);
+      pos += Bytes.SIZEOF_INT + rowLength;
+      int cells = record.getInt(pos);
+      pos += Bytes.SIZEOF_INT;
+      for (int i = 0; i < cells; i++) {
+        int columnLength = record.getInt(pos);
+        pos += Bytes.SIZEOF_INT;
+        byte[] column = read(record, pos, columnLength);
+        pos += columnLength;
+        byte type = record.get(pos);
+        pos++;
+        int valueLength = record.getInt(pos);
+        pos += Bytes.SIZEOF_INT;
+        Update update = decode(type, record, pos, valueLength);
+        pos += valueLength;
+        target.put(column, Updates.mergeUpdates(target.get(column), update));
+      }
+      return row;
+    }
+
+    private Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows(final int from, final int to) {
+      return new AbstractIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>>() {
+        private int idx = from;
+
+        @Override
+        protected Map.Entry<byte[], NavigableMap<byte[], Update>> computeNext() {
+          if (idx >= to) {
+            return endOfData();
+          }
+          NavigableMap<byte[], Update> columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+          byte[] row = mergeRowInto(idx++, columns);
+          return Maps.immutableEntry(row, columns);
+        }
+      };
+    }
+  }
+
+  /**
+   * A {@link Run} stored in direct byte buffers. Row addresses are (chunk index << 32 | offset).
+   * The record of a row never spans multiple chunks.
+   */
+  private static final class ArenaRun extends Run {
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    private ArenaRun(Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows, int chunkSize) {
+      ByteBuffer current = null;
+      while (rows.hasNext()) {
+        Map.Entry<byte[], NavigableMap<byte[], Update>> row = rows.next();
+        int recordSize = getRecordSize(row.getKey(), row.getValue());
+        if (current == null || current.remaining() < recordSize) {
+          current = ByteBuffer.allocateDirect(Math.max(chunkSize, recordSize));
+          chunks.add(current);
+          sizeInBytes += current.capacity();
+        }
+        addRowAddress(((long) (chunks.size() - 1) << 32) | current.position(), row.getValue().size());
+        writeRecord(current, row.getKey(), row.getValue());
+      }
+    }
+
+    @Override
+    ByteBuffer getRecord(int idx) {
+      ByteBuffer record = chunks.get((int) (rowAddresses[idx] >>> 32)).duplicate();
+      record.position((int) rowAddresses[idx]);
+      return record;
+    }
+
+    @Override
+    void release() {
+      chunks.clear();
+    }
+  }
+
+  /**
+   * A {@link Run} stored in a local file. Row addresses are file offsets, and records are read with positional reads.
+   */
+  private static final class FileRun extends Run {
+    private final File file;
+    private final FileChannel channel;
+
+    private FileRun(Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows, File file) throws IOException {
+      this.file = file;
+      try {
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+      } catch (IOException e) {
+        deleteFile(file);
+        throw e;
+      }
+      try {
+        ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
+        long position = 0L;
+        while (rows.hasNext()) {
+          Map.Entry<byte[], NavigableMap<byte[], Update>> row = rows.next();
+          int recordSize = getRecordSize(row.getKey(), row.getValue());
+          if (buffer.remaining() < recordSize) {
+            flush(buffer);
+            if (buffer.capacity() < recordSize) {
+              buffer = ByteBuffer.allocate(recordSize);
+            }
+          }
+          addRowAddress(position, row.getValue().size());
+          writeRecord(buffer, row.getKey(), row.getValue());
+          position += recordSize;
+        }
+        flush(buffer);
+        sizeInBytes = position;
+      } catch (IOException | RuntimeException e) {
+        release();
+        throw e;
+      }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    ByteBuffer getRecord(int idx) {
+      long start = rowAddresses[idx];
+      long end = idx + 1 < rowCount ? rowAddresses[idx + 1] : sizeInBytes;
+      ByteBuffer record = ByteBuffer.allocate((int) (end - start));
+      try {
+        while (record.hasRemaining()) {
+          if (channel.read(record, start + record.position()) < 0) {
+            throw new EOFException("Unexpected end of buffer run file " + file);
+          }
+        }
+      } catch (IOException e) {
+        throw Throwables.propagate(e);
+      }
+      record.flip();
+      return record;
+    }
+
+    @Override
+    void release() {
+      Closeables.closeQuietly(channel);
+      deleteFile(file);
+    }
+
+    private static void deleteFile(File file) {
+      if (!file.delete() && file.exists()) {
+        LOG.warn("Failed to delete buffer run file {}", file);
+      }
+    }
+  }
+
+  /**
+   * Merges sorted row iterators, ordered from oldest to newest, into one sorted iterator.
+   * Rows present in multiple sources are merged with updates of newer sources applied on top of older ones.
+   */
+  private static final class MergingRowIterator extends AbstractIterator<Map.Entry<byte[],
+                                                                                  NavigableMap<byte[], Update>>> {
+    private final List<PeekingIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>>> sources;
+
+    private MergingRowIterator(List<PeekingIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>>> sources) {
+      this.sources = sources;
+    }
+
+    @Override
+    protected Map.Entry<byte[], NavigableMap<byte[], Update>> computeNext() {
+      byte[] minRow = null;
+      int matches = 0;
+      for (PeekingIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> source : sources) {
+        if (!source.hasNext()) {
+          continue;
+        }
+        byte[] row = source.peek().getKey();
+        int cmp = minRow == null ? -1 : Bytes.compareTo(row, minRow);
+        if (cmp < 0) {
+          minRow = row;
+          matches = 1;
+        } else if (cmp == 0) {
+          matches++;
+        }
+      }
+      if (minRow == null) {
+        return endOfData();
+      }
+
+      if (matches == 1) {
+        for (PeekingIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> source : sources) {
+          if (source.hasNext() && Bytes.equals(source.peek().getKey(), minRow)) {
+            return source.next();
+          }
+        }
+      }
+
+      NavigableMap<byte[], Update> merged = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      for (PeekingIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> source : sources) {
+        if (source.hasNext() && Bytes.equals(source.peek().getKey(), minRow)) {
+          for (Map.Entry<byte[], Update> column : source.next().getValue().entrySet()) {
+            merged.put(column.getKey(), Updates.mergeUpdates(merged.get(column.getKey()), column.getValue()));
+          }
+        }
+      }
+      return Maps.immutableEntry(minRow, merged);
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -23,6 +23,7 @@ import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.data2.dataset2.DatasetFramework;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsScanAggregation;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import co.cask.cdap.proto.id.DatasetId;
 import co.cask.cdap.proto.id.NamespaceId;
@@ -172,17 +173,25 @@ public class CombinedHBaseMetricsTable implements MetricsTable {
 
   @Override
   public Scanner scan(@Nullable byte[] start, @Nullable byte[] stop, @Nullable FuzzyRowFilter filter) {
+    return scan(start, stop, null, filter, null);
+  }
+
+  @Override
+  public Scanner scan(@Nullable byte[] start, @Nullable byte[] stop, @Nullable byte[][] columns,
+                      @Nullable FuzzyRowFilter filter, @Nullable MetricsScanAggregation aggregation) {
     Scanner v2Scan = null;
     if (v2HBaseTable != null) {
       try {
-        v2Scan = v2HBaseTable.scan(start, stop, filter);
+        v2Scan = v2HBaseTable.scan(start, stop, columns, filter, null);
       } catch (Exception e) {
         handleV2TableException(e, "Scan", getV2MetricsTableDatasetId().getDataset());
       }
     }
 
-    Scanner v3Scan = v3HBaseTable.scan(start, stop, filter);
-    return new CombinedMetricsScanner(v2Scan, v3Scan, getV2MetricsTableDatasetId(), datasetFramework);
+    Scanner v3Scan = v3HBaseTable.scan(start, stop, columns, filter, null);
+    // Rows from both tables are merged before they are combined, since the same row can be in both tables
+    Scanner scanner = new CombinedMetricsScanner(v2Scan, v3Scan, getV2MetricsTableDatasetId(), datasetFramework);
+    return aggregation == null ? scanner : aggregation.aggregate(scanner);
   }
 
   @Override
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2017 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -28,6 +28,7 @@ import co.cask.cdap.common.logging.LogSamplers;
 import co.cask.cdap.common.logging.Loggers;
 import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsScanAggregation;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import co.cask.cdap.data2.util.TableId;
 import co.cask.cdap.data2.util.hbase.DeleteBuilder;
@@ -307,11 +308,19 @@ public class HBaseMetricsTable implements MetricsTable {
   @Override
   public Scanner scan(@Nullable byte[] startRow, @Nullable byte[] stopRow,
                       @Nullable FuzzyRowFilter filter) {
+    return scan(startRow, stopRow, null, filter, null);
+  }
+
+  @Override
+  public Scanner scan(@Nullable byte[] startRow, @Nullable byte[] stopRow, @Nullable byte[][] columns,
+                      @Nullable FuzzyRowFilter filter, @Nullable MetricsScanAggregation aggregation) {
     ScanBuilder scanBuilder = tableUtil.buildScan();
-    configureRangeScan(scanBuilder, startRow, stopRow, filter);
+    configureRangeScan(scanBuilder, startRow, stopRow, columns, filter);
     try {
       ResultScanner resultScanner = getScanner(scanBuilder);
-      return new HBaseScanner(resultScanner, columnFamily, rowKeyDistributor);
+      Scanner scanner = new HBaseScanner(resultScanner, columnFamily, rowKeyDistributor);
+      // todo: combine the rows in a coprocessor on the region servers, instead of on the client
+      return aggregation == null ? scanner : aggregation.aggregate(scanner);
     } catch (IOException e) {
       throw new DataSetException("Scan failed on table " + tableId, e);
     }
@@ -323,7 +332,7 @@ public class HBaseMetricsTable implements MetricsTable {
   }
 
   private ScanBuilder configureRangeScan(ScanBuilder scan, @Nullable byte[] startRow, @Nullable byte[] stopRow,
-                                         @Nullable FuzzyRowFilter filter) {
+                                         @Nullable byte[][] columns, @Nullable FuzzyRowFilter filter) {
     // todo: should be configurable
     scan.setCaching(1000);
 
@@ -333,7 +342,14 @@ public class HBaseMetricsTable implements MetricsTable {
     if (stopRow != null) {
       scan.setStopRow(stopRow);
     }
-    scan.addFamily(columnFamily);
+    if (columns == null) {
+      scan.addFamily(columnFamily);
+    } else {
+      // Only the selected columns are returned from the region servers
+      for (byte[] column : columns) {
+        scan.addColumn(columnFamily, column);
+      }
+    }
     if (filter != null) {
       List<Pair<byte[], byte[]>> fuzzyPairs = Lists.newArrayListWithExpectedSize(filter.getFuzzyKeysData().size());
       for (ImmutablePair<byte[], byte[]> pair : filter.getFuzzyKeysData()) {
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table.inmemory;
+
+import co.cask.cdap.api.common.Bytes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Encodes the row, column and version of a cell of {@link InMemoryTableService} into a single packed key:
+ * <pre>
+ *   [row length (int)][row][column][version (long)]
+ * </pre>
+ * Keys are ordered by {@link #COMPARATOR} by row, then by column, then by version in descending order, so that
+ * all cells of a row are adjacent and the latest version of a column comes first.
+ */
+final class CellKeys {
+
+  private static final byte[] EMPTY = new byte[0];
+  private static final int OVERHEAD = Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG;
+
+  static final Comparator<byte[]> COMPARATOR = new Comparator<byte[]>() {
+    @Override
+    public int compare(byte[] left, byte[] right) {
+      int leftRowLength = Bytes.toInt(left);
+      int rightRowLength = Bytes.toInt(right);
+      int cmp = Bytes.compareTo(left, Bytes.SIZEOF_INT, leftRowLength, right, Bytes.SIZEOF_INT, rightRowLength);
+      if (cmp != 0) {
+        return cmp;
+      }
+      cmp = Bytes.compareTo(left, Bytes.SIZEOF_INT + leftRowLength, left.length - OVERHEAD - leftRowLength,
+                            right, Bytes.SIZEOF_INT + rightRowLength, right.length - OVERHEAD - rightRowLength);
+      if (cmp != 0) {
+        return cmp;
+      }
+      // latest version goes first
+      return Long.compare(getVersion(right), getVersion(left));
+    }
+  };
+
+  private CellKeys() {
+  }
+
+  static byte[] encode(byte[] row, byte[] column, long version) {
+    byte[] key = new byte[OVERHEAD + row.length + column.length];
+    int offset = Bytes.putInt(key, 0, row.length);
+    offset = Bytes.putBytes(key, offset, row, 0, row.length);
+    offset = Bytes.putBytes(key, offset, column, 0, column.length);
+    Bytes.putLong(key, offset, version);
+    return key;
+  }
+
+  /**
+   * @return the smallest key of the given row
+   */
+  static byte[] rowStart(byte[] row) {
+    return encode(row, EMPTY, Long.MAX_VALUE);
+  }
+
+  /**
+   * @return the smallest key that is greater than all keys of the given row
+   */
+  static byte[] rowEnd(byte[] row) {
+    return rowStart(Arrays.copyOf(row, row.length + 1));
+  }
+
+  /**
+   * @return the smallest key of the given column
+   */
+  static byte[] columnStart(byte[] row, byte[] column) {
+    return encode(row, column, Long.MAX_VALUE);
+  }
+
+  /**
+   * @return the smallest key that is greater than all keys of the given column
+   */
+  static byte[] columnEnd(byte[] row, byte[] column) {
+    return encode(row, Arrays.copyOf(column, column.length + 1), Long.MAX_VALUE);
+  }
+
+  static byte[] getRow(byte[] key) {
+    return Arrays.copyOfRange(key, Bytes.SIZEOF_INT, Bytes.SIZEOF_INT + Bytes.toInt(key));
+  }
+
+  static byte[] getColumn(byte[] key) {
+    return Arrays.copyOfRange(key, Bytes.SIZEOF_INT + Bytes.toInt(key), key.length - Bytes.SIZEOF_LONG);
+  }
+
+  static long getVersion(byte[] key) {
+    return Bytes.toLong(key, key.length - Bytes.SIZEOF_LONG);
+  }
+
+  /**
+   * @return whether the two keys belong to the same row
+   */
+  static boolean isSameRow(byte[] key, byte[] otherKey) {
+    int rowLength = Bytes.toInt(key);
+    return Bytes.compareTo(key, Bytes.SIZEOF_INT, rowLength,
+                           otherKey, Bytes.SIZEOF_INT, Bytes.toInt(otherKey)) == 0;
+  }
+
+  /**
+   * @return whether the two keys belong to the same row and column
+   */
+  static boolean isSameColumn(byte[] key, byte[] otherKey) {
+    int rowLength = Bytes.toInt(key);
+    return isSameRow(key, otherKey)
+      && Bytes.compareTo(key, Bytes.SIZEOF_INT + rowLength, key.length - OVERHEAD - rowLength,
+                         otherKey, Bytes.SIZEOF_INT + rowLength, otherKey.length - OVERHEAD - rowLength) == 0;
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2015 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -21,6 +21,7 @@ import co.cask.cdap.api.dataset.DatasetContext;
 import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsScanAggregation;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.Update;
 import co.cask.cdap.data2.dataset2.lib.table.Updates;
@@ -117,13 +118,20 @@ public class InMemoryMetricsTable implements MetricsTable {
   @Override
   public Scanner scan(@Nullable byte[] start, @Nullable byte[] stop,
                       @Nullable FuzzyRowFilter filter) {
+    return scan(start, stop, null, filter, null);
+  }
+
+  @Override
+  public Scanner scan(@Nullable byte[] start, @Nullable byte[] stop, @Nullable byte[][] columns,
+                      @Nullable FuzzyRowFilter filter, @Nullable MetricsScanAggregation aggregation) {
 
     // todo: a lot of inefficient copying from one map to another
     NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> rowRange =
       InMemoryTableService.getRowRange(tableName, start, stop, null);
     NavigableMap<byte[], NavigableMap<byte[], byte[]>> rows = getLatest(rowRange);
 
-    return new InMemoryScanner(rows.entrySet().iterator(), filter, null);
+    Scanner scanner = new InMemoryScanner(rows.entrySet().iterator(), filter, columns);
+    return aggregation == null ? scanner : aggregation.aggregate(scanner);
   }
 
   private NavigableMap<byte[], NavigableMap<byte[], byte[]>> getLatest(
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -22,206 +22,198 @@ import co.cask.cdap.data2.dataset2.lib.table.PutValue;
 import co.cask.cdap.data2.dataset2.lib.table.Update;
 import co.cask.cdap.data2.dataset2.lib.table.Updates;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.primitives.Longs;
 import org.apache.tephra.Transaction;
 
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.Nullable;
 
 /**
  * Holds all in-memory tables for {@link InMemoryTable}.
+ * <p>
+ * Each table is a single sorted map from packed cell keys (see {@link CellKeys}) to updates, instead of nested maps
+ * per row, column and version. Reads never block and writes to different cells proceed in parallel. Merging of changes
+ * is lock-free; read-modify-write operations ({@link #increment(String, byte[], Map)} and
+ * {@link #swap(String, byte[], byte[], byte[], byte[])}) lock only the row they operate on.
+ * <p>
+ * Versions that are shadowed by a newer version, which is visible to all transactions, are removed when the cell is
+ * read transactionally, or when it is overwritten by a non-transactional increment or swap.
  */
-// todo: use locks instead of synchronize
 // todo: consider using SortedMap instead of NavigableMap in APIs
 public class InMemoryTableService {
-  private static Map<String, ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>>> tables =
-    Maps.newHashMap();
+  private static final int ROW_LOCK_STRIPES = 256;
+  private static final ConcurrentMap<String, TableData> tables = new ConcurrentHashMap<>();
 
-  public static synchronized boolean exists(String tableName) {
+  public static boolean exists(String tableName) {
     return tables.containsKey(tableName);
   }
 
-  public static synchronized void create(String tableName) {
+  public static void create(String tableName) {
     if (!tables.containsKey(tableName)) {
-      tables.put(tableName, new ConcurrentSkipListMap<byte[],
-        NavigableMap<byte[], NavigableMap<Long, Update>>>(Bytes.BYTES_COMPARATOR));
+      tables.putIfAbsent(tableName, new TableData());
     }
   }
 
-  public static synchronized void truncate(String tableName) {
-    tables.get(tableName).clear();
+  public static void truncate(String tableName) {
+    tables.get(tableName).cells.clear();
   }
 
-  public static synchronized void drop(String tableName) {
+  public static void drop(String tableName) {
     tables.remove(tableName);
   }
 
-  public static synchronized void reset() {
+  public static void reset() {
     tables.clear();
   }
 
   // no nulls
-  public static synchronized void merge(String tableName,
-                                        SortedMap<byte[], ? extends SortedMap<byte[], ? extends Update>> changes,
-                                        long version) {
+  public static void merge(String tableName,
+                           SortedMap<byte[], ? extends SortedMap<byte[], ? extends Update>> changes,
+                           long version) {
     // todo: handle nulls
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table = tables.get(tableName);
-    SortedMap<byte[], ? extends SortedMap<byte[], Update>> changesCopy = deepCopyUpdates(changes);
-    for (Map.Entry<byte[], ? extends SortedMap<byte[], Update>> change : changesCopy.entrySet()) {
-      merge(table, change.getKey(), change.getValue(), version);
-    }
-  }
-
-  private static void merge(ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table,
-                            byte[] row, Map<byte[], Update> changes, long version) {
-    // get the correct row from the table, create it if it doesn't exist
-    NavigableMap<byte[], NavigableMap<Long, Update>> rowMap = table.get(row);
-    if (rowMap == null) {
-      rowMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-      table.put(row, rowMap);
-    }
-    // now merge the changes into the row, one by one
-    for (Map.Entry<byte[], Update> keyVal : changes.entrySet()) {
-      // create the column in the row if it does not exist
-      NavigableMap<Long, Update> colMap = rowMap.get(keyVal.getKey());
-      if (colMap == null) {
-        colMap = Maps.newTreeMap();
-        rowMap.put(keyVal.getKey(), colMap);
+    ConcurrentNavigableMap<byte[], Update> cells = tables.get(tableName).cells;
+    for (Map.Entry<byte[], ? extends SortedMap<byte[], ? extends Update>> change : changes.entrySet()) {
+      byte[] row = change.getKey();
+      for (Map.Entry<byte[], ? extends Update> keyVal : change.getValue().entrySet()) {
+        // the key is a fresh copy of row and column, hence changing the parameters later does not affect the table
+        byte[] key = CellKeys.encode(row, keyVal.getKey(), version);
+        Update update = keyVal.getValue().deepCopy();
+        // put into the column with given version. Retry if another writer changed the same version concurrently
+        while (true) {
+          Update existing = cells.get(key);
+          Update merged = Updates.mergeUpdates(existing, update);
+          if (existing == null ? cells.putIfAbsent(key, merged) == null : cells.replace(key, existing, merged)) {
+            break;
+          }
+        }
       }
-      // put into the column with given version
-      Update merged = Updates.mergeUpdates(colMap.get(version), keyVal.getValue());
-      colMap.put(version, merged);
     }
   }
 
   // todo: remove it from here: only used by "system" metrics table, which should be revised
   @Deprecated
-  public static synchronized Map<byte[], Long> increment(String tableName, byte[] row, Map<byte[], Long> increments) {
+  public static Map<byte[], Long> increment(String tableName, byte[] row, Map<byte[], Long> increments) {
     Map<byte[], Long> resultMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table = tables.get(tableName);
-    // get the correct row from the table, create it if it doesn't exist
-    NavigableMap<byte[], NavigableMap<Long, Update>> rowMap = table.get(row);
-    if (rowMap == null) {
-      rowMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-      table.put(row, rowMap);
-    }
-    // now increment each column, one by one
-    long versionForWrite = System.currentTimeMillis();
-    for (Map.Entry<byte[], Long> inc : increments.entrySet()) {
-      IncrementValue increment = new IncrementValue(inc.getValue());
-      // create the column in the row if it does not exist
-      NavigableMap<Long, Update> colMap = rowMap.get(inc.getKey());
-      Update last = null;
-      if (colMap == null) {
-        colMap = Maps.newTreeMap();
-        rowMap.put(inc.getKey(), colMap);
-      } else {
-        last = colMap.lastEntry().getValue();
+    TableData table = tables.get(tableName);
+    Lock lock = table.getRowLock(row);
+    lock.lock();
+    try {
+      // now increment each column, one by one
+      long versionForWrite = System.currentTimeMillis();
+      for (Map.Entry<byte[], Long> inc : increments.entrySet()) {
+        IncrementValue increment = new IncrementValue(inc.getValue());
+        Update merged = Updates.mergeUpdates(getLatest(table.cells, row, inc.getKey()), increment);
+        long newValue = Bytes.toLong(merged.getBytes());
+        resultMap.put(inc.getKey(), newValue);
+        // put into the column with given version
+        putLatest(table.cells, row, inc.getKey(), versionForWrite, merged);
       }
-      Update merged = Updates.mergeUpdates(last, increment);
-      // put into the column with given version
-      long newValue = Bytes.toLong(merged.getBytes());
-      resultMap.put(inc.getKey(), newValue);
-      colMap.put(versionForWrite, merged);
+    } finally {
+      lock.unlock();
     }
     return resultMap;
   }
 
-  public static synchronized boolean swap(String tableName, byte[] row, byte[] column,
-                                          byte[] oldValue, byte[] newValue) {
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table = tables.get(tableName);
-    // get the correct row from the table, create it if it doesn't exist
-    NavigableMap<byte[], NavigableMap<Long, Update>> rowMap = table.get(row);
-    Update existingValue = null;
-    if (rowMap != null) {
-      NavigableMap<Long, Update> columnMap = rowMap.get(column);
-      if (columnMap != null) {
-        existingValue = columnMap.lastEntry().getValue();
+  public static boolean swap(String tableName, byte[] row, byte[] column, byte[] oldValue, byte[] newValue) {
+    TableData table = tables.get(tableName);
+    Lock lock = table.getRowLock(row);
+    lock.lock();
+    try {
+      Update existingValue = getLatest(table.cells, row, column);
+      // verify existing value matches
+      if (oldValue == null && existingValue != null) {
+        return false;
       }
-    }
-    // verify existing value matches
-    if (oldValue == null && existingValue != null) {
-      return false;
-    }
-    if (oldValue != null && (existingValue == null || !Bytes.equals(oldValue, existingValue.getBytes()))) {
-      return false;
-    }
-    // write new value
-    if (newValue == null) {
-      if (rowMap != null) {
-        rowMap.remove(column);
-      }
-    } else {
-      if (rowMap == null) {
-        rowMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-        table.put(row, rowMap);
+      if (oldValue != null && (existingValue == null || !Bytes.equals(oldValue, existingValue.getBytes()))) {
+        return false;
       }
-      NavigableMap<Long, Update> columnMap = rowMap.get(column);
-      if (columnMap == null) {
-        columnMap = Maps.newTreeMap();
-        rowMap.put(column, columnMap);
+      // write new value
+      if (newValue == null) {
+        table.cells.subMap(CellKeys.columnStart(row, column), CellKeys.columnEnd(row, column)).clear();
+      } else {
+        putLatest(table.cells, row, column, System.currentTimeMillis(), new PutValue(copy(newValue)));
       }
-      PutValue newPut = new PutValue(newValue);
-      columnMap.put(System.currentTimeMillis(), newPut);
+      return true;
+    } finally {
+      lock.unlock();
     }
-    return true;
   }
 
-  public static synchronized void undo(String tableName,
-                                       NavigableMap<byte[], NavigableMap<byte[], Update>> changes,
-                                       long version) {
+  public static void undo(String tableName, NavigableMap<byte[], NavigableMap<byte[], Update>> changes, long version) {
     // todo: handle nulls
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table = tables.get(tableName);
+    ConcurrentNavigableMap<byte[], Update> cells = tables.get(tableName).cells;
     for (Map.Entry<byte[], NavigableMap<byte[], Update>> change : changes.entrySet()) {
       byte[] row = change.getKey();
-      NavigableMap<byte[], NavigableMap<Long, Update>> rowMap = table.get(row);
-      if (rowMap != null) {
-        for (byte[] column : change.getValue().keySet()) {
-          NavigableMap<Long, Update> values = rowMap.get(column);
-          values.remove(version);
-        }
+      for (byte[] column : change.getValue().keySet()) {
+        cells.remove(CellKeys.encode(row, column, version));
       }
     }
   }
 
-  public static synchronized void delete(String tableName, Iterable<byte[]> rows) {
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table = tables.get(tableName);
+  public static void delete(String tableName, Iterable<byte[]> rows) {
+    ConcurrentNavigableMap<byte[], Update> cells = tables.get(tableName).cells;
     for (byte[] row : rows) {
-      table.remove(row);
+      cells.subMap(CellKeys.rowStart(row), CellKeys.rowEnd(row)).clear();
     }
   }
 
-  public static synchronized void deleteColumns(String tableName, byte[] row, byte[] column) {
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table = tables.get(tableName);
-    NavigableMap<byte[], NavigableMap<Long, Update>> columnValues = table.get(row);
-    columnValues.remove(column);
+  public static void deleteColumns(String tableName, byte[] row, byte[] column) {
+    ConcurrentNavigableMap<byte[], Update> cells = tables.get(tableName).cells;
+    cells.subMap(CellKeys.columnStart(row, column), CellKeys.columnEnd(row, column)).clear();
   }
 
-  public static synchronized void delete(String tableName, byte[] rowPrefix) {
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table = tables.get(tableName);
+  public static void delete(String tableName, byte[] rowPrefix) {
+    ConcurrentNavigableMap<byte[], Update> cells = tables.get(tableName).cells;
     if (rowPrefix.length == 0) {
-      table.clear();
+      cells.clear();
     } else {
       byte[] rowAfter = rowAfterPrefix(rowPrefix);
       if (rowAfter == null) {
-        table.tailMap(rowPrefix).clear();
+        cells.tailMap(CellKeys.rowStart(rowPrefix)).clear();
       } else {
-        table.subMap(rowPrefix, rowAfter).clear();
+        cells.subMap(CellKeys.rowStart(rowPrefix), CellKeys.rowStart(rowAfter)).clear();
       }
     }
   }
 
+  /**
+   * Returns the latest version of the given column, or {@code null} if the column does not exist.
+   */
+  @Nullable
+  private static Update getLatest(ConcurrentNavigableMap<byte[], Update> cells, byte[] row, byte[] column) {
+    byte[] columnStart = CellKeys.columnStart(row, column);
+    Map.Entry<byte[], Update> latest = cells.ceilingEntry(columnStart);
+    return latest == null || !CellKeys.isSameColumn(columnStart, latest.getKey()) ? null : latest.getValue();
+  }
+
+  /**
+   * Writes a version of the given column and removes all older versions, which it shadows.
+   */
+  private static void putLatest(ConcurrentNavigableMap<byte[], Update> cells, byte[] row, byte[] column,
+                                long version, Update update) {
+    byte[] key = CellKeys.encode(row, column, version);
+    cells.put(key, update);
+    cells.subMap(key, false, CellKeys.columnEnd(row, column), false).clear();
+  }
+
   /**
    * Given a key prefix, return the smallest key that is greater than all keys starting with that prefix.
    */
@@ -239,116 +231,139 @@ public class InMemoryTableService {
     return null;
   }
 
-  public static synchronized NavigableMap<byte[], NavigableMap<Long, byte[]>> get(String tableName,
-                                                                                  byte[] row,
-                                                                                  @Nullable Transaction tx) {
+  @Nullable
+  public static NavigableMap<byte[], NavigableMap<Long, byte[]>> get(String tableName,
+                                                                     byte[] row,
+                                                                     @Nullable Transaction tx) {
     // todo: handle nulls
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> table = tables.get(tableName);
+    TableData table = tables.get(tableName);
     Preconditions.checkArgument(table != null, "table not found: " + tableName);
-    NavigableMap<byte[], NavigableMap<Long, Update>> rowMap = table.get(row);
-    return deepCopy(Updates.rowToBytes(getVisible(rowMap, tx)));
+    NavigableMap<byte[], Update> rowCells = table.cells.subMap(CellKeys.rowStart(row), CellKeys.rowEnd(row));
+    if (rowCells.isEmpty()) {
+      return null;
+    }
+    NavigableMap<byte[], NavigableMap<Long, byte[]>> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    addVisible(table.cells, rowCells.entrySet().iterator(), tx, result);
+    return result;
   }
 
-  public static synchronized NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>>
-                             getRowRange(String tableName,
-                                         byte[] startRow,
-                                         byte[] stopRow,
-                                         @Nullable Transaction tx) {
+  public static NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>>
+                getRowRange(String tableName,
+                            byte[] startRow,
+                            byte[] stopRow,
+                            @Nullable Transaction tx) {
     // todo: handle nulls
-    ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> tableData = tables.get(tableName);
-    NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> rows;
+    ConcurrentNavigableMap<byte[], Update> cells = tables.get(tableName).cells;
+    NavigableMap<byte[], Update> rangeCells;
     if (startRow == null && stopRow == null) {
-      rows = tableData;
+      rangeCells = cells;
     } else if (startRow == null) {
-      rows = tableData.headMap(stopRow, false);
+      rangeCells = cells.headMap(CellKeys.rowStart(stopRow), false);
     } else if (stopRow == null) {
-      rows = tableData.tailMap(startRow, true);
+      rangeCells = cells.tailMap(CellKeys.rowStart(startRow), true);
     } else {
-      rows = tableData.subMap(startRow, true, stopRow, false);
+      rangeCells = cells.subMap(CellKeys.rowStart(startRow), true, CellKeys.rowStart(stopRow), false);
     }
 
     NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> result =
       Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-    for (Map.Entry<byte[], NavigableMap<byte[], NavigableMap<Long, Update>>> rowMap : rows.entrySet()) {
-      NavigableMap<byte[], NavigableMap<Long, Update>> columns =
-        tx == null ? rowMap.getValue() : getVisible(rowMap.getValue(), tx);
-      result.put(copy(rowMap.getKey()), deepCopy(Updates.rowToBytes(columns)));
+    PeekingIterator<Map.Entry<byte[], Update>> iterator = Iterators.peekingIterator(rangeCells.entrySet().iterator());
+    while (iterator.hasNext()) {
+      byte[] row = CellKeys.getRow(iterator.peek().getKey());
+      NavigableMap<byte[], NavigableMap<Long, byte[]>> columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      addVisible(cells, new RowIterator(iterator), tx, columns);
+      if (!columns.isEmpty()) {
+        result.put(row, columns);
+      }
     }
 
     return result;
   }
 
-  public static synchronized Collection<String> list() {
+  public static Collection<String> list() {
     return ImmutableList.copyOf(tables.keySet());
   }
 
-  private static NavigableMap<byte[], NavigableMap<Long, Update>> getVisible(
-    NavigableMap<byte[], NavigableMap<Long, Update>> rowMap, final Transaction tx) {
-
-    if (rowMap == null) {
-      return null;
-    }
-    NavigableMap<byte[], NavigableMap<Long, Update>> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-    for (Map.Entry<byte[], NavigableMap<Long, Update>> column : rowMap.entrySet()) {
-      SortedMap<Long, Update> visbleValues = column.getValue();
-      if (tx != null) {
-        visbleValues = Maps.filterKeys(visbleValues, new Predicate<Long>() {
-          @Override
-          public boolean apply(Long version) {
-            return tx.isVisible(version);
-          }
-        });
+  /**
+   * Adds copies of the visible versions of the given cells to the result, and removes versions that are not visible
+   * to any transaction anymore.
+   *
+   * @param cells all cells of the table
+   * @param rowCells cells of a single row, in key order
+   * @param tx the transaction to read with, or {@code null} to read all versions
+   * @param result map to add versions to, by column
+   */
+  private static void addVisible(ConcurrentNavigableMap<byte[], Update> cells,
+                                 Iterator<Map.Entry<byte[], Update>> rowCells, @Nullable Transaction tx,
+                                 NavigableMap<byte[], NavigableMap<Long, byte[]>> result) {
+    byte[] columnKey = null;
+    NavigableMap<Long, byte[]> versions = null;
+    boolean shadowed = false;
+    while (rowCells.hasNext()) {
+      Map.Entry<byte[], Update> cell = rowCells.next();
+      byte[] key = cell.getKey();
+      if (columnKey == null || !CellKeys.isSameColumn(columnKey, key)) {
+        columnKey = key;
+        versions = null;
+        shadowed = false;
+      }
+      long version = CellKeys.getVersion(key);
+      if (shadowed) {
+        // a newer version is visible to all transactions
+        cells.remove(key, cell.getValue());
+        continue;
+      }
+      if (tx != null && !tx.isVisible(version)) {
+        continue;
       }
-      if (visbleValues.size() > 0) {
-        NavigableMap<Long, Update> colMap = createVersionedValuesMap(visbleValues);
-        result.put(column.getKey(), colMap);
+      if (tx != null && version < tx.getVisibilityUpperBound()) {
+        shadowed = true;
       }
+      if (versions == null) {
+        versions = Maps.newTreeMap(VERSIONED_VALUE_MAP_COMPARATOR);
+        result.put(CellKeys.getColumn(key), versions);
+      }
+      versions.put(version, copy(cell.getValue().getBytes()));
     }
-    return result;
   }
 
-  private static NavigableMap<Long, Update> createVersionedValuesMap(SortedMap<Long, Update> copy) {
-    NavigableMap<Long, Update> map = Maps.newTreeMap(VERSIONED_VALUE_MAP_COMPARATOR);
-    map.putAll(copy);
-    return map;
-  }
+  /**
+   * Iterates over the cells of the next row of a cells iterator, leaving the cells of following rows unconsumed.
+   */
+  private static final class RowIterator extends AbstractIterator<Map.Entry<byte[], Update>> {
+    private final PeekingIterator<Map.Entry<byte[], Update>> cells;
+    private final byte[] firstKey;
 
-  private static SortedMap<byte[], SortedMap<byte[], Update>> deepCopyUpdates(
-    SortedMap<byte[], ? extends SortedMap<byte[], ? extends Update>> src) {
-
-    SortedMap<byte[], SortedMap<byte[], Update>> copy = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-    for (Map.Entry<byte[], ? extends SortedMap<byte[], ? extends Update>> entry : src.entrySet()) {
-      byte[] key = copy(entry.getKey());
-      SortedMap<byte[], Update> columnUpdates = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-      copy.put(key, columnUpdates);
-      for (Map.Entry<byte[], ? extends Update> updateEntry : entry.getValue().entrySet()) {
-        byte[] col = copy(updateEntry.getKey());
-        columnUpdates.put(col, updateEntry.getValue().deepCopy());
-      }
+    private RowIterator(PeekingIterator<Map.Entry<byte[], Update>> cells) {
+      this.cells = cells;
+      this.firstKey = cells.peek().getKey();
     }
 
-    return copy;
+    @Override
+    protected Map.Entry<byte[], Update> computeNext() {
+      if (cells.hasNext() && CellKeys.isSameRow(firstKey, cells.peek().getKey())) {
+        return cells.next();
+      }
+      return endOfData();
+    }
   }
 
-  @Nullable
-  private static NavigableMap<byte[], NavigableMap<Long, byte[]>> deepCopy(
-    @Nullable NavigableMap<byte[], NavigableMap<Long, byte[]>> src) {
-
-    if (src == null) {
-      return null;
-    }
+  /**
+   * The cells of a table, with the locks that guard read-modify-write operations on its rows.
+   */
+  private static final class TableData {
+    private final ConcurrentNavigableMap<byte[], Update> cells = new ConcurrentSkipListMap<>(CellKeys.COMPARATOR);
+    private final Lock[] rowLocks = new Lock[ROW_LOCK_STRIPES];
 
-    NavigableMap<byte[], NavigableMap<Long, byte[]>> copy = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-    for (Map.Entry<byte[], NavigableMap<Long, byte[]>> entry : src.entrySet()) {
-      byte[] key = copy(entry.getKey());
-      NavigableMap<Long, byte[]> columnValues = Maps.newTreeMap(VERSIONED_VALUE_MAP_COMPARATOR);
-      copy.put(key, columnValues);
-      for (Map.Entry<Long, byte[]> valueEntry : entry.getValue().entrySet()) {
-        columnValues.put(valueEntry.getKey(), copy(valueEntry.getValue()));
+    private TableData() {
+      for (int i = 0; i < rowLocks.length; i++) {
+        rowLocks[i] = new ReentrantLock();
       }
     }
 
-    return copy;
+    private Lock getRowLock(byte[] row) {
+      return rowLocks[(Bytes.hashCode(row) & Integer.MAX_VALUE) % rowLocks.length];
+    }
   }
 
   @Nullable
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2015 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -19,9 +19,11 @@ package co.cask.cdap.data2.dataset2.lib.table.leveldb;
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.dataset.DataSetException;
 import co.cask.cdap.api.dataset.DatasetContext;
+import co.cask.cdap.api.dataset.DatasetSpecification;
 import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsScanAggregation;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.PrefixedNamespaces;
 import com.google.common.base.Function;
@@ -57,9 +59,11 @@ public class LevelDBMetricsTable implements MetricsTable {
   private final LevelDBTableCore core;
 
   public LevelDBMetricsTable(DatasetContext datasetContext, String tableName,
-                             LevelDBTableService service, CConfiguration cConf) throws IOException {
-    this.core = new LevelDBTableCore(PrefixedNamespaces.namespace(cConf, datasetContext.getNamespaceId(), tableName),
-                                     service);
+                             LevelDBTableService service, CConfiguration cConf,
+                             DatasetSpecification spec) throws IOException {
+    String levelDBTableName = PrefixedNamespaces.namespace(cConf, datasetContext.getNamespaceId(), tableName);
+    service.setTableProperties(levelDBTableName, spec.getProperties());
+    this.core = new LevelDBTableCore(levelDBTableName, service);
     this.tableName = tableName;
   }
 
@@ -146,8 +150,15 @@ public class LevelDBMetricsTable implements MetricsTable {
   @Override
   public Scanner scan(@Nullable byte[] start, @Nullable byte[] stop,
                       @Nullable FuzzyRowFilter filter) {
+    return scan(start, stop, null, filter, null);
+  }
+
+  @Override
+  public Scanner scan(@Nullable byte[] start, @Nullable byte[] stop, @Nullable byte[][] columns,
+                      @Nullable FuzzyRowFilter filter, @Nullable MetricsScanAggregation aggregation) {
     try {
-      return core.scan(start, stop, filter, null, null);
+      Scanner scanner = core.scan(start, stop, filter, columns, null);
+      return aggregation == null ? scanner : aggregation.aggregate(scanner);
     } catch (IOException e) {
       throw new DataSetException("Scan failed on table " + tableName, e);
     }
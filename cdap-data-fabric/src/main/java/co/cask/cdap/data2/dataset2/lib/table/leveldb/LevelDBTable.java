@@ -52,6 +52,7 @@ public class LevelDBTable extends BufferingTable {
                       DatasetSpecification spec) throws IOException {
     super(PrefixedNamespaces.namespace(cConf, datasetContext.getNamespaceId(), tableName),
           false, spec.getProperties());
+    service.setTableProperties(getTableName(), spec.getProperties());
     this.core = new LevelDBTableCore(getTableName(), service);
   }
 
@@ -21,6 +21,7 @@ import co.cask.cdap.api.dataset.DatasetContext;
 import co.cask.cdap.api.dataset.DatasetSpecification;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.PrefixedNamespaces;
+import org.iq80.leveldb.CompressionType;
 
 import java.io.IOException;
 
@@ -29,6 +30,31 @@ import java.io.IOException;
  */
 public class LevelDBTableAdmin implements DatasetAdmin {
 
+  /**
+   * Table property for the block size in bytes of the LevelDB table.
+   */
+  public static final String PROPERTY_BLOCK_SIZE = "leveldb.block.size";
+
+  /**
+   * Table property for the size in bytes of the block cache of the LevelDB table.
+   */
+  public static final String PROPERTY_CACHE_SIZE = "leveldb.cache.size";
+
+  /**
+   * Table property for the size in bytes of the write buffer (memtable) of the LevelDB table.
+   */
+  public static final String PROPERTY_WRITE_BUFFER_SIZE = "leveldb.write.buffer.size";
+
+  /**
+   * Table property for the max number of files that the LevelDB table keeps open.
+   */
+  public static final String PROPERTY_MAX_OPEN_FILES = "leveldb.max.open.files";
+
+  /**
+   * Table property for the compression of the LevelDB table blocks, one of {@link CompressionType}.
+   */
+  public static final String PROPERTY_COMPRESSION = "leveldb.compression";
+
   private final LevelDBTableService service;
   private final String name;
 
@@ -36,6 +62,7 @@ public class LevelDBTableAdmin implements DatasetAdmin {
                            LevelDBTableService service, CConfiguration cConf) throws IOException {
     this.service = service;
     this.name = PrefixedNamespaces.namespace(cConf, datasetContext.getNamespaceId(), spec.getName());
+    service.setTableProperties(name, spec.getProperties());
   }
 
   @Override
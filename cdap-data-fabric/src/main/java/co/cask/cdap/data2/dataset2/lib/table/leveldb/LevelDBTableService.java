@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -22,6 +22,7 @@ import co.cask.cdap.data2.transaction.stream.leveldb.LevelDBNameConverter;
 import co.cask.cdap.data2.util.TableId;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -29,6 +30,7 @@ import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
 import org.iq80.leveldb.Options;
@@ -55,6 +57,11 @@ public class LevelDBTableService implements AutoCloseable {
 
   private static final Logger LOG = LoggerFactory.getLogger(LevelDBTableService.class);
 
+  private static final String LEVELDB_PROPERTY_PREFIX = "leveldb.";
+
+  // number of row lock stripes per table used for read-modify-write operations
+  private static final int ROW_LOCK_STRIPES = 1024;
+
   private int blockSize;
   private long cacheSize;
   private String basePath;
@@ -62,6 +69,8 @@ public class LevelDBTableService implements AutoCloseable {
   private boolean isClosed;
 
   private final ConcurrentMap<String, DB> tables = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, LevelDBTableWriter> writers = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, Map<String, String>> tableProperties = Maps.newConcurrentMap();
 
   /**
    * To avoid database locking issues make sure that the single LevelDBTableService instance
@@ -168,10 +177,90 @@ public class LevelDBTableService implements AutoCloseable {
     return size;
   }
 
+  /**
+   * Sets the dataset properties of a table. LevelDB options given in the properties (see the {@code PROPERTY_*}
+   * constants of {@link LevelDBTableAdmin}) override the global configuration when the table is created or opened.
+   * Only the options present in the properties are changed, since the properties may come from a dataset that only
+   * holds some of them. An option is reset to the global configuration by setting it to an empty value.
+   * Changes of the options only take effect the next time the table is opened.
+   */
+  public void setTableProperties(String tableName, Map<String, String> properties) {
+    final Map<String, String> options = Maps.filterKeys(properties, new Predicate<String>() {
+      @Override
+      public boolean apply(String key) {
+        return key.startsWith(LEVELDB_PROPERTY_PREFIX);
+      }
+    });
+    if (options.isEmpty()) {
+      return;
+    }
+    tableProperties.compute(tableName, (name, existing) -> {
+      Map<String, String> merged = existing == null ? Maps.<String, String>newHashMap() : Maps.newHashMap(existing);
+      for (Map.Entry<String, String> option : options.entrySet()) {
+        if (option.getValue() == null || option.getValue().isEmpty()) {
+          merged.remove(option.getKey());
+        } else {
+          merged.put(option.getKey(), option.getValue());
+        }
+      }
+      return merged.isEmpty() ? null : ImmutableMap.copyOf(merged);
+    });
+  }
+
+  @VisibleForTesting
+  Options createOptions(String tableName) {
+    Options options = new Options();
+    options.comparator(new KeyValueDBComparator());
+    options.blockSize(blockSize);
+    options.cacheSize(cacheSize);
+
+    Map<String, String> properties = tableProperties.get(tableName);
+    if (properties == null) {
+      return options;
+    }
+    String value = properties.get(LevelDBTableAdmin.PROPERTY_BLOCK_SIZE);
+    if (value != null) {
+      options.blockSize(Integer.parseInt(value));
+    }
+    value = properties.get(LevelDBTableAdmin.PROPERTY_CACHE_SIZE);
+    if (value != null) {
+      options.cacheSize(Long.parseLong(value));
+    }
+    value = properties.get(LevelDBTableAdmin.PROPERTY_WRITE_BUFFER_SIZE);
+    if (value != null) {
+      options.writeBufferSize(Integer.parseInt(value));
+    }
+    value = properties.get(LevelDBTableAdmin.PROPERTY_MAX_OPEN_FILES);
+    if (value != null) {
+      options.maxOpenFiles(Integer.parseInt(value));
+    }
+    value = properties.get(LevelDBTableAdmin.PROPERTY_COMPRESSION);
+    if (value != null) {
+      options.compressionType(CompressionType.valueOf(value.toUpperCase()));
+    }
+    return options;
+  }
+
   public WriteOptions getWriteOptions() {
     return writeOptions;
   }
 
+  /**
+   * Returns the {@link LevelDBTableWriter} that coordinates read-modify-write operations on the given table.
+   * The same instance is returned for all callers of the same table.
+   */
+  LevelDBTableWriter getTableWriter(String tableName) {
+    LevelDBTableWriter writer = writers.get(tableName);
+    if (writer == null) {
+      writer = new LevelDBTableWriter(this, tableName, ROW_LOCK_STRIPES);
+      LevelDBTableWriter existing = writers.putIfAbsent(tableName, writer);
+      if (existing != null) {
+        writer = existing;
+      }
+    }
+    return writer;
+  }
+
   public DB getTable(String tableName) throws IOException {
     ensureOpen();
     DB db = tables.get(tableName);
@@ -203,12 +292,9 @@ public class LevelDBTableService implements AutoCloseable {
   private DB openTable(String tableName) throws IOException {
     String dbPath = getDBPath(basePath, tableName);
 
-    Options options = new Options();
+    Options options = createOptions(tableName);
     options.createIfMissing(false);
     options.errorIfExists(false);
-    options.comparator(new KeyValueDBComparator());
-    options.blockSize(blockSize);
-    options.cacheSize(cacheSize);
 
     // unfortunately, with the java version of leveldb, with createIfMissing set to false, factory.open will
     // see that there is no table and throw an exception, but it wont clean up after itself and will leave a
@@ -226,12 +312,9 @@ public class LevelDBTableService implements AutoCloseable {
   private void createTable(String name) throws IOException {
     String dbPath = getDBPath(basePath, name);
 
-    Options options = new Options();
+    Options options = createOptions(name);
     options.createIfMissing(true);
     options.errorIfExists(false);
-    options.comparator(new KeyValueDBComparator());
-    options.blockSize(blockSize);
-    options.cacheSize(cacheSize);
 
     DB db = factory.open(new File(dbPath), options);
     tables.put(name, db);
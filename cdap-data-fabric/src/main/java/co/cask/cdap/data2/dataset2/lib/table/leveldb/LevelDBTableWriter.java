@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table.leveldb;
+
+import co.cask.cdap.api.common.Bytes;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.WriteBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates read-modify-write operations on a single LevelDB table. It is shared by all
+ * {@link LevelDBTableCore} instances of the same table through the {@link LevelDBTableService}.
+ * <p>
+ * It provides row-hash striped locks, so that read-modify-write operations on different rows can run concurrently,
+ * and group commit: writes that are submitted concurrently are combined into a single {@link WriteBatch}.
+ */
+final class LevelDBTableWriter {
+
+  private final LevelDBTableService service;
+  private final String tableName;
+  private final Lock[] rowLocks;
+  private final Lock commitLock;
+  private final Queue<PendingWrite> pendingWrites;
+
+  LevelDBTableWriter(LevelDBTableService service, String tableName, int lockStripes) {
+    this.service = service;
+    this.tableName = tableName;
+    this.rowLocks = new Lock[lockStripes];
+    for (int i = 0; i < lockStripes; i++) {
+      rowLocks[i] = new ReentrantLock();
+    }
+    this.commitLock = new ReentrantLock();
+    this.pendingWrites = new ConcurrentLinkedQueue<>();
+  }
+
+  /**
+   * @return the lock that guards read-modify-write operations on the given row
+   */
+  Lock getRowLock(byte[] row) {
+    return rowLocks[getStripe(row)];
+  }
+
+  /**
+   * Returns the locks that guard read-modify-write operations on the given rows. The locks are returned in a fixed
+   * global order and without duplicates, so that acquiring them in the returned order cannot deadlock.
+   */
+  List<Lock> getRowLocks(Collection<byte[]> rows) {
+    BitSet stripes = new BitSet(rowLocks.length);
+    for (byte[] row : rows) {
+      stripes.set(getStripe(row));
+    }
+    List<Lock> locks = new ArrayList<>(stripes.cardinality());
+    for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+      locks.add(rowLocks[i]);
+    }
+    return locks;
+  }
+
+  /**
+   * Writes the given key-values to the table. Writes submitted concurrently by other threads are committed together
+   * in a single {@link WriteBatch}. This method returns after the given key-values were written.
+   *
+   * @param keys encoded keys to write
+   * @param values values to write, one for each key
+   * @throws IOException if the write failed
+   */
+  void write(List<byte[]> keys, List<byte[]> values) throws IOException {
+    PendingWrite write = new PendingWrite(keys, values);
+    pendingWrites.add(write);
+    commitLock.lock();
+    try {
+      // a concurrent writer may have already committed this write together with its own
+      if (!write.completed) {
+        commitPending();
+      }
+    } finally {
+      commitLock.unlock();
+    }
+    if (write.failure != null) {
+      throw new IOException("Failed to write to LevelDB table " + tableName, write.failure);
+    }
+  }
+
+  private void commitPending() {
+    List<PendingWrite> writes = new ArrayList<>();
+    PendingWrite write;
+    while ((write = pendingWrites.poll()) != null) {
+      writes.add(write);
+    }
+    Throwable failure = null;
+    try {
+      DB db = service.getTable(tableName);
+      WriteBatch batch = db.createWriteBatch();
+      for (PendingWrite pending : writes) {
+        for (int i = 0; i < pending.keys.size(); i++) {
+          batch.put(pending.keys.get(i), pending.values.get(i));
+        }
+      }
+      db.write(batch, service.getWriteOptions());
+    } catch (Throwable t) {
+      failure = t;
+    }
+    for (PendingWrite pending : writes) {
+      pending.failure = failure;
+      pending.completed = true;
+    }
+  }
+
+  private int getStripe(byte[] row) {
+    return (Bytes.hashCode(row) & Integer.MAX_VALUE) % rowLocks.length;
+  }
+
+  /**
+   * A write waiting to be committed. Its state is guarded by the commit lock.
+   */
+  private static final class PendingWrite {
+    private final List<byte[]> keys;
+    private final List<byte[]> values;
+    private boolean completed;
+    private Throwable failure;
+
+    private PendingWrite(List<byte[]> keys, List<byte[]> values) {
+      this.keys = keys;
+      this.values = values;
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -16,17 +16,25 @@
 package co.cask.cdap.data2.dataset2.lib.timeseries;
 
 import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.metrics.MetricsCollector;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Multimap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 
@@ -44,6 +52,11 @@ import javax.annotation.Nullable;
  * <h5>Entity mapping rows</h5>
  * Each entity would have two rows. One is keyed by {@code [type].[entityName]} and have one "id" column which
  * stores the unique ID. The other is a reverse map from {@code [type].id} to entity name in "name" column.
+ *
+ * <h5>Caching</h5>
+ * Mappings in both directions are cached in memory. The caches are bounded by the approximate number of bytes
+ * used by the entries, since the number of distinct entities (e.g. run ids) can be unbounded.
+ * Cache misses access the table while holding the lock on it, so that an EntityTable can be shared by threads.
  */
 public final class EntityTable implements Closeable {
 
@@ -54,7 +67,11 @@ public final class EntityTable implements Closeable {
   private static final byte[] NAME = Bytes.toBytes("name");
   private static final byte[] DOT = { '.' };
   // max number of distinct values of entity of a single type
-  private static final long MAX_ID_COUNT = 0x1000000L;
+  public static final long MAX_ID_COUNT = 0x1000000L;
+  // default max number of bytes used by the caches
+  public static final long DEFAULT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+  // approximate number of bytes used by a cache entry other than the characters of type and name
+  private static final int CACHE_ENTRY_OVERHEAD = 128;
 
   private final MetricsTable table;
   private final LoadingCache<EntityName, Long> entityCache;
@@ -62,6 +79,9 @@ public final class EntityTable implements Closeable {
   private final long maxId;
   private final int size;
 
+  private MetricsCollector metrics;
+  private CacheStats reportedStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
 
   /**
    * Creates an EntityTable with max id = 16777215.
@@ -73,22 +93,61 @@ public final class EntityTable implements Closeable {
   }
 
   /**
-   * Creates an EntityTable backed by the given {@link MetricsTable}.
+   * Creates an EntityTable backed by the given {@link MetricsTable}, with caches bounded by
+   * {@link #DEFAULT_CACHE_MAX_BYTES}.
    *
    * @param table The storage table
    * @param maxId Maximum ID (exclusive) that can be generated.
    */
   EntityTable(MetricsTable table, long maxId) {
+    this(table, maxId, DEFAULT_CACHE_MAX_BYTES);
+  }
+
+  /**
+   * Creates an EntityTable backed by the given {@link MetricsTable}.
+   *
+   * @param table The storage table
+   * @param maxId Maximum ID (exclusive) that can be generated.
+   * @param maxCacheBytes Maximum approximate number of bytes used by the caches, shared evenly by the name to id
+   *                      and the id to name caches.
+   */
+  public EntityTable(MetricsTable table, long maxId, long maxCacheBytes) {
     Preconditions.checkArgument(table != null, "Table cannot be null.");
     Preconditions.checkArgument(maxId > 0, "maxId must be > 0.");
+    Preconditions.checkArgument(maxCacheBytes > 0, "maxCacheBytes must be > 0.");
 
     this.table = table;
-    this.entityCache = CacheBuilder.newBuilder().build(createEntityCacheLoader());
-    this.idCache = CacheBuilder.newBuilder().build(createIdCacheLoader());
+    this.entityCache = CacheBuilder.newBuilder()
+      .maximumWeight(maxCacheBytes / 2)
+      .weigher(new Weigher<EntityName, Long>() {
+        @Override
+        public int weigh(EntityName key, Long value) {
+          return key.getWeight();
+        }
+      })
+      .recordStats()
+      .build(createEntityCacheLoader());
+    this.idCache = CacheBuilder.newBuilder()
+      .maximumWeight(maxCacheBytes / 2)
+      .weigher(new Weigher<EntityId, EntityName>() {
+        @Override
+        public int weigh(EntityId key, EntityName value) {
+          return value.getWeight();
+        }
+      })
+      .recordStats()
+      .build(createIdCacheLoader());
     this.maxId = maxId;
     this.size = computeSize(maxId);
   }
 
+  /**
+   * Sets {@link MetricsCollector} for reporting cache metrics.
+   */
+  public void setMetricsCollector(MetricsCollector metrics) {
+    this.metrics = metrics;
+  }
+
   /**
    * Returns an unique id for the given name.
    * @param name The {@link EntityName} to lookup. Can be {@code null}, which is treated as a normal value.
@@ -120,6 +179,106 @@ public final class EntityTable implements Closeable {
     }
   }
 
+  /**
+   * Assigns ids to the given entities that are not known yet, which is equivalent to calling
+   * {@link #getId(String, String)} for each of them. Instead of incrementing the id generator for each new entity,
+   * a range of ids is reserved for all new entities of a type with a single increment.
+   *
+   * @param entities a {@link Multimap} from entity type to entity names
+   */
+  public void assignIds(Multimap<String, String> entities) {
+    for (Map.Entry<String, Collection<String>> entry : entities.asMap().entrySet()) {
+      String type = entry.getKey();
+
+      // Find the entities that are neither in the cache nor in the table
+      List<EntityName> newEntities = new ArrayList<>();
+      synchronized (table) {
+        for (String name : entry.getValue()) {
+          EntityName key = new EntityName(type, name);
+          if (entityCache.getIfPresent(key) != null) {
+            continue;
+          }
+          byte[] result = table.get(Bytes.toBytes(type + '.' + name), ID);
+          if (result == null) {
+            newEntities.add(key);
+          } else {
+            entityCache.put(key, Bytes.toLong(result));
+          }
+        }
+
+        if (newEntities.size() > 1) {
+          newEntities = assignIds(type, newEntities);
+        }
+      }
+
+      // Entities that didn't get an id from a reserved range go through the normal path.
+      // It must be called without holding the table lock, since it may wait for a concurrent load of the same entity.
+      for (EntityName key : newEntities) {
+        entityCache.getUnchecked(key);
+      }
+    }
+    reportCacheMetrics();
+  }
+
+  /**
+   * Assigns ids to new entities of the given type from a reserved range of ids.
+   *
+   * @return the entities that are not assigned with an id
+   */
+  private List<EntityName> assignIds(String type, List<EntityName> newEntities) {
+    byte[] maxIdRowKey = Bytes.toBytes(type + ".maxId");
+    long lastId = table.incrementAndGet(maxIdRowKey, MAX_ID, newEntities.size());
+    long newId = lastId - newEntities.size() + 1;
+
+    int idx = 0;
+    for (; idx < newEntities.size() && newId < maxId; idx++, newId++) {
+      EntityName key = newEntities.get(idx);
+      entityCache.put(key, saveMapping(key, newId));
+    }
+
+    if (lastId >= maxId) {
+      // Reached max id. Start from 1 again, same as the id recycling when generating ids one by one.
+      // The entities that are left get their ids from the reset id generator.
+      resetMaxId(maxIdRowKey, 0L);
+    }
+    return newEntities.subList(idx, newEntities.size());
+  }
+
+  /**
+   * Resets the id generator of an entity type to the given id, unless it was reset concurrently.
+   *
+   * @return {@code true} if the id generator was reset by this call, {@code false} if it was already below max id
+   */
+  private boolean resetMaxId(byte[] maxIdRowKey, long id) {
+    while (true) {
+      // Other writers may increment the id generator past max id while it is being reset, hence compare and swap
+      // with the current value until the swap succeeds or another writer has reset it
+      byte[] current = table.get(maxIdRowKey, MAX_ID);
+      if (current == null || Bytes.toLong(current) < maxId) {
+        return false;
+      }
+      if (table.swap(maxIdRowKey, MAX_ID, current, Bytes.toBytes(id))) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Reports the cache hit, miss and eviction counts since last reported through the {@link MetricsCollector}.
+   */
+  public synchronized void reportCacheMetrics() {
+    if (metrics == null) {
+      return;
+    }
+    CacheStats stats = entityCache.stats().plus(idCache.stats());
+    CacheStats delta = stats.minus(reportedStats);
+    reportedStats = stats;
+
+    metrics.increment("entity.cache.hit.count", delta.hitCount());
+    metrics.increment("entity.cache.miss.count", delta.missCount());
+    metrics.increment("entity.cache.eviction.count", delta.evictionCount());
+  }
+
   /**
    * Returns number of bytes for ID represented by this table.
    */
@@ -131,61 +290,82 @@ public final class EntityTable implements Closeable {
     return new CacheLoader<EntityName, Long>() {
       @Override
       public Long load(EntityName key) throws Exception {
-        byte[] rowKey = Bytes.toBytes(key.getType() + '.' + key.getName());
+        synchronized (table) {
+          return loadId(key);
+        }
+      }
+    };
+  }
 
-        byte[] result = table.get(rowKey, ID);
+  /**
+   * Gets the id of the given entity from the table, or generates a new id if it is not found.
+   * It must be called while holding the lock on the table.
+   */
+  private long loadId(EntityName key) {
+    byte[] rowKey = Bytes.toBytes(key.getType() + '.' + key.getName());
 
-        // Found, return it
-        if (result != null) {
-          return Bytes.toLong(result);
-        }
+    byte[] result = table.get(rowKey, ID);
 
-        // Not found, generate a new ID
-        byte[] maxIdRowKey = Bytes.toBytes(key.getType() + ".maxId");
-        long newId = table.incrementAndGet(maxIdRowKey, MAX_ID, 1L);
-
-        /* we recycle the id's after reaching max-id to let the id's start from 1 again.
-        this most likely won't happen for any entity other than run-id,
-        Even for run-id - its okay to recycle, as we would have truncated the old data when we reach 16777215 runs,
-        as our max TTL is 30 days currently. The reasoning is the likelihood for running 16777215 programs
-        under 30 days is low. For mapping the id -> name , we use (id % maxId) */
-        if (newId % maxId == 0) {
-          newId = 1L;
-          table.swap(maxIdRowKey, MAX_ID, Bytes.toBytes(maxId), Bytes.toBytes(newId));
-        }
+    // Found, return it
+    if (result != null) {
+      return Bytes.toLong(result);
+    }
 
-        if (key.getName() == null || key.getName().isEmpty()) {
-          LOG.warn("Adding mapping for " + (key.getName() == null ? "null" : "empty") + " name, " +
-                     " with type " + key.getType() + ", new id is " + newId);
-        }
+    // Not found, generate a new ID
+    byte[] maxIdRowKey = Bytes.toBytes(key.getType() + ".maxId");
+    long newId = table.incrementAndGet(maxIdRowKey, MAX_ID, 1L);
+
+    /* we recycle the id's after reaching max-id to let the id's start from 1 again.
+    this most likely won't happen for any entity other than run-id,
+    Even for run-id - its okay to recycle, as we would have truncated the old data when we reach 16777215 runs,
+    as our max TTL is 30 days currently. The reasoning is the likelihood for running 16777215 programs
+    under 30 days is low. For mapping the id -> name , we use (id % maxId) */
+    while (newId >= maxId) {
+      // The id generator can be past max id if other writers incremented it or reserved a range of ids,
+      // in which case either this call resets it, or it was reset by another writer and the next id is taken
+      newId = resetMaxId(maxIdRowKey, 1L) ? 1L : table.incrementAndGet(maxIdRowKey, MAX_ID, 1L);
+    }
 
-        // Save the mapping
-        if (table.swap(rowKey, ID, null, Bytes.toBytes(newId))) {
-          // Save the reverse mapping from r.type.id => name as well
-          rowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(newId));
-
-          // It is wrong to have forward mapping set when reverse mapping failed to set, always try to overwrite it.
-          byte[] oldName = null;
-          while (!table.swap(rowKey, NAME, oldName, Bytes.toBytes(key.getName()))) {
-            result = table.get(rowKey, NAME);
-            if (result == null) {
-              throw new IllegalStateException("Fail to set reverse mapping from id to name.");
-            }
-            oldName = result;
-          }
+    return saveMapping(key, newId);
+  }
 
-          return newId;
-        }
+  /**
+   * Saves the mapping between the given entity and the newly generated id.
+   *
+   * @return the id of the entity, which can be different than the given one if the mapping was added concurrently
+   */
+  private long saveMapping(EntityName key, long newId) {
+    if (key.getName() == null || key.getName().isEmpty()) {
+      LOG.warn("Adding mapping for " + (key.getName() == null ? "null" : "empty") + " name, " +
+                 " with type " + key.getType() + ", new id is " + newId);
+    }
 
-        // Get the value if CAS failed.
-        result = table.get(rowKey, ID);
+    // Save the mapping
+    byte[] rowKey = Bytes.toBytes(key.getType() + '.' + key.getName());
+    if (table.swap(rowKey, ID, null, Bytes.toBytes(newId))) {
+      // Save the reverse mapping from r.type.id => name as well
+      byte[] reverseRowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(newId));
 
+      // It is wrong to have forward mapping set when reverse mapping failed to set, always try to overwrite it.
+      byte[] oldName = null;
+      while (!table.swap(reverseRowKey, NAME, oldName, Bytes.toBytes(key.getName()))) {
+        byte[] result = table.get(reverseRowKey, NAME);
         if (result == null) {
-          throw new IllegalStateException("ID not found for " + key);
+          throw new IllegalStateException("Fail to set reverse mapping from id to name.");
         }
-        return Bytes.toLong(result);
+        oldName = result;
       }
-    };
+
+      return newId;
+    }
+
+    // Get the value if CAS failed.
+    byte[] result = table.get(rowKey, ID);
+
+    if (result == null) {
+      throw new IllegalStateException("ID not found for " + key);
+    }
+    return Bytes.toLong(result);
   }
 
   private CacheLoader<EntityId, EntityName> createIdCacheLoader() {
@@ -194,7 +374,10 @@ public final class EntityTable implements Closeable {
       public EntityName load(EntityId key) throws Exception {
         // Lookup the reverse mapping
         byte[] rowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(key.getId()));
-        byte[] result = table.get(rowKey, NAME);
+        byte[] result;
+        synchronized (table) {
+          result = table.get(rowKey, NAME);
+        }
         if (result == null) {
           throw new IllegalArgumentException("Entity name not found for type " + key.getType() + ", id " + key.getId());
         }
@@ -247,6 +430,13 @@ public final class EntityTable implements Closeable {
       return name;
     }
 
+    /**
+     * Returns the approximate number of bytes used by this entity name in the cache.
+     */
+    int getWeight() {
+      return (type.length() + name.length()) * 2 + CACHE_ENTRY_OVERHEAD;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) {
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.timeseries;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Defines how the facts of a {@link FactScan} are aggregated by the underlying table before they are returned.
+ * Facts of the same measure that have the same values of the group by dimensions are combined into one fact,
+ * and the values of each time interval of the given resolution are combined into one value.
+ */
+public final class FactAggregation {
+  private final Set<String> groupByDimensions;
+  private final AggregationFunction function;
+  private final int resolution;
+
+  /**
+   * @param groupByDimensions names of the dimensions that are kept, all other dimensions are returned as null
+   * @param function the function to combine values with
+   * @param resolution the resolution of the result in seconds, which must be a multiple of the resolution
+   *                   of the {@link FactTable}
+   */
+  public FactAggregation(Collection<String> groupByDimensions, AggregationFunction function, int resolution) {
+    this.groupByDimensions = ImmutableSet.copyOf(groupByDimensions);
+    this.function = function;
+    this.resolution = resolution;
+  }
+
+  public Set<String> getGroupByDimensions() {
+    return groupByDimensions;
+  }
+
+  public AggregationFunction getFunction() {
+    return function;
+  }
+
+  public int getResolution() {
+    return resolution;
+  }
+}
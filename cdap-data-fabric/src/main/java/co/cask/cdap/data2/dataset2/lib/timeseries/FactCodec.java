@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Cask Data, Inc.
+ * Copyright 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -18,14 +18,19 @@ package co.cask.cdap.data2.dataset2.lib.timeseries;
 
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
+import co.cask.cdap.api.dataset.lib.cube.Measurement;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
@@ -96,6 +101,27 @@ public class FactCodec {
     return createRowKey(dimensionValues, measureName, ts, true, anyAggGroup);
   }
 
+  /**
+   * Assigns ids in the entity table for all the entities used in the row keys of the given facts, so that
+   * new entities are added to the entity table in batch rather than one by one while building row keys.
+   * @param facts the facts to be written
+   */
+  public void assignEntityIds(Collection<Fact> facts) {
+    Multimap<String, String> entities = HashMultimap.create();
+    for (Fact fact : facts) {
+      entities.put(TYPE_DIMENSIONS_GROUP, getAggGroup(fact.getDimensionValues()));
+      for (DimensionValue dimensionValue : fact.getDimensionValues()) {
+        if (dimensionValue.getValue() != null) {
+          entities.put(dimensionValue.getName(), dimensionValue.getValue());
+        }
+      }
+      for (Measurement measurement : fact.getMeasurements()) {
+        entities.put(TYPE_MEASURE_NAME, measurement.getName());
+      }
+    }
+    entityTable.assignIds(entities);
+  }
+
   /**
    * for the given measureName return the id from entity table
    * @param measureName
@@ -219,6 +245,34 @@ public class FactCodec {
     return mask;
   }
 
+  /**
+   * Creates a mask of the row key bytes that are not part of the group when rows are grouped by the given dimensions.
+   * The mask has the same format as the one created by {@link #createFuzzyRowMask(List, String)}: the encoded values
+   * of the dimensions that are not grouped by are set to 1, while the aggregation group, the time base, the grouped
+   * dimension values and the measure name are kept.
+   * @param dimensionValues dimension values of the aggregation, in row key order
+   * @param groupByDimensions names of the dimensions to group by
+   * @return group mask byte array
+   */
+  public byte[] createGroupMask(List<DimensionValue> dimensionValues, Set<String> groupByDimensions) {
+    // See createRowKey for row format info
+    byte[] mask = new byte[VERSION.length + (dimensionValues.size() + 2) * entityTable.getIdSize() + Bytes.SIZEOF_INT];
+    int offset = writeVersion(mask);
+    offset = writeEncodedFixedMask(mask, offset);
+    offset += Bytes.SIZEOF_INT;
+
+    for (DimensionValue dimensionValue : dimensionValues) {
+      if (groupByDimensions.contains(dimensionValue.getName())) {
+        offset = writeEncodedFixedMask(mask, offset);
+      } else {
+        offset = writeEncodedFuzzyMask(mask, offset);
+      }
+    }
+
+    writeEncodedFixedMask(mask, offset);
+    return mask;
+  }
+
   public byte[] createColumn(long ts) {
     long timestamp = roundToResolution(ts);
     int timeBase = getTimeBase(timestamp);
@@ -291,13 +345,16 @@ public class FactCodec {
   }
 
   private int writeEncodedAggGroup(List<DimensionValue> dimensionValues, byte[] rowKey, int offset) {
+    return writeEncoded(TYPE_DIMENSIONS_GROUP, getAggGroup(dimensionValues), rowKey, offset);
+  }
+
+  private String getAggGroup(List<DimensionValue> dimensionValues) {
     // aggregation group is defined by list of dimension names
     StringBuilder sb = new StringBuilder();
     for (DimensionValue dimensionValue : dimensionValues) {
       sb.append(dimensionValue.getName()).append(".");
     }
-
-    return writeEncoded(TYPE_DIMENSIONS_GROUP, sb.toString(), rowKey, offset);
+    return sb.toString();
   }
 
   /**
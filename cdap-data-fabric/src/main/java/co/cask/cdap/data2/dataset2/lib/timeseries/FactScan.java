@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Cask Data, Inc.
+ * Copyright 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableList;
 
 import java.util.Collection;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Defines a scan over facts in a {@link FactTable}.
@@ -33,12 +34,23 @@ public final class FactScan {
   private final Collection<String> measureNames;
   private final long startTs;
   private final long endTs;
+  @Nullable
+  private final FactAggregation aggregation;
 
   public FactScan(long startTs, long endTs, Collection<String> measureNames, List<DimensionValue> dimensionValues) {
+    this(startTs, endTs, measureNames, dimensionValues, null);
+  }
+
+  /**
+   * Creates a scan whose facts are aggregated by the underlying table if an aggregation is given.
+   */
+  public FactScan(long startTs, long endTs, Collection<String> measureNames, List<DimensionValue> dimensionValues,
+                  @Nullable FactAggregation aggregation) {
     this.endTs = endTs;
     this.startTs = startTs;
     this.measureNames = measureNames;
     this.dimensionValues = ImmutableList.copyOf(dimensionValues);
+    this.aggregation = aggregation;
   }
 
   public FactScan(long startTs, long endTs, String measureName, List<DimensionValue> dimensionValues) {
@@ -65,4 +77,9 @@ public final class FactScan {
   public long getEndTs() {
     return endTs;
   }
+
+  @Nullable
+  public FactAggregation getAggregation() {
+    return aggregation;
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -44,6 +44,7 @@ public final class FactScanner implements Iterator<FactScanResult> {
 
   // Track the number of row scanned through the iterator. It's for reporting and debugging purpose.
   private int rowScanned;
+  private boolean closed;
 
   // Use an internal iterator to avoid leaking AbstractIterator methods to outside.
   private final Iterator<FactScanResult> internalIterator;
@@ -64,7 +65,11 @@ public final class FactScanner implements Iterator<FactScanResult> {
   }
 
   public void close() {
-    scanner.close();
+    // The scanner is closed when reaching the end, hence only close it if it hasn't been closed
+    if (!closed) {
+      closed = true;
+      scanner.close();
+    }
   }
 
   public int getRowScanned() {
@@ -133,7 +138,7 @@ public final class FactScanner implements Iterator<FactScanResult> {
           return new FactScanResult(measureName, dimensionValues, timeValues);
         }
 
-        scanner.close();
+        close();
         return endOfData();
       }
     };
@@ -24,6 +24,7 @@ import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.api.metrics.MetricsCollector;
 import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsScanAggregation;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
@@ -37,7 +38,6 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -109,12 +109,15 @@ public final class FactTable implements Closeable {
 
   public void setMetricsCollector(MetricsCollector metrics) {
     this.metrics = metrics;
+    entityTable.setMetricsCollector(metrics);
   }
 
   public void add(List<Fact> facts) {
     // Simply collecting all rows/cols/values that need to be put to the underlying table.
     NavigableMap<byte[], NavigableMap<byte[], byte[]>> gaugesTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     NavigableMap<byte[], NavigableMap<byte[], byte[]>> incrementsTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    // Assign ids to new entities in batch before building row keys
+    codec.assignEntityIds(facts);
     for (Fact fact : facts) {
       for (Measurement measurement : fact.getMeasurements()) {
         byte[] rowKey = codec.createRowKey(fact.getDimensionValues(), measurement.getName(), fact.getTimestamp());
@@ -156,10 +159,68 @@ public final class FactTable implements Closeable {
     }
   }
 
+  /**
+   * Scans the facts of the given {@link FactScan}. If the scan has a {@link FactAggregation}, the facts are aggregated
+   * by the underlying table, and each returned value covers an interval of the aggregation resolution. In that case,
+   * the values of all intervals that overlap with the scan time range are returned.
+   */
   public FactScanner scan(FactScan scan) {
+    entityTable.reportCacheMetrics();
+    FactAggregation aggregation = scan.getAggregation();
+    if (aggregation != null && aggregation.getResolution() != resolution) {
+      int aggregationResolution = aggregation.getResolution();
+      Preconditions.checkArgument(isSupportedResolution(aggregationResolution),
+                                  "Facts of resolution %s cannot be aggregated to resolution %s",
+                                  resolution, aggregationResolution);
+      long startTs = scan.getStartTs() / aggregationResolution * aggregationResolution;
+      long endTs = scan.getEndTs() / aggregationResolution * aggregationResolution + aggregationResolution - 1;
+      scan = new FactScan(startTs, endTs, scan.getMeasureNames(), scan.getDimensionValues(), aggregation);
+    }
     return new FactScanner(getScanner(scan), codec, scan.getStartTs(), scan.getEndTs(), scan.getMeasureNames());
   }
 
+  /**
+   * Returns whether the facts of this table can be aggregated to the given resolution by a {@link FactAggregation}.
+   * That is the case if the resolution is a multiple of the resolution of this table, and the intervals of the
+   * resolution do not span multiple time bases.
+   */
+  public boolean isSupportedResolution(int resolution) {
+    return resolution == this.resolution || (resolution % this.resolution == 0 && rollTime % resolution == 0);
+  }
+
+  /**
+   * Splits the given scan into at most {@code maxSplits} scans over consecutive time ranges. Since the time base
+   * comes right after the aggregation group in the row key, each split covers a separate key range of the
+   * aggregation group, and the splits can be scanned independently.
+   *
+   * @param scan the scan to split
+   * @param maxSplits maximum number of splits
+   * @return a list of scans that together cover the same facts as the given scan
+   */
+  public List<FactScan> splitScan(FactScan scan, int maxSplits) {
+    // Each row covers rollTime seconds starting from a time base
+    long startTimeBase = scan.getStartTs() / resolution * resolution / rollTime * rollTime;
+    long endTimeBase = scan.getEndTs() / resolution * resolution / rollTime * rollTime;
+    long rows = (endTimeBase - startTimeBase) / rollTime + 1;
+    if (maxSplits <= 1 || rows <= 1) {
+      return Collections.singletonList(scan);
+    }
+
+    long rowsPerSplit = (rows + maxSplits - 1) / maxSplits;
+    List<FactScan> splits = new ArrayList<>();
+    long startTs = scan.getStartTs();
+    long splitStart = startTimeBase + rowsPerSplit * rollTime;
+    while (splitStart <= endTimeBase) {
+      splits.add(new FactScan(startTs, splitStart - 1, scan.getMeasureNames(), scan.getDimensionValues(),
+                              scan.getAggregation()));
+      startTs = splitStart;
+      splitStart += rowsPerSplit * rollTime;
+    }
+    splits.add(new FactScan(startTs, scan.getEndTs(), scan.getMeasureNames(), scan.getDimensionValues(),
+                            scan.getAggregation()));
+    return splits;
+  }
+
   private List<String> getSortedMeasures(Collection<String> measures) {
     Map<String, Long> measureToEntityMap = new HashMap<>();
     List<String> measureNames = new ArrayList<>();
@@ -184,10 +245,12 @@ public final class FactTable implements Closeable {
     byte[] endRow = codec.createEndRowKey(scan.getDimensionValues(),
                                           measureNames.isEmpty() ? null : measureNames.get(measureNames.size() - 1),
                                           scan.getEndTs(), false);
-    byte[][] columns;
-    if (Arrays.equals(startRow, endRow)) {
-      // If on the same timebase, we only need subset of columns
-      long timeBase = scan.getStartTs() / rollTime * rollTime;
+    byte[][] columns = null;
+    long timeBase = scan.getStartTs() / resolution * resolution / rollTime * rollTime;
+    if (timeBase == scan.getEndTs() / resolution * resolution / rollTime * rollTime) {
+      // If on the same timebase, we only need subset of columns. Since the timebase comes right after the
+      // aggregation group in the row key, all rows in the scan range are of the same timebase, and the columns can be
+      // selected by the table near the data.
       int startCol = (int) (scan.getStartTs() - timeBase) / resolution;
       int endCol = (int) (scan.getEndTs() - timeBase) / resolution;
       columns = new byte[endCol - startCol + 1][];
@@ -205,7 +268,15 @@ public final class FactTable implements Closeable {
                 endRow == null ? null : Bytes.toHexString(endRow), fuzzyRowFilter);
     }
 
-    return timeSeriesTable.scan(startRow, endRow, fuzzyRowFilter);
+    MetricsScanAggregation aggregation = null;
+    if (scan.getAggregation() != null) {
+      // The table combines the rows of the same measure and grouped dimension values within a time base
+      aggregation = new MetricsScanAggregation(
+        scan.getAggregation().getFunction(),
+        codec.createGroupMask(scan.getDimensionValues(), scan.getAggregation().getGroupByDimensions()),
+        scan.getAggregation().getResolution() / resolution);
+    }
+    return timeSeriesTable.scan(startRow, endRow, columns, fuzzyRowFilter, aggregation);
   }
 
   /**
@@ -213,6 +284,7 @@ public final class FactTable implements Closeable {
    * @param scan specifies deletion criteria
    */
   public void delete(FactScan scan) {
+    Preconditions.checkArgument(scan.getAggregation() == null, "Aggregated facts cannot be deleted");
     try (Scanner scanner = getScanner(scan)) {
       Row row;
       while ((row = scanner.next()) != null) {
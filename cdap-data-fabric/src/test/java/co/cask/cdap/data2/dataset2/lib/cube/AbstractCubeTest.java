@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Cask Data, Inc.
+ * Copyright 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -213,6 +213,57 @@ public abstract class AbstractCubeTest {
 
   }
 
+  @Test
+  public void testDownsampling() throws Exception {
+    Aggregation agg = new DefaultAggregation(ImmutableList.of("dim1", "dim2"));
+
+    int res1 = 1;
+    int res100 = 100;
+    Cube cube = getCube("myDownsampledCube", new int[] {res1, res100}, ImmutableMap.of("agg", agg));
+
+    writeInc(cube, "metric1",  1,  1,  "1",  "1");
+    writeInc(cube, "metric1",  1,  2,  "2",  "1");
+    writeInc(cube, "metric1",  1,  3,  "1",  "2");
+    writeInc(cube, "metric1",  1,  5,  "1",  "2");
+    writeInc(cube, "metric1", 10, 6, "1", "1");
+    writeInc(cube, "metric1", 101, 7, "1", "1");
+
+    // resolution of 10 seconds is aggregated from the 1 second resolution, grouped by dim1
+    verifyCountQuery(cube, "agg", 0, 150, 10, "metric1", AggregationFunction.SUM,
+                     new HashMap<String, String>(), ImmutableList.of("dim1"),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", dimensionValues("dim1", "1"), timeValues(0, 9, 10, 6, 100, 7)),
+                       new TimeSeries("metric1", dimensionValues("dim1", "2"), timeValues(0, 2))));
+
+    verifyCountQuery(cube, "agg", 0, 150, 10, "metric1", AggregationFunction.MAX,
+                     new HashMap<String, String>(), ImmutableList.of("dim2"),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", dimensionValues("dim2", "1"), timeValues(0, 2, 10, 6, 100, 7)),
+                       new TimeSeries("metric1", dimensionValues("dim2", "2"), timeValues(0, 8))));
+
+    // an interval that overlaps with the start of the time range is included
+    verifyCountQuery(cube, "agg", 5, 150, 10, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), new ArrayList<String>(),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", new HashMap<String, String>(), timeValues(0, 9, 10, 6, 100, 7))));
+
+    // resolution of 300 seconds is aggregated from the 100 seconds resolution
+    verifyCountQuery(cube, "agg", 0, 150, 300, "metric1", AggregationFunction.SUM,
+                     new HashMap<String, String>(), ImmutableList.of("dim1"),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", dimensionValues("dim1", "1"), timeValues(0, 22)),
+                       new TimeSeries("metric1", dimensionValues("dim1", "2"), timeValues(0, 2))));
+
+    // intervals of 7 seconds would span multiple rows
+    try {
+      verifyCountQuery(cube, "agg", 0, 150, 7, "metric1", AggregationFunction.SUM,
+                       new HashMap<String, String>(), new ArrayList<String>(), ImmutableList.<TimeSeries>of());
+      Assert.fail("Expected query of an unsupported resolution to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
   @Test
   public void testGauges() throws Exception {
     Aggregation agg1 = new DefaultAggregation(ImmutableList.of("dim1"));
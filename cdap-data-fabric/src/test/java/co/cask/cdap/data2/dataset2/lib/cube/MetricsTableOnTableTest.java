@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Cask Data, Inc.
+ * Copyright 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -21,6 +21,7 @@ import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.api.dataset.table.Table;
 import co.cask.cdap.data2.dataset2.DatasetFrameworkTestUtil;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsScanAggregation;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTableTest;
 import co.cask.cdap.proto.id.DatasetId;
@@ -164,6 +165,17 @@ public class MetricsTableOnTableTest extends MetricsTableTest {
       });
     }
 
+    @Override
+    public Scanner scan(@Nullable final byte[] start, @Nullable final byte[] stop, @Nullable final byte[][] columns,
+                        @Nullable final FuzzyRowFilter filter, @Nullable final MetricsScanAggregation aggregation) {
+      return txnl.executeUnchecked(new Callable<Scanner>() {
+        @Override
+        public Scanner call() {
+          return delegate.scan(start, stop, columns, filter, aggregation);
+        }
+      });
+    }
+
     @Override
     public void close() throws IOException {
       delegate.close();
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2017 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -33,6 +33,7 @@ import org.apache.tephra.TransactionAware;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -193,6 +194,135 @@ public abstract class BufferingTableTest<T extends BufferingTable> extends Table
     }
   }
 
+  /**
+   * Tests that writes moved to the off-heap buffer are merged with in-memory writes for reads, scans and commit.
+   */
+  @Test
+  public void testOffHeapBuffering() throws Exception {
+    testOffHeapBuffering(DatasetProperties.builder()
+                           .add(BufferingTable.PROPERTY_OFF_HEAP_BUFFER_THRESHOLD, "2")
+                           .build());
+  }
+
+  /**
+   * Tests that writes spilled to disk are merged with in-memory writes for reads, scans and commit.
+   */
+  @Test
+  public void testSpillingBuffer() throws Exception {
+    // every time the in-memory buffer is moved off-heap, it will be spilled to disk
+    testOffHeapBuffering(DatasetProperties.builder()
+                           .add(BufferingTable.PROPERTY_OFF_HEAP_BUFFER_THRESHOLD, "2")
+                           .add(BufferingTable.PROPERTY_BUFFER_MEMORY_LIMIT, "1")
+                           .build());
+  }
+
+  /**
+   * Tests that changes are kept in the in-memory buffer, and not counted twice, if they cannot be spilled to disk.
+   */
+  @Test
+  public void testSpillFailure() throws Exception {
+    // a file cannot be used as the spill directory, so every spill fails
+    File spillDir = File.createTempFile("spill", ".dir");
+    DatasetProperties props = DatasetProperties.builder()
+      .add(BufferingTable.PROPERTY_OFF_HEAP_BUFFER_THRESHOLD, "2")
+      .add(BufferingTable.PROPERTY_BUFFER_MEMORY_LIMIT, "1")
+      .add(BufferingTable.PROPERTY_BUFFER_SPILL_DIR, spillDir.getAbsolutePath())
+      .build();
+    String testSpillFailure = "testSpillFailure";
+    DatasetAdmin admin = getTableAdmin(CONTEXT1, testSpillFailure, props);
+    admin.create();
+    try {
+      Transaction tx1 = txClient.startShort();
+      Table table1 = getTable(CONTEXT1, testSpillFailure, props);
+      ((TransactionAware) table1).startTx(tx1);
+
+      // every second cell written fails to be spilled
+      table1.put(R1, a(C1), a(V1));
+      table1.increment(R4, a(C1), new long[] {1L});
+      table1.increment(R4, a(C1), new long[] {2L});
+      table1.put(R2, a(C1), a(V2));
+      TableAssert.assertRow(a(C1, L3), table1.get(R4, a(C1)));
+      TableAssert.assertScan(a(R1, R2, R4),
+                             aa(a(C1, V1),
+                                a(C1, V2),
+                                a(C1, L3)),
+                             table1.scan(null, null));
+
+      txClient.canCommitOrThrow(tx1, ((TransactionAware) table1).getTxChanges());
+      Assert.assertTrue(((TransactionAware) table1).commitTx());
+      txClient.commitOrThrow(tx1);
+      ((TransactionAware) table1).postTxCommit();
+
+      Transaction tx2 = txClient.startShort();
+      ((TransactionAware) table1).startTx(tx2);
+      TableAssert.assertScan(a(R1, R2, R4),
+                             aa(a(C1, V1),
+                                a(C1, V2),
+                                a(C1, L3)),
+                             table1.scan(null, null));
+      txClient.commitOrThrow(tx2);
+    } finally {
+      admin.drop();
+      Assert.assertTrue(spillDir.delete());
+    }
+  }
+
+  private void testOffHeapBuffering(DatasetProperties props) throws Exception {
+    String testOffHeapBuffering = "testOffHeapBuffering";
+    DatasetAdmin admin = getTableAdmin(CONTEXT1, testOffHeapBuffering, props);
+    admin.create();
+    try {
+      Transaction tx1 = txClient.startShort();
+      Table table1 = getTable(CONTEXT1, testOffHeapBuffering, props);
+      ((TransactionAware) table1).startTx(tx1);
+
+      // every second cell written moves the in-memory buffer off-heap
+      table1.put(R1, a(C1), a(V1));
+      table1.put(R2, a(C1), a(V1));
+      table1.put(R3, a(C1), a(V1));
+      table1.put(R1, a(C1, C2), a(V2, V2));
+      table1.delete(R2, a(C1));
+      table1.put(R4, a(C1), a(L1));
+      table1.increment(R4, a(C1), new long[] {2L});
+
+      // written values should not yet be persisted
+      TableAssert.assertScan(new byte[0][], new byte[0][][],
+                             ((BufferingTable) table1).scanPersisted(new Scan(null, null)));
+
+      // latest buffered values should be visible in gets and scans
+      TableAssert.assertRow(a(C1, V2, C2, V2), table1.get(R1));
+      TableAssert.assertRow(a(), table1.get(R2, a(C1)));
+      TableAssert.assertRow(a(C1, L3), table1.get(R4, a(C1)));
+      TableAssert.assertScan(a(R1, R3, R4),
+                             aa(a(C1, V2, C2, V2),
+                                a(C1, V1),
+                                a(C1, L3)),
+                             table1.scan(null, null));
+      TableAssert.assertScan(a(R3),
+                             aa(a(C1, V1)),
+                             table1.scan(R2, R4));
+
+      Assert.assertEquals(4, ((TransactionAware) table1).getTxChanges().size());
+      txClient.canCommitOrThrow(tx1, ((TransactionAware) table1).getTxChanges());
+      Assert.assertTrue(((TransactionAware) table1).commitTx());
+      txClient.commitOrThrow(tx1);
+      ((TransactionAware) table1).postTxCommit();
+
+      Transaction tx2 = txClient.startShort();
+      ((TransactionAware) table1).startTx(tx2);
+
+      // all values should be visible after commit
+      TableAssert.assertScan(a(R1, R3, R4),
+                             aa(a(C1, V2, C2, V2),
+                                a(C1, V1),
+                                a(C1, L3)),
+                             table1.scan(null, null));
+      txClient.commitOrThrow(tx2);
+    } finally {
+      admin.drop();
+    }
+  }
+
   @Test
   public void testChangingParamsAndReturnValues() throws Exception {
     // The test verifies that one can re-use byte arrays passed as parameters to write methods of a table without
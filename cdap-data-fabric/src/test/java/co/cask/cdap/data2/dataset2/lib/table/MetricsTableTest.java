@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2015 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -17,6 +17,7 @@
 package co.cask.cdap.data2.dataset2.lib.table;
 
 import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
 import co.cask.cdap.api.dataset.table.Row;
 import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.common.utils.ImmutablePair;
@@ -322,6 +323,101 @@ public abstract class MetricsTableTest {
     Assert.assertEquals(9, count);
   }
 
+  @Test
+  public void testColumnsScan() throws Exception {
+    MetricsTable table = getTable("testColumnsScan");
+    NavigableMap<byte[], SortedMap<byte[], Long>> writes = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    writes.put(A, ImmutableSortedMap.<byte[], Long>orderedBy(Bytes.BYTES_COMPARATOR)
+      .put(P, 1L).put(Q, 2L).put(R, 3L).build());
+    writes.put(B, ImmutableSortedMap.<byte[], Long>orderedBy(Bytes.BYTES_COMPARATOR)
+      .put(Q, 4L).build());
+    writes.put(C, ImmutableSortedMap.<byte[], Long>orderedBy(Bytes.BYTES_COMPARATOR)
+      .put(R, 5L).build());
+    table.put(writes);
+
+    // only the selected columns are returned, and rows without any of them are skipped
+    Scanner scanner = table.scan(null, null, new byte[][] { P, Q }, null, null);
+    try {
+      Row row = scanner.next();
+      Assert.assertNotNull(row);
+      Assert.assertArrayEquals(A, row.getRow());
+      Assert.assertEquals(2, row.getColumns().size());
+      Assert.assertEquals(1L, Bytes.toLong(row.get(P)));
+      Assert.assertEquals(2L, Bytes.toLong(row.get(Q)));
+
+      row = scanner.next();
+      Assert.assertNotNull(row);
+      Assert.assertArrayEquals(B, row.getRow());
+      Assert.assertEquals(1, row.getColumns().size());
+      Assert.assertEquals(4L, Bytes.toLong(row.get(Q)));
+
+      Assert.assertNull(scanner.next());
+    } finally {
+      scanner.close();
+    }
+  }
+
+  @Test
+  public void testAggregatedScan() throws Exception {
+    MetricsTable table = getTable("testAggregatedScan");
+    byte[] col0 = Bytes.toBytes((short) 0);
+    byte[] col1 = Bytes.toBytes((short) 1);
+    byte[] col2 = Bytes.toBytes((short) 2);
+    byte[] col3 = Bytes.toBytes((short) 3);
+    NavigableMap<byte[], SortedMap<byte[], Long>> writes = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    writes.put(new byte[] { 1, 1, 1 }, ImmutableSortedMap.<byte[], Long>orderedBy(Bytes.BYTES_COMPARATOR)
+      .put(col0, 1L).put(col1, 2L).put(col2, 3L).build());
+    writes.put(new byte[] { 1, 2, 1 }, ImmutableSortedMap.<byte[], Long>orderedBy(Bytes.BYTES_COMPARATOR)
+      .put(col0, 10L).put(col3, 20L).build());
+    writes.put(new byte[] { 2, 1, 1 }, ImmutableSortedMap.<byte[], Long>orderedBy(Bytes.BYTES_COMPARATOR)
+      .put(col1, 5L).build());
+    table.put(writes);
+
+    // rows are grouped by the first and the last byte, and every two columns are combined into one
+    byte[] groupMask = new byte[] { 0, 1, 0 };
+    Map<AggregationFunction, long[]> expected = ImmutableMap.of(AggregationFunction.SUM, new long[] { 13L, 23L, 5L },
+                                                                AggregationFunction.MAX, new long[] { 10L, 20L, 5L },
+                                                                AggregationFunction.MIN, new long[] { 1L, 3L, 5L },
+                                                                AggregationFunction.LATEST, new long[] { 2L, 20L, 5L });
+    for (Map.Entry<AggregationFunction, long[]> entry : expected.entrySet()) {
+      MetricsScanAggregation aggregation = new MetricsScanAggregation(entry.getKey(), groupMask, 2);
+      try (Scanner scanner = table.scan(null, null, null, null, aggregation)) {
+        Row row = scanner.next();
+        Assert.assertNotNull(row);
+        Assert.assertArrayEquals(new byte[] { 1, 0, 1 }, row.getRow());
+        Assert.assertEquals(2, row.getColumns().size());
+        Assert.assertEquals(entry.getValue()[0], Bytes.toLong(row.get(col0)));
+        Assert.assertEquals(entry.getValue()[1], Bytes.toLong(row.get(col2)));
+
+        row = scanner.next();
+        Assert.assertNotNull(row);
+        Assert.assertArrayEquals(new byte[] { 2, 0, 1 }, row.getRow());
+        Assert.assertEquals(1, row.getColumns().size());
+        Assert.assertEquals(entry.getValue()[2], Bytes.toLong(row.get(col0)));
+
+        Assert.assertNull(scanner.next());
+      }
+    }
+
+    // columns are selected before the rows are combined
+    MetricsScanAggregation aggregation = new MetricsScanAggregation(AggregationFunction.SUM, groupMask, 2);
+    try (Scanner scanner = table.scan(null, null, new byte[][] { col0 }, null, aggregation)) {
+      Row row = scanner.next();
+      Assert.assertNotNull(row);
+      Assert.assertEquals(ImmutableMap.of(0L, 11L), toLongs(row.getColumns()));
+      row = scanner.next();
+      Assert.assertNull(row);
+    }
+  }
+
+  private Map<Long, Long> toLongs(Map<byte[], byte[]> columns) {
+    Map<Long, Long> result = new TreeMap<>();
+    for (Map.Entry<byte[], byte[]> column : columns.entrySet()) {
+      result.put((long) Bytes.toShort(column.getKey()), Bytes.toLong(column.getValue()));
+    }
+    return result;
+  }
+
   protected  <T> SortedMap<byte[], T> mapOf(byte[] key, T value) {
     SortedMap<byte[], T> map = new TreeMap<>(Bytes.BYTES_COMPARATOR);
     map.put(key, value);
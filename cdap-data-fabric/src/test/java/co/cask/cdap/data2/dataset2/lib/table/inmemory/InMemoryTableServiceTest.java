@@ -19,17 +19,31 @@ package co.cask.cdap.data2.dataset2.lib.table.inmemory;
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.data2.dataset2.lib.table.PutValue;
 import co.cask.cdap.data2.dataset2.lib.table.Update;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import org.apache.tephra.Transaction;
 import org.junit.Assert;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
  */
 public class InMemoryTableServiceTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InMemoryTableServiceTest.class);
+
   @Test
   public void testInternalsNotLeaking() {
     // Test that there's no way to break the state of InMemoryTableService by changing parameters of update
@@ -97,6 +111,105 @@ public class InMemoryTableServiceTest {
     verify123();
   }
 
+  @Test
+  public void testShadowedVersionsRemoved() {
+    InMemoryTableService.create("versionsTable");
+    byte[] row = Bytes.toBytes("row");
+    byte[] column = Bytes.toBytes("column");
+    for (long version = 1; version <= 3; version++) {
+      NavigableMap<byte[], NavigableMap<byte[], Update>> updates = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      NavigableMap<byte[], Update> rowUpdate = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      rowUpdate.put(column, new PutValue(Bytes.toBytes(version)));
+      updates.put(row, rowUpdate);
+      InMemoryTableService.merge("versionsTable", updates, version);
+    }
+    try {
+      // all versions are kept until they are read transactionally
+      Assert.assertEquals(3, InMemoryTableService.get("versionsTable", row, null).get(column).size());
+
+      // version 3 is invalid, hence version 2 is visible to all transactions and shadows version 1
+      Transaction tx = new Transaction(10L, 11L, new long[] {3L}, new long[0], Transaction.NO_TX_IN_PROGRESS);
+      NavigableMap<Long, byte[]> visible = InMemoryTableService.get("versionsTable", row, tx).get(column);
+      Assert.assertEquals(1, visible.size());
+      Assert.assertArrayEquals(Bytes.toBytes(2L), visible.get(2L));
+
+      NavigableMap<Long, byte[]> remaining = InMemoryTableService.get("versionsTable", row, null).get(column);
+      Assert.assertEquals(ImmutableList.of(3L, 2L), ImmutableList.copyOf(remaining.keySet()));
+    } finally {
+      InMemoryTableService.drop("versionsTable");
+    }
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    // Compares the throughput of concurrent writers against writers serialized by a global lock,
+    // which is how the service used to guard all operations. Both must yield the same data.
+    int threads = 8;
+    int opsPerThread = 2000;
+    long unlocked = runConcurrentWrites("concurrentTable", threads, opsPerThread, null);
+    long locked = runConcurrentWrites("lockedTable", threads, opsPerThread, new Object());
+    LOG.info("{} threads performed {} writes each in {} ms without global lock and in {} ms with global lock",
+             threads, opsPerThread, unlocked, locked);
+  }
+
+  /**
+   * Runs merges to distinct rows and increments of a shared row from multiple threads and verifies the result.
+   *
+   * @return the time in milliseconds it took to perform all writes
+   */
+  private long runConcurrentWrites(final String tableName, int threads, final int opsPerThread,
+                                   final Object globalLock) throws Exception {
+    InMemoryTableService.create(tableName);
+    final byte[] counterRow = Bytes.toBytes("counter");
+    final byte[] column = Bytes.toBytes("c");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      long startTime = System.nanoTime();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = 0; i < opsPerThread; i++) {
+              NavigableMap<byte[], NavigableMap<byte[], Update>> updates = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+              NavigableMap<byte[], Update> rowUpdate = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+              rowUpdate.put(column, new PutValue(Bytes.toBytes(i)));
+              updates.put(Bytes.toBytes("row" + thread + "_" + i), rowUpdate);
+              Map<byte[], Long> increments = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+              increments.put(column, 1L);
+              if (globalLock == null) {
+                InMemoryTableService.merge(tableName, updates, 1L);
+                InMemoryTableService.increment(tableName, counterRow, increments);
+              } else {
+                synchronized (globalLock) {
+                  InMemoryTableService.merge(tableName, updates, 1L);
+                  InMemoryTableService.increment(tableName, counterRow, increments);
+                }
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+      NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> rows =
+        InMemoryTableService.getRowRange(tableName, null, null, null);
+      // one row per merge plus the counter row
+      Assert.assertEquals(threads * opsPerThread + 1, rows.size());
+      NavigableMap<Long, byte[]> counter = rows.get(counterRow).get(column);
+      Assert.assertEquals((long) threads * opsPerThread, Bytes.toLong(counter.firstEntry().getValue()));
+      return elapsed;
+    } finally {
+      executor.shutdownNow();
+      InMemoryTableService.drop(tableName);
+    }
+  }
+
   private void verify123() {
     NavigableMap<byte[], NavigableMap<Long, byte[]>> rowFromGet =
       InMemoryTableService.get("table", new byte[]{1}, new Transaction(1L, 2L, new long[0], new long[0], 1L));
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2016 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -29,22 +29,36 @@ import co.cask.cdap.data2.util.TableId;
 import co.cask.cdap.security.auth.context.AuthenticationContextModules;
 import co.cask.cdap.security.authorization.AuthorizationEnforcementModule;
 import co.cask.cdap.security.authorization.AuthorizationTestModule;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.Options;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
  *
  */
 public class LevelDBTableServiceTest {
+  private static final Logger LOG = LoggerFactory.getLogger(LevelDBTableServiceTest.class);
+
   @ClassRule
   public static TemporaryFolder tmpFolder = new TemporaryFolder();
 
@@ -112,6 +126,93 @@ public class LevelDBTableServiceTest {
     Assert.assertEquals(table2Size, service.getTableStats().get(tableId2).getDiskSizeBytes());
   }
 
+  @Test
+  public void testTableOptions() throws Exception {
+    String tableName = "cdap_default.tableOptions";
+    service.setTableProperties(tableName, ImmutableMap.of(LevelDBTableAdmin.PROPERTY_CACHE_SIZE, "1048576",
+                                                          LevelDBTableAdmin.PROPERTY_WRITE_BUFFER_SIZE, "65536",
+                                                          LevelDBTableAdmin.PROPERTY_MAX_OPEN_FILES, "50",
+                                                          LevelDBTableAdmin.PROPERTY_COMPRESSION, "none",
+                                                          "other.property", "value"));
+    Options options = service.createOptions(tableName);
+    Assert.assertEquals(1048576L, options.cacheSize());
+    Assert.assertEquals(65536, options.writeBufferSize());
+    Assert.assertEquals(50, options.maxOpenFiles());
+    Assert.assertEquals(CompressionType.NONE, options.compressionType());
+    // options that are not set should come from the global configuration
+    Assert.assertEquals(Constants.DEFAULT_DATA_LEVELDB_BLOCKSIZE, options.blockSize());
+    Assert.assertEquals(Constants.DEFAULT_DATA_LEVELDB_CACHESIZE,
+                        service.createOptions("cdap_default.otherTable").cacheSize());
+
+    // properties without options keep the options, and only the given options are changed or reset
+    service.setTableProperties(tableName, ImmutableMap.of("other.property", "value"));
+    Assert.assertEquals(1048576L, service.createOptions(tableName).cacheSize());
+    service.setTableProperties(tableName, ImmutableMap.of(LevelDBTableAdmin.PROPERTY_CACHE_SIZE, "",
+                                                          LevelDBTableAdmin.PROPERTY_MAX_OPEN_FILES, "60"));
+    options = service.createOptions(tableName);
+    Assert.assertEquals(Constants.DEFAULT_DATA_LEVELDB_CACHESIZE, options.cacheSize());
+    Assert.assertEquals(65536, options.writeBufferSize());
+    Assert.assertEquals(60, options.maxOpenFiles());
+
+    // table should be usable with the options
+    service.ensureTableExists(tableName);
+    writeSome(tableName);
+    service.dropTable(tableName);
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    String tableName = "cdap_default.concurrentIncrements";
+    service.ensureTableExists(tableName);
+    final LevelDBTableCore table = new LevelDBTableCore(tableName, service);
+    final byte[] column = Bytes.toBytes("c");
+    final int incrementsPerThread = 2000;
+    final int rowsPerThread = 16;
+
+    // each run increments a shared row and rows owned by each thread, report throughput as number of threads grows
+    for (int threads = 1; threads <= 8; threads *= 2) {
+      final byte[] sharedRow = Bytes.toBytes("shared" + threads);
+      final int numThreads = threads;
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      List<Future<?>> futures = new ArrayList<>();
+      long startTime = System.nanoTime();
+      for (int t = 0; t < numThreads; t++) {
+        final int threadId = t;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = 0; i < incrementsPerThread; i++) {
+              byte[] row = Bytes.toBytes("row" + numThreads + "." + threadId + "." + (i % rowsPerThread));
+              table.increment(row, Collections.singletonMap(column, 1L));
+              if (i % 10 == 0) {
+                table.increment(sharedRow, Collections.singletonMap(column, 1L));
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      long elapsedNanos = System.nanoTime() - startTime;
+      executor.shutdown();
+      LOG.info("{} threads: {} increments/sec", numThreads,
+               numThreads * (incrementsPerThread + incrementsPerThread / 10) * TimeUnit.SECONDS.toNanos(1)
+                 / elapsedNanos);
+
+      for (int t = 0; t < numThreads; t++) {
+        for (int r = 0; r < rowsPerThread; r++) {
+          byte[] row = Bytes.toBytes("row" + numThreads + "." + t + "." + r);
+          byte[] value = table.getRow(row, new byte[][] { column }, null, null, -1, null).get(column);
+          Assert.assertEquals(incrementsPerThread / rowsPerThread, Bytes.toLong(value));
+        }
+      }
+      byte[] value = table.getRow(sharedRow, new byte[][] { column }, null, null, -1, null).get(column);
+      Assert.assertEquals(numThreads * incrementsPerThread / 10, Bytes.toLong(value));
+    }
+  }
+
   private void writeSome(String tableName) throws IOException {
     LevelDBTableCore table = new LevelDBTableCore(tableName, service);
     Random r = new Random();
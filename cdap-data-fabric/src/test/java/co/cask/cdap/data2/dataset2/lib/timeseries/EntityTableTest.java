@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -15,9 +15,12 @@
  */
 package co.cask.cdap.data2.dataset2.lib.timeseries;
 
+import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -91,4 +94,105 @@ public class EntityTableTest {
       Assert.assertEquals("app" + i, entityTable.getName(i, "app"));
     }
   }
+
+  @Test
+  public void testAssignIds() throws Exception {
+    InMemoryTableService.create("testAssignIds");
+    MetricsTable table = new InMemoryMetricsTable("testAssignIds");
+
+    EntityTable entityTable = new EntityTable(table);
+    Assert.assertEquals(1L, entityTable.getId("app", "app1"));
+
+    // Assign ids in batch, including an existing one
+    Multimap<String, String> entities = LinkedHashMultimap.create();
+    for (int i = 1; i <= 10; i++) {
+      entities.put("app", "app" + i);
+      entities.put("flow", "flow" + i);
+    }
+    entityTable.assignIds(entities);
+
+    // Construct another entityTable, so that it is loaded from storage
+    entityTable = new EntityTable(table);
+    for (int i = 1; i <= 10; i++) {
+      Assert.assertEquals((long) i, entityTable.getId("app", "app" + i));
+      Assert.assertEquals("app" + i, entityTable.getName(i, "app"));
+      Assert.assertEquals((long) i, entityTable.getId("flow", "flow" + i));
+      Assert.assertEquals("flow" + i, entityTable.getName(i, "flow"));
+    }
+
+    // New ids continue after the batch
+    Assert.assertEquals(11L, entityTable.getId("app", "app11"));
+  }
+
+  @Test
+  public void testAssignIdsRecycle() throws Exception {
+    InMemoryTableService.create("testAssignIdsRecycle");
+    MetricsTable table = new InMemoryMetricsTable("testAssignIdsRecycle");
+
+    EntityTable entityTable = new EntityTable(table, 101);
+
+    // Assign 500 entities in batches of 30, ids are recycled after reaching max id
+    for (int batch = 0; batch < 500 / 30 + 1; batch++) {
+      Multimap<String, String> entities = LinkedHashMultimap.create();
+      for (int i = batch * 30 + 1; i <= Math.min(500, (batch + 1) * 30); i++) {
+        entities.put("app", "app" + i);
+      }
+      entityTable.assignIds(entities);
+    }
+
+    // All ids are within range and map back to the entity name
+    entityTable = new EntityTable(table, 101);
+    for (int i = 401; i <= 500; i++) {
+      long id = entityTable.getId("app", "app" + i);
+      Assert.assertTrue(id > 0 && id < 101);
+      Assert.assertEquals("app" + i, entityTable.getName(id, "app"));
+    }
+  }
+
+  @Test
+  public void testRecyclePastMaxId() throws Exception {
+    InMemoryTableService.create("testRecyclePastMaxId");
+    MetricsTable table = new InMemoryMetricsTable("testRecyclePastMaxId");
+
+    EntityTable entityTable = new EntityTable(table, 101);
+    for (int i = 1; i <= 98; i++) {
+      Assert.assertEquals((long) i, entityTable.getId("app", "app" + i));
+    }
+
+    // Another writer increments the id generator past max id without resetting it
+    table.incrementAndGet(Bytes.toBytes("app.maxId"), Bytes.toBytes("maxId"), 5L);
+
+    // Ids are recycled from 1 again, both one by one and in batch
+    Assert.assertEquals(1L, entityTable.getId("app", "app99"));
+    Assert.assertEquals(2L, entityTable.getId("app", "app100"));
+
+    table.incrementAndGet(Bytes.toBytes("app.maxId"), Bytes.toBytes("maxId"), 200L);
+    Multimap<String, String> entities = LinkedHashMultimap.create();
+    for (int i = 101; i <= 105; i++) {
+      entities.put("app", "app" + i);
+    }
+    entityTable.assignIds(entities);
+    for (int i = 101; i <= 105; i++) {
+      Assert.assertEquals((long) i - 100, entityTable.getId("app", "app" + i));
+      Assert.assertEquals("app" + i, entityTable.getName(i - 100, "app"));
+    }
+  }
+
+  @Test
+  public void testBoundedCache() throws Exception {
+    InMemoryTableService.create("testBoundedCache");
+    MetricsTable table = new InMemoryMetricsTable("testBoundedCache");
+
+    // Cache that can only hold a few entries
+    EntityTable entityTable = new EntityTable(table, 0x1000000L, 4096);
+    for (int i = 1; i <= 1000; i++) {
+      Assert.assertEquals((long) i, entityTable.getId("run", "run" + i));
+    }
+
+    // Evicted entries are loaded from the table again
+    for (int i = 1; i <= 1000; i++) {
+      Assert.assertEquals((long) i, entityTable.getId("run", "run" + i));
+      Assert.assertEquals("run" + i, entityTable.getName(i, "run"));
+    }
+  }
 }
@@ -0,0 +1,581 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.format.io;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.data.schema.SchemaHash;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.common.io.Decoder;
+import co.cask.cdap.common.io.Encoder;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * Binary encoder and decoder of {@link StructuredRecord} specialized for one record {@link Schema}.
+ *
+ * The schema is walked once when the codec is created, producing a tree of codecs with the field codecs and union
+ * branches resolved up front, so that encoding and decoding a record does not inspect the schema, and accesses
+ * the record fields by position.
+ * The binary format is the same as the one of {@link StructuredRecordDatumWriter} and
+ * {@link StructuredRecordDatumReader}. Codecs are cached by schema hash and are thread safe.
+ *
+ * Maps are written in their iteration order, unless the codec is obtained with {@link #canonical(Schema)}.
+ */
+public final class StructuredRecordCodec {
+
+  private static final Cache<SchemaHash, StructuredRecordCodec> CODECS = CacheBuilder.newBuilder()
+    .maximumSize(1000)
+    .build();
+  private static final Cache<SchemaHash, StructuredRecordCodec> CANONICAL_CODECS = CacheBuilder.newBuilder()
+    .maximumSize(1000)
+    .build();
+
+  private final RecordCodec recordCodec;
+
+  /**
+   * Returns the codec for the given record schema.
+   *
+   * @throws IllegalArgumentException if the schema is not a record schema
+   */
+  public static StructuredRecordCodec of(Schema schema) {
+    return getCodec(CODECS, schema, false);
+  }
+
+  /**
+   * Returns the codec for the given record schema that writes the entries of maps ordered by their encoded keys,
+   * so that equal records are always encoded to the same bytes. Records are decoded the same way as with the codec
+   * returned by {@link #of(Schema)}.
+   *
+   * @throws IllegalArgumentException if the schema is not a record schema
+   */
+  public static StructuredRecordCodec canonical(Schema schema) {
+    return getCodec(CANONICAL_CODECS, schema, true);
+  }
+
+  private static StructuredRecordCodec getCodec(Cache<SchemaHash, StructuredRecordCodec> codecs,
+                                                final Schema schema, final boolean sortMaps) {
+    if (schema.getType() != Schema.Type.RECORD) {
+      throw new IllegalArgumentException("Expected schema of type RECORD. Got: " + schema.getType());
+    }
+    try {
+      return codecs.get(schema.getSchemaHash(), new Callable<StructuredRecordCodec>() {
+        @Override
+        public StructuredRecordCodec call() {
+          return new StructuredRecordCodec(schema, sortMaps);
+        }
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private StructuredRecordCodec(Schema schema, boolean sortMaps) {
+    this.recordCodec = (RecordCodec) createCodec(schema, new HashMap<String, RecordCodec>(), sortMaps);
+  }
+
+  /**
+   * Encodes a record of the schema of this codec.
+   */
+  public void encode(StructuredRecord record, Encoder encoder) throws IOException {
+    recordCodec.encode(encoder, record);
+  }
+
+  /**
+   * Decodes a record of the schema of this codec.
+   */
+  public StructuredRecord decode(Decoder decoder) throws IOException {
+    return recordCodec.decode(decoder);
+  }
+
+  /**
+   * Creates the codec of a schema.
+   *
+   * @param schema the schema
+   * @param records codecs of the enclosing records by record name, for resolving recursive records
+   * @param sortMaps whether map entries are written ordered by their encoded keys
+   */
+  private static ValueCodec createCodec(Schema schema, Map<String, RecordCodec> records, boolean sortMaps) {
+    switch (schema.getType()) {
+      case NULL:
+        return PrimitiveCodec.NULL;
+      case BOOLEAN:
+        return PrimitiveCodec.BOOLEAN;
+      case INT:
+        return PrimitiveCodec.INT;
+      case LONG:
+        return PrimitiveCodec.LONG;
+      case FLOAT:
+        return PrimitiveCodec.FLOAT;
+      case DOUBLE:
+        return PrimitiveCodec.DOUBLE;
+      case BYTES:
+        return PrimitiveCodec.BYTES;
+      case STRING:
+        return PrimitiveCodec.STRING;
+      case ENUM:
+        return new EnumCodec(schema);
+      case ARRAY:
+        return new ArrayCodec(createCodec(schema.getComponentSchema(), records, sortMaps));
+      case MAP:
+        Map.Entry<Schema, Schema> mapSchema = schema.getMapSchema();
+        return new MapCodec(createCodec(mapSchema.getKey(), records, sortMaps),
+                            createCodec(mapSchema.getValue(), records, sortMaps), sortMaps);
+      case RECORD:
+        RecordCodec recordCodec = records.get(schema.getRecordName());
+        if (recordCodec == null) {
+          recordCodec = new RecordCodec(schema);
+          // Register before creating field codecs, so that recursive references resolve to this codec
+          records.put(schema.getRecordName(), recordCodec);
+          recordCodec.init(records, sortMaps);
+        }
+        return recordCodec;
+      case UNION:
+        List<ValueCodec> codecs = new ArrayList<>();
+        for (Schema unionSchema : schema.getUnionSchemas()) {
+          codecs.add(createCodec(unionSchema, records, sortMaps));
+        }
+        return new UnionCodec(schema, codecs);
+    }
+    throw new IllegalArgumentException("Unsupported schema: " + schema);
+  }
+
+  /**
+   * Encodes and decodes values of one schema.
+   */
+  private interface ValueCodec {
+
+    void encode(Encoder encoder, @Nullable Object value) throws IOException;
+
+    Object decode(Decoder decoder) throws IOException;
+  }
+
+  /**
+   * Codecs of the simple types.
+   */
+  private enum PrimitiveCodec implements ValueCodec {
+    NULL {
+      @Override
+      public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+        encoder.writeNull();
+      }
+
+      @Override
+      public Object decode(Decoder decoder) throws IOException {
+        decoder.readNull();
+        return null;
+      }
+    },
+    BOOLEAN {
+      @Override
+      public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+        encoder.writeBool((Boolean) value);
+      }
+
+      @Override
+      public Object decode(Decoder decoder) throws IOException {
+        return decoder.readBool();
+      }
+    },
+    INT {
+      @Override
+      public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+        encoder.writeInt((Integer) value);
+      }
+
+      @Override
+      public Object decode(Decoder decoder) throws IOException {
+        return decoder.readInt();
+      }
+    },
+    LONG {
+      @Override
+      public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+        encoder.writeLong((Long) value);
+      }
+
+      @Override
+      public Object decode(Decoder decoder) throws IOException {
+        return decoder.readLong();
+      }
+    },
+    FLOAT {
+      @Override
+      public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+        encoder.writeFloat((Float) value);
+      }
+
+      @Override
+      public Object decode(Decoder decoder) throws IOException {
+        return decoder.readFloat();
+      }
+    },
+    DOUBLE {
+      @Override
+      public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+        encoder.writeDouble((Double) value);
+      }
+
+      @Override
+      public Object decode(Decoder decoder) throws IOException {
+        return decoder.readDouble();
+      }
+    },
+    BYTES {
+      @Override
+      public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+        if (value instanceof ByteBuffer) {
+          ByteBuffer buffer = (ByteBuffer) value;
+          if (buffer.hasArray()) {
+            encoder.writeBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+          } else {
+            byte[] buf = Bytes.getBytes(buffer);
+            encoder.writeBytes(buf, 0, buf.length);
+          }
+        } else if (value instanceof byte[]) {
+          byte[] bytes = (byte[]) value;
+          encoder.writeBytes(bytes, 0, bytes.length);
+        } else {
+          throw new IOException("Expects either ByteBuffer or byte[]. Got " + getClassName(value));
+        }
+      }
+
+      @Override
+      public Object decode(Decoder decoder) throws IOException {
+        return decoder.readBytes();
+      }
+    },
+    STRING {
+      @Override
+      public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+        encoder.writeString((String) value);
+      }
+
+      @Override
+      public Object decode(Decoder decoder) throws IOException {
+        return decoder.readString();
+      }
+    }
+  }
+
+  /**
+   * Codec of enum values, encoded as the index of the value in the enum schema.
+   */
+  private static final class EnumCodec implements ValueCodec {
+    private final Schema schema;
+
+    EnumCodec(Schema schema) {
+      this.schema = schema;
+    }
+
+    @Override
+    public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+      String enumValue = value instanceof Enum ? ((Enum) value).name() : String.valueOf(value);
+      encoder.writeInt(schema.getEnumIndex(enumValue));
+    }
+
+    @Override
+    public Object decode(Decoder decoder) throws IOException {
+      return schema.getEnumValue(decoder.readInt());
+    }
+  }
+
+  /**
+   * Codec of arrays, encoded as a single block of elements followed by an empty block if not empty.
+   */
+  private static final class ArrayCodec implements ValueCodec {
+    private final ValueCodec elementCodec;
+
+    ArrayCodec(ValueCodec elementCodec) {
+      this.elementCodec = elementCodec;
+    }
+
+    @Override
+    public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+      if (value instanceof Collection) {
+        Collection<?> collection = (Collection<?>) value;
+        encoder.writeInt(collection.size());
+        for (Object element : collection) {
+          elementCodec.encode(encoder, element);
+        }
+        writeEnd(encoder, collection.size());
+      } else if (value != null && value.getClass().isArray()) {
+        int size = Array.getLength(value);
+        encoder.writeInt(size);
+        for (int i = 0; i < size; i++) {
+          elementCodec.encode(encoder, Array.get(value, i));
+        }
+        writeEnd(encoder, size);
+      } else {
+        throw new IOException("Expects either Collection or array. Got: " + getClassName(value));
+      }
+    }
+
+    @Override
+    public Object decode(Decoder decoder) throws IOException {
+      int size = decoder.readInt();
+      List<Object> array = new ArrayList<>(size);
+      while (size != 0) {
+        for (int i = 0; i < size; i++) {
+          array.add(elementCodec.decode(decoder));
+        }
+        size = decoder.readInt();
+      }
+      return array;
+    }
+  }
+
+  /**
+   * Codec of maps, encoded as a single block of entries followed by an empty block if not empty.
+   */
+  private static final class MapCodec implements ValueCodec {
+    private static final Comparator<KeyedEntry> KEY_ORDER = new Comparator<KeyedEntry>() {
+      @Override
+      public int compare(KeyedEntry e1, KeyedEntry e2) {
+        return Bytes.compareTo(e1.keyBytes, e2.keyBytes);
+      }
+    };
+
+    private final ValueCodec keyCodec;
+    private final ValueCodec valueCodec;
+    private final boolean sorted;
+
+    MapCodec(ValueCodec keyCodec, ValueCodec valueCodec, boolean sorted) {
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+      this.sorted = sorted;
+    }
+
+    @Override
+    public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+      if (!(value instanceof Map)) {
+        throw new IOException("Expects Map type. Got: " + getClassName(value));
+      }
+      Map<?, ?> map = (Map<?, ?>) value;
+      encoder.writeInt(map.size());
+      Collection<? extends Map.Entry<?, ?>> entries = sorted && map.size() > 1 ? sortEntries(map) : map.entrySet();
+      for (Map.Entry<?, ?> entry : entries) {
+        keyCodec.encode(encoder, entry.getKey());
+        valueCodec.encode(encoder, entry.getValue());
+      }
+      writeEnd(encoder, map.size());
+    }
+
+    private List<Map.Entry<?, ?>> sortEntries(Map<?, ?> map) throws IOException {
+      List<KeyedEntry> keyedEntries = new ArrayList<>(map.size());
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      Encoder keyEncoder = new BinaryEncoder(os);
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        os.reset();
+        keyCodec.encode(keyEncoder, entry.getKey());
+        keyedEntries.add(new KeyedEntry(os.toByteArray(), entry));
+      }
+      Collections.sort(keyedEntries, KEY_ORDER);
+      List<Map.Entry<?, ?>> entries = new ArrayList<>(keyedEntries.size());
+      for (KeyedEntry keyedEntry : keyedEntries) {
+        entries.add(keyedEntry.entry);
+      }
+      return entries;
+    }
+
+    @Override
+    public Object decode(Decoder decoder) throws IOException {
+      int size = decoder.readInt();
+      Map<Object, Object> map = new LinkedHashMap<>(size);
+      while (size != 0) {
+        for (int i = 0; i < size; i++) {
+          map.put(keyCodec.decode(decoder), valueCodec.decode(decoder));
+        }
+        size = decoder.readInt();
+      }
+      return map;
+    }
+  }
+
+  /**
+   * A map entry with its encoded key.
+   */
+  private static final class KeyedEntry {
+    private final byte[] keyBytes;
+    private final Map.Entry<?, ?> entry;
+
+    KeyedEntry(byte[] keyBytes, Map.Entry<?, ?> entry) {
+      this.keyBytes = keyBytes;
+      this.entry = entry;
+    }
+  }
+
+  /**
+   * Codec of records, encoded as the fields in schema order.
+   */
+  private static final class RecordCodec implements ValueCodec {
+    private final Schema schema;
+    private final String[] fieldNames;
+    private final ValueCodec[] fieldCodecs;
+
+    RecordCodec(Schema schema) {
+      List<Schema.Field> fields = schema.getFields();
+      this.schema = schema;
+      this.fieldNames = new String[fields.size()];
+      this.fieldCodecs = new ValueCodec[fields.size()];
+    }
+
+    void init(Map<String, RecordCodec> records, boolean sortMaps) {
+      List<Schema.Field> fields = schema.getFields();
+      for (int i = 0; i < fieldNames.length; i++) {
+        Schema.Field field = fields.get(i);
+        fieldNames[i] = field.getName();
+        fieldCodecs[i] = createCodec(field.getSchema(), records, sortMaps);
+      }
+    }
+
+    @Override
+    public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+      if (!(value instanceof StructuredRecord)) {
+        throw new IOException("Expected StructuredRecord type. Got: " + getClassName(value));
+      }
+      StructuredRecord record = (StructuredRecord) value;
+      if (schema.equals(record.getSchema())) {
+        for (int i = 0; i < fieldCodecs.length; i++) {
+          fieldCodecs[i].encode(encoder, record.get(i));
+        }
+      } else {
+        // A nested record may have a different schema than the field, hence look up the fields by name
+        for (int i = 0; i < fieldCodecs.length; i++) {
+          fieldCodecs[i].encode(encoder, record.get(fieldNames[i]));
+        }
+      }
+    }
+
+    @Override
+    public StructuredRecord decode(Decoder decoder) throws IOException {
+      StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+      for (int i = 0; i < fieldCodecs.length; i++) {
+        builder.set(i, fieldCodecs[i].decode(decoder));
+      }
+      return builder.build();
+    }
+  }
+
+  /**
+   * Codec of unions, encoded as the index of the branch followed by the value. The branch is chosen by the type of
+   * the value only, in the same way as {@link StructuredRecordDatumWriter}.
+   */
+  private static final class UnionCodec implements ValueCodec {
+    private final Schema schema;
+    private final ValueCodec[] codecs;
+    // Index of the first branch of each schema type, or -1 if the union has no branch of the type
+    private final int[] branchByType;
+
+    UnionCodec(Schema schema, List<ValueCodec> codecs) {
+      this.schema = schema;
+      this.codecs = codecs.toArray(new ValueCodec[codecs.size()]);
+      this.branchByType = new int[Schema.Type.values().length];
+      Arrays.fill(branchByType, -1);
+      List<Schema> unionSchemas = schema.getUnionSchemas();
+      for (int i = unionSchemas.size() - 1; i >= 0; i--) {
+        branchByType[unionSchemas.get(i).getType().ordinal()] = i;
+      }
+    }
+
+    @Override
+    public void encode(Encoder encoder, @Nullable Object value) throws IOException {
+      Schema.Type type = getSchemaType(value);
+      int branch = branchByType[type.ordinal()];
+      if (branch < 0) {
+        throw new IOException("Value type " + type + " not valid in union: " + schema);
+      }
+      encoder.writeInt(branch);
+      codecs[branch].encode(encoder, value);
+    }
+
+    @Override
+    public Object decode(Decoder decoder) throws IOException {
+      return codecs[decoder.readInt()].decode(decoder);
+    }
+
+    private static Schema.Type getSchemaType(@Nullable Object value) throws IOException {
+      if (value == null) {
+        return Schema.Type.NULL;
+      }
+      if (value instanceof String) {
+        return Schema.Type.STRING;
+      }
+      if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+        return Schema.Type.INT;
+      }
+      if (value instanceof Long) {
+        return Schema.Type.LONG;
+      }
+      if (value instanceof Boolean) {
+        return Schema.Type.BOOLEAN;
+      }
+      if (value instanceof Double) {
+        return Schema.Type.DOUBLE;
+      }
+      if (value instanceof Float) {
+        return Schema.Type.FLOAT;
+      }
+      if (value instanceof ByteBuffer || value instanceof byte[]) {
+        return Schema.Type.BYTES;
+      }
+      if (value instanceof StructuredRecord) {
+        return Schema.Type.RECORD;
+      }
+      if (value instanceof Collection || value.getClass().isArray()) {
+        return Schema.Type.ARRAY;
+      }
+      if (value instanceof Map) {
+        return Schema.Type.MAP;
+      }
+      throw new IOException("Unsupported type found in StructuredRecord: " + value.getClass());
+    }
+  }
+
+  /**
+   * Writes the empty block that ends a non-empty array or map. An empty one is already terminated by its size.
+   */
+  private static void writeEnd(Encoder encoder, int size) throws IOException {
+    if (size != 0) {
+      encoder.writeInt(0);
+    }
+  }
+
+  private static String getClassName(@Nullable Object value) {
+    return value == null ? "null" : value.getClass().getName();
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -153,7 +153,8 @@ public class StructuredRecordDatumWriter implements DatumWriter<StructuredRecord
   }
 
   /**
-   * Encodes the ending of an array. This method writes out {@code 0} to signal the end of the array.
+   * Encodes the ending of an array. This method writes out {@code 0} to signal the end of a non-empty array.
+   * An empty array is already terminated by its size.
    * Sub-class can override this to have different behavior
    *
    * @param encoder The encoder to use
@@ -162,7 +163,9 @@ public class StructuredRecordDatumWriter implements DatumWriter<StructuredRecord
    * @throws IOException If failed to encode
    */
   protected void encodeArrayEnd(Encoder encoder, Schema elementSchema, int size) throws IOException {
-    encoder.writeInt(0);
+    if (size != 0) {
+      encoder.writeInt(0);
+    }
   }
 
   /**
@@ -197,7 +200,8 @@ public class StructuredRecordDatumWriter implements DatumWriter<StructuredRecord
   }
 
   /**
-   * Encodes the ending of a {@link Map}. This method writes out {@code 0} to signal the end of the map.
+   * Encodes the ending of a {@link Map}. This method writes out {@code 0} to signal the end of a non-empty map.
+   * An empty map is already terminated by its size.
    * Sub-class can override this to have different behavior.
    *
    * @param encoder The encoder to use
@@ -207,7 +211,9 @@ public class StructuredRecordDatumWriter implements DatumWriter<StructuredRecord
    * @throws IOException If failed to encode
    */
   protected void encodeMapEnd(Encoder encoder, Schema keySchema, Schema valueSchema, int size) throws IOException {
-    encoder.writeInt(0);
+    if (size != 0) {
+      encoder.writeInt(0);
+    }
   }
 
   /**
@@ -198,6 +198,31 @@ public class StructuredRecordBuilderTest {
     Assert.assertNull(StructuredRecord.builder(schema).setDate("x", date).build().getDate("y"));
   }
 
+  @Test
+  public void testPositionalAccess() {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("x", Schema.of(Schema.Type.INT)),
+                                    Schema.Field.of("y", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("z", Schema.of(Schema.Type.LONG)));
+    Assert.assertEquals(0, schema.getFieldIndex("x"));
+    Assert.assertEquals(2, schema.getFieldIndex("z"));
+    Assert.assertEquals(-1, schema.getFieldIndex("w"));
+
+    // Fields set by name and by position are accessible both ways
+    StructuredRecord record = StructuredRecord.builder(schema).set("x", 1).set(2, 3L).build();
+    Assert.assertEquals(1, (int) record.get(0));
+    Assert.assertEquals(3L, (long) record.get("z"));
+    Assert.assertNull(record.get(1));
+    Assert.assertNull(record.get("w"));
+    Assert.assertEquals(StructuredRecord.builder(schema).set(0, 1).set("z", 3L).build(), record);
+  }
+
+  @Test(expected = UnexpectedFormatException.class)
+  public void testSetPositionalNonNullableToNull() {
+    Schema schema = Schema.recordOf("record", Schema.Field.of("x", Schema.of(Schema.Type.INT)));
+    StructuredRecord.builder(schema).set(0, null);
+  }
+
   @Test(expected = UnexpectedFormatException.class)
   public void testSetNonExistentField() {
     Schema schema = Schema.recordOf("record", Schema.Field.of("x", Schema.of(Schema.LogicalType.DATE)));
@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.format.io;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.io.BinaryEncoder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Unit test for {@link StructuredRecordCodec}.
+ */
+public class StructuredRecordCodecTest {
+
+  private static final Schema INNER_SCHEMA = Schema.recordOf(
+    "inner",
+    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("tags", Schema.arrayOf(Schema.of(Schema.Type.STRING))));
+
+  private static final Schema SCHEMA = Schema.recordOf(
+    "outer",
+    Schema.Field.of("b", Schema.of(Schema.Type.BOOLEAN)),
+    Schema.Field.of("i", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("f", Schema.of(Schema.Type.FLOAT)),
+    Schema.Field.of("d", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+    Schema.Field.of("s", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("bytes", Schema.of(Schema.Type.BYTES)),
+    Schema.Field.of("e", Schema.enumWith("A", "B", "C")),
+    Schema.Field.of("map", Schema.mapOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.INT))),
+    Schema.Field.of("inner", INNER_SCHEMA),
+    Schema.Field.of("inners", Schema.arrayOf(Schema.nullableOf(INNER_SCHEMA))));
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    StructuredRecord inner1 = StructuredRecord.builder(INNER_SCHEMA)
+      .set("id", 1L).set("tags", ImmutableList.of("x", "y")).build();
+    StructuredRecord inner2 = StructuredRecord.builder(INNER_SCHEMA)
+      .set("id", 2L).set("tags", ImmutableList.of()).build();
+
+    StructuredRecord record = StructuredRecord.builder(SCHEMA)
+      .set("b", true)
+      .set("i", 5)
+      .set("f", 1.5f)
+      .set("d", null)
+      .set("s", "string")
+      .set("bytes", ByteBuffer.wrap(new byte[] { 1, 2, 3 }))
+      .set("e", "B")
+      .set("map", ImmutableMap.of("k1", 1, "k2", 2))
+      .set("inner", inner1)
+      .set("inners", ImmutableList.of(inner2, inner1))
+      .build();
+
+    byte[] codecBytes = encode(record);
+
+    // The codec uses the same format as the datum writer and reader
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    new StructuredRecordDatumWriter().encode(record, new BinaryEncoder(os));
+    Assert.assertArrayEquals(os.toByteArray(), codecBytes);
+
+    StructuredRecord decoded = StructuredRecordCodec.of(SCHEMA).decode(
+      new BinaryDecoder(new ByteArrayInputStream(codecBytes)));
+    Assert.assertEquals(record.get("s"), decoded.get("s"));
+    Assert.assertNull(decoded.get("d"));
+    Assert.assertEquals(record.get("e"), decoded.get("e"));
+    Assert.assertEquals(record.get("map"), decoded.get("map"));
+    Assert.assertEquals(inner1, decoded.get("inner"));
+    Assert.assertEquals(ImmutableList.of(inner2, inner1), decoded.get("inners"));
+    Assert.assertArrayEquals(codecBytes, encode(decoded));
+  }
+
+  @Test
+  public void testCache() {
+    Schema schema = Schema.recordOf("rec", Schema.Field.of("x", Schema.of(Schema.Type.INT)));
+    Schema sameSchema = Schema.recordOf("rec", Schema.Field.of("x", Schema.of(Schema.Type.INT)));
+    Assert.assertSame(StructuredRecordCodec.of(schema), StructuredRecordCodec.of(sameSchema));
+  }
+
+  @Test
+  public void testCanonicalMaps() throws IOException {
+    Schema schema = Schema.recordOf(
+      "maps",
+      Schema.Field.of("m", Schema.mapOf(Schema.of(Schema.Type.STRING),
+                                        Schema.mapOf(Schema.of(Schema.Type.INT), Schema.of(Schema.Type.STRING)))));
+    StructuredRecord record1 = StructuredRecord.builder(schema)
+      .set("m", ImmutableMap.of("b", ImmutableMap.of(2, "x", 1, "y"), "a", ImmutableMap.of()))
+      .build();
+    StructuredRecord record2 = StructuredRecord.builder(schema)
+      .set("m", ImmutableMap.of("a", ImmutableMap.of(), "b", ImmutableMap.of(1, "y", 2, "x")))
+      .build();
+    Assert.assertFalse(Arrays.equals(encode(record1), encode(record2)));
+
+    // the canonical codec writes map entries ordered by their keys, at any depth
+    StructuredRecordCodec canonical = StructuredRecordCodec.canonical(schema);
+    byte[] bytes1 = encode(canonical, record1);
+    Assert.assertArrayEquals(bytes1, encode(canonical, record2));
+    Assert.assertArrayEquals(encode(record2), bytes1);
+
+    StructuredRecord decoded = canonical.decode(new BinaryDecoder(new ByteArrayInputStream(bytes1)));
+    Assert.assertEquals(record1, decoded);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonRecordSchema() {
+    StructuredRecordCodec.of(Schema.of(Schema.Type.STRING));
+  }
+
+  private byte[] encode(StructuredRecord record) throws IOException {
+    return encode(StructuredRecordCodec.of(record.getSchema()), record);
+  }
+
+  private byte[] encode(StructuredRecordCodec codec, StructuredRecord record) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    codec.encode(record, new BinaryEncoder(os));
+    return os.toByteArray();
+  }
+}
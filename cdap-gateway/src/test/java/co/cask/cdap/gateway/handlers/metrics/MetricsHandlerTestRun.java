@@ -1,5 +1,5 @@
 /*
- * Copyright © 2015 Cask Data, Inc.
+ * Copyright © 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -17,6 +17,7 @@
 package co.cask.cdap.gateway.handlers.metrics;
 
 import co.cask.cdap.api.metrics.MetricDeleteQuery;
+import co.cask.cdap.api.metrics.MetricHistograms;
 import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.Metrics;
@@ -460,6 +461,33 @@ public class MetricsHandlerTestRun extends MetricsSuiteTestBase {
         "&groupBy=namespace&groupBy=flowlet&start=" + start + "&end=" + end, groupByResult);
   }
 
+  @Test
+  public void testPercentileQuery() throws Exception {
+    MetricsContext collector = collectionService.getContext(new HashMap<String, String>());
+    for (int i = 1; i <= 100; i++) {
+      collector.histogram("test.latency", i);
+    }
+    // need a better way to do this
+    TimeUnit.SECONDS.sleep(4);
+
+    MetricQueryResult queryResult = post("/v3/metrics/query?metric=p50(system.test.latency)" +
+                                           "&metric=p99(system.test.latency)&aggregate=true",
+                                         MetricQueryResult.class);
+    Map<String, Long> percentiles = new HashMap<>();
+    for (MetricQueryResult.TimeSeries timeSeries : queryResult.getSeries()) {
+      percentiles.put(timeSeries.getMetricName(), timeSeries.getData()[0].getValue());
+    }
+    Assert.assertEquals(2, percentiles.size());
+    // percentiles are the upper bound of the histogram bucket that contains the value
+    Assert.assertEquals(MetricHistograms.getBucketUpperBound(MetricHistograms.getBucketIndex(50L)),
+                        (long) percentiles.get("p50(system.test.latency)"));
+    Assert.assertEquals(MetricHistograms.getBucketUpperBound(MetricHistograms.getBucketIndex(99L)),
+                        (long) percentiles.get("p99(system.test.latency)"));
+
+    // bucket counters are not returned when querying percentiles only
+    verifyEmptyQueryResult("/v3/metrics/query?metric=p50(system.unknown.latency)&aggregate=true");
+  }
+
   @Test
   public void testInterpolate() throws Exception {
     long start = System.currentTimeMillis() / 1000;
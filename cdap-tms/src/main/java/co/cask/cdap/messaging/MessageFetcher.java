@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -19,9 +19,13 @@ package co.cask.cdap.messaging;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.api.messaging.TopicNotFoundException;
 import co.cask.cdap.messaging.data.RawMessage;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.tephra.Transaction;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
@@ -38,6 +42,8 @@ public abstract class MessageFetcher {
 
   // by default there is virtually no limit
   private int limit = Integer.MAX_VALUE;
+  // by default returns immediately if there is no message
+  private long waitTimeMillis;
 
   /**
    * Setup the message fetching starting point based on the given message id. Calling this method
@@ -96,6 +102,24 @@ public abstract class MessageFetcher {
     return this;
   }
 
+  /**
+   * Sets the maximum time to wait for new messages to arrive if there is no message available when fetching.
+   * This allows consumers to long-poll for new messages instead of repeatedly fetching with a delay.
+   * By default, this is set to {@code 0}, meaning the fetch returns immediately.
+   * Waiting is only supported for non-transactional fetch and is ignored if a transaction is set.
+   *
+   * @param waitTime the maximum time to wait
+   * @param unit the {@link TimeUnit} of the wait time
+   * @return this instance
+   */
+  public MessageFetcher setWaitTime(long waitTime, TimeUnit unit) {
+    if (waitTime < 0) {
+      throw new IllegalArgumentException("Invalid message fetching wait time. Wait time must be >= 0");
+    }
+    this.waitTimeMillis = unit.toMillis(waitTime);
+    return this;
+  }
+
   @Nullable
   protected byte[] getStartOffset() {
     return startOffset;
@@ -119,6 +143,10 @@ public abstract class MessageFetcher {
     return limit;
   }
 
+  protected long getWaitTimeMillis() {
+    return waitTimeMillis;
+  }
+
   /**
    * Returns a {@link CloseableIterator} that iterates over messages fetched from the messaging system.
    *
@@ -126,4 +154,20 @@ public abstract class MessageFetcher {
    * @throws IOException if it fails to create the iterator
    */
   public abstract CloseableIterator<RawMessage> fetch() throws TopicNotFoundException, IOException;
+
+  /**
+   * Returns a {@link ListenableFuture} of a {@link CloseableIterator} that iterates over messages fetched from the
+   * messaging system. Unlike {@link #fetch()}, waiting for new messages as set by
+   * {@link #setWaitTime(long, TimeUnit)} doesn't block the calling thread if the implementation supports it.
+   * By default, it calls {@link #fetch()} in the calling thread.
+   *
+   * @param executor the {@link Executor} for fetching messages after waiting, which also completes the returned future
+   */
+  public ListenableFuture<CloseableIterator<RawMessage>> fetchAsync(Executor executor) {
+    try {
+      return Futures.immediateFuture(fetch());
+    } catch (Exception e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -22,19 +22,20 @@ import co.cask.cdap.messaging.store.MessageFilter;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.NavigableSet;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.Nullable;
 
 /**
@@ -44,6 +45,14 @@ import javax.annotation.Nullable;
  * - Single writer, concurrent fetchers
  * - Ordered, unique entry (row key)
  *
+ * Entries are appended to fixed size array segments. Since there is only one writer and entries are always appended
+ * in increasing order, fetchers can read the segments without locking and locate entries with binary search.
+ * Weight reduction removes whole segments from the head of the cache and trims the first remaining segment by
+ * publishing a new immutable list of segments, hence it never waits for fetchers that are reading the cache.
+ * A trimmed segment is replaced by a copy of its remaining entries, so that removed entries are not referenced by the
+ * cache anymore. The last segment is appended to by the writer, so it is only copied or dropped by the writer when it
+ * starts a new segment.
+ *
  * This cache uses three memory limits to balance between publish and consume efficiency as well as
  * bounding the memory usage. It uses a provided {@link Weigher} to compute the weight of each entry
  * being stored inside the cache.
@@ -55,10 +64,10 @@ import javax.annotation.Nullable;
  *   by the consumer. On adding entries to the cache, the cache can keep growing without blocking as long as
  *   the hard limit is not hit so that the publisher doesn't need to be blocked.
  *   The room between the reduce trigger and hard limits is basically the buffer for non-blocking addition.
- *   - On addition, once the hard limit is reached, a blocking operation is needed to reduce the weight of the
- *     cache back to min retain.
+ *   - On addition, once the hard limit is reached, the publisher reduces the weight of the cache back to min retain,
+ *     unless a fetcher is already doing so, in which case the publisher doesn't wait for it.
  *   - On fetching entries from the cache, the fetcher will check whether it needs to reduce the cache weight and reduce
- *     it if needed. This essentially is to amortize the cost of the blocking weight reduction operations among all
+ *     it if needed. This essentially is to amortize the cost of the weight reduction operations among all
  *     fetchers (which typically has multiple of them), without blocking the single publish as much as possible.
  *
  * @param <T> type of entry stored in the cache
@@ -73,7 +82,10 @@ public class MessageCache<T> {
   private static final String METRICS_SCAN_REQUESTS = "cache.scan.requests";
   private static final String METRICS_SCAN_REDUCE_WEIGHT = "cache.scan.reduce.weight";
 
-  private final NavigableSet<CacheEntry<T>> cache;
+  private static final int DEFAULT_SEGMENT_SIZE = 1024;
+
+  private final AtomicReference<Segments<T>> segments;
+  private final int segmentSize;
   private final Comparator<T> comparator;
   private final AtomicReference<Limits> limits;
   private final MetricsContext metricsContext;
@@ -81,7 +93,7 @@ public class MessageCache<T> {
   private final AtomicBoolean needReduceWeight;
   private final AtomicBoolean adding;
   private final Weigher<T> weigher;
-  private final ReadWriteLock cacheLock;
+  private final Lock reduceLock;
 
   /**
    * Creates a new instance of the cache.
@@ -92,7 +104,15 @@ public class MessageCache<T> {
    * @param metricsContext a {@link MetricsContext} for emitting metrics about this cache.
    */
   public MessageCache(Comparator<T> comparator, Weigher<T> weigher, Limits limits, MetricsContext metricsContext) {
-    this.cache = new ConcurrentSkipListSet<>(new CacheEntryComparator<>(comparator));
+    this(comparator, weigher, limits, metricsContext, DEFAULT_SEGMENT_SIZE);
+  }
+
+  @VisibleForTesting
+  MessageCache(Comparator<T> comparator, Weigher<T> weigher, Limits limits,
+               MetricsContext metricsContext, int segmentSize) {
+    Preconditions.checkArgument(segmentSize > 0, "The segment size must be positive");
+    this.segments = new AtomicReference<>(new Segments<T>(Collections.<Segment<T>>emptyList(), 0));
+    this.segmentSize = segmentSize;
     this.comparator = comparator;
     this.limits = new AtomicReference<>(limits);
     this.metricsContext = metricsContext;
@@ -100,7 +120,7 @@ public class MessageCache<T> {
     this.needReduceWeight = new AtomicBoolean();
     this.adding = new AtomicBoolean();
     this.weigher = weigher;
-    this.cacheLock = new ReentrantReadWriteLock();
+    this.reduceLock = new ReentrantLock();
   }
 
   /**
@@ -128,41 +148,40 @@ public class MessageCache<T> {
 
     try {
       long newWeight = 0L;
-      CacheEntry<T> largestCacheEntry = null;
+      T largestEntry = null;
 
       int entriesAdded = 0;
       while (entries.hasNext()) {
         T entry = entries.next();
-        CacheEntry<T> cacheEntry = new CacheEntry<>(entry, weigher.weight(entry));
-        newWeight = currentWeight.addAndGet(cacheEntry.getWeight());
+        int weight = weigher.weight(entry);
+        newWeight = currentWeight.addAndGet(weight);
         if (newWeight > limits.get().getHardLimit()) {
-          reduceWeight();
-          metricsContext.increment(METRICS_ADD_REDUCE_WEIGHT, 1L);
+          if (tryReduceWeight()) {
+            metricsContext.increment(METRICS_ADD_REDUCE_WEIGHT, 1L);
+          }
           newWeight = currentWeight.get();
         }
 
         // Make sure new entries are also in increasing order.
-        // For the first entry from the provided iterator, it must be larger than everything in the cache, hence
-        // the ceiling call must be returning null.
+        // For the first entry from the provided iterator, it must be larger than everything in the cache.
         // For sub-sequence entries in the iterator, they must be in strictly increasing order
-        largestCacheEntry = largestCacheEntry == null ? cache.ceiling(cacheEntry) : largestCacheEntry;
-        if (largestCacheEntry != null && comparator.compare(largestCacheEntry.getEntry(), cacheEntry.getEntry()) >= 0) {
+        largestEntry = entriesAdded == 0 ? segments.get().getLast() : largestEntry;
+        if (largestEntry != null && comparator.compare(largestEntry, entry) >= 0) {
           // Entries must be in strictly increasing order
           // Clear the cache to reset state. This is just for precaution, as this shouldn't happen,
           // unless there is bug in the TMS system (from the caller side).
-          currentWeight.addAndGet(-1 * cacheEntry.getWeight());
+          currentWeight.addAndGet(-1 * weight);
           clear();
           throw new IllegalArgumentException("Cache entry must be in strictly increasing order. " +
-                                               "Entry " + entry + " is smaller than or equal to " +
-                                               largestCacheEntry.getEntry());
+                                               "Entry " + entry + " is smaller than or equal to " + largestEntry);
         }
 
         // It's ok to "leak" this to reader even if the new weight is larger than the hard limit
         // The entry will get removed eventually and the read/write operations as a whole still give valid
         // results
-        cache.add(cacheEntry);
+        append(entry, weight);
         entriesAdded++;
-        largestCacheEntry = cacheEntry;
+        largestEntry = entry;
       }
 
       metricsContext.increment(METRICS_ADD_REQUESTS, 1L);
@@ -170,8 +189,9 @@ public class MessageCache<T> {
       metricsContext.gauge(METRICS_WEIGHT, newWeight);
 
       if (newWeight > limits.get().getHardLimit()) {
-        reduceWeight();
-        metricsContext.increment(METRICS_ADD_REDUCE_WEIGHT, 1L);
+        if (tryReduceWeight()) {
+          metricsContext.increment(METRICS_ADD_REDUCE_WEIGHT, 1L);
+        }
       } else if (newWeight > limits.get().getReduceTrigger()) {
         needReduceWeight.compareAndSet(false, true);
       }
@@ -190,40 +210,24 @@ public class MessageCache<T> {
    * @return a {@link Scanner} for accessing to the fetched entries
    */
   public Scanner<T> scan(T startEntry, boolean includeStart, int limit, MessageFilter<T> filter) {
-    List<T> entries = new LinkedList<>();
-
-    // Acquire the read lock and copy the entries. This is to guard against weight reduction while the caller
-    // is iterating using the returned Scanner.
-    cacheLock.readLock().lock();
-    T firstInCache;
-    try {
-      firstInCache = cache.isEmpty() ? null : cache.first().getEntry();
-      for (CacheEntry<T> cacheEntry : cache.tailSet(new CacheEntry<>(startEntry, 0), includeStart)) {
-        if (entries.size() >= limit) {
-          break;
-        }
-
-        MessageFilter.Result result = filter.apply(cacheEntry.getEntry());
-        if (result == MessageFilter.Result.ACCEPT) {
-          entries.add(cacheEntry.getEntry());
-        } else if (result == MessageFilter.Result.HOLD) {
-          // Hold means not to scan more, so just break
-          break;
-        }
-      }
-    } finally {
-      cacheLock.readLock().unlock();
-    }
-
+    // The scanner reads from a snapshot of the segments. Entries in the snapshot are never modified by weight
+    // reduction, hence no locking is needed while the caller is iterating using the returned Scanner.
+    Segments<T> snapshot = segments.get();
     metricsContext.increment(METRICS_SCAN_REQUESTS, 1L);
 
-    return new AbstractScanner<T>(entries.iterator(), firstInCache) {
+    return new AbstractScanner<T>(new FilteredEntryIterator<>(snapshot.iterator(startEntry, includeStart, comparator),
+                                                              filter, limit), snapshot.getFirst()) {
       @Override
       void doClose() {
         // Use compareAndSet to check if need to reduce weight. There will only be
         // one winner to proceed with the reduce weight call.
         if (needReduceWeight.compareAndSet(true, false)) {
-          reduceWeight();
+          reduceLock.lock();
+          try {
+            reduceWeight();
+          } finally {
+            reduceLock.unlock();
+          }
           metricsContext.increment(METRICS_SCAN_REDUCE_WEIGHT, 1L);
         }
       }
@@ -239,20 +243,17 @@ public class MessageCache<T> {
    * @param updater a {@link EntryUpdater} to update the content of a entry
    */
   public void updateEntries(T startEntry, T endEntry, EntryUpdater<T> updater) {
-    CacheEntry<T> startCacheEntry = new CacheEntry<>(startEntry, 0);
-
-    cacheLock.writeLock().lock();
+    reduceLock.lock();
     try {
-      CacheEntry<T> lower = cache.lower(startCacheEntry);
-      Iterator<CacheEntry<T>> iterator = cache.subSet(startCacheEntry, true,
-                                                      new CacheEntry<>(endEntry, 0), true).iterator();
-      CacheEntry<T> cacheEntry = iterator.hasNext() ? iterator.next() : null;
-      while (cacheEntry != null) {
-        CacheEntry<T> nextCacheEntry = iterator.hasNext() ? iterator.next() : null;
-        CacheEntry<T> higher = nextCacheEntry == null ? cache.higher(cacheEntry) : nextCacheEntry;
+      Segments<T> snapshot = segments.get();
+      T lower = snapshot.getLower(startEntry, comparator);
+      PeekingIterator<T> iterator = Iterators.peekingIterator(snapshot.iterator(startEntry, true, comparator));
+      while (iterator.hasNext() && comparator.compare(iterator.peek(), endEntry) <= 0) {
+        T entry = iterator.next();
+        T higher = iterator.hasNext() ? iterator.peek() : null;
 
         try {
-          updater.updateEntry(cacheEntry.getEntry());
+          updater.updateEntry(entry);
         } catch (RuntimeException e) {
           clear();
           throw e;
@@ -260,19 +261,17 @@ public class MessageCache<T> {
 
         // A quick check that the ordering hasn't been altered.
         // It doesn't cover all possible case though. This is just a quick catch for bug in the caller.
-        if ((lower != null && comparator.compare(lower.getEntry(), cacheEntry.getEntry()) >= 0)
-            || (higher != null && comparator.compare(higher.getEntry(), cacheEntry.getEntry()) <= 0)) {
+        if ((lower != null && comparator.compare(lower, entry) >= 0)
+            || (higher != null && comparator.compare(higher, entry) <= 0)) {
           // This shouldn't happen, unless there is bug in the caller.
           clear();
           throw new IllegalStateException("Entry order should not be altered after update.");
         }
 
-        lower = cacheEntry;
-        cacheEntry = nextCacheEntry;
+        lower = entry;
       }
-
     } finally {
-      cacheLock.writeLock().unlock();
+      reduceLock.unlock();
     }
   }
 
@@ -281,10 +280,15 @@ public class MessageCache<T> {
    * {@link #addAll(Iterator)} method.
    */
   public void clear() {
-    // To clear the cache, first set the limit to 0, the reset it back to proper limit
-    Limits oldLimits = limits.get();
-    resize(new Limits(0, 0, 0));
-    resize(oldLimits);
+    reduceLock.lock();
+    try {
+      // Since there is no concurrent writer, all segments can be released, including the last one
+      Segments<T> removed = segments.getAndSet(new Segments<T>(Collections.<Segment<T>>emptyList(), 0));
+      currentWeight.addAndGet(-1 * removed.getWeight());
+      metricsContext.increment(METRICS_ENTRIES_REMOVED, removed.getEntryCount());
+    } finally {
+      reduceLock.unlock();
+    }
   }
 
   /**
@@ -293,12 +297,12 @@ public class MessageCache<T> {
    * @param limits the new limits for this cache.
    */
   public void resize(Limits limits) {
-    cacheLock.writeLock().lock();
+    reduceLock.lock();
     try {
       this.limits.set(limits);
       reduceWeight();
     } finally {
-      cacheLock.writeLock().unlock();
+      reduceLock.unlock();
     }
   }
 
@@ -317,27 +321,108 @@ public class MessageCache<T> {
     return currentWeight.get();
   }
 
+  /**
+   * Returns the number of entries that are referenced by the segments of this cache, including entries that were
+   * removed from the cache but are still held by the last segment.
+   */
+  @VisibleForTesting
+  int getReferencedEntryCount() {
+    int count = 0;
+    for (Segment<T> segment : segments.get().segments) {
+      count += segment.size();
+    }
+    return count;
+  }
+
+  /**
+   * Appends an entry to the last segment, or to a new segment if the last one is full or all of its entries were
+   * removed. Only called by the writer.
+   */
+  private void append(T entry, int weight) {
+    Segments<T> current = segments.get();
+    Segment<T> last = current.segments.isEmpty() ? null : current.segments.get(current.segments.size() - 1);
+    if (last != null && !last.isFull() && !current.isEmpty()) {
+      last.add(entry, weight);
+      // The segment is only unpublished by clear(), in which case the entry is appended to a new segment
+      List<Segment<T>> published = segments.get().segments;
+      if (!published.isEmpty() && published.get(published.size() - 1) == last) {
+        return;
+      }
+      current = segments.get();
+    }
+
+    // Fill the new segment before publishing it, so that segments seen by readers are never empty
+    Segment<T> segment = new Segment<>(segmentSize);
+    segment.add(entry, weight);
+    // Weight reduction may concurrently remove segments from the head, hence retry until the new segment is added
+    while (!segments.compareAndSet(current, current.append(segment))) {
+      current = segments.get();
+    }
+  }
+
+  /**
+   * Reduces the cache weight if no other thread is doing so.
+   *
+   * @return {@code true} if the weight was reduced by this call
+   */
+  private boolean tryReduceWeight() {
+    if (!reduceLock.tryLock()) {
+      return false;
+    }
+    try {
+      reduceWeight();
+      return true;
+    } finally {
+      reduceLock.unlock();
+    }
+  }
+
   /**
    * Reduces the cache weight. Cached entries will be removed until the cache weight is smaller than the soft limit.
+   * This method must be called with the reduce lock held.
    */
   private void reduceWeight() {
     int entriesRemoved = 0;
-    cacheLock.writeLock().lock();
-    try {
-      long newWeight = currentWeight.get();
-      Iterator<CacheEntry<T>> iterator = cache.iterator();
-      while (iterator.hasNext()) {
-        CacheEntry<T> cacheEntry = iterator.next();
-        // If removing the next entry is smaller than the min weight, we are done with the reduce logic
-        if (newWeight - cacheEntry.getWeight() < limits.get().getMinRetain()) {
-          break;
+    while (true) {
+      Segments<T> current = segments.get();
+      // The maximum weight that can be removed while retaining the min retain weight
+      long removable = currentWeight.get() - limits.get().getMinRetain();
+      long removed = 0L;
+      int segmentsRemoved = 0;
+      int headStart = current.headStart;
+      int removedInHead = 0;
+
+      List<Segment<T>> list = current.segments;
+      for (int i = 0; i < list.size(); i++) {
+        Segment<T> segment = list.get(i);
+        int start = i == 0 ? current.headStart : 0;
+        int size = segment.size();
+        long segmentWeight = segment.getWeight(start, size);
+
+        // Remove the whole segment, unless it is the last one, which is being appended to by the writer
+        if (i < list.size() - 1 && removed + segmentWeight <= removable) {
+          removed += segmentWeight;
+          entriesRemoved += size - start;
+          segmentsRemoved++;
+          continue;
         }
-        iterator.remove();
-        entriesRemoved++;
-        newWeight = currentWeight.addAndGet(-1 * cacheEntry.getWeight());
+        // Otherwise remove entries from the beginning of the segment
+        headStart = segment.findWeightIndex(start, size, removable - removed);
+        removed += segment.getWeight(start, headStart);
+        removedInHead = headStart - start;
+        break;
       }
-    } finally {
-      cacheLock.writeLock().unlock();
+
+      if (removed == 0L && segmentsRemoved == 0) {
+        break;
+      }
+      if (segments.compareAndSet(current, current.remove(segmentsRemoved, headStart))) {
+        currentWeight.addAndGet(-1 * removed);
+        entriesRemoved += removedInHead;
+        break;
+      }
+      // The writer added a new segment concurrently. Recompute since only the reduce lock holder removes segments.
+      entriesRemoved = 0;
     }
     metricsContext.increment(METRICS_ENTRIES_REMOVED, entriesRemoved);
   }
@@ -461,53 +546,327 @@ public class MessageCache<T> {
   }
 
   /**
-   * A private class that wraps a user provided entry of type {@code T} with an associated weight.
+   * A fixed size array of entries, together with the cumulative weight of the entries. Entries are only appended by
+   * the single writer. The volatile size makes appended entries visible to readers.
    *
    * @param <T> type of the entry
    */
-  private static class CacheEntry<T> {
-    private final T entry;
-    private final int weight;
+  private static final class Segment<T> {
+    private final Object[] entries;
+    private final long[] cumulativeWeights;
+    private volatile int size;
+
+    private Segment(int capacity) {
+      this.entries = new Object[capacity];
+      this.cumulativeWeights = new long[capacity];
+    }
+
+    boolean isFull() {
+      return size == entries.length;
+    }
+
+    int size() {
+      return size;
+    }
 
-    private CacheEntry(T entry, int weight) {
-      this.entry = entry;
-      this.weight = weight;
+    void add(T entry, int weight) {
+      int idx = size;
+      entries[idx] = entry;
+      cumulativeWeights[idx] = (idx == 0 ? 0L : cumulativeWeights[idx - 1]) + weight;
+      size = idx + 1;
     }
 
-    T getEntry() {
-      return entry;
+    @SuppressWarnings("unchecked")
+    T get(int idx) {
+      return (T) entries[idx];
     }
 
-    int getWeight() {
+    /**
+     * Returns a full segment that contains a copy of the entries starting from the given index.
+     */
+    Segment<T> copyFrom(int from) {
+      int size = size();
+      Segment<T> copy = new Segment<>(size - from);
+      for (int i = from; i < size; i++) {
+        copy.add(get(i), (int) getWeight(i, i + 1));
+      }
+      return copy;
+    }
+
+    /**
+     * Returns the total weight of the entries in the range of [from, to).
+     */
+    long getWeight(int from, int to) {
+      return getCumulativeWeight(to) - getCumulativeWeight(from);
+    }
+
+    /**
+     * Returns the largest index in the range of [from, to], such that the weight of the entries in [from, index)
+     * is not larger than the given weight.
+     */
+    int findWeightIndex(int from, int to, long weight) {
+      long target = getCumulativeWeight(from) + weight;
+      int low = from;
+      int high = to;
+      while (low < high) {
+        int mid = (low + high + 1) >>> 1;
+        if (getCumulativeWeight(mid) <= target) {
+          low = mid;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Returns the smallest index in the range of [from, to) such that the entry at that index is larger than
+     * (or equal to, if inclusive) the given entry, or {@code to} if there is no such entry.
+     */
+    int search(T entry, boolean inclusive, int from, int to, Comparator<T> comparator) {
+      int low = from;
+      int high = to;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        int cmp = comparator.compare(get(mid), entry);
+        if (cmp > 0 || (inclusive && cmp == 0)) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Returns the total weight of entries in the range of [0, idx).
+     */
+    private long getCumulativeWeight(int idx) {
+      return idx == 0 ? 0L : cumulativeWeights[idx - 1];
+    }
+  }
+
+  /**
+   * An immutable list of {@link Segment}, together with the index of the first cached entry in the first segment.
+   *
+   * @param <T> type of the entry
+   */
+  private static final class Segments<T> {
+    private final List<Segment<T>> segments;
+    private final int headStart;
+
+    private Segments(List<Segment<T>> segments, int headStart) {
+      this.segments = segments;
+      this.headStart = headStart;
+    }
+
+    /**
+     * Returns a new list with the given segment appended. If the first segment was trimmed while it was the last one,
+     * it is released if it is empty or replaced by a copy of its remaining entries otherwise. This is only called by
+     * the writer, which doesn't append to the segment anymore.
+     */
+    Segments<T> append(Segment<T> segment) {
+      List<Segment<T>> newSegments = new ArrayList<>(segments.size() + 1);
+      newSegments.addAll(segments);
+      if (segments.size() == 1 && headStart > 0) {
+        Segment<T> head = newSegments.remove(0);
+        if (headStart < head.size()) {
+          newSegments.add(head.copyFrom(headStart));
+        }
+      }
+      newSegments.add(segment);
+      return new Segments<>(Collections.unmodifiableList(newSegments), 0);
+    }
+
+    /**
+     * Returns a new list without the given number of segments from the head, and with the new first segment starting
+     * at the given index. Unless it is the last segment, a trimmed first segment is replaced by a copy of its
+     * remaining entries.
+     */
+    Segments<T> remove(int count, int newHeadStart) {
+      List<Segment<T>> newSegments = new ArrayList<>(segments.subList(count, segments.size()));
+      if (newHeadStart > 0 && newSegments.size() > 1) {
+        Segment<T> head = newSegments.remove(0);
+        if (newHeadStart < head.size()) {
+          newSegments.add(0, head.copyFrom(newHeadStart));
+        }
+        newHeadStart = 0;
+      }
+      return new Segments<>(Collections.unmodifiableList(newSegments), newHeadStart);
+    }
+
+    /**
+     * Returns {@code true} if there is no entry in the cache.
+     */
+    boolean isEmpty() {
+      return getFirst() == null;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     */
+    int getEntryCount() {
+      int count = 0;
+      for (int i = 0; i < segments.size(); i++) {
+        count += segments.get(i).size() - (i == 0 ? headStart : 0);
+      }
+      return count;
+    }
+
+    /**
+     * Returns the total weight of the entries in the cache.
+     */
+    long getWeight() {
+      long weight = 0L;
+      for (int i = 0; i < segments.size(); i++) {
+        Segment<T> segment = segments.get(i);
+        weight += segment.getWeight(i == 0 ? headStart : 0, segment.size());
+      }
       return weight;
     }
 
-    @Override
-    public String toString() {
-      return "CacheEntry{" +
-        "entry=" + entry +
-        ", weight=" + weight +
-        '}';
+    /**
+     * Returns the first entry in the cache or {@code null} if the cache is empty.
+     */
+    @Nullable
+    T getFirst() {
+      for (int i = 0; i < segments.size(); i++) {
+        Segment<T> segment = segments.get(i);
+        int start = i == 0 ? headStart : 0;
+        if (start < segment.size()) {
+          return segment.get(start);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Returns the last entry in the cache or {@code null} if the cache is empty.
+     */
+    @Nullable
+    T getLast() {
+      if (segments.isEmpty()) {
+        return null;
+      }
+      Segment<T> last = segments.get(segments.size() - 1);
+      int size = last.size();
+      int start = segments.size() == 1 ? headStart : 0;
+      return start < size ? last.get(size - 1) : null;
+    }
+
+    /**
+     * Returns the largest entry in the cache that is smaller than the given entry, or {@code null} if there is none.
+     */
+    @Nullable
+    T getLower(T entry, Comparator<T> comparator) {
+      T lower = null;
+      for (int i = 0; i < segments.size(); i++) {
+        Segment<T> segment = segments.get(i);
+        int start = i == 0 ? headStart : 0;
+        int size = segment.size();
+        if (start == size) {
+          continue;
+        }
+        if (comparator.compare(segment.get(start), entry) >= 0) {
+          break;
+        }
+        int idx = segment.search(entry, true, start, size, comparator);
+        lower = segment.get(idx - 1);
+        if (idx < size) {
+          break;
+        }
+      }
+      return lower;
+    }
+
+    /**
+     * Returns an {@link Iterator} over the cached entries that are larger than (or equal to, if inclusive)
+     * the given start entry. The iterator doesn't include entries appended after this method returns.
+     */
+    Iterator<T> iterator(T startEntry, boolean inclusive, final Comparator<T> comparator) {
+      final int lastSize = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).size();
+
+      // Binary search for the first segment that has its last entry larger than the start entry
+      int low = 0;
+      int high = segments.size();
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        Segment<T> segment = segments.get(mid);
+        int size = mid == segments.size() - 1 ? lastSize : segment.size();
+        int cmp = comparator.compare(segment.get(size - 1), startEntry);
+        if (cmp > 0 || (inclusive && cmp == 0)) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+
+      final int startSegment = low;
+      final int startIdx;
+      if (startSegment < segments.size()) {
+        Segment<T> segment = segments.get(startSegment);
+        int size = startSegment == segments.size() - 1 ? lastSize : segment.size();
+        int from = startSegment == 0 ? headStart : 0;
+        startIdx = segment.search(startEntry, inclusive, from, size, comparator);
+      } else {
+        startIdx = 0;
+      }
+
+      return new AbstractIterator<T>() {
+        private int segmentIdx = startSegment;
+        private int idx = startIdx;
+
+        @Override
+        protected T computeNext() {
+          while (segmentIdx < segments.size()) {
+            Segment<T> segment = segments.get(segmentIdx);
+            int size = segmentIdx == segments.size() - 1 ? lastSize : segment.size();
+            if (idx < size) {
+              return segment.get(idx++);
+            }
+            segmentIdx++;
+            idx = 0;
+          }
+          return endOfData();
+        }
+      };
     }
   }
 
   /**
-   * A {@link Comparator} for {@link CacheEntry} that only compares with the user entry of type {@code T},
-   * using the provided {@link Comparator}.
+   * An {@link Iterator} that applies a {@link MessageFilter} and a limit on the entries provided by another
+   * {@link Iterator}.
    *
-   * @param <T> type of the user entry
+   * @param <T> type of the entry
    */
-  private static final class CacheEntryComparator<T> implements Comparator<CacheEntry<T>> {
+  private static final class FilteredEntryIterator<T> extends AbstractIterator<T> {
 
-    private final Comparator<T> comparator;
+    private final Iterator<T> iterator;
+    private final MessageFilter<T> filter;
+    private final int limit;
+    private int count;
 
-    private CacheEntryComparator(Comparator<T> comparator) {
-      this.comparator = comparator;
+    private FilteredEntryIterator(Iterator<T> iterator, MessageFilter<T> filter, int limit) {
+      this.iterator = iterator;
+      this.filter = filter;
+      this.limit = limit;
     }
 
     @Override
-    public int compare(CacheEntry<T> entry1, CacheEntry<T> entry2) {
-      return comparator.compare(entry1.getEntry(), entry2.getEntry());
+    protected T computeNext() {
+      while (count < limit && iterator.hasNext()) {
+        T entry = iterator.next();
+        MessageFilter.Result result = filter.apply(entry);
+        if (result == MessageFilter.Result.ACCEPT) {
+          count++;
+          return entry;
+        }
+        if (result == MessageFilter.Result.HOLD) {
+          // Hold means not to scan more, so just break
+          break;
+        }
+      }
+      return endOfData();
     }
   }
 }
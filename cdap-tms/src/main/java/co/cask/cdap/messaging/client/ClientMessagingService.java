@@ -16,7 +16,6 @@
 
 package co.cask.cdap.messaging.client;
 
-import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.dataset.lib.AbstractCloseableIterator;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.api.messaging.TopicAlreadyExistsException;
@@ -25,6 +24,7 @@ import co.cask.cdap.common.ServiceUnavailableException;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.http.DefaultHttpRequestConfig;
 import co.cask.cdap.common.internal.remote.RemoteClient;
+import co.cask.cdap.common.io.ByteBuffers;
 import co.cask.cdap.messaging.MessageFetcher;
 import co.cask.cdap.messaging.MessagingService;
 import co.cask.cdap.messaging.RollbackDetail;
@@ -376,7 +376,14 @@ public final class ClientMessagingService implements MessagingService {
 
       // These are for reading individual message (response is an array of messages)
       this.messageRecord = new GenericData.Record(Schemas.V1.ConsumeResponse.SCHEMA.getElementType());
-      this.messageReader = new GenericDatumReader<>(Schemas.V1.ConsumeResponse.SCHEMA.getElementType());
+      this.messageReader = new GenericDatumReader<GenericRecord>(Schemas.V1.ConsumeResponse.SCHEMA.getElementType()) {
+        @Override
+        protected Object readBytes(Object old, Decoder in) throws IOException {
+          // Always decode into a new exact-sized buffer, so that the backing array can be used by the
+          // RawMessage directly without copying
+          return in.readBytes(null);
+        }
+      };
     }
 
     @Override
@@ -398,10 +405,17 @@ public final class ClientMessagingService implements MessagingService {
 
       // The cask common http library doesn't support read streaming, and we don't want to buffer all messages
       // in memory, hence we use the HttpURLConnection directly instead.
-      URL url = remoteClient.resolve(createTopicPath(topicId) + "/poll");
+      // Ask the server to wait for new messages if there is no message available
+      long waitTimeMillis = getTransaction() == null ? getWaitTimeMillis() : 0L;
+      String path = createTopicPath(topicId) + "/poll";
+      if (waitTimeMillis > 0) {
+        path += "?wait=" + waitTimeMillis;
+      }
+      URL url = remoteClient.resolve(path);
       final HttpURLConnection urlConn = (HttpURLConnection)  url.openConnection();
       urlConn.setConnectTimeout(HTTP_REQUEST_CONFIG.getConnectTimeout());
-      urlConn.setReadTimeout(HTTP_REQUEST_CONFIG.getReadTimeout());
+      long readTimeout = HTTP_REQUEST_CONFIG.getReadTimeout() + waitTimeMillis;
+      urlConn.setReadTimeout((int) Math.min(Integer.MAX_VALUE, readTimeout));
       urlConn.setRequestMethod("POST");
       urlConn.setRequestProperty(HttpHeaders.CONTENT_TYPE, "avro/binary");
       urlConn.setDoInput(true);
@@ -460,8 +474,8 @@ public final class ClientMessagingService implements MessagingService {
             // The response will likely always be an array, but the element schema can evolve.
             messageRecord = messageReader.read(messageRecord, decoder);
 
-            return new RawMessage(Bytes.toBytes((ByteBuffer) messageRecord.get("id")),
-                                  Bytes.toBytes((ByteBuffer) messageRecord.get("payload")));
+            return new RawMessage(ByteBuffers.getByteArray((ByteBuffer) messageRecord.get("id")),
+                                  ByteBuffers.getByteArray((ByteBuffer) messageRecord.get("payload")));
           } catch (IOException e) {
             throw Throwables.propagate(e);
           }
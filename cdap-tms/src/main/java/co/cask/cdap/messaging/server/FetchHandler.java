@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -20,6 +20,7 @@ import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.api.messaging.TopicNotFoundException;
 import co.cask.cdap.common.BadRequestException;
+import co.cask.cdap.common.HttpExceptionHandler;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.ByteBuffers;
@@ -33,12 +34,20 @@ import co.cask.cdap.proto.id.NamespaceId;
 import co.cask.cdap.proto.id.TopicId;
 import co.cask.http.AbstractHttpHandler;
 import co.cask.http.BodyProducer;
+import co.cask.http.HandlerContext;
 import co.cask.http.HttpResponder;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Inject;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -55,6 +64,7 @@ import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.Encoder;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.tephra.TransactionCodec;
+import org.apache.twill.common.Threads;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,10 +75,17 @@ import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 
 /**
  * A netty http handler for handling message fetching REST API for the messaging system.
@@ -80,28 +97,57 @@ public final class FetchHandler extends AbstractHttpHandler {
   // Log at most once per minute.
   private static final Logger SAMPLING_LOG = Loggers.sampling(LOG, LogSamplers.limitRate(60000));
   private static final TransactionCodec TRANSACTION_CODEC = new TransactionCodec();
+  private static final HttpExceptionHandler EXCEPTION_HANDLER = new HttpExceptionHandler();
   private static final Set<String> KNOWN_IO_EXCEPTION_MESSAGES = ImmutableSet.of(
     "Connection reset by peer",
     "Broken pipe"
   );
 
   private final MessagingService messagingService;
+  private final long maxWaitMillis;
+  private final int fetchThreads;
   private int messageChunkSize;
+  private ExecutorService fetchExecutor;
 
   @Inject
   FetchHandler(CConfiguration cConf, MessagingService messagingService) {
     this.messagingService = messagingService;
     this.messageChunkSize = cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_CONSUME_CHUNK_SIZE);
+    this.maxWaitMillis = cConf.getLong(Constants.MessagingSystem.HTTP_SERVER_CONSUME_MAX_WAIT_MS);
+    this.fetchThreads = cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_EXECUTOR_THREADS);
+  }
+
+  @Override
+  public void init(HandlerContext context) {
+    super.init(context);
+    // Fetches that waited for new messages are completed in this executor instead of the notifier threads,
+    // which are shared by all topics and must not be blocked by reading or sending messages
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(fetchThreads, fetchThreads, 60, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         Threads.createDaemonThreadFactory("message-fetch-%d"));
+    executor.allowCoreThreadTimeOut(true);
+    fetchExecutor = executor;
+  }
+
+  @Override
+  public void destroy(HandlerContext context) {
+    super.destroy(context);
+    fetchExecutor.shutdownNow();
   }
 
   @POST
   @Path("poll")
-  public void poll(FullHttpRequest request, HttpResponder responder,
+  public void poll(final FullHttpRequest request, final HttpResponder responder,
                    @PathParam("namespace") String namespace,
-                   @PathParam("topic") String topic) throws Exception {
+                   @PathParam("topic") String topic,
+                   @QueryParam("wait") @DefaultValue("0") long waitMillis) throws Exception {
 
     TopicId topicId = new NamespaceId(namespace).topic(topic);
 
+    if (waitMillis < 0) {
+      throw new BadRequestException("Wait time must not be negative: " + waitMillis);
+    }
+
     // Currently only support avro
     if (!"avro/binary".equals(request.headers().get(HttpHeaderNames.CONTENT_TYPE))) {
       throw new BadRequestException("Only avro/binary content type is supported.");
@@ -112,21 +158,57 @@ public final class FetchHandler extends AbstractHttpHandler {
     DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(Schemas.V1.ConsumeRequest.SCHEMA);
 
     // Fetch the messages
-    CloseableIterator<RawMessage> iterator = fetchMessages(datumReader.read(null, decoder), topicId);
+    // The wait time is for long-polling new messages if there is no message available. The response is sent
+    // asynchronously from the fetch executor when the fetch completes, so that the waiting doesn't block the handler
+    // thread.
+    final ListenableFuture<CloseableIterator<RawMessage>> future =
+      fetchMessages(datumReader.read(null, decoder), topicId, Math.min(waitMillis, maxWaitMillis));
+    if (future.isDone()) {
+      try {
+        sendMessages(responder, Uninterruptibles.getUninterruptibly(future));
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), Exception.class);
+        throw Throwables.propagate(e.getCause());
+      }
+      return;
+    }
+
+    Futures.addCallback(future, new FutureCallback<CloseableIterator<RawMessage>>() {
+      @Override
+      public void onSuccess(CloseableIterator<RawMessage> iterator) {
+        try {
+          sendMessages(responder, iterator);
+        } catch (Throwable t) {
+          onFailure(t);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        EXCEPTION_HANDLER.handle(t, request, responder);
+      }
+    });
+  }
+
+  /**
+   * Sends the messages of the given iterator as the response. The iterator is closed when the response completed.
+   */
+  private void sendMessages(HttpResponder responder, CloseableIterator<RawMessage> iterator) {
     try {
       responder.sendContent(HttpResponseStatus.OK, new MessagesBodyProducer(iterator, messageChunkSize),
                             new DefaultHttpHeaders().set(HttpHeaderNames.CONTENT_TYPE, "avro/binary"));
     } catch (Throwable t) {
       iterator.close();
-      throw t;
+      throw Throwables.propagate(t);
     }
   }
 
   /**
-   * Creates a {@link CloseableIterator} of {@link RawMessage} based on the given fetch request.
+   * Fetches a {@link CloseableIterator} of {@link RawMessage} asynchronously based on the given fetch request.
    */
-  private CloseableIterator<RawMessage> fetchMessages(GenericRecord fetchRequest,
-                                                      TopicId topicId) throws IOException, TopicNotFoundException {
+  private ListenableFuture<CloseableIterator<RawMessage>> fetchMessages(GenericRecord fetchRequest, TopicId topicId,
+                                                                        long waitMillis)
+    throws IOException, TopicNotFoundException {
     MessageFetcher fetcher = messagingService.prepareFetch(topicId);
 
     Object startFrom = fetchRequest.get("startFrom");
@@ -153,23 +235,30 @@ public final class FetchHandler extends AbstractHttpHandler {
       fetcher.setTransaction(TRANSACTION_CODEC.decode(ByteBuffers.getByteArray(encodedTx)));
     }
 
-    return fetcher.fetch();
+    if (waitMillis > 0) {
+      fetcher.setWaitTime(waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    return fetcher.fetchAsync(fetchExecutor);
   }
 
   /**
    * A {@link BodyProducer} to encode and send back messages.
    * Instead of using GenericDatumWriter, we perform the array encoding manually so that we don't have to buffer
    * all messages in memory before sending out.
+   * Each chunk is encoded directly into a buffer allocated from the pooled allocator, and the ownership of the buffer
+   * is handed over to Netty, which releases it after the chunk is written to the channel. This avoids copying the
+   * encoded messages for every chunk.
    */
   private static class MessagesBodyProducer extends BodyProducer {
 
     private final CloseableIterator<RawMessage> iterator;
     private final List<RawMessage> messages;
     private final int messageChunkSize;
-    private final ByteBuf chunk;
-    private final Encoder encoder;
+    private final ByteBufAllocator allocator;
     private final GenericRecord messageRecord;
     private final DatumWriter<GenericRecord> messageWriter;
+    private Encoder encoder;
     private boolean arrayStarted;
     private boolean arrayEnded;
 
@@ -177,8 +266,7 @@ public final class FetchHandler extends AbstractHttpHandler {
       this.iterator = iterator;
       this.messages = new ArrayList<>();
       this.messageChunkSize = messageChunkSize;
-      this.chunk = Unpooled.buffer(messageChunkSize);
-      this.encoder = EncoderFactory.get().directBinaryEncoder(new ByteBufOutputStream(chunk), null);
+      this.allocator = PooledByteBufAllocator.DEFAULT;
 
       // These are for writing individual message (response is an array of messages)
       this.messageRecord = new GenericData.Record(Schemas.V1.ConsumeResponse.SCHEMA.getElementType());
@@ -201,7 +289,22 @@ public final class FetchHandler extends AbstractHttpHandler {
         return Unpooled.EMPTY_BUFFER;
       }
 
-      chunk.clear();
+      ByteBuf chunk = allocator.buffer(messageChunkSize);
+      try {
+        encodeChunk(chunk);
+        return chunk;
+      } catch (Throwable t) {
+        chunk.release();
+        throw t;
+      }
+    }
+
+    /**
+     * Encodes the next batch of messages into the given buffer.
+     */
+    private void encodeChunk(ByteBuf chunk) throws IOException {
+      // The direct binary encoder has no internal buffer, hence it is safe to reuse it with a new output
+      encoder = EncoderFactory.get().directBinaryEncoder(new ByteBufOutputStream(chunk), encoder);
 
       if (!arrayStarted) {
         arrayStarted = true;
@@ -237,14 +340,11 @@ public final class FetchHandler extends AbstractHttpHandler {
         arrayEnded = true;
         encoder.writeArrayEnd();
       }
-
-      return chunk.copy();
     }
 
     @Override
     public void finished() throws Exception {
       iterator.close();
-      chunk.release();
     }
 
     @Override
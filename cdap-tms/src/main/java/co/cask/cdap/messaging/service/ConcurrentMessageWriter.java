@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -31,7 +31,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -51,22 +54,33 @@ import javax.annotation.concurrent.ThreadSafe;
  * 3. If successfully set the flag to true, this thread becomes the writer and proceed to run step 4-7.
  * 4. Provides an Iterator of PendingStoreRequest, which consumes from the ConcurrentLinkedQueue mentioned in step 1.
  * 5. The message table store method will consume the Iterator until it is empty
- * 6. Set the state of each PendingStoreRequest that are written to COMPLETED (succeed/failure).
- * 7. Set the AtomicBoolean flag back to false.
- * 8. If the PendingStoreRequest enqueued by this thread is NOT COMPLETED, go back to step 2.
+ * 6. Set the state of each PendingStoreRequest that are written to COMPLETED (succeed/failure) and unpark the threads
+ *    that are waiting for them.
+ * 7. Set the AtomicBoolean flag back to false, and unpark the thread of the first PendingStoreRequest remaining in
+ *    the queue, if any, so that it retries to become the writer.
+ * 8. If failed to set the flag in step 3, park until unparked by the writer.
+ * 9. If the PendingStoreRequest enqueued by this thread is NOT COMPLETED, go back to step 2.
  * </pre>
  *
- * The spin lock between step 2 to step 8 is necessary as it guarantees events enqueued by all threads would eventually
- * get written and flushed.
+ * The loop between step 2 to step 9 is necessary as it guarantees events enqueued by all threads would eventually
+ * get written and flushed. Since a request is enqueued before trying to set the flag and the writer checks the queue
+ * after resetting the flag, a thread that failed to set the flag is always unparked later.
+ *
+ * Optionally, the writer can wait for a short latency window after acquiring the flag in step 3 if other requests are
+ * already queued, so that requests enqueued by other threads within the window are written together in the same
+ * batch. This is used for group commit of store requests across all topics.
  */
 @ThreadSafe
 final class ConcurrentMessageWriter implements Closeable {
 
+  private static final long CLOSE_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
   private final StoreRequestWriter<?> messagesWriter;
   private final MetricsCollector metricsCollector;
   private final PendingStoreQueue pendingStoreQueue;
   private final AtomicBoolean writerFlag;
   private final AtomicBoolean closed;
+  private final long batchLatencyNanos;
 
   /**
    * Constructor with a {@link NoopMetricsContext}. This constructor should only be used in unit-testing.
@@ -83,6 +97,20 @@ final class ConcurrentMessageWriter implements Closeable {
    * @param metricsCollector the {@link MetricsCollector} for collecting metrics emitted by this class.
    */
   ConcurrentMessageWriter(StoreRequestWriter<?> messagesWriter, MetricsCollector metricsCollector) {
+    this(messagesWriter, metricsCollector, 0L);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param messagesWriter the {@link StoreRequestWriter} for persisting {@link StoreRequest}.
+   * @param metricsCollector the {@link MetricsCollector} for collecting metrics emitted by this class.
+   * @param batchLatencyMillis number of milliseconds to wait for more requests before writing a batch;
+   *                           {@code 0} to write immediately
+   */
+  ConcurrentMessageWriter(StoreRequestWriter<?> messagesWriter, MetricsCollector metricsCollector,
+                          long batchLatencyMillis) {
+    this.batchLatencyNanos = TimeUnit.MILLISECONDS.toNanos(batchLatencyMillis);
     this.messagesWriter = messagesWriter;
     this.metricsCollector = metricsCollector;
     this.pendingStoreQueue = new PendingStoreQueue(metricsCollector);
@@ -113,7 +141,8 @@ final class ConcurrentMessageWriter implements Closeable {
 
     while (!pendingStoreRequest.isCompleted()) {
       if (!tryWrite()) {
-        Thread.yield();
+        // The current writer unparks this thread when the request is completed or when the writer flag is released
+        LockSupport.park(this);
       }
     }
 
@@ -144,10 +173,17 @@ final class ConcurrentMessageWriter implements Closeable {
       return false;
     }
     try {
+      if (batchLatencyNanos > 0 && pendingStoreQueue.size() > 1 && !closed.get()) {
+        // Other requests are queued concurrently, hence wait for more requests to be enqueued,
+        // so that they are written in the same batch
+        LockSupport.parkNanos(batchLatencyNanos);
+      }
       pendingStoreQueue.persist(messagesWriter);
     } finally {
       writerFlag.set(false);
     }
+    // Wake up the thread of a request that was enqueued while writing, so that it becomes the next writer
+    pendingStoreQueue.unparkNext();
     return true;
   }
 
@@ -160,7 +196,8 @@ final class ConcurrentMessageWriter implements Closeable {
     // When this thread can grab the writer flag, all pending write requests must be completed since the closed
     // flag was already set to false.
     while (!tryWrite()) {
-      Thread.yield();
+      // This thread has no request in the queue to be unparked, hence park for a short time before retrying
+      LockSupport.parkNanos(CLOSE_RETRY_NANOS);
     }
     messagesWriter.close();
   }
@@ -174,11 +211,13 @@ final class ConcurrentMessageWriter implements Closeable {
 
     private final MetricsCollector metricsCollector;
     private final Queue<PendingStoreRequest> writeQueue;
+    private final AtomicInteger writeQueueSize;
     private final List<PendingStoreRequest> inflightRequests;
 
     private PendingStoreQueue(MetricsCollector metricsCollector) {
       this.metricsCollector = metricsCollector;
       this.writeQueue = new ConcurrentLinkedQueue<>();
+      this.writeQueueSize = new AtomicInteger();
       this.inflightRequests = new ArrayList<>(100);
     }
 
@@ -186,9 +225,27 @@ final class ConcurrentMessageWriter implements Closeable {
      * Puts the given {@link PendingStoreRequest} to the concurrent queue.
      */
     void enqueue(PendingStoreRequest storeRequest) {
+      writeQueueSize.incrementAndGet();
       writeQueue.add(storeRequest);
     }
 
+    /**
+     * Returns the number of requests in the concurrent queue.
+     */
+    int size() {
+      return writeQueueSize.get();
+    }
+
+    /**
+     * Unparks the thread of the first {@link PendingStoreRequest} in the queue, if there is any.
+     */
+    void unparkNext() {
+      PendingStoreRequest next = writeQueue.peek();
+      if (next != null) {
+        LockSupport.unpark(next.getThread());
+      }
+    }
+
     /**
      * Persists all {@link PendingStoreRequest} currently in the queue with the given writer.
      */
@@ -202,28 +259,37 @@ final class ConcurrentMessageWriter implements Closeable {
       inflightRequests.clear();
       PendingStoreRequest request = writeQueue.poll();
       while (request != null) {
+        writeQueueSize.decrementAndGet();
         inflightRequests.add(request);
         request = writeQueue.poll();
       }
 
+      // The queue size is the number of requests written in one batch
       metricsCollector.gauge("persist.queue.size", inflightRequests.size());
 
+      long startTime = System.nanoTime();
       try {
         writer.write(inflightRequests.iterator());
         completeAll(null);
       } catch (Throwable t) {
         completeAll(t);
       }
+      metricsCollector.gauge("persist.commit.duration.ms",
+                             TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
     }
 
     /**
-     * Marks all inflight requests as collected through the {@link Iterator#next()} method as completed.
-     * This method must be called while holding the writer flag.
+     * Marks all inflight requests as collected through the {@link Iterator#next()} method as completed and unparks
+     * the threads waiting for them. This method must be called while holding the writer flag.
      */
     void completeAll(@Nullable Throwable failureCause) {
       Iterator<PendingStoreRequest> iterator = inflightRequests.iterator();
       while (iterator.hasNext()) {
-        iterator.next().completed(failureCause);
+        PendingStoreRequest request = iterator.next();
+        request.completed(failureCause);
+        if (request.getThread() != Thread.currentThread()) {
+          LockSupport.unpark(request.getThread());
+        }
         iterator.remove();
       }
     }
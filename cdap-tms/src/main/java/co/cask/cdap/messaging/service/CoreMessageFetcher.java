@@ -25,11 +25,17 @@ import co.cask.cdap.messaging.store.MessageTable;
 import co.cask.cdap.messaging.store.PayloadTable;
 import co.cask.cdap.proto.id.TopicId;
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
@@ -44,17 +50,76 @@ final class CoreMessageFetcher extends MessageFetcher {
   private final TopicMetadata topicMetadata;
   private final TableProvider<MessageTable> messageTableProvider;
   private final TableProvider<PayloadTable> payloadTableProvider;
+  private final MessageNotifier messageNotifier;
 
   CoreMessageFetcher(TopicMetadata topicMetadata,
                      TableProvider<MessageTable> messageTableProvider,
-                     TableProvider<PayloadTable> payloadTableProvider) {
+                     TableProvider<PayloadTable> payloadTableProvider,
+                     MessageNotifier messageNotifier) {
     this.topicMetadata = topicMetadata;
     this.messageTableProvider = messageTableProvider;
     this.payloadTableProvider = payloadTableProvider;
+    this.messageNotifier = messageNotifier;
   }
 
   @Override
   public CloseableIterator<RawMessage> fetch() throws IOException {
+    long waitTimeMillis = getEffectiveWaitTimeMillis();
+    TopicId topicId = topicMetadata.getTopicId();
+    long generation = waitTimeMillis > 0L ? messageNotifier.getGeneration(topicId) : 0L;
+    CloseableIterator<RawMessage> iterator = doFetch();
+    if (waitTimeMillis <= 0L || iterator.hasNext()) {
+      return iterator;
+    }
+    iterator.close();
+
+    // Wait in the calling thread and fetch again, which returns nothing if there is still no new message
+    try {
+      messageNotifier.listen(topicId, generation, waitTimeMillis, TimeUnit.MILLISECONDS).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for messages in topic " + topicId);
+    } catch (ExecutionException e) {
+      // This shouldn't happen since waiting never fails
+      throw Throwables.propagate(e.getCause());
+    }
+    return doFetch();
+  }
+
+  @Override
+  public ListenableFuture<CloseableIterator<RawMessage>> fetchAsync(Executor executor) {
+    long waitTimeMillis = getEffectiveWaitTimeMillis();
+
+    // Get the generation before fetching, so that messages published after the fetch won't be missed
+    TopicId topicId = topicMetadata.getTopicId();
+    long generation = waitTimeMillis > 0L ? messageNotifier.getGeneration(topicId) : 0L;
+    try {
+      CloseableIterator<RawMessage> iterator = doFetch();
+      if (waitTimeMillis <= 0L || iterator.hasNext()) {
+        return Futures.immediateFuture(iterator);
+      }
+      iterator.close();
+    } catch (Exception e) {
+      return Futures.immediateFailedFuture(e);
+    }
+
+    // Always fetch again after waiting, which returns nothing if there is still no new message.
+    // The notifier threads are shared by all topics, hence the fetch is done by the given executor.
+    return Futures.transform(messageNotifier.listen(topicId, generation, waitTimeMillis, TimeUnit.MILLISECONDS),
+                             new AsyncFunction<Boolean, CloseableIterator<RawMessage>>() {
+      @Override
+      public ListenableFuture<CloseableIterator<RawMessage>> apply(Boolean published) throws Exception {
+        return Futures.immediateFuture(doFetch());
+      }
+    }, executor);
+  }
+
+  private long getEffectiveWaitTimeMillis() {
+    // Waiting is not supported for transactional fetch, since it would hold the transaction open
+    return getTransaction() == null ? getWaitTimeMillis() : 0L;
+  }
+
+  private CloseableIterator<RawMessage> doFetch() throws IOException {
     MessageTable messageTable = messageTableProvider.get();
     try {
       return new MessageCloseableIterator(messageTable);
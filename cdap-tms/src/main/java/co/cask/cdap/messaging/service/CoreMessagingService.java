@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -85,6 +85,9 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
   private final TimeProvider timeProvider;
   private final MetricsCollectionService metricsCollectionService;
   private final long txMaxLifeTimeInMillis;
+  private final boolean groupCommitEnabled;
+  private final MessageNotifier messageNotifier;
+  private ConcurrentMessageWriter groupCommitWriter;
 
   @Inject
   CoreMessagingService(CConfiguration cConf, TableFactory tableFactory,
@@ -114,6 +117,8 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     this.metricsCollectionService = metricsCollectionService;
     this.txMaxLifeTimeInMillis = TimeUnit.SECONDS.toMillis(cConf.getLong(TxConstants.Manager.CFG_TX_MAX_LIFETIME,
                                                                          TxConstants.Manager.DEFAULT_TX_MAX_LIFETIME));
+    this.groupCommitEnabled = cConf.getBoolean(Constants.MessagingSystem.GROUP_COMMIT_ENABLED, false);
+    this.messageNotifier = new MessageNotifier();
   }
 
   @Override
@@ -142,6 +147,7 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       topicCache.invalidate(topicId);
       messageTableWriterCache.invalidate(topicId);
       payloadTableWriterCache.invalidate(topicId);
+      messageNotifier.remove(topicId);
     }
   }
 
@@ -176,7 +182,7 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       public PayloadTable get() throws IOException {
         return createPayloadTable(metadata);
       }
-    });
+    }, messageNotifier);
   }
 
   @Nullable
@@ -187,7 +193,14 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       if (request.isTransactional()) {
         ensureValidTxLifetime(request.getTransactionWritePointer());
       }
-      return messageTableWriterCache.get(request.getTopicId()).persist(request, metadata);
+      // With group commit, all requests, transactional or not, go through the shared writer, so that
+      // each topic has only one writer generating the publish timestamp and sequence id
+      ConcurrentMessageWriter writer = groupCommitEnabled
+        ? getGroupCommitWriter() : messageTableWriterCache.get(request.getTopicId());
+      RollbackDetail rollbackDetail = writer.persist(request, metadata);
+      // Wakes up fetchers that are waiting for new messages
+      messageNotifier.notifyPublished(request.getTopicId());
+      return rollbackDetail;
     } catch (ExecutionException e) {
       Throwable cause = Objects.firstNonNull(e.getCause(), e);
       Throwables.propagateIfPossible(cause, TopicNotFoundException.class, IOException.class);
@@ -260,6 +273,17 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     messageTableWriterCache.invalidateAll();
     messageTableWriterCache.invalidateAll();
     payloadTableWriterCache.invalidateAll();
+    synchronized (this) {
+      if (groupCommitWriter != null) {
+        try {
+          groupCommitWriter.close();
+        } catch (IOException e) {
+          LOG.warn("Exception raised when closing group commit message writer", e);
+        }
+        groupCommitWriter = null;
+      }
+    }
+    messageNotifier.close();
     LOG.info("Core Messaging Service stopped");
   }
 
@@ -378,6 +402,28 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       });
   }
 
+  /**
+   * Returns the {@link ConcurrentMessageWriter} shared by all topics for writing to the {@link MessageTable}
+   * when group commit is enabled. Store requests to different topics that are pending at the same time are
+   * written to the {@link MessageTable} in one batch.
+   */
+  private synchronized ConcurrentMessageWriter getGroupCommitWriter() throws IOException {
+    if (groupCommitWriter != null) {
+      return groupCommitWriter;
+    }
+    // The message table is shared by all topics, hence the topic metadata is not used
+    StoreRequestWriter<?> messagesWriter = new MessageTableStoreRequestWriter(createMessageTable(null), timeProvider);
+    MetricsContext metricsContext = metricsCollectionService.getContext(ImmutableMap.of(
+      Constants.Metrics.Tag.COMPONENT, Constants.Service.MESSAGING_SERVICE,
+      Constants.Metrics.Tag.INSTANCE_ID, cConf.get(Constants.MessagingSystem.CONTAINER_INSTANCE_ID, "0"),
+      Constants.Metrics.Tag.NAMESPACE, NamespaceId.SYSTEM.getNamespace(),
+      Constants.Metrics.Tag.TABLE, "message"
+    ));
+    groupCommitWriter = new ConcurrentMessageWriter(messagesWriter, metricsContext,
+                                                    cConf.getLong(Constants.MessagingSystem.GROUP_COMMIT_LATENCY_MS));
+    return groupCommitWriter;
+  }
+
   /**
    * Creates a new instance of {@link MetadataTable}.
    */
@@ -385,7 +431,8 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     return tableFactory.createMetadataTable(cConf.get(Constants.MessagingSystem.METADATA_TABLE_NAME));
   }
 
-  private MessageTable createMessageTable(@SuppressWarnings("unused") TopicMetadata topicMetadata) throws IOException {
+  private MessageTable createMessageTable(@SuppressWarnings("unused") @Nullable TopicMetadata topicMetadata)
+    throws IOException {
     // Currently we don't support customizable table name yet, hence always get it from cConf.
     // Later on it can be done by topic properties, with impersonation setting as well.
     return tableFactory.createMessageTable(cConf.get(Constants.MessagingSystem.MESSAGE_TABLE_NAME));
@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.service;
+
+import co.cask.cdap.proto.id.TopicId;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.twill.common.Threads;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Notifies fetchers that are waiting for new messages of a topic. Each topic has a generation number, which is
+ * increased every time new messages are published to the topic. A fetcher reads the generation before fetching,
+ * and if the fetch returns nothing, listens for the generation to change.
+ *
+ * Waiting fetchers don't hold any thread. They are completed from the notifier threads when new messages are
+ * published or when the wait times out, so that neither the publishing thread nor the fetching thread is blocked.
+ */
+@ThreadSafe
+final class MessageNotifier implements Closeable {
+
+  private static final int NOTIFIER_THREADS = 4;
+
+  private final ConcurrentMap<TopicId, TopicSignal> signals = new ConcurrentHashMap<>();
+  private final ScheduledThreadPoolExecutor executor;
+
+  MessageNotifier() {
+    this.executor = new ScheduledThreadPoolExecutor(NOTIFIER_THREADS,
+                                                    Threads.createDaemonThreadFactory("message-notifier-%d"));
+    // Timeouts are cancelled when new messages are published, hence remove them from the queue
+    this.executor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Returns the current generation of the given topic.
+   */
+  long getGeneration(TopicId topicId) {
+    return getSignal(topicId).getGeneration();
+  }
+
+  /**
+   * Notifies all fetchers waiting on the given topic that new messages were published.
+   */
+  void notifyPublished(TopicId topicId) {
+    // Only need to notify if someone ever waited on the topic
+    TopicSignal signal = signals.get(topicId);
+    if (signal != null) {
+      signal.increment();
+    }
+  }
+
+  /**
+   * Listens for the generation of the given topic to change from the given generation. If the generation has
+   * already changed, the returned future is completed immediately. Otherwise it is completed from a notifier
+   * thread. Since the notifier threads are shared by all topics, listeners that fetch or perform other blocking
+   * operations must be added with an executor of their own.
+   *
+   * @param topicId the topic to wait for
+   * @param generation the generation as returned by {@link #getGeneration(TopicId)} before fetching
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return a future that is completed with {@code true} if new messages were published;
+   *         with {@code false} if timeout reached
+   */
+  ListenableFuture<Boolean> listen(TopicId topicId, long generation, long timeout, TimeUnit unit) {
+    return getSignal(topicId).listen(generation, timeout, unit);
+  }
+
+  /**
+   * Removes the given topic. All fetchers waiting on the topic will be woken up.
+   */
+  void remove(TopicId topicId) {
+    TopicSignal signal = signals.remove(topicId);
+    if (signal != null) {
+      signal.increment();
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private TopicSignal getSignal(TopicId topicId) {
+    TopicSignal signal = signals.get(topicId);
+    if (signal != null) {
+      return signal;
+    }
+    signal = new TopicSignal();
+    TopicSignal existing = signals.putIfAbsent(topicId, signal);
+    return existing == null ? signal : existing;
+  }
+
+  /**
+   * The generation of a topic and the fetchers waiting for it to change. All states are guarded by the instance
+   * monitor.
+   */
+  private final class TopicSignal {
+
+    private final List<SettableFuture<Boolean>> waiters = new ArrayList<>();
+    private long generation;
+
+    synchronized long getGeneration() {
+      return generation;
+    }
+
+    void increment() {
+      final List<SettableFuture<Boolean>> notified;
+      synchronized (this) {
+        generation++;
+        if (waiters.isEmpty()) {
+          return;
+        }
+        notified = new ArrayList<>(waiters);
+        waiters.clear();
+      }
+      // Complete the waiters in the notifier thread to not block the publisher
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (SettableFuture<Boolean> waiter : notified) {
+            waiter.set(true);
+          }
+        }
+      });
+    }
+
+    ListenableFuture<Boolean> listen(long expected, long timeout, TimeUnit unit) {
+      final SettableFuture<Boolean> waiter = SettableFuture.create();
+      synchronized (this) {
+        if (generation != expected) {
+          return Futures.immediateFuture(true);
+        }
+        waiters.add(waiter);
+      }
+
+      final ScheduledFuture<?> timeoutFuture = executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (TopicSignal.this) {
+            waiters.remove(waiter);
+          }
+          waiter.set(false);
+        }
+      }, timeout, unit);
+
+      waiter.addListener(new Runnable() {
+        @Override
+        public void run() {
+          timeoutFuture.cancel(false);
+        }
+      }, MoreExecutors.sameThreadExecutor());
+      return waiter;
+    }
+  }
+}
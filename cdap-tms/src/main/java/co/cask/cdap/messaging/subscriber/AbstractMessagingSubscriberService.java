@@ -33,6 +33,8 @@ import co.cask.cdap.common.service.AbstractRetryableScheduledService;
 import co.cask.cdap.common.service.RetryStrategy;
 import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.common.utils.TimeBoundIterator;
+import co.cask.cdap.messaging.MessagingService;
+import co.cask.cdap.messaging.context.MessageIterator;
 import co.cask.cdap.messaging.data.MessageId;
 import co.cask.cdap.proto.id.TopicId;
 import com.google.common.collect.AbstractIterator;
@@ -44,6 +46,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import javax.xml.ws.handler.MessageContext;
 
@@ -108,6 +111,19 @@ public abstract class AbstractMessagingSubscriberService<T> extends AbstractRetr
    */
   protected abstract MessagingContext getMessagingContext();
 
+  /**
+   * Returns the {@link MessagingService} for fetching messages without transaction. If it is provided, the fetch
+   * waits up to the empty fetch delay for new messages to arrive instead of sleeping after an empty fetch, so that
+   * new messages are processed as soon as they are published.
+   *
+   * @return the {@link MessagingService} or {@code null} to always fetch through the {@link MessagingContext}
+   *         as returned by {@link #getMessagingContext()}
+   */
+  @Nullable
+  protected MessagingService getMessagingService() {
+    return null;
+  }
+
   /**
    * Returns the {@link Transactional} for executing tasks in transaction.
    */
@@ -223,13 +239,19 @@ public abstract class AbstractMessagingSubscriberService<T> extends AbstractRetr
     long startTime = System.currentTimeMillis();
 
     final List<Message> messages = fetchMessages(messageId);
-    metricsContext.gauge("tms.fetch.time.ms", System.currentTimeMillis() - startTime);
+    long fetchTime = System.currentTimeMillis() - startTime;
+    metricsContext.gauge("tms.fetch.time.ms", fetchTime);
+    metricsContext.histogram("tms.fetch.time.ms", fetchTime);
     metricsContext.increment("tms.fetch.messages", messages.size());
 
-    // Return if stopping or request to sleep for configured number of milliseconds if there are no notifications
-    if (messages.isEmpty() || state() != State.RUNNING) {
+    // Return if stopping or request to sleep for configured number of milliseconds if there are no notifications.
+    // No need to sleep if the fetch already waited for new messages.
+    if (state() != State.RUNNING) {
       return emptyFetchDelayMillis;
     }
+    if (messages.isEmpty()) {
+      return isLongPolling() ? 0L : emptyFetchDelayMillis;
+    }
 
     startTime = System.currentTimeMillis();
 
@@ -271,6 +293,7 @@ public abstract class AbstractMessagingSubscriberService<T> extends AbstractRetr
 
     long endTime = System.currentTimeMillis();
     metricsContext.gauge("process.duration.ms", endTime - startTime);
+    metricsContext.histogram("process.duration.ms", endTime - startTime);
     metricsContext.increment("process.notifications", iterator.getConsumedCount());
 
     // Calculate the delay
@@ -300,9 +323,7 @@ public abstract class AbstractMessagingSubscriberService<T> extends AbstractRetr
   private List<Message> doFetchMessages(@Nullable String messageId) throws TopicNotFoundException, IOException {
     List<Message> messages = new ArrayList<>();
     LOG.trace("Fetching from topic '{}' with messageId '{}'", messageId);
-    MessageFetcher messageFetcher = getMessagingContext().getMessageFetcher();
-    try (CloseableIterator<Message> iterator = messageFetcher.fetch(topicId.getNamespace(),
-                                                                    topicId.getTopic(), fetchSize, messageId)) {
+    try (CloseableIterator<Message> iterator = openFetchIterator(messageId)) {
       while (iterator.hasNext() && state() == State.RUNNING) {
         messages.add(iterator.next());
       }
@@ -310,6 +331,32 @@ public abstract class AbstractMessagingSubscriberService<T> extends AbstractRetr
     return messages;
   }
 
+  /**
+   * Opens a {@link CloseableIterator} for fetching messages after the given message id.
+   */
+  private CloseableIterator<Message> openFetchIterator(@Nullable String messageId)
+    throws TopicNotFoundException, IOException {
+    if (!isLongPolling()) {
+      MessageFetcher messageFetcher = getMessagingContext().getMessageFetcher();
+      return messageFetcher.fetch(topicId.getNamespace(), topicId.getTopic(), fetchSize, messageId);
+    }
+
+    co.cask.cdap.messaging.MessageFetcher fetcher = getMessagingService().prepareFetch(topicId)
+      .setLimit(fetchSize)
+      .setWaitTime(emptyFetchDelayMillis, TimeUnit.MILLISECONDS);
+    if (messageId != null) {
+      fetcher.setStartMessage(Bytes.fromHexString(messageId), false);
+    }
+    return new MessageIterator(fetcher.fetch());
+  }
+
+  /**
+   * Returns {@code true} if fetching waits for new messages instead of returning immediately.
+   */
+  private boolean isLongPolling() {
+    return !transactionalFetch && emptyFetchDelayMillis > 0 && getMessagingService() != null;
+  }
+
   /**
    * Returns the publish time encoded in the given message id.
    *
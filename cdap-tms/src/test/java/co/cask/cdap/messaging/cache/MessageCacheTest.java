@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -25,7 +25,10 @@ import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.Assert;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -36,6 +39,9 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -43,6 +49,7 @@ import java.util.concurrent.TimeUnit;
  */
 public class MessageCacheTest {
 
+  private static final Logger LOG = LoggerFactory.getLogger(MessageCacheTest.class);
   private static final MetricsContext NOOP_METRICS = new NoopMetricsContext();
 
   @Test
@@ -266,6 +273,174 @@ public class MessageCacheTest {
     }
   }
 
+  @Test
+  public void testSegments() {
+    // Use a small segment size so that entries span across multiple segments
+    MessageCache<Integer> cache = new MessageCache<>(new IntComparator(), new UnitWeigher<Integer>(),
+                                                     new MessageCache.Limits(5, 7, 10), NOOP_METRICS, 3);
+    MessageFilter<Integer> filter = MessageFilter.alwaysAccept();
+
+    cache.addAll(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8).iterator());
+
+    // First scan gives all entries. Reduction on scanner close removes the first segment
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 10, filter)) {
+      Assert.assertEquals(Integer.valueOf(1), scanner.getFirstInCache());
+      Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), Lists.newArrayList(scanner));
+    }
+    Assert.assertEquals(5, cache.getCurrentWeight());
+
+    // Scan with start keys at segment boundaries
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(3, true, 10, filter)) {
+      Assert.assertEquals(Integer.valueOf(4), scanner.getFirstInCache());
+      Assert.assertEquals(Arrays.asList(4, 5, 6, 7, 8), Lists.newArrayList(scanner));
+    }
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(6, true, 10, filter)) {
+      Assert.assertEquals(Arrays.asList(6, 7, 8), Lists.newArrayList(scanner));
+    }
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(6, false, 10, filter)) {
+      Assert.assertEquals(Arrays.asList(7, 8), Lists.newArrayList(scanner));
+    }
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(8, false, 10, filter)) {
+      Assert.assertFalse(scanner.hasNext());
+    }
+
+    // Reduction removes the first segment and trims the second one
+    cache.addAll(Arrays.asList(9, 10, 11, 12).iterator());
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 10, filter)) {
+      Assert.assertEquals(Arrays.asList(4, 5, 6, 7, 8, 9, 10, 11, 12), Lists.newArrayList(scanner));
+    }
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 10, filter)) {
+      Assert.assertEquals(Integer.valueOf(8), scanner.getFirstInCache());
+      Assert.assertEquals(Arrays.asList(8, 9, 10, 11, 12), Lists.newArrayList(scanner));
+    }
+
+    // Update should only see entries in the cache
+    final List<Integer> updated = new ArrayList<>();
+    cache.updateEntries(0, 10, new MessageCache.EntryUpdater<Integer>() {
+      @Override
+      public void updateEntry(Integer entry) {
+        updated.add(entry);
+      }
+    });
+    Assert.assertEquals(Arrays.asList(8, 9, 10), updated);
+  }
+
+  @Test
+  public void testSegmentRelease() {
+    MessageCache<Integer> cache = new MessageCache<>(new IntComparator(), new UnitWeigher<Integer>(),
+                                                     new MessageCache.Limits(2, 2, 100), NOOP_METRICS, 3);
+    MessageFilter<Integer> filter = MessageFilter.alwaysAccept();
+
+    // Reduction on scanner close removes the first segment and replaces the trimmed second one with a copy
+    cache.addAll(Arrays.asList(1, 2, 3, 4, 5, 6, 7).iterator());
+    Assert.assertEquals(7, cache.getReferencedEntryCount());
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 10, filter)) {
+      Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7), Lists.newArrayList(scanner));
+    }
+    Assert.assertEquals(2, cache.getReferencedEntryCount());
+    assertEntries(cache, 6, 7);
+
+    // The last segment keeps its removed entries until the writer starts a new segment
+    cache.resize(new MessageCache.Limits(0, 0, 100));
+    Assert.assertEquals(0, cache.getCurrentWeight());
+    Assert.assertEquals(1, cache.getReferencedEntryCount());
+    assertEntries(cache);
+    cache.resize(new MessageCache.Limits(1, 1, 100));
+    cache.addAll(Collections.singletonList(8).iterator());
+    Assert.assertEquals(1, cache.getReferencedEntryCount());
+    assertEntries(cache, 8);
+
+    // A trimmed last segment is replaced by a copy once it is full
+    cache.addAll(Arrays.asList(9, 10).iterator());
+    cache.resize(new MessageCache.Limits(1, 1, 100));
+    Assert.assertEquals(3, cache.getReferencedEntryCount());
+    assertEntries(cache, 10);
+    cache.addAll(Collections.singletonList(11).iterator());
+    Assert.assertEquals(2, cache.getReferencedEntryCount());
+    assertEntries(cache, 10, 11);
+
+    // Clear releases all segments
+    cache.clear();
+    Assert.assertEquals(0, cache.getCurrentWeight());
+    Assert.assertEquals(0, cache.getReferencedEntryCount());
+    assertEntries(cache);
+    cache.addAll(Arrays.asList(1, 2).iterator());
+    Assert.assertEquals(2, cache.getCurrentWeight());
+    assertEntries(cache, 1, 2);
+  }
+
+  private void assertEntries(MessageCache<Integer> cache, Integer... expected) {
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 100, MessageFilter.<Integer>alwaysAccept())) {
+      Assert.assertEquals(expected.length == 0 ? null : expected[0], scanner.getFirstInCache());
+      Assert.assertEquals(Arrays.asList(expected), Lists.newArrayList(scanner));
+    }
+  }
+
+  @Test
+  public void testConcurrentAddAndScan() throws Exception {
+    // One writer keeps adding entries, while multiple fetchers keep scanning for new entries.
+    final MessageCache<Integer> cache = new MessageCache<>(new IntComparator(), new UnitWeigher<Integer>(),
+                                                           new MessageCache.Limits(500, 700, 1000), NOOP_METRICS, 64);
+    final int totalEntries = 200000;
+    final int batchSize = 100;
+    int fetchers = 4;
+
+    ExecutorService executor = Executors.newFixedThreadPool(fetchers + 1);
+    try {
+      long startTime = System.nanoTime();
+      Future<?> writer = executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < totalEntries; i += batchSize) {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int j = i; j < i + batchSize; j++) {
+              batch.add(j);
+            }
+            cache.addAll(batch.iterator());
+          }
+        }
+      });
+
+      List<Future<Integer>> fetcherFutures = new ArrayList<>();
+      for (int i = 0; i < fetchers; i++) {
+        fetcherFutures.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            int next = 0;
+            int fetched = 0;
+            while (next < totalEntries) {
+              try (MessageCache.Scanner<Integer> scanner = cache.scan(next, true, batchSize,
+                                                                      MessageFilter.<Integer>alwaysAccept())) {
+                Integer first = scanner.getFirstInCache();
+                if (first != null && first > next) {
+                  // Entries were evicted before the fetcher caught up, continue from the first one in the cache
+                  next = first;
+                }
+                while (scanner.hasNext()) {
+                  // Entries from the cache must be contiguous
+                  Assert.assertEquals(Integer.valueOf(next), scanner.next());
+                  next++;
+                  fetched++;
+                }
+              }
+            }
+            return fetched;
+          }
+        }));
+      }
+
+      writer.get(60, TimeUnit.SECONDS);
+      long fetched = 0L;
+      for (Future<Integer> future : fetcherFutures) {
+        fetched += future.get(60, TimeUnit.SECONDS);
+      }
+      LOG.info("Added {} entries and fetched {} entries with {} fetchers in {} ms", totalEntries, fetched, fetchers,
+               TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testAddError() throws Exception {
     // Test to verify various error situations are being safeguarded
@@ -58,6 +58,10 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -594,4 +598,42 @@ public class MessagingHttpServiceTest {
                           .map(RawMessage::getPayload)
                           .map(Bytes::toString).collect(Collectors.toList()));
   }
+
+  @Test
+  public void testLongPoll() throws Exception {
+    TopicId topicId = new NamespaceId("ns1").topic("testLongPoll");
+    client.createTopic(new TopicMetadata(topicId));
+
+    // Fetch with wait on an empty topic should wait until timeout and return nothing
+    long startTime = System.currentTimeMillis();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId)
+      .setWaitTime(500, TimeUnit.MILLISECONDS).fetch()) {
+      Assert.assertFalse(iterator.hasNext());
+    }
+    Assert.assertTrue(System.currentTimeMillis() - startTime >= 500);
+
+    // Publish a message while the fetch is waiting. The fetch should return the new message
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> future = executor.submit(() -> {
+        TimeUnit.MILLISECONDS.sleep(200);
+        client.publish(StoreRequestBuilder.of(topicId).addPayload("m1").build());
+        return null;
+      });
+
+      List<RawMessage> messages = new ArrayList<>();
+      try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId)
+        .setWaitTime(1, TimeUnit.MINUTES).fetch()) {
+        Iterators.addAll(messages, iterator);
+      }
+      future.get(10, TimeUnit.SECONDS);
+
+      Assert.assertEquals(1, messages.size());
+      Assert.assertEquals("m1", Bytes.toString(messages.get(0).getPayload()));
+    } finally {
+      executor.shutdownNow();
+    }
+
+    client.deleteTopic(topicId);
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2016 Cask Data, Inc.
+ * Copyright © 2016-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -18,6 +18,7 @@ package co.cask.cdap.messaging.service;
 
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.metrics.MetricsCollector;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
 import co.cask.cdap.common.utils.TimeProvider;
 import co.cask.cdap.messaging.StoreRequest;
 import co.cask.cdap.messaging.TopicMetadata;
@@ -46,6 +47,7 @@ import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
 /**
@@ -268,6 +270,87 @@ public class ConcurrentMessageWriterTest {
     }
   }
 
+  @Test
+  public void testGroupCommit() throws InterruptedException, BrokenBarrierException {
+    int topicCount = 10;
+    final int requestPerTopic = 20;
+
+    // The write delay lets requests queue up while writing, so that the writer waits for more requests
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider(), 10L);
+    // Capture the maximum batch size through the "persist.queue.size" gauge
+    final AtomicLong maxBatchSize = new AtomicLong();
+    final ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, new MetricsCollector() {
+      @Override
+      public void increment(String metricName, long value) {
+        // No-op
+      }
+
+      @Override
+      public void gauge(String metricName, long value) {
+        if ("persist.queue.size".equals(metricName)) {
+          long max = maxBatchSize.get();
+          while (value > max && !maxBatchSize.compareAndSet(max, value)) {
+            max = maxBatchSize.get();
+          }
+        }
+      }
+    }, 200L);
+
+    // Publish to different topics concurrently through the same writer
+    ExecutorService executor = Executors.newFixedThreadPool(topicCount);
+    final CyclicBarrier barrier = new CyclicBarrier(topicCount + 1);
+    List<TopicId> topicIds = new ArrayList<>();
+    for (int i = 0; i < topicCount; i++) {
+      final TopicId topicId = NamespaceId.DEFAULT.topic("t" + i);
+      final TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+      topicIds.add(topicId);
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+            for (int i = 0; i < requestPerTopic; i++) {
+              writer.persist(new TestStoreRequest(topicId, Arrays.asList(Integer.toString(i))), metadata);
+            }
+          } catch (Exception e) {
+            LOG.error("Exception raised when persisting.", e);
+          }
+        }
+      });
+    }
+
+    barrier.await();
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+    // All messages of each topic should be written in order
+    for (TopicId topicId : topicIds) {
+      List<RawMessage> messages = testWriter.getMessages().get(topicId);
+      Assert.assertEquals(requestPerTopic, messages.size());
+      for (int i = 0; i < requestPerTopic; i++) {
+        Assert.assertEquals(i, Integer.parseInt(Bytes.toString(messages.get(i).getPayload())));
+      }
+    }
+
+    // Requests from different topics should be committed together within the latency window
+    LOG.info("Maximum batch size is {}", maxBatchSize.get());
+    Assert.assertTrue(maxBatchSize.get() > 1);
+  }
+
+  @Test
+  public void testNoGroupCommitLatencyWithoutContention() throws IOException {
+    TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+    ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, new NoopMetricsContext(), 10000L);
+
+    // A publish without any other pending publish shouldn't wait for the group commit latency
+    Stopwatch stopwatch = new Stopwatch().start();
+    writer.persist(new TestStoreRequest(topicId, Arrays.asList("1")), metadata);
+    Assert.assertTrue(stopwatch.elapsedMillis() < 5000L);
+    Assert.assertEquals(1, testWriter.getMessages().get(topicId).size());
+  }
+
   /**
    * A {@link StoreRequestWriter} that turns all payloads to {@link RawMessage} and stores it in a List.
    */
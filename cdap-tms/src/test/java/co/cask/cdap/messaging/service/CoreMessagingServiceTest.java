@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.service;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.metrics.NoOpMetricsCollectionService;
+import co.cask.cdap.messaging.TopicMetadata;
+import co.cask.cdap.messaging.client.StoreRequestBuilder;
+import co.cask.cdap.messaging.data.RawMessage;
+import co.cask.cdap.messaging.store.leveldb.LevelDBTableFactory;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.proto.id.TopicId;
+import org.apache.tephra.TxConstants;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit-test for {@link CoreMessagingService}.
+ */
+public class CoreMessagingServiceTest {
+
+  @ClassRule
+  public static final TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+  @Test
+  public void testGroupCommitMixedPublish() throws Exception {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.set(Constants.CFG_LOCAL_DATA_DIR, TEMP_FOLDER.newFolder().getAbsolutePath());
+    cConf.setBoolean(Constants.MessagingSystem.GROUP_COMMIT_ENABLED, true);
+    // Set max life time to a high value so that dummy tx ids that we create in the test still work
+    cConf.setLong(TxConstants.Manager.CFG_TX_MAX_LIFETIME, 10000000000L);
+
+    // Use a fixed publish time so that messages written by different writers would share the same timestamp
+    final CoreMessagingService messagingService = new CoreMessagingService(
+      cConf, new LevelDBTableFactory(cConf), () -> 1000L, new NoOpMetricsCollectionService());
+    messagingService.startAndWait();
+    try {
+      final TopicId topicId = NamespaceId.DEFAULT.topic("mixed");
+      messagingService.createTopic(new TopicMetadata(topicId));
+
+      // Publish transactional and non-transactional messages to the same topic concurrently
+      final int count = 500;
+      final CyclicBarrier barrier = new CyclicBarrier(2);
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      List<Future<?>> futures = new ArrayList<>();
+      for (final boolean transactional : new boolean[] { true, false }) {
+        futures.add(executor.submit(() -> {
+          barrier.await();
+          for (int i = 0; i < count; i++) {
+            StoreRequestBuilder builder = StoreRequestBuilder.of(topicId).addPayload(transactional + "-" + i);
+            if (transactional) {
+              builder.setTransaction(i + 1L);
+            }
+            messagingService.publish(builder.build());
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+      executor.shutdownNow();
+
+      // No message should be overwritten by another one published with the same timestamp and sequence id
+      Set<String> payloads = new HashSet<>();
+      try (CloseableIterator<RawMessage> messages = messagingService.prepareFetch(topicId).fetch()) {
+        while (messages.hasNext()) {
+          payloads.add(Bytes.toString(messages.next().getPayload()));
+        }
+      }
+      Assert.assertEquals(count * 2, payloads.size());
+    } finally {
+      messagingService.stopAndWait();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.service;
+
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.proto.id.TopicId;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for {@link MessageNotifier}.
+ */
+public class MessageNotifierTest {
+
+  @Test
+  public void testListen() throws Exception {
+    TopicId topicId = NamespaceId.DEFAULT.topic("topic");
+    MessageNotifier notifier = new MessageNotifier();
+    try {
+      long generation = notifier.getGeneration(topicId);
+
+      // Listening doesn't block and the future is completed on publish
+      ListenableFuture<Boolean> future = notifier.listen(topicId, generation, 1, TimeUnit.MINUTES);
+      Assert.assertFalse(future.isDone());
+      notifier.notifyPublished(topicId);
+      Assert.assertTrue(future.get(10, TimeUnit.SECONDS));
+
+      // Listening on an old generation completes immediately
+      Assert.assertTrue(notifier.listen(topicId, generation, 1, TimeUnit.MINUTES).isDone());
+
+      // The future is completed with false on timeout
+      future = notifier.listen(topicId, notifier.getGeneration(topicId), 100, TimeUnit.MILLISECONDS);
+      Assert.assertFalse(future.get(10, TimeUnit.SECONDS));
+
+      // Removing the topic wakes up the waiting fetchers
+      future = notifier.listen(topicId, notifier.getGeneration(topicId), 1, TimeUnit.MINUTES);
+      notifier.remove(topicId);
+      Assert.assertTrue(future.get(10, TimeUnit.SECONDS));
+    } finally {
+      notifier.close();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.api.metrics;
+
+/**
+ * Helper for the log-linear buckets of histogram metrics.
+ *
+ * Values smaller than {@code 16} have one bucket each. Larger values are divided into {@code 8} buckets per power
+ * of two, hence the value reported for a bucket is at most 12.5% off from the actual value. A histogram is
+ * emitted as a single {@link MetricType#COUNTER} named {@code <metric>.hist}, with one count per non-empty bucket
+ * that is tagged with the lower bound of the bucket in the {@link #BUCKET_TAG} tag. Since the buckets are plain
+ * counters, histograms are merged across time and tags the same way as other counters, and percentiles can be
+ * computed from the bucket counts.
+ */
+public final class MetricHistograms {
+
+  /**
+   * Number of buckets that covers all non-negative long values.
+   */
+  public static final int BUCKET_COUNT;
+
+  /**
+   * Name of the tag that holds the lower bound of the bucket of a histogram count.
+   */
+  public static final String BUCKET_TAG = "hbk";
+
+  private static final String MEASURE_SUFFIX = ".hist";
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  // Values smaller than this have a bucket of their own
+  private static final int LINEAR_COUNT = SUB_BUCKET_COUNT << 1;
+  private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+
+  static {
+    BUCKET_COUNT = getBucketIndex(Long.MAX_VALUE) + 1;
+  }
+
+  /**
+   * Returns the index of the bucket that the given value belongs to. Negative values belong to the first bucket.
+   */
+  public static int getBucketIndex(long value) {
+    if (value < LINEAR_COUNT) {
+      return value < 0 ? 0 : (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+    return LINEAR_COUNT + (exponent - LINEAR_BITS) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * Returns the smallest value of the given bucket.
+   */
+  public static long getBucketLowerBound(int index) {
+    if (index < LINEAR_COUNT) {
+      return index;
+    }
+    int exponent = (index - LINEAR_COUNT) / SUB_BUCKET_COUNT + LINEAR_BITS;
+    long subBucket = (index - LINEAR_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return subBucket << (exponent - SUB_BUCKET_BITS);
+  }
+
+  /**
+   * Returns the largest value of the given bucket.
+   */
+  public static long getBucketUpperBound(int index) {
+    if (index < LINEAR_COUNT) {
+      return index;
+    }
+    int exponent = (index - LINEAR_COUNT) / SUB_BUCKET_COUNT + LINEAR_BITS;
+    return getBucketLowerBound(index) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * Returns the name of the counter metric that holds the bucket counts of a histogram metric.
+   */
+  public static String getMeasureName(String metricName) {
+    return metricName + MEASURE_SUFFIX;
+  }
+
+  /**
+   * Returns the value of the {@link #BUCKET_TAG} tag for the given bucket.
+   */
+  public static String getBucketTagValue(int index) {
+    return Long.toString(getBucketLowerBound(index));
+  }
+
+  /**
+   * Returns the bucket index of the given value of the {@link #BUCKET_TAG} tag.
+   *
+   * @param tagValue value of the bucket tag
+   * @return the bucket index or {@code -1} if the given value is not the lower bound of a bucket
+   */
+  public static int getBucketIndex(String tagValue) {
+    long lowerBound;
+    try {
+      lowerBound = Long.parseLong(tagValue);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+    int index = getBucketIndex(lowerBound);
+    return getBucketLowerBound(index) == lowerBound ? index : -1;
+  }
+
+  /**
+   * Computes a percentile from histogram bucket counts.
+   *
+   * @param counts the count of each bucket, indexed by bucket index
+   * @param percentile the percentile to compute, between {@code 0} and {@code 100}
+   * @return the largest value of the bucket that contains the given percentile, or {@code 0} if all counts are zero
+   */
+  public static long getPercentile(long[] counts, double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+    }
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0L;
+    }
+    // The rank of the value at the given percentile, starting from 1
+    long rank = Math.max(1L, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return getBucketUpperBound(i);
+      }
+    }
+    return getBucketUpperBound(counts.length - 1);
+  }
+
+  private MetricHistograms() {
+    // no-op
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -38,4 +38,16 @@ public interface MetricsContext extends MetricsCollector {
    * @return tags that identify the context.
    */
   Map<String, String> getTags();
+
+  /**
+   * Records a value to a histogram metric at the current time. The histogram is emitted as counts of the
+   * buckets defined by {@link MetricHistograms}, from which percentiles can be queried.
+   *
+   * @param metricName Name of the metric.
+   * @param value value to record.
+   */
+  default void histogram(String metricName, long value) {
+    String bucket = MetricHistograms.getBucketTagValue(MetricHistograms.getBucketIndex(value));
+    childContext(MetricHistograms.BUCKET_TAG, bucket).increment(MetricHistograms.getMeasureName(metricName), 1L);
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -16,7 +16,6 @@
 
 package co.cask.cdap.logging.appender.system;
 
-import co.cask.cdap.common.io.Locations;
 import co.cask.cdap.common.io.Syncable;
 import co.cask.cdap.logging.meta.FileMetaDataWriter;
 import com.google.common.annotations.VisibleForTesting;
@@ -109,7 +108,7 @@ final class LogFileManager implements Flushable, Syncable {
     } catch (Throwable e) {
       // delete created file as there was exception while writing meta data
       Closeables.closeQuietly(logFileOutputStream);
-      Locations.deleteQuietly(location.getLocation());
+      logFileOutputStream.delete();
       throw new IOException(e);
     }
 
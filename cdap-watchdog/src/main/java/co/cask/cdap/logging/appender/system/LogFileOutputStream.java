@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -18,9 +18,11 @@ package co.cask.cdap.logging.appender.system;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import co.cask.cdap.common.io.ByteBuffers;
+import co.cask.cdap.common.io.Locations;
 import co.cask.cdap.common.io.Syncable;
 import co.cask.cdap.logging.serialize.LoggingEvent;
 import co.cask.cdap.logging.serialize.LoggingEventSerializer;
+import co.cask.cdap.logging.write.LogFileIndex;
 import com.google.common.io.Closeables;
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileWriter;
@@ -30,17 +32,24 @@ import org.apache.twill.filesystem.Location;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
 
 /**
  * Represents output stream for a log file.
  *
  * Since there is no way to check the state of the underlying file on an exception,
  * all methods of this class assume that the file state is bad on any exception and close the file.
+ *
+ * A sparse {@link LogFileIndex} of the file is written alongside. A new indexed segment starts at the sync marker
+ * following each flush and roughly every sync interval bytes of appended events, and its entry, including the
+ * summary of its events, is written when the segment is complete. Failure to write the index only disables it.
  */
 
 class LogFileOutputStream implements Closeable, Flushable, Syncable {
@@ -50,10 +59,17 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
   private final long createTime;
   private final Closeable closeable;
   private final LoggingEventSerializer serializer;
+  private final int syncIntervalBytes;
 
   private OutputStream outputStream;
   private DataFileWriter<GenericRecord> dataFileWriter;
   private long fileSize;
+  private DataOutputStream indexOutput;
+  // Position of the sync marker to start a new segment with the next appended event, or -1 if there is none
+  private long indexPosition;
+  private LogFileIndex.EntryBuilder indexEntry;
+  // Approximate number of bytes appended since the last index entry
+  private long bytesSinceIndex;
 
   LogFileOutputStream(Location location, String filePermissions,
                       int syncIntervalBytes, long createTime, Closeable closeable) throws IOException {
@@ -70,11 +86,14 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
       this.dataFileWriter.setSyncInterval(syncIntervalBytes);
       this.createTime = createTime;
       this.fileSize = 0;
+      this.syncIntervalBytes = syncIntervalBytes;
+      this.indexPosition = -1L;
     } catch (IOException e) {
       Closeables.closeQuietly(outputStream);
       Closeables.closeQuietly(dataFileWriter);
       throw e;
     }
+    this.indexOutput = createIndexOutput(location, filePermissions);
   }
 
   Location getLocation() {
@@ -82,10 +101,28 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
   }
 
   void append(ILoggingEvent event) throws IOException {
+    if (indexOutput != null) {
+      if (indexPosition < 0 && bytesSinceIndex >= syncIntervalBytes) {
+        // Start a new block for a new segment
+        indexPosition = dataFileWriter.sync();
+      }
+      if (indexPosition >= 0) {
+        // The current segment ends where the new one starts
+        writeIndex(indexPosition);
+        indexEntry = indexOutput == null ? null : new LogFileIndex.EntryBuilder(indexPosition);
+        indexPosition = -1L;
+        bytesSinceIndex = 0L;
+      }
+      if (indexEntry != null) {
+        indexEntry.add(event);
+      }
+    }
+
     // If the event is already a LoggingEvent, we don't need to re-encode.
     if (event instanceof LoggingEvent) {
       ByteBuffer encoded = ((LoggingEvent) event).getEncoded();
       if (encoded != null) {
+        bytesSinceIndex += encoded.remaining();
         // TODO: CDAP-8735 Remove the copying after upgraded to Avro 1.7.4+
         dataFileWriter.appendEncoded(ByteBuffers.copy(encoded));
       } else {
@@ -114,7 +151,19 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
 
   @Override
   public void flush() throws IOException {
-    fileSize = dataFileWriter.sync();
+    long position = dataFileWriter.sync();
+    if (position != fileSize) {
+      // A new block starts at the sync marker, start a segment there with the next event
+      indexPosition = position;
+    }
+    fileSize = position;
+    if (indexOutput != null) {
+      try {
+        indexOutput.flush();
+      } catch (IOException e) {
+        disableIndex(e);
+      }
+    }
   }
 
   @Override
@@ -131,9 +180,56 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
   public void close() throws IOException {
     LOG.trace("Closing file {}", location);
     try {
+      if (indexOutput != null) {
+        // Complete the last segment
+        writeIndex(dataFileWriter.sync());
+      }
       dataFileWriter.close();
     } finally {
+      Closeables.closeQuietly(indexOutput);
       closeable.close();
     }
   }
+
+  /**
+   * Deletes the log file and its index. The stream must be closed before calling this method.
+   */
+  void delete() {
+    Locations.deleteQuietly(location);
+    Locations.deleteQuietly(LogFileIndex.getIndexLocation(location));
+  }
+
+  @Nullable
+  private DataOutputStream createIndexOutput(Location location, String filePermissions) {
+    try {
+      Location indexLocation = LogFileIndex.getIndexLocation(location);
+      OutputStream os = filePermissions.isEmpty()
+        ? indexLocation.getOutputStream() : indexLocation.getOutputStream(filePermissions);
+      return new DataOutputStream(new BufferedOutputStream(os));
+    } catch (Exception e) {
+      LOG.warn("Failed to create index for log file {}. Reading the file will be slower.", location, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the index entry of the current segment, which ends at the given position.
+   */
+  private void writeIndex(long endPosition) {
+    if (indexEntry == null || indexEntry.isEmpty()) {
+      return;
+    }
+    try {
+      indexEntry.write(indexOutput, endPosition);
+    } catch (IOException e) {
+      disableIndex(e);
+    }
+  }
+
+  private void disableIndex(IOException e) {
+    LOG.warn("Failed to write index for log file {}. Indexing is disabled for the file.", location, e);
+    Closeables.closeQuietly(indexOutput);
+    indexOutput = null;
+    indexEntry = null;
+  }
 }
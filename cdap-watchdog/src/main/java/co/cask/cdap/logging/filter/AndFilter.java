@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -42,6 +42,16 @@ public class AndFilter implements Filter {
     return true;
   }
 
+  @Override
+  public boolean mayMatch(LogEventSummary summary) {
+    for (Filter expression : expressions) {
+      if (!expression.mayMatch(summary)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public String toString() {
     return Objects.toStringHelper(this)
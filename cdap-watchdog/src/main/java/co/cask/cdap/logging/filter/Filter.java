@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -24,6 +24,14 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 public interface Filter {
   boolean match(ILoggingEvent event);
 
+  /**
+   * Returns whether any of the log events summarized by the given {@link LogEventSummary} may match this filter.
+   * The default implementation always returns {@code true}.
+   */
+  default boolean mayMatch(LogEventSummary summary) {
+    return true;
+  }
+
   Filter EMPTY_FILTER = new EmptyFilter();
 
   /**
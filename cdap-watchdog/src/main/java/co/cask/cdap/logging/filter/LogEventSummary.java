@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.filter;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Summary of a group of log events, used to skip the group without reading it when it cannot match a {@link Filter}.
+ * Methods may give false positives but never false negatives.
+ */
+public interface LogEventSummary {
+
+  /**
+   * Returns {@code false} if no event in the group has a level greater than or equal to the given level.
+   */
+  boolean mayHaveLevel(Level level);
+
+  /**
+   * Returns {@code false} if no event in the group has the given MDC property.
+   */
+  boolean mayHaveMdc(String key, String value);
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -37,6 +37,11 @@ public class MdcExpression implements Filter {
     return value != null && value.equals(getValue());
   }
 
+  @Override
+  public boolean mayMatch(LogEventSummary summary) {
+    return summary.mayHaveMdc(getKey(), getValue());
+  }
+
   public String getKey() {
     return key;
   }
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2017 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -18,18 +18,22 @@ package co.cask.cdap.logging.read;
 
 import co.cask.cdap.api.dataset.lib.AbstractCloseableIterator;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.logging.LoggingContext;
 import co.cask.cdap.logging.context.LoggingContextHelper;
 import co.cask.cdap.logging.filter.AndFilter;
 import co.cask.cdap.logging.filter.Filter;
 import co.cask.cdap.logging.meta.FileMetaDataReader;
 import co.cask.cdap.logging.write.LogLocation;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import org.apache.twill.common.Threads;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +42,10 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Reads log events from a file.
@@ -46,10 +54,29 @@ public class FileLogReader implements LogReader {
   private static final Logger LOG = LoggerFactory.getLogger(FileLogReader.class);
 
   private final FileMetaDataReader fileMetadataReader;
+  private final int parallelism;
+  private final ExecutorService executor;
 
   @Inject
-  public FileLogReader(FileMetaDataReader fileMetadataReader) {
+  public FileLogReader(CConfiguration cConf, FileMetaDataReader fileMetadataReader) {
     this.fileMetadataReader = fileMetadataReader;
+    this.parallelism = cConf.getInt(Constants.Logging.READER_FILE_PARALLELISM);
+    Preconditions.checkArgument(parallelism > 0, "Log reader file parallelism must be > 0: %s", parallelism);
+    int threads = cConf.getInt(Constants.Logging.READER_FILE_OPEN_THREADS);
+    Preconditions.checkArgument(threads > 0, "Log reader file open threads must be > 0: %s", threads);
+    this.executor = createOpenExecutor(threads);
+  }
+
+  /**
+   * Creates an {@link ExecutorService} shared by all reads for opening files ahead of time.
+   * Threads are released when there is no read running.
+   */
+  private static ExecutorService createOpenExecutor(int threads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         Threads.createDaemonThreadFactory("log-file-reader-%d"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   @Override
@@ -159,42 +186,13 @@ public class FileLogReader implements LogReader {
         };
       }
 
-      final Iterator<LogLocation> filesIter = sortedFilesInRange.iterator();
-
-      CloseableIterator<CloseableIterator<LogEvent>> closeableIterator =
-        new CloseableIterator<CloseableIterator<LogEvent>>() {
-          private CloseableIterator<LogEvent> curr = null;
-
-          @Override
-          public void close() {
-            if (curr != null) {
-              curr.close();
-            }
-          }
-
-          @Override
-          public boolean hasNext() {
-            return filesIter.hasNext();
-          }
-
-          @Override
-          public CloseableIterator<LogEvent> next() {
-            if (curr != null) {
-              curr.close();
-            }
-            LogLocation file = filesIter.next();
-            LOG.trace("Reading file {}", file);
-            curr = file.readLog(logFilter, fromTimeMs, toTimeMs, Integer.MAX_VALUE);
-            return curr;
-          }
-
-          @Override
-          public void remove() {
-            throw new UnsupportedOperationException("Remove not supported");
-          }
-        };
-
-      return concat(closeableIterator);
+      return new MergedLogEventIterator(sortedFilesInRange, new Function<LogLocation, CloseableIterator<LogEvent>>() {
+        @Override
+        public CloseableIterator<LogEvent> apply(LogLocation file) {
+          LOG.trace("Reading file {}", file);
+          return file.readLog(logFilter, fromTimeMs, toTimeMs, Integer.MAX_VALUE);
+        }
+      }, executor, parallelism);
     } catch (Throwable e) {
       LOG.error("Got exception: ", e);
       throw Throwables.propagate(e);
@@ -0,0 +1,245 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.read;
+
+import co.cask.cdap.api.dataset.lib.AbstractCloseableIterator;
+import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.logging.write.LogLocation;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link CloseableIterator} that merges the {@link LogEvent}s of multiple log files by timestamp.
+ *
+ * Files are expected in the order of their start event time. A file is only merged once the merge has reached its
+ * start event time, and up to a given number of the next files are opened ahead of time in parallel, so that the
+ * latency of opening files overlaps with reading events.
+ */
+final class MergedLogEventIterator extends AbstractCloseableIterator<LogEvent> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MergedLogEventIterator.class);
+
+  private final Iterator<LogLocation> files;
+  private final Function<LogLocation, CloseableIterator<LogEvent>> fileReader;
+  private final ExecutorService executor;
+  private final int prefetch;
+  private final Deque<OpeningFile> openingFiles;
+  private final PriorityQueue<FileEvents> fileEvents;
+  private int sequence;
+
+  /**
+   * Creates an instance.
+   *
+   * @param files log files to read, sorted by start event time
+   * @param fileReader function to open a log file for reading
+   * @param executor executor for opening log files
+   * @param prefetch maximum number of files to open ahead of time
+   */
+  MergedLogEventIterator(List<LogLocation> files, Function<LogLocation, CloseableIterator<LogEvent>> fileReader,
+                         ExecutorService executor, int prefetch) {
+    this.files = files.iterator();
+    this.fileReader = fileReader;
+    this.executor = executor;
+    this.prefetch = Math.max(1, prefetch);
+    this.openingFiles = new ArrayDeque<>();
+    this.fileEvents = new PriorityQueue<>(Math.max(1, files.size()), new Comparator<FileEvents>() {
+      @Override
+      public int compare(FileEvents o1, FileEvents o2) {
+        int cmp = Long.compare(o1.getTimestamp(), o2.getTimestamp());
+        // Events of the same timestamp are returned in the order of the files
+        return cmp == 0 ? Integer.compare(o1.sequence, o2.sequence) : cmp;
+      }
+    });
+    startOpening();
+  }
+
+  @Override
+  protected LogEvent computeNext() {
+    // Merge all files that can have events not later than the earliest event in the merge
+    while (!openingFiles.isEmpty()
+      && (fileEvents.isEmpty() || openingFiles.peek().file.getEventTimeMs() <= fileEvents.peek().getTimestamp())) {
+      OpeningFile openingFile = openingFiles.poll();
+      CloseableIterator<LogEvent> iterator = openingFile.get();
+      if (iterator != null) {
+        FileEvents events = new FileEvents(iterator, openingFile.sequence);
+        if (events.hasNext()) {
+          fileEvents.add(events);
+        } else {
+          iterator.close();
+        }
+      }
+      startOpening();
+    }
+
+    FileEvents events = fileEvents.poll();
+    if (events == null) {
+      return endOfData();
+    }
+    LogEvent event = events.next();
+    if (events.hasNext()) {
+      fileEvents.add(events);
+    } else {
+      events.close();
+    }
+    return event;
+  }
+
+  @Override
+  public void close() {
+    for (FileEvents events : fileEvents) {
+      events.close();
+    }
+    fileEvents.clear();
+    for (OpeningFile openingFile : openingFiles) {
+      openingFile.cancel();
+    }
+    openingFiles.clear();
+  }
+
+  /**
+   * Starts opening the next files, up to the prefetch limit.
+   */
+  private void startOpening() {
+    while (openingFiles.size() < prefetch && files.hasNext()) {
+      OpeningFile openingFile = new OpeningFile(files.next(), sequence++);
+      openingFile.start();
+      openingFiles.add(openingFile);
+    }
+  }
+
+  /**
+   * A log file being opened. The file is opened in the executor and the opened file is either taken by
+   * {@link #get()} or closed by {@link #cancel()}, regardless of whether the opening completes before or after
+   * the cancellation.
+   */
+  private final class OpeningFile implements Callable<CloseableIterator<LogEvent>> {
+    private final LogLocation file;
+    private final int sequence;
+    private Future<CloseableIterator<LogEvent>> future;
+    // guarded by this
+    private boolean cancelled;
+    // guarded by this
+    private CloseableIterator<LogEvent> opened;
+
+    OpeningFile(LogLocation file, int sequence) {
+      this.file = file;
+      this.sequence = sequence;
+    }
+
+    void start() {
+      future = executor.submit(this);
+    }
+
+    @Override
+    public CloseableIterator<LogEvent> call() {
+      synchronized (this) {
+        if (cancelled) {
+          return null;
+        }
+      }
+      CloseableIterator<LogEvent> iterator = fileReader.apply(file);
+      synchronized (this) {
+        if (!cancelled) {
+          opened = iterator;
+          return iterator;
+        }
+      }
+      // Cancelled while opening, hence the file is closed here since no one else would do that
+      iterator.close();
+      return null;
+    }
+
+    /**
+     * Waits for the file to be opened and returns the iterator of its events, or {@code null} if it failed to open.
+     * The caller is responsible for closing the returned iterator.
+     */
+    CloseableIterator<LogEvent> get() {
+      try {
+        CloseableIterator<LogEvent> iterator = Uninterruptibles.getUninterruptibly(future);
+        synchronized (this) {
+          opened = null;
+        }
+        return iterator;
+      } catch (ExecutionException e) {
+        LOG.warn("Failed to open log file {}", file.getLocation(), e.getCause());
+        return null;
+      }
+    }
+
+    /**
+     * Cancels the opening. The file is closed if it was already opened, or once the running opening completes.
+     */
+    void cancel() {
+      CloseableIterator<LogEvent> iterator;
+      synchronized (this) {
+        cancelled = true;
+        iterator = opened;
+        opened = null;
+      }
+      future.cancel(false);
+      if (iterator != null) {
+        iterator.close();
+      }
+    }
+  }
+
+  /**
+   * The remaining events of an opened log file.
+   */
+  private static final class FileEvents {
+    private final CloseableIterator<LogEvent> iterator;
+    private final PeekingIterator<LogEvent> events;
+    private final int sequence;
+
+    FileEvents(CloseableIterator<LogEvent> iterator, int sequence) {
+      this.iterator = iterator;
+      this.events = Iterators.peekingIterator(iterator);
+      this.sequence = sequence;
+    }
+
+    boolean hasNext() {
+      return events.hasNext();
+    }
+
+    long getTimestamp() {
+      return events.peek().getLoggingEvent().getTimeStamp();
+    }
+
+    LogEvent next() {
+      return events.next();
+    }
+
+    void close() {
+      iterator.close();
+    }
+  }
+}
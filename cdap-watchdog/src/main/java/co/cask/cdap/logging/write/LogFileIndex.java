@@ -0,0 +1,310 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.write;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import co.cask.cdap.common.io.Locations;
+import co.cask.cdap.logging.filter.LogEventSummary;
+import org.apache.twill.filesystem.Location;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A sparse index of a log file, stored in a sidecar file next to the log file.
+ *
+ * The log file is divided into contiguous segments, each starting at an Avro sync marker. The index file is a
+ * sequence of fixed size entries, one per segment, containing the position and time range of the segment, together
+ * with a summary of its events that allows skipping segments that cannot match a filter. An entry is appended once
+ * its segment is complete, hence an open log file may have unindexed events after the last entry, and the index
+ * may end with a partial entry or refer to positions not yet visible in the log file. Both are ignored when reading.
+ */
+public final class LogFileIndex {
+
+  private static final String INDEX_SUFFIX = ".idx";
+  // Number of bits in the bloom filter of MDC properties, as multiple of 64
+  private static final int BLOOM_WORDS = 8;
+  private static final int BLOOM_BITS = BLOOM_WORDS * Long.SIZE;
+  private static final int BLOOM_HASHES = 3;
+
+  private final List<Entry> entries;
+
+  /**
+   * Returns the location of the index file of the given log file.
+   */
+  public static Location getIndexLocation(Location logLocation) {
+    Location parent = Locations.getParent(logLocation);
+    if (parent == null) {
+      throw new IllegalArgumentException("Log file cannot be the root directory: " + logLocation);
+    }
+    return parent.append(logLocation.getName() + INDEX_SUFFIX);
+  }
+
+  /**
+   * Reads the index of a log file.
+   *
+   * @param indexLocation location of the index file
+   * @param logFileLength the current length of the log file. Entries of segments not fully within it are ignored.
+   * @return the {@link LogFileIndex} or {@code null} if there is no index for the log file
+   */
+  @Nullable
+  public static LogFileIndex read(Location indexLocation, long logFileLength) throws IOException {
+    if (!indexLocation.exists()) {
+      return null;
+    }
+    List<Entry> entries = new ArrayList<>();
+    try (InputStream is = indexLocation.getInputStream()) {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(is));
+      while (true) {
+        Entry entry = Entry.read(input);
+        if (entry.getEndPosition() > logFileLength) {
+          break;
+        }
+        entries.add(entry);
+      }
+    } catch (EOFException e) {
+      // End of the index, or partial entry written by an active writer
+    }
+    return new LogFileIndex(entries);
+  }
+
+  private LogFileIndex(List<Entry> entries) {
+    this.entries = Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * Returns the number of entries in the index.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the entry of the given index.
+   */
+  public Entry getEntry(int index) {
+    return entries.get(index);
+  }
+
+  /**
+   * Returns the position in the log file where the last indexed segment ends, which is the start of the events
+   * not covered by the index.
+   */
+  public long getEndPosition() {
+    return entries.isEmpty() ? 0L : entries.get(entries.size() - 1).getEndPosition();
+  }
+
+  /**
+   * Returns the last entry whose first log event is strictly older than the given time, so that all events with
+   * timestamp greater than or equal to the given time are at or after the entry.
+   *
+   * @return the entry index or {@code -1} if there is no such entry
+   */
+  public int findEntryBefore(long timeMs) {
+    // Log events are appended in time order, hence the entries are sorted by timestamp
+    int low = 0;
+    int high = entries.size() - 1;
+    int result = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (entries.get(mid).getStartTimestamp() < timeMs) {
+        result = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return result;
+  }
+
+  private static int hash(String key, String value) {
+    // Mix the bits with the murmur3 finalizer, since String hash codes are weak in the lower bits
+    int h = key.hashCode() * 31 + value.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static boolean testOrSet(long[] bloom, String key, String value, boolean set) {
+    int h = hash(key, value);
+    // Derive the other hashes by double hashing
+    int h2 = Integer.rotateLeft(h, 16) | 1;
+    for (int i = 0; i < BLOOM_HASHES; i++) {
+      int bit = ((h + i * h2) & Integer.MAX_VALUE) % BLOOM_BITS;
+      long mask = 1L << (bit % Long.SIZE);
+      if (set) {
+        bloom[bit / Long.SIZE] |= mask;
+      } else if ((bloom[bit / Long.SIZE] & mask) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * An index entry of a segment of the log file.
+   */
+  public static final class Entry implements LogEventSummary {
+
+    private final long startPosition;
+    private final long endPosition;
+    private final long startTimestamp;
+    private final long maxTimestamp;
+    private final int maxLevel;
+    private final long[] mdcBloom;
+
+    private static Entry read(DataInput input) throws IOException {
+      long startPosition = input.readLong();
+      long endPosition = input.readLong();
+      long startTimestamp = input.readLong();
+      long maxTimestamp = input.readLong();
+      int maxLevel = input.readInt();
+      long[] mdcBloom = new long[BLOOM_WORDS];
+      for (int i = 0; i < mdcBloom.length; i++) {
+        mdcBloom[i] = input.readLong();
+      }
+      return new Entry(startPosition, endPosition, startTimestamp, maxTimestamp, maxLevel, mdcBloom);
+    }
+
+    private Entry(long startPosition, long endPosition, long startTimestamp,
+                  long maxTimestamp, int maxLevel, long[] mdcBloom) {
+      this.startPosition = startPosition;
+      this.endPosition = endPosition;
+      this.startTimestamp = startTimestamp;
+      this.maxTimestamp = maxTimestamp;
+      this.maxLevel = maxLevel;
+      this.mdcBloom = mdcBloom;
+    }
+
+    /**
+     * Returns the position of the sync marker the segment starts at.
+     */
+    public long getStartPosition() {
+      return startPosition;
+    }
+
+    /**
+     * Returns the position of the sync marker the next segment starts at.
+     */
+    public long getEndPosition() {
+      return endPosition;
+    }
+
+    /**
+     * Returns the timestamp of the first log event in the segment.
+     */
+    public long getStartTimestamp() {
+      return startTimestamp;
+    }
+
+    /**
+     * Returns the largest timestamp of log events in the segment.
+     */
+    public long getMaxTimestamp() {
+      return maxTimestamp;
+    }
+
+    @Override
+    public boolean mayHaveLevel(Level level) {
+      return maxLevel >= level.toInt();
+    }
+
+    @Override
+    public boolean mayHaveMdc(String key, String value) {
+      return testOrSet(mdcBloom, key, value, false);
+    }
+  }
+
+  /**
+   * Collects the summary of a segment while log events are written to it.
+   */
+  public static final class EntryBuilder {
+
+    private final long startPosition;
+    private final long[] mdcBloom;
+    private long startTimestamp;
+    private long maxTimestamp;
+    private int maxLevel;
+    private boolean empty;
+
+    /**
+     * Creates a builder for the segment starting at the given sync marker position.
+     */
+    public EntryBuilder(long startPosition) {
+      this.startPosition = startPosition;
+      this.mdcBloom = new long[BLOOM_WORDS];
+      this.maxTimestamp = Long.MIN_VALUE;
+      this.maxLevel = Level.ALL_INT;
+      this.empty = true;
+    }
+
+    /**
+     * Adds a log event that is written to the segment.
+     */
+    public void add(ILoggingEvent event) {
+      if (empty) {
+        startTimestamp = event.getTimeStamp();
+        empty = false;
+      }
+      maxTimestamp = Math.max(maxTimestamp, event.getTimeStamp());
+      maxLevel = Math.max(maxLevel, event.getLevel().toInt());
+      for (Map.Entry<String, String> entry : event.getMDCPropertyMap().entrySet()) {
+        if (entry.getKey() != null && entry.getValue() != null) {
+          testOrSet(mdcBloom, entry.getKey(), entry.getValue(), true);
+        }
+      }
+    }
+
+    /**
+     * Returns {@code true} if no event was added.
+     */
+    public boolean isEmpty() {
+      return empty;
+    }
+
+    /**
+     * Writes the entry of the segment.
+     *
+     * @param output the output of the index file
+     * @param endPosition position of the sync marker the next segment starts at
+     */
+    public void write(DataOutput output, long endPosition) throws IOException {
+      output.writeLong(startPosition);
+      output.writeLong(endPosition);
+      output.writeLong(startTimestamp);
+      output.writeLong(maxTimestamp);
+      output.writeInt(maxLevel);
+      for (long word : mdcBloom) {
+        output.writeLong(word);
+      }
+    }
+  }
+}
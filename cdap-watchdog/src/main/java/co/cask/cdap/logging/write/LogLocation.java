@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -50,6 +50,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
 
 /**
  * LogLocation representing a log file and methods to read the file's contents.
@@ -153,12 +154,19 @@ public class LogLocation {
     Deque<Collection<LogEvent>> logSegments = new LinkedList<>();
     int count = 0;
     try {
+      LogFileIndex index = readIndex();
       try (DataFileReader<GenericRecord> dataFileReader = createReader()) {
 
         if (!dataFileReader.hasNext()) {
           return ImmutableList.of();
         }
 
+        if (index != null && index.size() > 0) {
+          count = readPrevWithIndex(dataFileReader, index, logFilter, fromTimeMs, maxEvents, logSegments);
+          int skip = count >= maxEvents ? count - maxEvents : 0;
+          return Lists.newArrayList(Iterables.skip(Iterables.concat(logSegments), skip));
+        }
+
         // Calculate skipLen based on fileLength
         long length = location.length();
         LOG.trace("File length {} {}", location, length);
@@ -206,6 +214,48 @@ public class LogLocation {
     return Lists.newArrayList(Iterables.skip(Iterables.concat(logSegments), skip));
   }
 
+  /**
+   * Reads the file backward, one indexed segment at a time, until there are at least maxEvents events read or the
+   * beginning of the file is reached. Segments that cannot match the filter are skipped without reading.
+   *
+   * @return the number of events read
+   */
+  private int readPrevWithIndex(DataFileReader<GenericRecord> dataFileReader, LogFileIndex index, Filter logFilter,
+                                long fromTimeMs, int maxEvents,
+                                Deque<Collection<LogEvent>> logSegments) throws IOException {
+    // Segments starting after fromTimeMs have no event to return
+    int entry = fromTimeMs == Long.MAX_VALUE ? index.size() - 1 : index.findEntryBefore(fromTimeMs + 1);
+    int count = 0;
+
+    if (entry == index.size() - 1) {
+      // Read the events after the last indexed segment, which exist if the file is still being written
+      dataFileReader.seek(index.getEndPosition());
+      List<LogEvent> logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs, -1);
+      if (!logSegment.isEmpty()) {
+        logSegments.addFirst(logSegment);
+        count = count + logSegment.size();
+      }
+      LOG.trace("Read log events {} from position {}", count, index.getEndPosition());
+    }
+
+    for (; entry >= 0 && count < maxEvents; entry--) {
+      LogFileIndex.Entry indexEntry = index.getEntry(entry);
+      if (!logFilter.mayMatch(indexEntry)) {
+        continue;
+      }
+      dataFileReader.seek(indexEntry.getStartPosition());
+      List<LogEvent> logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs,
+                                                        indexEntry.getEndPosition());
+      if (!logSegment.isEmpty()) {
+        logSegments.addFirst(logSegment);
+        count = count + logSegment.size();
+      }
+      LOG.trace("Read log events {} from position {} to endPosition {}",
+                count, indexEntry.getStartPosition(), indexEntry.getEndPosition());
+    }
+    return count;
+  }
+
   /**
    *  Read current block in Avro file from current block sync marker to next block sync marker
    */
@@ -259,6 +309,9 @@ public class LogLocation {
     private final long maxEvents;
 
     private DataFileReader<GenericRecord> dataFileReader;
+    private LogFileIndex index;
+    // The first index entry that is not behind the current read position
+    private int nextEntry;
 
     private ILoggingEvent loggingEvent;
     private GenericRecord datum;
@@ -275,8 +328,12 @@ public class LogLocation {
       this.maxEvents = maxEvents;
 
       try {
+        index = readIndex();
         dataFileReader = createReader();
-        if (dataFileReader.hasNext()) {
+        if (index != null) {
+          // Segments before fromTimeMs are skipped using the index when computing the next event
+          LOG.trace("Reading with index of {} entries", index.size());
+        } else if (dataFileReader.hasNext()) {
           datum = dataFileReader.next();
           loggingEvent = new LoggingEvent(datum);
           loggingEvent.prepareForDeferredProcessing();
@@ -315,7 +372,11 @@ public class LogLocation {
     private void computeNext() {
       try {
         // read events from file
-        while (next == null && dataFileReader.hasNext()) {
+        while (next == null) {
+          skipSegments();
+          if (!dataFileReader.hasNext()) {
+            break;
+          }
           loggingEvent = new LoggingEvent(dataFileReader.next(datum));
           loggingEvent.prepareForDeferredProcessing();
 
@@ -338,6 +399,34 @@ public class LogLocation {
       }
     }
 
+    /**
+     * Seeks past the indexed segments starting at the current read position that have no event to return.
+     */
+    private void skipSegments() throws IOException {
+      if (index == null) {
+        return;
+      }
+      long position = dataFileReader.previousSync();
+      while (nextEntry < index.size() && index.getEntry(nextEntry).getEndPosition() <= position) {
+        nextEntry++;
+      }
+      long skipTo = position;
+      while (nextEntry < index.size()) {
+        LogFileIndex.Entry entry = index.getEntry(nextEntry);
+        if (entry.getStartPosition() != skipTo
+          || (entry.getMaxTimestamp() >= fromTimeMs && logFilter.mayMatch(entry))) {
+          break;
+        }
+        skipTo = entry.getEndPosition();
+        prevTimestamp = entry.getMaxTimestamp();
+        nextEntry++;
+      }
+      if (skipTo != position) {
+        LOG.trace("Skipping to pos {} using index", skipTo);
+        dataFileReader.seek(skipTo);
+      }
+    }
+
     @Override
     public void close() {
       try {
@@ -371,6 +460,26 @@ public class LogLocation {
     }
   }
 
+  /**
+   * Reads the index of the log file. This should be called before creating the reader, so that the index does not
+   * refer to positions beyond the length seen by the reader.
+   *
+   * @return the {@link LogFileIndex} or {@code null} if the file has no index or it cannot be read
+   */
+  @Nullable
+  private LogFileIndex readIndex() {
+    // Index is only written by the log framework of version V1
+    if (!VERSION_1.equals(frameworkVersion)) {
+      return null;
+    }
+    try {
+      return LogFileIndex.read(LogFileIndex.getIndexLocation(location), location.length());
+    } catch (Exception e) {
+      READ_FAILURE_LOG.warn("Failed to read index of log file {}. Reading the file without index.", location, e);
+      return null;
+    }
+  }
+
   private DataFileReader<GenericRecord> createReader() throws IOException {
     boolean shouldImpersonate = this.getFrameworkVersion().equals(VERSION_0);
     return new DataFileReader<>(new LocationSeekableInput(location, namespaceId, impersonator, shouldImpersonate),
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.collect;
+
+import co.cask.cdap.api.metrics.MetricHistograms;
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregates values of a histogram metric into the buckets defined by {@link MetricHistograms} during collection.
+ * The count of each non-empty bucket is emitted as a count of the histogram counter for that bucket.
+ */
+final class AggregatedHistogramEmitter {
+
+  private final String measureName;
+  private final AtomicLongArray counts;
+
+  AggregatedHistogramEmitter(String name) {
+    this.measureName = MetricHistograms.getMeasureName(name);
+    this.counts = new AtomicLongArray(MetricHistograms.BUCKET_COUNT);
+  }
+
+  void record(long value) {
+    counts.incrementAndGet(MetricHistograms.getBucketIndex(value));
+  }
+
+  /**
+   * Adds the counts of all non-empty buckets since the last emit to the given map from bucket index to metric values
+   * and resets them.
+   */
+  void emit(Map<Integer, List<MetricValue>> bucketValues) {
+    for (int i = 0; i < counts.length(); i++) {
+      if (counts.get(i) == 0) {
+        continue;
+      }
+      long count = counts.getAndSet(i, 0L);
+      bucketValues.computeIfAbsent(i, bucket -> new ArrayList<>())
+        .add(new MetricValue(measureName, MetricType.COUNTER, count));
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2017 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -15,6 +15,7 @@
  */
 package co.cask.cdap.metrics.collect;
 
+import co.cask.cdap.api.metrics.MetricHistograms;
 import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
@@ -32,15 +33,27 @@ import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Base class for {@link MetricsCollectionService} which collect metrics through a set of cached
  * {@link AggregatedMetricsEmitter}.
+ *
+ * Each {@link MetricsContext} holds the {@link AggregatedMetricsEmitter} of its metrics directly, so that emitting
+ * a metric only takes a lookup by metric name. A context is published as long as it is active. It becomes inactive
+ * after not having any metrics for {@link #CACHE_EXPIRE_MINUTES} and becomes active again when a metric is emitted.
  */
 public abstract class AggregatedMetricsCollectionService extends AbstractExecutionThreadService
                                                          implements MetricsCollectionService {
@@ -49,32 +62,17 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
   private static final long CACHE_EXPIRE_MINUTES = 1;
 
   private final LoadingCache<Map<String, String>, MetricsContext> collectors;
-  private final LoadingCache<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>> emitters;
+  // Contexts that have metrics emitted recently. Only these contexts are visited when publishing.
+  private final Set<MetricsContextImpl> activeContexts;
   private Thread runThread;
 
   public AggregatedMetricsCollectionService() {
+    // NOTE : we don't need to have removalListener to emit metrics, since a context removed from the cache
+    // still publishes its metrics as long as it is active.
     this.collectors = CacheBuilder.newBuilder()
       .expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
       .build(createCollectorLoader());
-
-    this.emitters = CacheBuilder.newBuilder()
-      // NOTE : we don't need to have removalListener to  emit metrics, as we have expireAfterAccess set for a minute,
-      // emitters.get() is used to increment/gauge and that would reset the access time,
-      // and since runOneIteration() emits all the metrics for the scheduled duration (every 1 second)
-      // there wont be any loss of emitter entries.
-      .expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
-      .build(new CacheLoader<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>>() {
-        @Override
-        public LoadingCache<String, AggregatedMetricsEmitter> load(Map<String, String> tags) throws Exception {
-          return CacheBuilder.newBuilder().expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES).
-            build(new CacheLoader<String, AggregatedMetricsEmitter>() {
-              @Override
-              public AggregatedMetricsEmitter load(String metricName) throws Exception {
-                return new AggregatedMetricsEmitter(metricName);
-              }
-            });
-        }
-      });
+    this.activeContexts = ConcurrentHashMap.newKeySet();
   }
 
   /**
@@ -176,37 +174,44 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
   }
 
   private Iterator<MetricValues> getMetrics(final long timestamp) {
-    // NOTE : emitters.asMap does not reset the access time in cache,
-    // so it's the preferred way to access the cache entries. as we access and emit metrics every second.
-    final Iterator<Map.Entry<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>>> iterator =
-      emitters.asMap().entrySet().iterator();
+    final Iterator<MetricsContextImpl> iterator = activeContexts.iterator();
+    // Histogram counts of the last visited context, which are tagged with the histogram bucket
+    final Deque<MetricValues> histogramValues = new ArrayDeque<>();
     return new AbstractIterator<MetricValues>() {
       @Override
       protected MetricValues computeNext() {
+        if (!histogramValues.isEmpty()) {
+          return histogramValues.poll();
+        }
         while (iterator.hasNext()) {
-          Map.Entry<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>> entry = iterator.next();
-          Map<String, AggregatedMetricsEmitter> metricEmitters = entry.getValue().asMap();
-          // +1 because we add extra metric about how many metric values did we emit in this context (see below)
-          List<MetricValue> metricValues = Lists.newArrayListWithCapacity(metricEmitters.size() + 1);
-          for (Map.Entry<String, AggregatedMetricsEmitter> emitterEntry : metricEmitters.entrySet()) {
-            MetricValue metricValue = emitterEntry.getValue().emit();
-            // skip increment by 0
-            if (metricValue.getType() == MetricType.COUNTER && metricValue.getValue() == 0) {
+          MetricsContextImpl context = iterator.next();
+          List<MetricValue> metricValues = context.emit(timestamp, histogramValues);
+
+          if (metricValues.isEmpty() && histogramValues.isEmpty()) {
+            if (timestamp - context.lastEmitTime < TimeUnit.MINUTES.toSeconds(CACHE_EXPIRE_MINUTES)) {
+              // skip if there are no metric values to send
+              continue;
+            }
+            // Deactivate the context if it has no metrics for a while. Emit again after deactivated,
+            // since metrics emitted before the context sees it is inactive won't activate it again.
+            iterator.remove();
+            context.active = false;
+            metricValues = context.emit(timestamp, histogramValues);
+            if (metricValues.isEmpty() && histogramValues.isEmpty()) {
               continue;
             }
-            metricValues.add(metricValue);
-          }
-
-          if (metricValues.isEmpty()) {
-            // skip if there are no metric values to send
-            continue;
           }
+          context.lastEmitTime = timestamp;
 
           // number of emitted metrics
-          metricValues.add(new MetricValue("metrics.emitted.count", MetricType.COUNTER, metricValues.size() + 1));
+          int emittedCount = metricValues.size() + 1;
+          for (MetricValues values : histogramValues) {
+            emittedCount += values.getMetrics().size();
+          }
+          metricValues.add(new MetricValue("metrics.emitted.count", MetricType.COUNTER, emittedCount));
 
           LOG.trace("Emit metric {}", metricValues);
-          return new MetricValues(entry.getKey(), timestamp, metricValues);
+          return new MetricValues(context.getTags(), timestamp, metricValues);
         }
         return endOfData();
       }
@@ -225,19 +230,97 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
   private final class MetricsContextImpl implements MetricsContext {
 
     private final Map<String, String> tags;
+    private final ConcurrentMap<String, AggregatedMetricsEmitter> emitters;
+    private final ConcurrentMap<String, AggregatedHistogramEmitter> histograms;
+    // Tags of the histogram counts of each bucket. Only used by the publishing thread.
+    private final Map<Integer, Map<String, String>> bucketTags;
+    // Whether this context is in the activeContexts set. Only updated by the publishing thread when deactivated.
+    private volatile boolean active;
+    // Timestamp in seconds of the last time this context had metrics published. Only used by the publishing thread.
+    private long lastEmitTime;
 
     private MetricsContextImpl(final Map<String, String> tags) {
       this.tags = ImmutableMap.copyOf(tags);
+      this.emitters = new ConcurrentHashMap<>();
+      this.histograms = new ConcurrentHashMap<>();
+      this.bucketTags = new HashMap<>();
     }
 
     @Override
     public void increment(String metricName, long value) {
-      emitters.getUnchecked(tags).getUnchecked(metricName).increment(value);
+      getEmitter(metricName).increment(value);
+      activate();
     }
 
     @Override
     public void gauge(String metricName, long value) {
-      emitters.getUnchecked(tags).getUnchecked(metricName).gauge(value);
+      getEmitter(metricName).gauge(value);
+      activate();
+    }
+
+    @Override
+    public void histogram(String metricName, long value) {
+      AggregatedHistogramEmitter histogram = histograms.get(metricName);
+      if (histogram == null) {
+        histogram = histograms.computeIfAbsent(metricName, AggregatedHistogramEmitter::new);
+      }
+      histogram.record(value);
+      activate();
+    }
+
+    private AggregatedMetricsEmitter getEmitter(String metricName) {
+      AggregatedMetricsEmitter emitter = emitters.get(metricName);
+      if (emitter != null) {
+        return emitter;
+      }
+      return emitters.computeIfAbsent(metricName, AggregatedMetricsEmitter::new);
+    }
+
+    /**
+     * Adds this context to the set of active contexts if it is not active. It must be called after the metric
+     * value is updated, so that the publishing thread either sees the new value when deactivating this context,
+     * or this context is activated again.
+     */
+    private void activate() {
+      if (!active) {
+        active = true;
+        activeContexts.add(this);
+      }
+    }
+
+    /**
+     * Returns the values of all metrics in this context since the last emit. Counters without increment are skipped.
+     * The counts of histograms are added to the given collection, with one {@link MetricValues} for each bucket.
+     */
+    private List<MetricValue> emit(long timestamp, Collection<MetricValues> histogramValues) {
+      // +1 because we add extra metric about how many metric values did we emit in this context
+      List<MetricValue> metricValues = Lists.newArrayListWithCapacity(emitters.size() + 1);
+      for (AggregatedMetricsEmitter emitter : emitters.values()) {
+        MetricValue metricValue = emitter.emit();
+        // skip increment by 0
+        if (metricValue.getType() == MetricType.COUNTER && metricValue.getValue() == 0) {
+          continue;
+        }
+        metricValues.add(metricValue);
+      }
+      if (!histograms.isEmpty()) {
+        Map<Integer, List<MetricValue>> bucketValues = new TreeMap<>();
+        for (AggregatedHistogramEmitter histogram : histograms.values()) {
+          histogram.emit(bucketValues);
+        }
+        for (Map.Entry<Integer, List<MetricValue>> entry : bucketValues.entrySet()) {
+          histogramValues.add(new MetricValues(getBucketTags(entry.getKey()), timestamp, entry.getValue()));
+        }
+      }
+      return metricValues;
+    }
+
+    private Map<String, String> getBucketTags(int bucket) {
+      return bucketTags.computeIfAbsent(bucket, index -> {
+        Map<String, String> allTags = Maps.newHashMap(tags);
+        allTags.put(Constants.Metrics.Tag.HISTOGRAM_BUCKET, MetricHistograms.getBucketTagValue(index));
+        return ImmutableMap.copyOf(allTags);
+      });
     }
 
     @Override
@@ -47,6 +47,7 @@ import com.google.common.base.Throwables;
 import com.google.common.reflect.TypeToken;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import org.apache.twill.common.Threads;
 import org.slf4j.Logger;
@@ -70,11 +71,17 @@ import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /**
  * Process metrics by consuming metrics being published to TMS.
+ *
+ * Each metrics topic is fetched and decoded by its own thread. Decoded metrics are assigned to one of the
+ * persist shards by their tags, so that metrics of the same aggregation group are always persisted by the same
+ * shard. Each shard persists through its own {@link MetricStore} and records its own processed message ids of
+ * each topic, hence shards can persist in parallel.
  */
 public class MessagingMetricsProcessorService extends AbstractExecutionThreadService {
   private static final Logger LOG = LoggerFactory.getLogger(MessagingMetricsProcessorService.class);
@@ -86,14 +93,11 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
   private final MessagingService messagingService;
   private final DatumReader<MetricValues> metricReader;
   private final Schema metricSchema;
-  private final MetricStore metricStore;
   private final Map<String, String> metricsContextMap;
   private final int fetcherLimit;
   private final long maxDelayMillis;
   private final int queueSize;
-  private final BlockingDeque<MetricValues> metricsFromAllTopics;
-  private final ConcurrentMap<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap;
-  private final AtomicBoolean persistingFlag;
+  private final List<PersistShard> persistShards;
   // maximum number of milliseconds to sleep between each run of fetching & processing new metrics
   private final int metricsProcessIntervalMillis;
   private final List<ProcessMetricsThread> processMetricsThreads;
@@ -103,7 +107,8 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
   private final boolean skipMigration;
   private final DatasetFramework datasetFramework;
   private final String metricsPrefixForDelayMetrics;
-  private long metricsProcessedCount;
+  // number of milliseconds to aggregate metrics in memory before persisting them, or 0 to persist without aggregation
+  private final long rollupIntervalMillis;
 
   private MetricsConsumerMetaTable metaTable;
   private ScheduledExecutorService metricsTableDeleterExecutor;
@@ -118,12 +123,13 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
                                    MessagingService messagingService,
                                    SchemaGenerator schemaGenerator,
                                    DatumReaderFactory readerFactory,
-                                   MetricStore metricStore,
+                                   Provider<MetricStore> metricStoreProvider,
                                    @Assisted Set<Integer> topicNumbers,
                                    @Assisted MetricsContext metricsContext,
                                    @Assisted Integer instanceId) {
+    // Each persist shard gets a new MetricStore instance, which has its own metrics tables
     this(cConf, datasetFramework, metricDatasetFactory, messagingService,
-         schemaGenerator, readerFactory, metricStore, topicNumbers, metricsContext, 1000, instanceId,
+         schemaGenerator, readerFactory, metricStoreProvider::get, topicNumbers, metricsContext, 1000, instanceId,
          cConf.getBoolean(Constants.MetricsProcessor.METRICS_DATA_MIGRATION_SKIP, false));
   }
 
@@ -140,6 +146,22 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
                                    int metricsProcessIntervalMillis,
                                    int instanceId,
                                    boolean skipMigration) {
+    this(cConf, datasetFramework, metricDatasetFactory, messagingService, schemaGenerator, readerFactory,
+         () -> metricStore, topicNumbers, metricsContext, metricsProcessIntervalMillis, instanceId, skipMigration);
+  }
+
+  private MessagingMetricsProcessorService(CConfiguration cConf,
+                                           DatasetFramework datasetFramework,
+                                           MetricDatasetFactory metricDatasetFactory,
+                                           MessagingService messagingService,
+                                           SchemaGenerator schemaGenerator,
+                                           DatumReaderFactory readerFactory,
+                                           Supplier<MetricStore> metricStoreSupplier,
+                                           Set<Integer> topicNumbers,
+                                           MetricsContext metricsContext,
+                                           int metricsProcessIntervalMillis,
+                                           int instanceId,
+                                           boolean skipMigration) {
     this.metricDatasetFactory = metricDatasetFactory;
     this.metricsPrefixForDelayMetrics = String.format("metrics.processor.%s", instanceId);
 
@@ -155,22 +177,29 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
       // This should never happen
       throw Throwables.propagate(e);
     }
-    this.metricStore = metricStore;
-    this.metricStore.setMetricsContext(metricsContext);
     this.maxDelayMillis = cConf.getLong(Constants.Metrics.PROCESSOR_MAX_DELAY_MS);
     this.queueSize = cConf.getInt(Constants.Metrics.QUEUE_SIZE);
     this.fetcherLimit = Math.max(1, queueSize / topicNumbers.size()); // fetcherLimit is at least one
     this.metricsContextMap = metricsContext.getTags();
     this.processMetricsThreads = new ArrayList<>();
-    this.metricsFromAllTopics = new LinkedBlockingDeque<>(queueSize);
-    this.topicProcessMetaMap = new ConcurrentHashMap<>();
-    this.persistingFlag = new AtomicBoolean();
     this.metricsProcessIntervalMillis = metricsProcessIntervalMillis;
     this.instanceId = instanceId;
     this.cConfiguration = cConf;
     this.processMetricName = String.format("metrics.%s.process.count", instanceId);
     this.datasetFramework = datasetFramework;
     this.skipMigration = skipMigration;
+    this.rollupIntervalMillis = cConf.getLong(Constants.Metrics.PROCESSOR_ROLLUP_INTERVAL_MS, 0L);
+
+    int shards = cConf.getInt(Constants.Metrics.PROCESSOR_PERSIST_SHARDS, 1);
+    if (shards <= 0) {
+      throw new IllegalArgumentException("Number of metrics processor persist shards must be positive: " + shards);
+    }
+    this.persistShards = new ArrayList<>(shards);
+    for (int i = 0; i < shards; i++) {
+      MetricStore metricStore = metricStoreSupplier.get();
+      metricStore.setMetricsContext(metricsContext);
+      persistShards.add(new PersistShard(metricStore));
+    }
   }
 
   private MetricsConsumerMetaTable getMetaTable() {
@@ -208,14 +237,23 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
     }
 
     for (TopicId topic : metricsTopics) {
-      TopicProcessMeta topicProcessMeta = null;
       TopicIdMetaKey topicRowKey = new TopicIdMetaKey(topic);
+      List<TopicProcessMeta> topicProcessMetas = new ArrayList<>();
       try {
-        topicProcessMeta = metaTable.getTopicProcessMeta(topicRowKey);
+        TopicProcessMeta topicProcessMeta = metaTable.getTopicProcessMeta(topicRowKey);
+        topicProcessMetas.add(topicProcessMeta);
+        for (int shard = 1; shard < persistShards.size(); shard++) {
+          TopicProcessMeta shardProcessMeta = metaTable.getTopicProcessMeta(new TopicIdMetaKey(topic, shard));
+          // A shard without processed message id, e.g. after the number of shards is increased, starts from
+          // the message id of the first shard
+          topicProcessMetas.add(shardProcessMeta == null ? topicProcessMeta : shardProcessMeta);
+        }
       } catch (Exception e) {
         LOG.warn("Cannot retrieve last processed MessageId for topic: {}", topic, e);
+        topicProcessMetas.clear();
       }
-      processMetricsThreads.add(new ProcessMetricsThread(topicRowKey, topicProcessMeta));
+      processMetricsThreads.add(new ProcessMetricsThread(processMetricsThreads.size(), topicRowKey,
+                                                         topicProcessMetas));
     }
 
     if (!isRunning()) {
@@ -275,9 +313,11 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
       Thread.currentThread().interrupt();
     }
 
-    // Persist metricsFromAllTopics and messageId's after all ProcessMetricsThread's complete.
-    // No need to make a copy of metricsFromAllTopics and topicProcessMetaMap because no thread is writing to them
-    persistMetricsAndTopicProcessMeta(metricsFromAllTopics, topicProcessMetaMap);
+    // Persist the metrics and messageId's of all shards after all ProcessMetricsThread's complete.
+    // No need to make a copy of the metrics and topicProcessMetaMap because no thread is writing to them
+    for (PersistShard shard : persistShards) {
+      shard.rollupAndPersist(shard.metrics, shard.topicProcessMetaMap, true);
+    }
   }
 
   @Override
@@ -301,94 +341,59 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
     LOG.info("Metrics Processing Service stopped.");
   }
 
-  /**
-   * Persist metrics from all topics into metric store and messageId's of the last persisted metrics of each topic
-   * into metrics meta table
-   *
-   * @param metricValues a deque of {@link MetricValues}
-   * @param topicProcessMetaMap a map with each key {@link TopicIdMetaKey} representing a topic
-   *                            and {@link TopicProcessMeta} which has info on messageId and processing stats
-   */
-  private void persistMetricsAndTopicProcessMeta(Deque<MetricValues> metricValues,
-                                                 Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap) {
-    try {
-      if (!metricValues.isEmpty()) {
-        persistMetrics(metricValues, topicProcessMetaMap);
-      }
-      persistTopicProcessMeta(topicProcessMetaMap);
-    } catch (Exception e) {
-      LOG.warn("Failed to persist metrics.", e);
-    }
-  }
-
-  private void persistTopicProcessMeta(Map<TopicIdMetaKey, TopicProcessMeta> messageIds) {
-    try {
-      // messageIds can be empty if the current thread fetches nothing while other threads keep fetching new metrics
-      // and haven't updated messageId's of the corresponding topics
-      if (!messageIds.isEmpty()) {
-        metaTable.saveMetricsProcessorStats(messageIds);
-      }
-    } catch (Exception e) {
-      LOG.warn("Failed to update processing stats of consumed messages.", e);
-    }
-  }
-
-  /**
-   * Persist metrics into metric store
-   *
-   * @param metricValues a non-empty deque of {@link MetricValues}
-   */
-  private void persistMetrics(Deque<MetricValues> metricValues,
-                              Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap) {
-    long now = System.currentTimeMillis();
-    long lastMetricTime = metricValues.peekLast().getTimestamp();
-    List<MetricValue> topicLevelDelays = new ArrayList<>();
-
-    //add topic level delay metrics
-    for (Map.Entry<TopicIdMetaKey, TopicProcessMeta> entry : topicProcessMetaMap.entrySet()) {
-      TopicProcessMeta topicProcessMeta = entry.getValue();
-      long delay = now - TimeUnit.SECONDS.toMillis(topicProcessMeta.getOldestMetricsTimestamp());
-      topicLevelDelays.add(new MetricValue(topicProcessMeta.getOldestMetricsTimestampMetricName(),
-                                           MetricType.GAUGE, delay));
-      delay = now - TimeUnit.SECONDS.toMillis(topicProcessMeta.getLatestMetricsTimestamp());
-      topicLevelDelays.add(new MetricValue(topicProcessMeta.getLatestMetricsTimestampMetricName(),
-                                           MetricType.GAUGE, delay));
-    }
-    List<MetricValue> processorMetrics = new ArrayList<>(topicLevelDelays);
-    processorMetrics.add(new MetricValue(processMetricName, MetricType.COUNTER, metricValues.size()));
-
-    metricValues.add(new MetricValues(metricsContextMap, TimeUnit.MILLISECONDS.toSeconds(now), processorMetrics));
-    metricStore.add(metricValues);
-    metricsProcessedCount += metricValues.size();
-    PROGRESS_LOG.debug("{} metrics persisted. Last metric's timestamp: {}",
-                       metricsProcessedCount, lastMetricTime);
-  }
-
   private class ProcessMetricsThread extends Thread {
+    private final int index;
     private final TopicIdMetaKey topicIdMetaKey;
+    // the meta key of the topic for each persist shard
+    private final TopicIdMetaKey[] shardMetaKeys;
+    // for each persist shard, the message id up to which metrics of the topic were already persisted by the shard,
+    // or null if metrics of all fetched messages should be persisted by the shard
+    private final byte[][] shardPersistedMessageIds;
     private final PayloadInputStream payloadInput;
     private final BinaryDecoder decoder;
     private final String oldestTsMetricName;
     private final String latestTsMetricName;
+    private byte[] lastMessageId;
     private long lastMetricTimeSecs;
 
-    ProcessMetricsThread(TopicIdMetaKey topicIdMetaKey, @Nullable TopicProcessMeta topicProcessMeta) {
+    ProcessMetricsThread(int index, TopicIdMetaKey topicIdMetaKey, List<TopicProcessMeta> topicProcessMetas) {
       super(String.format("ProcessMetricsThread-%s", topicIdMetaKey.getTopicId()));
       setDaemon(true);
+      this.index = index;
       oldestTsMetricName = String.format("%s.topic.%s.oldest.delay.ms",
                                                 metricsPrefixForDelayMetrics, topicIdMetaKey.getTopicId().getTopic());
       latestTsMetricName = String.format("%s.topic.%s.latest.delay.ms",
                                                 metricsPrefixForDelayMetrics, topicIdMetaKey.getTopicId().getTopic());
-      if (topicProcessMeta != null && topicProcessMeta.getMessageId() != null) {
+      this.shardMetaKeys = new TopicIdMetaKey[persistShards.size()];
+      this.shardPersistedMessageIds = new byte[persistShards.size()][];
+
+      // Fetch from the smallest message id persisted by all shards. Shards that already persisted metrics
+      // beyond that message id skip those metrics.
+      boolean fetchFromStart = topicProcessMetas.size() != persistShards.size();
+      for (int shard = 0; shard < persistShards.size(); shard++) {
+        shardMetaKeys[shard] = new TopicIdMetaKey(topicIdMetaKey.getTopicId(), shard);
+        TopicProcessMeta topicProcessMeta = fetchFromStart ? null : topicProcessMetas.get(shard);
+        if (topicProcessMeta == null || topicProcessMeta.getMessageId() == null) {
+          fetchFromStart = true;
+          continue;
+        }
         // message-id already for this topic in metaTable, we create a new TopicProcessMeta with existing values,
         // add metric names and put it in map
         byte[] persistedMessageId = topicProcessMeta.getMessageId();
-        topicProcessMetaMap.put(topicIdMetaKey,
-                                new TopicProcessMeta(persistedMessageId, topicProcessMeta.getOldestMetricsTimestamp(),
-                                                     topicProcessMeta.getLatestMetricsTimestamp(),
-                                                     topicProcessMeta.getMessagesProcessed(),
-                                                     topicProcessMeta.getLastProcessedTimestamp(),
-                                                     oldestTsMetricName, latestTsMetricName));
+        persistShards.get(shard).topicProcessMetaMap.put(
+          shardMetaKeys[shard],
+          new TopicProcessMeta(persistedMessageId, topicProcessMeta.getOldestMetricsTimestamp(),
+                               topicProcessMeta.getLatestMetricsTimestamp(),
+                               topicProcessMeta.getMessagesProcessed(),
+                               topicProcessMeta.getLastProcessedTimestamp(),
+                               oldestTsMetricName, latestTsMetricName));
+        shardPersistedMessageIds[shard] = persistedMessageId;
+        if (lastMessageId == null || Bytes.compareTo(persistedMessageId, lastMessageId) < 0) {
+          lastMessageId = persistedMessageId;
+        }
+      }
+      if (fetchFromStart) {
+        lastMessageId = null;
       }
       this.topicIdMetaKey = topicIdMetaKey;
       this.payloadInput = new PayloadInputStream();
@@ -423,12 +428,6 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
       try {
         MessageFetcher fetcher = messagingService.prepareFetch(topicIdMetaKey.getTopicId());
         fetcher.setLimit(fetcherLimit);
-        TopicProcessMeta persistMetaInfo = topicProcessMetaMap.get(topicIdMetaKey);
-        byte[] lastMessageId = null;
-
-        if (persistMetaInfo != null) {
-          lastMessageId = persistMetaInfo.getMessageId();
-        }
 
         if (lastMessageId != null) {
           fetcher.setStartMessage(lastMessageId, false);
@@ -447,7 +446,8 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
             try {
               payloadInput.reset(input.getPayload());
               MetricValues metricValues = metricReader.read(decoder, metricSchema);
-              if (!metricsFromAllTopics.offer(metricValues)) {
+              int shard = getShard(metricValues);
+              if (!isPersisted(shard, input.getId()) && !persistShards.get(shard).metrics.offer(metricValues)) {
                 break;
               }
               lastMetricTimeSecs = metricValues.getTimestamp();
@@ -463,13 +463,22 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
         }
 
         if (currentMessageId != null) {
-          // update the last processed timestamp in local topic meta and update the topicProcessMetaMap with this
-          // local topic meta for the topic
+          lastMessageId = currentMessageId;
+          // update the last processed timestamp in local topic meta and update the topicProcessMetaMap of each shard
+          // with this local topic meta for the topic
           localTopicProcessMeta.updateLastProcessedTimestamp();
-          topicProcessMetaMap.put(topicIdMetaKey, localTopicProcessMeta);
+          for (int shard = 0; shard < persistShards.size(); shard++) {
+            // Don't move the message id of a shard backward
+            if (!isPersisted(shard, currentMessageId)) {
+              persistShards.get(shard).topicProcessMetaMap.put(shardMetaKeys[shard], localTopicProcessMeta);
+            }
+          }
+        }
+        // Try to persist metrics and messageId's of the last metrics to be persisted of shards that no other thread
+        // is persisting. Different threads start from different shards to spread the persisting.
+        for (int i = 0; i < persistShards.size(); i++) {
+          persistShards.get((index + i) % persistShards.size()).tryPersist();
         }
-        // Try to persist metrics and messageId's of the last metrics to be persisted if no other thread is persisting
-        tryPersist();
 
         long endTime = System.currentTimeMillis();
         // use currentMessageId != null to ensure that the current fetching is not empty and
@@ -489,11 +498,54 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
       return metricsProcessIntervalMillis;
     }
 
+    /**
+     * Returns whether metrics of the given message were already persisted by the given shard before this
+     * thread started.
+     */
+    private boolean isPersisted(int shard, byte[] messageId) {
+      byte[] persistedMessageId = shardPersistedMessageIds[shard];
+      if (persistedMessageId == null) {
+        return false;
+      }
+      if (Bytes.compareTo(messageId, persistedMessageId) <= 0) {
+        return true;
+      }
+      shardPersistedMessageIds[shard] = null;
+      return false;
+    }
+
+    private int getShard(MetricValues metricValues) {
+      return persistShards.size() == 1 ? 0 : (metricValues.getTags().hashCode() & Integer.MAX_VALUE)
+        % persistShards.size();
+    }
+  }
+
+  /**
+   * A shard of metrics to persist. Each shard persists its metrics through its own {@link MetricStore}, together
+   * with the messageId's of the last persisted metrics of each topic.
+   */
+  private final class PersistShard {
+    private final MetricStore metricStore;
+    private final BlockingDeque<MetricValues> metrics;
+    private final ConcurrentMap<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap;
+    private final AtomicBoolean persistingFlag;
+    private final MetricValuesAggregator rollupAggregator;
+    private long metricsProcessedCount;
+    private long lastRollupTime;
+
+    PersistShard(MetricStore metricStore) {
+      this.metricStore = metricStore;
+      this.metrics = new LinkedBlockingDeque<>(queueSize);
+      this.topicProcessMetaMap = new ConcurrentHashMap<>();
+      this.persistingFlag = new AtomicBoolean();
+      this.rollupAggregator = new MetricValuesAggregator();
+    }
+
     /**
      * Persist metrics and messageId's of the last metrics to be persisted if no other thread is persisting
      */
-    private void tryPersist() {
-      // Ensure there's only one thread can persist metricsFromAllTopics and messageId's.
+    void tryPersist() {
+      // Ensure there's only one thread can persist metrics and messageId's of this shard.
       // This is because the underlying metrics table is not thread safe.
       // If persistingFlag is false, set it to true and start persisting. Otherwise, log and return.
       if (!persistingFlag.compareAndSet(false, true)) {
@@ -501,15 +553,15 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
         return;
       }
       try {
-        // Make a copy of topicProcessMetaMap before copying metrics from metricsFromAllTopics to ensure that
-        // topicMessageIdsCopy will not contain new MessageId's in metricsFromAllTopics but not in metricsCopy.
+        // Make a copy of topicProcessMetaMap before copying metrics from metrics to ensure that
+        // topicMessageIdsCopy will not contain new MessageId's in metrics but not in metricsCopy.
         // This guarantees the metrics corresponding to last persisted MessageId's of each topic are persisted.
         Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMapCopy = new HashMap<>(topicProcessMetaMap);
-        // Remove at most queueSize of metrics from metricsFromAllTopics and put into metricsCopy to limit
+        // Remove at most queueSize of metrics from metrics and put into metricsCopy to limit
         // the number of metrics being persisted each time
         Deque<MetricValues> metricsCopy = new LinkedList<>();
-        Iterator<MetricValues> iterator = metricsFromAllTopics.iterator();
-        // Though the blocking queue(metricsFromAllTopics) has upper bound on its size (which is the "queueSize")
+        Iterator<MetricValues> iterator = metrics.iterator();
+        // Though the blocking queue(metrics) has upper bound on its size (which is the "queueSize")
         // there can be a scenario, as the current thread is removing entries from blocking queue
         // and adding it to a copy list, other threads are simultaneously adding entries to the queue and
         // the current list might become very big causing out of memory issues, we avoid this
@@ -519,7 +571,7 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
           iterator.remove();
         }
         // Persist the copy of metrics and MessageId's
-        persistMetricsAndTopicProcessMeta(metricsCopy, topicProcessMetaMapCopy);
+        rollupAndPersist(metricsCopy, topicProcessMetaMapCopy, false);
       } catch (Exception e) {
         LOG.warn("Failed to persist metrics. Will be retried in next iteration.", e);
       } finally {
@@ -527,6 +579,102 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
         persistingFlag.set(false);
       }
     }
+
+    /**
+     * Persist metrics and messageId's of each topic. If rollup is enabled, metrics are aggregated in memory and only
+     * persisted once the current rollup interval is closed, together with the messageId's, so that the persisted
+     * messageId's never go beyond the persisted metrics.
+     *
+     * @param metricValues a deque of {@link MetricValues}
+     * @param topicProcessMetaMap a map with each key {@link TopicIdMetaKey} representing a topic
+     *                            and {@link TopicProcessMeta} which has info on messageId and processing stats
+     * @param forceFlush {@code true} to persist all aggregated metrics
+     */
+    void rollupAndPersist(Deque<MetricValues> metricValues,
+                          Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap, boolean forceFlush) {
+      if (rollupIntervalMillis <= 0) {
+        persistMetricsAndTopicProcessMeta(metricValues, topicProcessMetaMap);
+        return;
+      }
+
+      for (MetricValues values : metricValues) {
+        rollupAggregator.add(values);
+      }
+
+      // Flush when a rollup interval is closed, or when the aggregator holds too many values
+      long now = System.currentTimeMillis();
+      if (!forceFlush && rollupAggregator.size() < queueSize
+        && now / rollupIntervalMillis == lastRollupTime / rollupIntervalMillis) {
+        return;
+      }
+      lastRollupTime = now;
+      // The topicProcessMetaMap is always copied before the metrics were taken from the queue,
+      // hence all metrics up to the messageId's are in the aggregator.
+      persistMetricsAndTopicProcessMeta(rollupAggregator.drain(), topicProcessMetaMap);
+    }
+
+    /**
+     * Persist metrics of this shard into metric store and messageId's of the last persisted metrics of each topic
+     * into metrics meta table
+     *
+     * @param metricValues a deque of {@link MetricValues}
+     * @param topicProcessMetaMap a map with each key {@link TopicIdMetaKey} representing a topic
+     *                            and {@link TopicProcessMeta} which has info on messageId and processing stats
+     */
+    private void persistMetricsAndTopicProcessMeta(Deque<MetricValues> metricValues,
+                                                   Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap) {
+      try {
+        if (!metricValues.isEmpty()) {
+          persistMetrics(metricValues, topicProcessMetaMap);
+        }
+        persistTopicProcessMeta(topicProcessMetaMap);
+      } catch (Exception e) {
+        LOG.warn("Failed to persist metrics.", e);
+      }
+    }
+
+    private void persistTopicProcessMeta(Map<TopicIdMetaKey, TopicProcessMeta> messageIds) {
+      try {
+        // messageIds can be empty if the current thread fetches nothing while other threads keep fetching new
+        // metrics and haven't updated messageId's of the corresponding topics
+        if (!messageIds.isEmpty()) {
+          metaTable.saveMetricsProcessorStats(messageIds);
+        }
+      } catch (Exception e) {
+        LOG.warn("Failed to update processing stats of consumed messages.", e);
+      }
+    }
+
+    /**
+     * Persist metrics into metric store
+     *
+     * @param metricValues a non-empty deque of {@link MetricValues}
+     */
+    private void persistMetrics(Deque<MetricValues> metricValues,
+                                Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap) {
+      long now = System.currentTimeMillis();
+      long lastMetricTime = metricValues.peekLast().getTimestamp();
+      List<MetricValue> topicLevelDelays = new ArrayList<>();
+
+      //add topic level delay metrics
+      for (Map.Entry<TopicIdMetaKey, TopicProcessMeta> entry : topicProcessMetaMap.entrySet()) {
+        TopicProcessMeta topicProcessMeta = entry.getValue();
+        long delay = now - TimeUnit.SECONDS.toMillis(topicProcessMeta.getOldestMetricsTimestamp());
+        topicLevelDelays.add(new MetricValue(topicProcessMeta.getOldestMetricsTimestampMetricName(),
+                                             MetricType.GAUGE, delay));
+        delay = now - TimeUnit.SECONDS.toMillis(topicProcessMeta.getLatestMetricsTimestamp());
+        topicLevelDelays.add(new MetricValue(topicProcessMeta.getLatestMetricsTimestampMetricName(),
+                                             MetricType.GAUGE, delay));
+      }
+      List<MetricValue> processorMetrics = new ArrayList<>(topicLevelDelays);
+      processorMetrics.add(new MetricValue(processMetricName, MetricType.COUNTER, metricValues.size()));
+
+      metricValues.add(new MetricValues(metricsContextMap, TimeUnit.MILLISECONDS.toSeconds(now), processorMetrics));
+      metricStore.add(metricValues);
+      metricsProcessedCount += metricValues.size();
+      PROGRESS_LOG.debug("{} metrics persisted. Last metric's timestamp: {}",
+                         metricsProcessedCount, lastMetricTime);
+    }
   }
 
   private class PayloadInputStream extends ByteArrayInputStream {
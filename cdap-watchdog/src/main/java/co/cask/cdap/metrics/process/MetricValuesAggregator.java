@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.process;
+
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Aggregates {@link MetricValues} in memory before they are persisted. Metrics with the same timestamp, tags and
+ * name are combined into one value, with counters being summed up and gauges keeping the latest value.
+ * Persisting the aggregated values reduces the number of writes to the metrics tables, especially for the
+ * coarser resolutions, since all values of the same time bucket are written together.
+ */
+@NotThreadSafe
+final class MetricValuesAggregator {
+
+  private final Map<MetricsKey, Map<String, MetricValue>> aggregated = new LinkedHashMap<>();
+  private int size;
+
+  /**
+   * Adds the given {@link MetricValues} to this aggregator.
+   */
+  void add(MetricValues metricValues) {
+    MetricsKey key = new MetricsKey(metricValues.getTimestamp(), metricValues.getTags());
+    Map<String, MetricValue> values = aggregated.get(key);
+    if (values == null) {
+      values = new LinkedHashMap<>();
+      aggregated.put(key, values);
+    }
+
+    for (MetricValue metricValue : metricValues.getMetrics()) {
+      MetricValue existing = values.get(metricValue.getName());
+      if (existing == null) {
+        size++;
+      } else if (existing.getType() == MetricType.COUNTER && metricValue.getType() == MetricType.COUNTER) {
+        metricValue = new MetricValue(metricValue.getName(), MetricType.COUNTER,
+                                      existing.getValue() + metricValue.getValue());
+      }
+      values.put(metricValue.getName(), metricValue);
+    }
+  }
+
+  /**
+   * Returns the number of distinct metric values in this aggregator.
+   */
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return aggregated.isEmpty();
+  }
+
+  /**
+   * Removes and returns all aggregated metrics, in the order they were first added.
+   */
+  Deque<MetricValues> drain() {
+    Deque<MetricValues> result = new LinkedList<>();
+    for (Map.Entry<MetricsKey, Map<String, MetricValue>> entry : aggregated.entrySet()) {
+      MetricsKey key = entry.getKey();
+      result.add(new MetricValues(key.tags, key.timestamp, new ArrayList<>(entry.getValue().values())));
+    }
+    aggregated.clear();
+    size = 0;
+    return result;
+  }
+
+  /**
+   * The timestamp and tags that identify a group of metrics.
+   */
+  private static final class MetricsKey {
+    private final long timestamp;
+    private final Map<String, String> tags;
+    private final int hashCode;
+
+    private MetricsKey(long timestamp, Map<String, String> tags) {
+      this.timestamp = timestamp;
+      this.tags = tags;
+      this.hashCode = Objects.hash(timestamp, tags);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      MetricsKey other = (MetricsKey) o;
+      return timestamp == other.timestamp && Objects.equals(tags, other.tags);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -16,6 +16,7 @@
 
 package co.cask.cdap.metrics.process;
 
+import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.messaging.MessagingUtils;
 import co.cask.cdap.proto.id.TopicId;
 
@@ -29,8 +30,17 @@ public final class TopicIdMetaKey implements MetricsMetaKey {
   private final byte[] key;
 
   public TopicIdMetaKey(TopicId topicId) {
+    this(topicId, 0);
+  }
+
+  /**
+   * Creates the key of a topic for a persist shard of the metrics processor. Shard {@code 0} uses the same key
+   * as {@link #TopicIdMetaKey(TopicId)}.
+   */
+  TopicIdMetaKey(TopicId topicId, int shard) {
     this.topicId = topicId;
-    this.key = MessagingUtils.toMetadataRowKey(topicId);
+    byte[] topicKey = MessagingUtils.toMetadataRowKey(topicId);
+    this.key = shard == 0 ? topicKey : Bytes.concat(topicKey, Bytes.toBytes(shard));
   }
 
   @Override
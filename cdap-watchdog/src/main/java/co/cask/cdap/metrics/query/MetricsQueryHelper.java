@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -21,6 +21,7 @@ import co.cask.cdap.api.dataset.lib.cube.Interpolator;
 import co.cask.cdap.api.dataset.lib.cube.Interpolators;
 import co.cask.cdap.api.dataset.lib.cube.TimeValue;
 import co.cask.cdap.api.metrics.MetricDataQuery;
+import co.cask.cdap.api.metrics.MetricHistograms;
 import co.cask.cdap.api.metrics.MetricSearchQuery;
 import co.cask.cdap.api.metrics.MetricStore;
 import co.cask.cdap.api.metrics.MetricTimeSeries;
@@ -39,14 +40,21 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 /**
@@ -70,6 +78,7 @@ public class MetricsQueryHelper {
   private static final String PARAM_AGGREGATE = "aggregate";
   private static final String PARAM_AUTO_RESOLUTION = "auto";
   private static final String ANY_TAG_VALUE = "*";
+  private static final Pattern PERCENTILE_PATTERN = Pattern.compile("p(\\d+(?:\\.\\d+)?)\\((.+)\\)");
 
   private final MetricStore metricStore;
 
@@ -321,12 +330,30 @@ public class MetricsQueryHelper {
 
     MetricQueryRequest.TimeRange timeRange = queryRequest.getTimeRange();
 
-    MetricDataQuery query = new MetricDataQuery(timeRange.getStart(), timeRange.getEnd(),
-                                                timeRange.getResolutionInSeconds(),
-                                                timeRange.getCount(), toMetrics(queryRequest.getMetrics()),
-                                                tagsSliceBy, transformGroupByTags(queryRequest.getGroupBy()),
-                                                timeRange.getInterpolate());
-    Collection<MetricTimeSeries> queryResult = metricStore.query(query);
+    // Percentiles of histogram metrics are computed from the counts of the histogram buckets
+    List<String> metrics = Lists.newArrayList();
+    List<PercentileMetric> percentileMetrics = Lists.newArrayList();
+    for (String metric : queryRequest.getMetrics()) {
+      PercentileMetric percentileMetric = PercentileMetric.parse(metric);
+      if (percentileMetric == null) {
+        metrics.add(metric);
+      } else {
+        percentileMetrics.add(percentileMetric);
+      }
+    }
+
+    List<MetricTimeSeries> queryResult = Lists.newArrayList();
+    List<String> groupBy = transformGroupByTags(queryRequest.getGroupBy());
+    if (!metrics.isEmpty()) {
+      MetricDataQuery query = new MetricDataQuery(timeRange.getStart(), timeRange.getEnd(),
+                                                  timeRange.getResolutionInSeconds(),
+                                                  timeRange.getCount(), toMetrics(metrics),
+                                                  tagsSliceBy, groupBy, timeRange.getInterpolate());
+      queryResult.addAll(metricStore.query(query));
+    }
+    if (!percentileMetrics.isEmpty()) {
+      queryResult.addAll(queryPercentiles(percentileMetrics, tagsSliceBy, groupBy, timeRange));
+    }
 
     long endTime = timeRange.getEnd();
     if (timeRange.getResolutionInSeconds() == Integer.MAX_VALUE && endTime == 0) {
@@ -337,6 +364,72 @@ public class MetricsQueryHelper {
     return decorate(queryResult, timeRange.getStart(), endTime, timeRange.getResolutionInSeconds());
   }
 
+  /**
+   * Queries the given percentiles of histogram metrics. The counts of the histograms are queried per bucket and
+   * without interpolation, since an interpolated count doesn't belong to any recorded value. A percentile is computed
+   * for each timestamp and each group of tags.
+   */
+  private Collection<MetricTimeSeries> queryPercentiles(List<PercentileMetric> percentileMetrics,
+                                                        Map<String, String> tags, List<String> groupBy,
+                                                        MetricQueryRequest.TimeRange timeRange) throws Exception {
+    Set<String> histograms = Sets.newHashSet();
+    for (PercentileMetric percentileMetric : percentileMetrics) {
+      histograms.add(MetricHistograms.getMeasureName(percentileMetric.histogram));
+    }
+    List<String> bucketGroupBy = Lists.newArrayList(groupBy);
+    bucketGroupBy.add(Constants.Metrics.Tag.HISTOGRAM_BUCKET);
+    MetricDataQuery query = new MetricDataQuery(timeRange.getStart(), timeRange.getEnd(),
+                                                timeRange.getResolutionInSeconds(), timeRange.getCount(),
+                                                toMetrics(histograms), tags, bucketGroupBy, null);
+
+    // histogram measure name -> tags -> timestamp -> bucket counts
+    Map<String, Map<Map<String, String>, SortedMap<Long, long[]>>> histogramCounts = Maps.newHashMap();
+    for (MetricTimeSeries timeSeries : metricStore.query(query)) {
+      Map<String, String> seriesTags = Maps.newHashMap(timeSeries.getTagValues());
+      String bucketTagValue = seriesTags.remove(Constants.Metrics.Tag.HISTOGRAM_BUCKET);
+      int bucket = bucketTagValue == null ? -1 : MetricHistograms.getBucketIndex(bucketTagValue);
+      if (bucket < 0) {
+        continue;
+      }
+      Map<Map<String, String>, SortedMap<Long, long[]>> groups = histogramCounts.get(timeSeries.getMetricName());
+      if (groups == null) {
+        groups = new LinkedHashMap<>();
+        histogramCounts.put(timeSeries.getMetricName(), groups);
+      }
+      SortedMap<Long, long[]> counts = groups.get(seriesTags);
+      if (counts == null) {
+        counts = new TreeMap<>();
+        groups.put(seriesTags, counts);
+      }
+      for (TimeValue timeValue : timeSeries.getTimeValues()) {
+        long[] bucketCounts = counts.get(timeValue.getTimestamp());
+        if (bucketCounts == null) {
+          bucketCounts = new long[MetricHistograms.BUCKET_COUNT];
+          counts.put(timeValue.getTimestamp(), bucketCounts);
+        }
+        bucketCounts[bucket] += timeValue.getValue();
+      }
+    }
+
+    List<MetricTimeSeries> result = Lists.newArrayList();
+    for (PercentileMetric percentileMetric : percentileMetrics) {
+      Map<Map<String, String>, SortedMap<Long, long[]>> groups =
+        histogramCounts.get(MetricHistograms.getMeasureName(percentileMetric.histogram));
+      if (groups == null) {
+        continue;
+      }
+      for (Map.Entry<Map<String, String>, SortedMap<Long, long[]>> entry : groups.entrySet()) {
+        List<TimeValue> timeValues = Lists.newArrayList();
+        for (Map.Entry<Long, long[]> counts : entry.getValue().entrySet()) {
+          timeValues.add(new TimeValue(counts.getKey(),
+                                       MetricHistograms.getPercentile(counts.getValue(), percentileMetric.percentile)));
+        }
+        result.add(new MetricTimeSeries(percentileMetric.name, entry.getKey(), timeValues));
+      }
+    }
+    return result;
+  }
+
   private Map<String, String> transformTagMap(Map<String, String> tags) {
     return Maps.transformValues(tags, new Function<String, String>() {
       @Override
@@ -379,7 +472,7 @@ public class MetricsQueryHelper {
     return result;
   }
 
-  private Map<String, AggregationFunction> toMetrics(List<String> metrics) {
+  private Map<String, AggregationFunction> toMetrics(Collection<String> metrics) {
     Map<String, AggregationFunction> result = Maps.newHashMap();
     for (String metric : metrics) {
       // todo: figure out metric type
@@ -417,6 +510,35 @@ public class MetricsQueryHelper {
     return humanTagValues;
   }
 
+  /**
+   * A percentile of a histogram metric requested in a query, in the form of {@code p<percentile>(<metric>)},
+   * such as {@code p99(system.request.latency)}.
+   */
+  private static final class PercentileMetric {
+    private final String name;
+    private final String histogram;
+    private final double percentile;
+
+    @Nullable
+    static PercentileMetric parse(String metric) {
+      Matcher matcher = PERCENTILE_PATTERN.matcher(metric);
+      if (!matcher.matches()) {
+        return null;
+      }
+      double percentile = Double.parseDouble(matcher.group(1));
+      if (percentile > 100) {
+        throw new IllegalArgumentException("Percentile must be between 0 and 100 in metric " + metric);
+      }
+      return new PercentileMetric(metric, matcher.group(2), percentile);
+    }
+
+    private PercentileMetric(String name, String histogram, double percentile) {
+      this.name = name;
+      this.histogram = histogram;
+      this.percentile = percentile;
+    }
+  }
+
   /**
    * Helper class to Deserialize Query requests and based on this
    * {@link MetricQueryRequest} will be constructed
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2017 Cask Data, Inc.
+ * Copyright 2015-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -59,7 +59,9 @@ public class DefaultMetricDatasetFactory implements MetricDatasetFactory {
       public EntityTable get() {
         String tableName = cConf.get(Constants.Metrics.ENTITY_TABLE_NAME,
                                      Constants.Metrics.DEFAULT_ENTITY_TABLE_NAME);
-        return new EntityTable(getOrCreateMetricsTable(tableName, DatasetProperties.EMPTY));
+        return new EntityTable(getOrCreateMetricsTable(tableName, DatasetProperties.EMPTY), EntityTable.MAX_ID_COUNT,
+                               cConf.getLong(Constants.Metrics.ENTITY_CACHE_MAX_BYTES,
+                                             EntityTable.DEFAULT_CACHE_MAX_BYTES));
       }
     });
   }
@@ -60,6 +60,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import org.apache.twill.common.Threads;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -68,6 +69,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
@@ -91,10 +95,16 @@ public class DefaultMetricStore implements MetricStore {
   private static final String BY_DATASET = "dataset";
   private static final String BY_PROFILE = "profile";
   private static final String BY_COMPONENT = "component";
+  // Suffix of the name of the aggregation that stores the histogram counts per bucket for an aggregation
+  private static final String HISTOGRAM_SUFFIX = ".hist";
+  private static final AggregationAlias WORKFLOW_ALIAS =
+    new AggregationAlias(ImmutableMap.of(Constants.Metrics.Tag.RUN_ID, Constants.Metrics.Tag.WORKFLOW_RUN_ID));
   private static final Map<String, AggregationAlias> AGGREGATIONS_ALIAS_DIMENSIONS =
-    ImmutableMap.of(BY_WORKFLOW,
-                    new AggregationAlias(ImmutableMap.of(Constants.Metrics.Tag.RUN_ID,
-                                                         Constants.Metrics.Tag.WORKFLOW_RUN_ID)));
+    ImmutableMap.of(BY_WORKFLOW, WORKFLOW_ALIAS, BY_WORKFLOW + HISTOGRAM_SUFFIX, WORKFLOW_ALIAS);
+
+  // Shared by all metric stores, so that it never needs to be shut down, since its threads are released
+  // when there is no query running
+  private static ThreadPoolExecutor queryExecutor;
 
   private final Supplier<Cube> cube;
   private final Supplier<MetricsConsumerMetaTable> metaTableSupplier;
@@ -222,6 +232,18 @@ public class DefaultMetricStore implements MetricStore {
       // i.e. for components only
       ImmutableList.of(Constants.Metrics.Tag.NAMESPACE, Constants.Metrics.Tag.COMPONENT)));
 
+    // Histogram counts are stored per bucket in an aggregation of their own for each of the above aggregations,
+    // which only accepts facts with the bucket tag. Only percentile queries use these aggregations, since they are
+    // the only queries by the bucket tag. The aggregations above store the total count of a histogram.
+    for (Map.Entry<String, Aggregation> entry : ImmutableMap.copyOf(aggs).entrySet()) {
+      DefaultAggregation aggregation = (DefaultAggregation) entry.getValue();
+      aggs.put(entry.getKey() + HISTOGRAM_SUFFIX, new DefaultAggregation(
+        ImmutableList.<String>builder()
+          .addAll(aggregation.getDimensionNames()).add(Constants.Metrics.Tag.HISTOGRAM_BUCKET).build(),
+        ImmutableSet.<String>builder()
+          .addAll(aggregation.getRequiredDimensions()).add(Constants.Metrics.Tag.HISTOGRAM_BUCKET).build()));
+    }
+
     AGGREGATIONS = Collections.unmodifiableMap(aggs);
   }
 
@@ -246,10 +268,13 @@ public class DefaultMetricStore implements MetricStore {
         return dsFactory.getOrCreateFactTable(resolution);
       }
     };
+    int queryParallelism = cConf.getInt(Constants.Metrics.QUERY_PARALLELISM, 1);
+    ExecutorService queryExecutor = queryParallelism > 1 ? getQueryExecutor(queryParallelism) : null;
     this.cube = Suppliers.memoize(new Supplier<Cube>() {
       @Override
       public Cube get() {
-        DefaultCube cube = new DefaultCube(resolutions, factTableSupplier, AGGREGATIONS, AGGREGATIONS_ALIAS_DIMENSIONS);
+        DefaultCube cube = new DefaultCube(resolutions, factTableSupplier, AGGREGATIONS, AGGREGATIONS_ALIAS_DIMENSIONS,
+                                           queryExecutor, queryParallelism);
         cube.setMetricsCollector(metricsContext);
         return cube;
       }
@@ -264,6 +289,23 @@ public class DefaultMetricStore implements MetricStore {
     }
   }
 
+  /**
+   * Returns the {@link ExecutorService} shared by all queries for scanning parts of a query in parallel, with at
+   * least the given number of threads. Threads are released when there is no query running.
+   */
+  private static synchronized ExecutorService getQueryExecutor(int threads) {
+    if (queryExecutor == null) {
+      queryExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                                             new LinkedBlockingQueue<Runnable>(),
+                                             Threads.createDaemonThreadFactory("metrics-query-%d"));
+      queryExecutor.allowCoreThreadTimeOut(true);
+    } else if (queryExecutor.getMaximumPoolSize() < threads) {
+      queryExecutor.setMaximumPoolSize(threads);
+      queryExecutor.setCorePoolSize(threads);
+    }
+    return queryExecutor;
+  }
+
   @Override
   public void setMetricsContext(MetricsContext metricsContext) {
     this.metricsContext = metricsContext;
@@ -373,6 +415,10 @@ public class DefaultMetricStore implements MetricStore {
     Collection<DimensionValue> tags = cube.get().findDimensionValues(buildCubeSearchQuery(query));
     Collection<TagValue> result = Lists.newArrayList();
     for (DimensionValue dimensionValue : tags) {
+      // The buckets of histograms are not exposed as tags
+      if (Constants.Metrics.Tag.HISTOGRAM_BUCKET.equals(dimensionValue.getName())) {
+        continue;
+      }
       result.add(new TagValue(dimensionValue.getName(), dimensionValue.getValue()));
     }
     return result;
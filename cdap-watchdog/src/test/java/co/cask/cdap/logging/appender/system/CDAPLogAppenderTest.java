@@ -1,5 +1,5 @@
 /*
- * Copyright © 2017 Cask Data, Inc.
+ * Copyright © 2017-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -37,10 +37,12 @@ import co.cask.cdap.data2.dataset2.DatasetFramework;
 import co.cask.cdap.logging.LoggingConfiguration;
 import co.cask.cdap.logging.context.FlowletLoggingContext;
 import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.filter.LogLevelExpression;
 import co.cask.cdap.logging.framework.LocalAppenderContext;
 import co.cask.cdap.logging.guice.LoggingModules;
 import co.cask.cdap.logging.meta.FileMetaDataReader;
 import co.cask.cdap.logging.read.LogEvent;
+import co.cask.cdap.logging.write.LogFileIndex;
 import co.cask.cdap.logging.write.LogLocation;
 import co.cask.cdap.security.auth.context.AuthenticationContextModules;
 import co.cask.cdap.security.authorization.AuthorizationEnforcementModule;
@@ -68,6 +70,7 @@ import org.junit.rules.TemporaryFolder;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -321,6 +324,114 @@ public class CDAPLogAppenderTest {
     }
   }
 
+  @Test
+  public void testIndexedRead() throws Exception {
+    FileMetaDataReader fileMetaDataReader = injector.getInstance(FileMetaDataReader.class);
+    CDAPLogAppender cdapLogAppender = new CDAPLogAppender();
+    AppenderContext context = new LocalAppenderContext(injector.getInstance(DatasetFramework.class),
+                                                       injector.getInstance(TransactionSystemClient.class),
+                                                       injector.getInstance(LocationFactory.class),
+                                                       new NoOpMetricsCollectionService());
+    context.start();
+
+    cdapLogAppender.setSyncIntervalBytes(1024 * 1024);
+    cdapLogAppender.setMaxFileLifetimeMs(TimeUnit.DAYS.toMillis(1));
+    cdapLogAppender.setMaxFileSizeInBytes(104857600);
+    cdapLogAppender.setDirPermissions("750");
+    cdapLogAppender.setFilePermissions("640");
+    cdapLogAppender.setFileRetentionDurationDays(1);
+    cdapLogAppender.setLogCleanupIntervalMins(10);
+    cdapLogAppender.setFileCleanupTransactionTimeout(30);
+    cdapLogAppender.setContext(context);
+    cdapLogAppender.start();
+
+    Map<String, String> properties = new HashMap<>();
+    properties.put(NamespaceLoggingContext.TAG_NAMESPACE_ID, "testIndexedRead");
+    properties.put(ApplicationLoggingContext.TAG_APPLICATION_ID, "testApp");
+    properties.put(FlowletLoggingContext.TAG_FLOW_ID, "testFlow");
+    properties.put(FlowletLoggingContext.TAG_FLOWLET_ID, "testFlowlet");
+
+    // Flush every 10 events, which starts a new indexed segment. Only events 70 to 79 are errors.
+    long baseTime = System.currentTimeMillis();
+    for (int i = 0; i < 100; i++) {
+      Level level = i >= 70 && i < 80 ? Level.ERROR : Level.INFO;
+      LoggingEvent event = getLoggingEvent("co.cask.Test",
+                                           (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(
+                                             Logger.ROOT_LOGGER_NAME), level, "test message " + i, properties);
+      event.setTimeStamp(baseTime + i);
+      cdapLogAppender.doAppend(event);
+      if (i % 10 == 9) {
+        cdapLogAppender.flush();
+      }
+    }
+    cdapLogAppender.stop();
+    context.stop();
+
+    List<LogLocation> files = fileMetaDataReader.listFiles(cdapLogAppender.getLoggingPath(properties),
+                                                           0, Long.MAX_VALUE);
+    Assert.assertEquals(1, files.size());
+    LogLocation logLocation = files.get(0);
+    Location location = logLocation.getLocation();
+
+    LogFileIndex index = LogFileIndex.read(LogFileIndex.getIndexLocation(location), location.length());
+    Assert.assertNotNull(index);
+    Assert.assertEquals(10, index.size());
+    for (int i = 0; i < index.size(); i++) {
+      LogFileIndex.Entry entry = index.getEntry(i);
+      Assert.assertEquals(baseTime + i * 10, entry.getStartTimestamp());
+      Assert.assertEquals(baseTime + i * 10 + 9, entry.getMaxTimestamp());
+      Assert.assertEquals(i == 7, entry.mayHaveLevel(Level.ERROR));
+      Assert.assertTrue(entry.mayHaveLevel(Level.INFO));
+      Assert.assertTrue(entry.mayHaveMdc(NamespaceLoggingContext.TAG_NAMESPACE_ID, "testIndexedRead"));
+      Assert.assertFalse(entry.mayHaveMdc(NamespaceLoggingContext.TAG_NAMESPACE_ID, "unknown"));
+    }
+    Assert.assertEquals(location.length(), index.getEndPosition());
+
+    // Read a time range in the middle of the file
+    List<String> messages = new ArrayList<>();
+    try (CloseableIterator<LogEvent> iterator = logLocation.readLog(Filter.EMPTY_FILTER, baseTime + 35,
+                                                                    baseTime + 60, Integer.MAX_VALUE)) {
+      while (iterator.hasNext()) {
+        messages.add(iterator.next().getLoggingEvent().getMessage());
+      }
+    }
+    Assert.assertEquals(25, messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      Assert.assertEquals("test message " + (i + 35), messages.get(i));
+    }
+
+    // Read events before a given time, which spans multiple indexed blocks
+    messages.clear();
+    for (LogEvent logEvent : logLocation.readLogPrev(Filter.EMPTY_FILTER, baseTime + 49, 15)) {
+      messages.add(logEvent.getLoggingEvent().getMessage());
+    }
+    Assert.assertEquals(15, messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      Assert.assertEquals("test message " + (i + 35), messages.get(i));
+    }
+
+    // Read with a filter that only matches events in one segment
+    Filter errorFilter = new LogLevelExpression("ERROR");
+    messages.clear();
+    try (CloseableIterator<LogEvent> iterator = logLocation.readLog(errorFilter, baseTime, Long.MAX_VALUE,
+                                                                    Integer.MAX_VALUE)) {
+      while (iterator.hasNext()) {
+        messages.add(iterator.next().getLoggingEvent().getMessage());
+      }
+    }
+    Assert.assertEquals(10, messages.size());
+    Assert.assertEquals("test message 70", messages.get(0));
+    Assert.assertEquals("test message 79", messages.get(9));
+
+    messages.clear();
+    for (LogEvent logEvent : logLocation.readLogPrev(errorFilter, baseTime + 99, 5)) {
+      messages.add(logEvent.getLoggingEvent().getMessage());
+    }
+    Assert.assertEquals(5, messages.size());
+    Assert.assertEquals("test message 75", messages.get(0));
+    Assert.assertEquals("test message 79", messages.get(4));
+  }
+
   private void assertLogEventDetails(LoggingEvent expectedLoggingEvent, LogLocation logLocation) throws IOException {
     Assert.assertEquals(LogLocation.VERSION_1, logLocation.getFrameworkVersion());
     Assert.assertTrue(logLocation.getLocation().exists());
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.read;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.logging.write.LogLocation;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import org.apache.twill.common.Threads;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for {@link MergedLogEventIterator}.
+ */
+public class MergedLogEventIteratorTest {
+
+  private static ExecutorService executor;
+
+  @BeforeClass
+  public static void init() {
+    executor = Executors.newCachedThreadPool(Threads.createDaemonThreadFactory("merged-log-test-%d"));
+  }
+
+  @AfterClass
+  public static void finish() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testMerge() {
+    // Three files with overlapping time ranges and one empty file
+    Map<Long, List<Long>> fileEvents = new HashMap<>();
+    fileEvents.put(10L, ImmutableList.of(10L, 13L, 16L, 40L));
+    fileEvents.put(11L, ImmutableList.of(11L, 13L, 20L));
+    fileEvents.put(12L, ImmutableList.<Long>of());
+    fileEvents.put(30L, ImmutableList.of(30L, 31L));
+
+    for (int prefetch = 1; prefetch <= 4; prefetch++) {
+      Set<Long> closed = new HashSet<>();
+      List<Long> timestamps = new ArrayList<>();
+      try (CloseableIterator<LogEvent> iterator = new MergedLogEventIterator(createFiles(10L, 11L, 12L, 30L),
+                                                                             createReader(fileEvents, closed),
+                                                                             executor, prefetch)) {
+        while (iterator.hasNext()) {
+          timestamps.add(iterator.next().getLoggingEvent().getTimeStamp());
+        }
+      }
+      Assert.assertEquals(ImmutableList.of(10L, 11L, 13L, 13L, 16L, 20L, 30L, 31L, 40L), timestamps);
+      Assert.assertEquals(fileEvents.keySet(), closed);
+    }
+  }
+
+  @Test
+  public void testClose() throws InterruptedException {
+    Map<Long, List<Long>> fileEvents = new HashMap<>();
+    fileEvents.put(10L, ImmutableList.of(10L, 20L));
+    fileEvents.put(15L, ImmutableList.of(15L, 25L));
+    fileEvents.put(30L, ImmutableList.of(30L));
+    fileEvents.put(40L, ImmutableList.of(40L));
+
+    // Use a separate executor to wait for all openings to complete after closing the iterator
+    ExecutorService openExecutor = Executors.newCachedThreadPool(Threads.createDaemonThreadFactory("open-%d"));
+    Set<Long> opened = new HashSet<>();
+    Set<Long> closed = new HashSet<>();
+    try (CloseableIterator<LogEvent> iterator = new MergedLogEventIterator(createFiles(10L, 15L, 30L, 40L),
+                                                                           createReader(fileEvents, opened, closed),
+                                                                           openExecutor, 4)) {
+      Assert.assertEquals(10L, iterator.next().getLoggingEvent().getTimeStamp());
+      Assert.assertEquals(15L, iterator.next().getLoggingEvent().getTimeStamp());
+    }
+    openExecutor.shutdown();
+    Assert.assertTrue(openExecutor.awaitTermination(10, TimeUnit.SECONDS));
+
+    // All files that were opened are closed when the iterator is closed before reaching the end,
+    // including the prefetched files that are not merged yet
+    Assert.assertTrue(opened.containsAll(ImmutableList.of(10L, 15L)));
+    Assert.assertEquals(opened, closed);
+  }
+
+  private List<LogLocation> createFiles(long... eventTimes) {
+    List<LogLocation> files = new ArrayList<>();
+    for (long eventTime : eventTimes) {
+      files.add(new LogLocation(LogLocation.VERSION_1, eventTime, eventTime, null, "default", null));
+    }
+    return files;
+  }
+
+  private Function<LogLocation, CloseableIterator<LogEvent>> createReader(Map<Long, List<Long>> fileEvents,
+                                                                          Set<Long> closed) {
+    return createReader(fileEvents, new HashSet<Long>(), closed);
+  }
+
+  private Function<LogLocation, CloseableIterator<LogEvent>> createReader(final Map<Long, List<Long>> fileEvents,
+                                                                          final Set<Long> opened,
+                                                                          final Set<Long> closed) {
+    return new Function<LogLocation, CloseableIterator<LogEvent>>() {
+      @Override
+      public CloseableIterator<LogEvent> apply(final LogLocation file) {
+        synchronized (opened) {
+          opened.add(file.getEventTimeMs());
+        }
+        final Iterator<Long> timestamps = fileEvents.get(file.getEventTimeMs()).iterator();
+        return new CloseableIterator<LogEvent>() {
+          @Override
+          public boolean hasNext() {
+            return timestamps.hasNext();
+          }
+
+          @Override
+          public LogEvent next() {
+            LoggingEvent event = new LoggingEvent();
+            event.setTimeStamp(timestamps.next());
+            return new LogEvent(event, new LogOffset(LogOffset.INVALID_KAFKA_OFFSET, event.getTimeStamp()));
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public void close() {
+            synchronized (closed) {
+              closed.add(file.getEventTimeMs());
+            }
+          }
+        };
+      }
+    };
+  }
+}
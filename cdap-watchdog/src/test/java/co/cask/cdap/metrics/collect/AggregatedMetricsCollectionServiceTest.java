@@ -1,5 +1,5 @@
 /*
- * Copyright © 2014-2017 Cask Data, Inc.
+ * Copyright © 2014-2018 Cask Data, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
@@ -15,6 +15,8 @@
  */
 package co.cask.cdap.metrics.collect;
 
+import co.cask.cdap.api.metrics.MetricHistograms;
+import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsContext;
@@ -25,10 +27,14 @@ import com.google.common.collect.Iterators;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
@@ -36,12 +42,14 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Testing the basic properties of the {@link AggregatedMetricsCollectionService}.
  */
 public class AggregatedMetricsCollectionServiceTest {
 
+  private static final Logger LOG = LoggerFactory.getLogger(AggregatedMetricsCollectionServiceTest.class);
   private static final HashMap<String, String> EMPTY_TAGS = new HashMap<>();
   private static final String NAMESPACE = "testnamespace";
   private static final String APP = "testapp";
@@ -195,6 +203,140 @@ public class AggregatedMetricsCollectionServiceTest {
     service.stop().get(5, TimeUnit.SECONDS);
   }
 
+  @Test
+  public void testHistogram() throws InterruptedException {
+    final BlockingQueue<List<MetricValues>> published = new LinkedBlockingQueue<>();
+    AggregatedMetricsCollectionService service = new AggregatedMetricsCollectionService() {
+      @Override
+      protected void publish(Iterator<MetricValues> metrics) {
+        List<MetricValues> values = new ArrayList<>();
+        Iterators.addAll(values, metrics);
+        if (!values.isEmpty()) {
+          published.add(values);
+        }
+      }
+
+      @Override
+      protected long getInitialDelayMillis() {
+        return 1000L;
+      }
+
+      @Override
+      protected long getPeriodMillis() {
+        return 1000L;
+      }
+    };
+
+    service.startAndWait();
+    try {
+      MetricsContext context = service.getContext(EMPTY_TAGS);
+      for (int i = 1; i <= 1000; i++) {
+        context.histogram(METRIC, i);
+      }
+
+      List<MetricValues> records = published.poll(10, TimeUnit.SECONDS);
+      Assert.assertNotNull(records);
+
+      // Each non-empty bucket is emitted as a count of the histogram counter, tagged with the bucket
+      long[] counts = new long[MetricHistograms.BUCKET_COUNT];
+      long total = 0;
+      for (MetricValues record : records) {
+        String bucketTagValue = record.getTags().get(Constants.Metrics.Tag.HISTOGRAM_BUCKET);
+        for (MetricValue metricValue : record.getMetrics()) {
+          if (!MetricHistograms.getMeasureName(METRIC).equals(metricValue.getName())) {
+            continue;
+          }
+          Assert.assertNotNull(bucketTagValue);
+          Assert.assertEquals(MetricType.COUNTER, metricValue.getType());
+          int bucket = MetricHistograms.getBucketIndex(bucketTagValue);
+          counts[bucket] += metricValue.getValue();
+          total += metricValue.getValue();
+        }
+      }
+      Assert.assertEquals(1 + MetricHistograms.getBucketIndex(1000L) - MetricHistograms.getBucketIndex(1L),
+                          records.size() - 1);
+      Assert.assertEquals(1000L, total);
+      Assert.assertEquals(1L, counts[MetricHistograms.getBucketIndex(1L)]);
+
+      // Percentiles are within the precision of the buckets
+      assertPercentile(500L, MetricHistograms.getPercentile(counts, 50));
+      assertPercentile(990L, MetricHistograms.getPercentile(counts, 99));
+      assertPercentile(1000L, MetricHistograms.getPercentile(counts, 100));
+      Assert.assertEquals(1L, MetricHistograms.getPercentile(counts, 0));
+
+      // Buckets are reset after emit
+      Assert.assertNull(published.poll(3, TimeUnit.SECONDS));
+    } finally {
+      service.stopAndWait();
+    }
+  }
+
+  private void assertPercentile(long expected, long actual) {
+    Assert.assertTrue("Expected " + expected + " but was " + actual,
+                      actual >= expected && actual <= expected + expected / 8);
+  }
+
+  @Test
+  public void testConcurrentIncrement() throws Exception {
+    final AtomicLong total = new AtomicLong();
+    AggregatedMetricsCollectionService service = new AggregatedMetricsCollectionService() {
+      @Override
+      protected void publish(Iterator<MetricValues> metrics) {
+        while (metrics.hasNext()) {
+          total.addAndGet(getMetricValue(metrics.next().getMetrics(), METRIC));
+        }
+      }
+
+      @Override
+      protected long getInitialDelayMillis() {
+        return 100L;
+      }
+
+      @Override
+      protected long getPeriodMillis() {
+        return 100L;
+      }
+    };
+
+    service.startAndWait();
+    final MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+    final int threads = 4;
+    final int increments = 1000000;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    List<Thread> incrementThreads = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < increments; j++) {
+            context.increment(METRIC, 1);
+          }
+        }
+      };
+      thread.start();
+      incrementThreads.add(thread);
+    }
+
+    long startTime = System.nanoTime();
+    startLatch.countDown();
+    for (Thread thread : incrementThreads) {
+      thread.join();
+    }
+    long elapsed = System.nanoTime() - startTime;
+    LOG.info("{} increments from {} threads in {} ms, {} ns per increment",
+             threads * increments, threads, TimeUnit.NANOSECONDS.toMillis(elapsed),
+             elapsed / (threads * increments));
+
+    // Stopping the service publishes all the remaining metrics
+    service.stopAndWait();
+    Assert.assertEquals((long) threads * increments, total.get());
+  }
+
   private void verifyCounterMetricsValue(MetricValues metricValues) {
     Assert.assertNotNull(metricValues);
     Map<String, String> tags = metricValues.getTags();
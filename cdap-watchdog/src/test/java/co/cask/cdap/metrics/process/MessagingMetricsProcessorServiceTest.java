@@ -28,6 +28,7 @@ import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.api.metrics.MetricsProcessorStatus;
 import co.cask.cdap.api.metrics.NoopMetricsContext;
 import co.cask.cdap.api.metrics.TagValue;
+import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.utils.Tasks;
 import co.cask.cdap.data2.datafabric.dataset.service.DatasetService;
@@ -56,6 +57,17 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
 
   @Test
   public void persistMetricsTests() throws Exception {
+    persistMetrics(cConf);
+  }
+
+  @Test
+  public void persistMetricsShardedTests() throws Exception {
+    CConfiguration shardedConf = CConfiguration.copy(cConf);
+    shardedConf.setInt(Constants.Metrics.PROCESSOR_PERSIST_SHARDS, 4);
+    persistMetrics(shardedConf);
+  }
+
+  private void persistMetrics(CConfiguration cConf) throws Exception {
 
     injector.getInstance(TransactionManager.class).startAndWait();
     injector.getInstance(DatasetOpExecutor.class).startAndWait();
@@ -147,7 +159,7 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
     }
 
     @Override
-    public void add(Collection<? extends MetricValues> metricValues) {
+    public synchronized void add(Collection<? extends MetricValues> metricValues) {
       for (MetricValues metric : metricValues) {
         for (MetricValue metricValue : metric.getMetrics()) {
           // metrics generated by MessagingMetricsProcessorService
@@ -176,11 +188,11 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
       }
     }
 
-    public long getMetricsProcessedByMetricsProcessor() {
+    public synchronized long getMetricsProcessedByMetricsProcessor() {
       return systemMetricsMap.get("metrics.0.process.count");
     }
 
-    public boolean isMetricsProcessorDelayEmitted() {
+    public synchronized boolean isMetricsProcessorDelayEmitted() {
       for (int i = 0; i < cConf.getInt(Constants.Metrics.MESSAGING_TOPIC_NUM); i++) {
         if (!systemMetricsMap.containsKey(
           String.format(
@@ -215,7 +227,7 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
     }
 
     @Override
-    public void deleteAll() {
+    public synchronized void deleteAll() {
       userMetricsMap.clear();
       systemMetricsMap.clear();
     }
@@ -235,8 +247,8 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
       return Collections.EMPTY_MAP;
     }
 
-    Map<String, Long> getAllMetrics() {
-      return userMetricsMap;
+    synchronized Map<String, Long> getAllMetrics() {
+      return new HashMap<>(userMetricsMap);
     }
   }
 }
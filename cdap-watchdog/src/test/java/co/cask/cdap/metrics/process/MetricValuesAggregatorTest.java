@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.process;
+
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit test for {@link MetricValuesAggregator}.
+ */
+public class MetricValuesAggregatorTest {
+
+  @Test
+  public void testAggregate() {
+    Map<String, String> tags1 = ImmutableMap.of("ns", "ns1", "app", "app1");
+    Map<String, String> tags2 = ImmutableMap.of("ns", "ns1", "app", "app2");
+
+    MetricValuesAggregator aggregator = new MetricValuesAggregator();
+    Assert.assertTrue(aggregator.isEmpty());
+
+    // Counters of the same timestamp and tags are summed up, gauges keep the latest value
+    aggregator.add(new MetricValues(tags1, "count", 1L, 1L, MetricType.COUNTER));
+    aggregator.add(new MetricValues(new HashMap<>(tags1), "count", 1L, 2L, MetricType.COUNTER));
+    aggregator.add(new MetricValues(tags1, "gauge", 1L, 5L, MetricType.GAUGE));
+    aggregator.add(new MetricValues(tags1, "gauge", 1L, 3L, MetricType.GAUGE));
+
+    // Different timestamp or tags are kept separately
+    aggregator.add(new MetricValues(tags1, "count", 2L, 10L, MetricType.COUNTER));
+    aggregator.add(new MetricValues(tags2, "count", 1L, 20L, MetricType.COUNTER));
+
+    Assert.assertEquals(4, aggregator.size());
+
+    Deque<MetricValues> result = aggregator.drain();
+    Assert.assertTrue(aggregator.isEmpty());
+    Assert.assertEquals(0, aggregator.size());
+    Assert.assertEquals(3, result.size());
+
+    MetricValues values = result.poll();
+    Assert.assertEquals(tags1, values.getTags());
+    Assert.assertEquals(1L, values.getTimestamp());
+    Map<String, MetricValue> metrics = toMap(values);
+    Assert.assertEquals(2, metrics.size());
+    Assert.assertEquals(3L, metrics.get("count").getValue());
+    Assert.assertEquals(MetricType.COUNTER, metrics.get("count").getType());
+    Assert.assertEquals(3L, metrics.get("gauge").getValue());
+    Assert.assertEquals(MetricType.GAUGE, metrics.get("gauge").getType());
+
+    values = result.poll();
+    Assert.assertEquals(tags1, values.getTags());
+    Assert.assertEquals(2L, values.getTimestamp());
+    Assert.assertEquals(10L, toMap(values).get("count").getValue());
+
+    values = result.poll();
+    Assert.assertEquals(tags2, values.getTags());
+    Assert.assertEquals(1L, values.getTimestamp());
+    Assert.assertEquals(20L, toMap(values).get("count").getValue());
+  }
+
+  private Map<String, MetricValue> toMap(MetricValues values) {
+    Map<String, MetricValue> result = new HashMap<>();
+    for (MetricValue value : values.getMetrics()) {
+      result.put(value.getName(), value);
+    }
+    return result;
+  }
+}